@@ -0,0 +1,235 @@
+package com.chopsticks.common.concurrent.impl;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * long 作为key的并发map，按key分段加锁，段内使用开放寻址(线性探测)
+ * 不装箱、没有 entry 对象，删除时回移后续元素，不留墓碑
+ * value 不允许为 null
+ */
+public class ConcurrentLongHashMap<V> {
+	
+	private static final int DEFAULT_EXPECTED_ITEMS = 256;
+	
+	private static final float FILL_FACTOR = 0.66F;
+	
+	private final Section<V>[] sections;
+	
+	private final int sectionMask;
+	
+	private final int sectionShift;
+	
+	public ConcurrentLongHashMap() {
+		this(DEFAULT_EXPECTED_ITEMS, Runtime.getRuntime().availableProcessors() * 4);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public ConcurrentLongHashMap(int expectedItems, int concurrencyLevel) {
+		int sectionCount = Integer.highestOneBit(Math.max(concurrencyLevel, 2) - 1) << 1;
+		sections = new Section[sectionCount];
+		sectionMask = sectionCount - 1;
+		sectionShift = 64 - Integer.numberOfTrailingZeros(sectionCount);
+		int perSection = Math.max(expectedItems / sectionCount, 8);
+		for(int i = 0; i < sectionCount; i++) {
+			sections[i] = new Section<V>(perSection);
+		}
+	}
+	
+	public V get(long key) {
+		long h = hash(key);
+		return section(h).get(key, (int)h);
+	}
+	
+	public V put(long key, V value) {
+		checkValue(value);
+		long h = hash(key);
+		return section(h).put(key, value, (int)h, false);
+	}
+	
+	public V putIfAbsent(long key, V value) {
+		checkValue(value);
+		long h = hash(key);
+		return section(h).put(key, value, (int)h, true);
+	}
+	
+	public V remove(long key) {
+		long h = hash(key);
+		return section(h).remove(key, null, (int)h);
+	}
+	
+	/**
+	 * 当前值与 value 是同一对象时才删除
+	 */
+	public boolean remove(long key, V value) {
+		checkValue(value);
+		long h = hash(key);
+		return section(h).remove(key, value, (int)h) != null;
+	}
+	
+	public int size() {
+		int size = 0;
+		for(Section<V> section : sections) {
+			size += section.size;
+		}
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	/**
+	 * @return 各分段依次加锁得到的快照
+	 */
+	public List<V> values() {
+		List<V> values = Lists.newArrayList();
+		for(Section<V> section : sections) {
+			section.values(values);
+		}
+		return values;
+	}
+	
+	private Section<V> section(long h) {
+		return sections[(int)(h >>> sectionShift) & sectionMask];
+	}
+	
+	private static void checkValue(Object value) {
+		if(value == null) {
+			throw new NullPointerException("value cannot be null");
+		}
+	}
+	
+	/**
+	 * murmur3 fmix64，高位选分段，低位选槽
+	 */
+	private static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+	
+	private static final class Section<V> {
+		
+		private long[] keys;
+		
+		private Object[] values;
+		
+		private volatile int size;
+		
+		private int resizeThreshold;
+		
+		Section(int capacity) {
+			capacity = Integer.highestOneBit(Math.max((int)(capacity / FILL_FACTOR), 2) - 1) << 1;
+			keys = new long[capacity];
+			values = new Object[capacity];
+			resizeThreshold = (int)(capacity * FILL_FACTOR);
+		}
+		
+		@SuppressWarnings("unchecked")
+		synchronized V get(long key, int h) {
+			int mask = keys.length - 1;
+			for(int i = h & mask; values[i] != null; i = (i + 1) & mask) {
+				if(keys[i] == key) {
+					return (V)values[i];
+				}
+			}
+			return null;
+		}
+		
+		@SuppressWarnings("unchecked")
+		synchronized V put(long key, V value, int h, boolean onlyIfAbsent) {
+			int mask = keys.length - 1;
+			int i = h & mask;
+			for(; values[i] != null; i = (i + 1) & mask) {
+				if(keys[i] == key) {
+					V old = (V)values[i];
+					if(!onlyIfAbsent) {
+						values[i] = value;
+					}
+					return old;
+				}
+			}
+			keys[i] = key;
+			values[i] = value;
+			size++;
+			if(size > resizeThreshold) {
+				rehash(keys.length << 1);
+			}
+			return null;
+		}
+		
+		@SuppressWarnings("unchecked")
+		synchronized V remove(long key, V expect, int h) {
+			int mask = keys.length - 1;
+			for(int i = h & mask; values[i] != null; i = (i + 1) & mask) {
+				if(keys[i] == key) {
+					V old = (V)values[i];
+					if(expect != null && expect != old) {
+						return null;
+					}
+					shiftBack(i, mask);
+					size--;
+					return old;
+				}
+			}
+			return null;
+		}
+		
+		synchronized void values(List<V> out) {
+			for(Object value : values) {
+				if(value != null) {
+					@SuppressWarnings("unchecked")
+					V v = (V)value;
+					out.add(v);
+				}
+			}
+		}
+		
+		/**
+		 * 删除 index 后，把探测链上后续元素前移，保持线性探测不断链
+		 */
+		private void shiftBack(int index, int mask) {
+			int hole = index;
+			int i = index;
+			while(true) {
+				i = (i + 1) & mask;
+				if(values[i] == null) {
+					break;
+				}
+				int ideal = (int)hash(keys[i]) & mask;
+				// ideal 不在 (hole, i] 之间时可以前移到 hole
+				if(hole <= i ? (ideal <= hole || ideal > i) : (ideal <= hole && ideal > i)) {
+					keys[hole] = keys[i];
+					values[hole] = values[i];
+					hole = i;
+				}
+			}
+			keys[hole] = 0L;
+			values[hole] = null;
+		}
+		
+		private void rehash(int capacity) {
+			long[] oldKeys = keys;
+			Object[] oldValues = values;
+			keys = new long[capacity];
+			values = new Object[capacity];
+			int mask = capacity - 1;
+			for(int j = 0; j < oldValues.length; j++) {
+				if(oldValues[j] != null) {
+					int i = (int)hash(oldKeys[j]) & mask;
+					while(values[i] != null) {
+						i = (i + 1) & mask;
+					}
+					keys[i] = oldKeys[j];
+					values[i] = oldValues[j];
+				}
+			}
+			resizeThreshold = (int)(capacity * FILL_FACTOR);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package com.chopsticks.common.concurrent.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 等待响应的 promise 表，同时负责超时
+ * 超时由单个线程驱动的时间轮处理，每次 put 不产生定时任务和监听器，超时时 promise 以 {@link TimeoutException} 结束
+ * key 为 long，存放在 {@link ConcurrentLongHashMap} 中，不装箱
+ */
+public class HashedWheelPendingTable<V> {
+
+	private static final long DEFAULT_TICK_MILLIS = 10L;
+
+	private static final int DEFAULT_TICKS_PER_WHEEL = 1024;
+
+	private final ConcurrentLongHashMap<Pending<V>> pendings = new ConcurrentLongHashMap<Pending<V>>();
+
+	private final Queue<Pending<V>> addQueue = new ConcurrentLinkedQueue<Pending<V>>();
+
+	private final Queue<Pending<V>> removeQueue = new ConcurrentLinkedQueue<Pending<V>>();
+
+	private final Bucket<V>[] wheel;
+
+	private final int mask;
+
+	private final long tickNanos;
+
+	private final long startTime;
+
+	private final Thread worker;
+
+	private volatile boolean running = true;
+
+	private volatile ExpireListener<V> expireListener;
+
+	public HashedWheelPendingTable(String name) {
+		this(name, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	@SuppressWarnings("unchecked")
+	public HashedWheelPendingTable(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		int size = Integer.highestOneBit(Math.max(ticksPerWheel, 2) - 1) << 1;
+		wheel = new Bucket[size];
+		for(int i = 0; i < size; i++) {
+			wheel[i] = new Bucket<V>();
+		}
+		mask = size - 1;
+		tickNanos = unit.toNanos(tickDuration);
+		startTime = System.nanoTime();
+		worker = new ThreadFactoryBuilder().setNameFormat(name + "-pendingTableTimer-%d")
+										   .setDaemon(true)
+										   .build()
+										   .newThread(new Runnable() {
+											   @Override
+											   public void run() {
+												   work();
+											   }
+										   });
+		worker.start();
+	}
+
+	public void setExpireListener(ExpireListener<V> expireListener) {
+		this.expireListener = expireListener;
+	}
+
+	public void put(long key, DefaultPromise<V> promise, long timeout, TimeUnit timeoutUnit) {
+		Pending<V> pending = new Pending<V>(key, promise, System.nanoTime() + timeoutUnit.toNanos(timeout));
+		Pending<V> old = pendings.put(key, pending);
+		if(old != null) {
+			removeQueue.add(old);
+		}
+		addQueue.add(pending);
+		// 时间轮线程已退出时不会再处理，直接结束
+		if(!running && pendings.remove(key, pending)) {
+			promise.setException(new TimeoutException("pending table shutdown"));
+		}
+	}
+
+	public DefaultPromise<V> remove(long key) {
+		Pending<V> pending = pendings.remove(key);
+		if(pending == null) {
+			return null;
+		}
+		removeQueue.add(pending);
+		return pending.promise;
+	}
+
+	public int size() {
+		return pendings.size();
+	}
+
+	public void shutdown() {
+		running = false;
+		worker.interrupt();
+	}
+
+	private void work() {
+		long tick = 0L;
+		while(running) {
+			long deadline = startTime + (tick + 1) * tickNanos;
+			long sleepNanos = deadline - System.nanoTime();
+			if(sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				}catch (InterruptedException e) {
+					if(!running) {
+						break;
+					}
+				}
+				continue;
+			}
+			processRemoved();
+			transferAdded(tick);
+			wheel[(int)(tick & mask)].expire(this);
+			tick++;
+		}
+		for(Pending<V> pending : pendings.values()) {
+			if(pendings.remove(pending.key, pending)) {
+				pending.promise.setException(new TimeoutException("pending table shutdown"));
+			}
+		}
+	}
+
+	private void processRemoved() {
+		Pending<V> pending;
+		while((pending = removeQueue.poll()) != null) {
+			if(pending.bucket != null) {
+				pending.bucket.remove(pending);
+			}else {
+				// 还未放入时间轮
+				pending.removed = true;
+			}
+		}
+	}
+
+	private void transferAdded(long tick) {
+		// 每个 tick 限制转移数量，避免长时间阻塞超时处理
+		for(int i = 0; i < 100000; i++) {
+			Pending<V> pending = addQueue.poll();
+			if(pending == null) {
+				break;
+			}
+			if(pending.removed) {
+				continue;
+			}
+			long calculated = (pending.deadline - startTime) / tickNanos;
+			pending.remainingRounds = (calculated - tick) / wheel.length;
+			long ticks = Math.max(calculated, tick);
+			wheel[(int)(ticks & mask)].add(pending);
+		}
+	}
+
+	private void expire(Pending<V> pending) {
+		if(pendings.remove(pending.key, pending)) {
+			TimeoutException e = new TimeoutException("pending timeout, key : " + pending.key);
+			if(pending.promise.setException(e)) {
+				ExpireListener<V> listener = expireListener;
+				if(listener != null) {
+					try {
+						listener.onExpire(pending.key, pending.promise);
+					}catch (Throwable ignore) {
+					}
+				}
+			}
+		}
+	}
+
+	public interface ExpireListener<V> {
+		void onExpire(long key, DefaultPromise<V> promise);
+	}
+
+	private static class Pending<V> {
+		final long key;
+		final DefaultPromise<V> promise;
+		final long deadline;
+		long remainingRounds;
+		boolean removed;
+		Bucket<V> bucket;
+		Pending<V> prev;
+		Pending<V> next;
+
+		Pending(long key, DefaultPromise<V> promise, long deadline) {
+			this.key = key;
+			this.promise = promise;
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * 只在时间轮线程内访问
+	 */
+	private static class Bucket<V> {
+		Pending<V> head;
+		Pending<V> tail;
+
+		void add(Pending<V> pending) {
+			pending.bucket = this;
+			if(head == null) {
+				head = tail = pending;
+			}else {
+				tail.next = pending;
+				pending.prev = tail;
+				tail = pending;
+			}
+		}
+
+		void remove(Pending<V> pending) {
+			if(pending.prev != null) {
+				pending.prev.next = pending.next;
+			}else {
+				head = pending.next;
+			}
+			if(pending.next != null) {
+				pending.next.prev = pending.prev;
+			}else {
+				tail = pending.prev;
+			}
+			pending.prev = null;
+			pending.next = null;
+			pending.bucket = null;
+		}
+
+		void expire(HashedWheelPendingTable<V> table) {
+			Pending<V> pending = head;
+			while(pending != null) {
+				Pending<V> next = pending.next;
+				if(pending.remainingRounds <= 0) {
+					remove(pending);
+					table.expire(pending);
+				}else {
+					pending.remainingRounds--;
+				}
+				pending = next;
+			}
+		}
+	}
+}
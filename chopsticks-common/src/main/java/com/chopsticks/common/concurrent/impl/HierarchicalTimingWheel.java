@@ -0,0 +1,297 @@
+package com.chopsticks.common.concurrent.impl;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 分层时间轮，单个线程驱动
+ * 第 n 层每格跨度为 tick * wheelSize^n，高层的任务在所在格到期时逐层下移，最底层到期时执行
+ * 任务在时间轮线程内执行，只应做分派等轻量操作
+ * 超出最高层范围的任务停留在最高层，每轮下移时重新判断
+ */
+public class HierarchicalTimingWheel {
+
+	private static final Logger log = LoggerFactory.getLogger(HierarchicalTimingWheel.class);
+
+	private static final long DEFAULT_TICK_MILLIS = 10L;
+
+	private static final int DEFAULT_WHEEL_SIZE = 64;
+
+	private static final int DEFAULT_LEVELS = 5;
+
+	private final Queue<Timeout> addQueue = new ConcurrentLinkedQueue<Timeout>();
+
+	private final Bucket[][] wheels;
+
+	/**
+	 * 每层一格的跨度，单位 tick
+	 */
+	private final long[] spans;
+
+	private final int mask;
+
+	private final long tickNanos;
+
+	private final long startTime;
+
+	private final Thread worker;
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	private volatile boolean running = true;
+
+	private final List<Runnable> unprocessed = Lists.newArrayList();
+
+	public HierarchicalTimingWheel(String name) {
+		this(name, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, DEFAULT_LEVELS);
+	}
+
+	/**
+	 * @param wheelSize 向上取 2 的幂
+	 */
+	public HierarchicalTimingWheel(String name, long tickDuration, TimeUnit unit, int wheelSize, int levels) {
+		int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+		wheels = new Bucket[Math.max(levels, 1)][size];
+		spans = new long[wheels.length];
+		for(int level = 0; level < wheels.length; level++) {
+			for(int i = 0; i < size; i++) {
+				wheels[level][i] = new Bucket();
+			}
+			spans[level] = level == 0 ? 1L : spans[level - 1] * size;
+		}
+		mask = size - 1;
+		tickNanos = unit.toNanos(tickDuration);
+		startTime = System.nanoTime();
+		worker = new ThreadFactoryBuilder().setNameFormat(name + "-timingWheel-%d")
+										   .setDaemon(true)
+										   .build()
+										   .newThread(new Runnable() {
+											   @Override
+											   public void run() {
+												   work();
+											   }
+										   });
+		worker.start();
+	}
+
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if(!running) {
+			throw new IllegalStateException("timing wheel shutdown");
+		}
+		Timeout timeout = new Timeout(this, task, System.nanoTime() + unit.toNanos(delay));
+		size.incrementAndGet();
+		addQueue.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * @return 未执行也未取消的任务数
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * 停止时间轮，等待线程退出
+	 * @return 未执行也未取消的任务
+	 */
+	public List<Runnable> shutdown() {
+		running = false;
+		worker.interrupt();
+		boolean interrupted = false;
+		while(worker.isAlive()) {
+			try {
+				worker.join();
+			}catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return unprocessed;
+	}
+
+	private void work() {
+		long tick = 0L;
+		while(running) {
+			long deadline = startTime + (tick + 1) * tickNanos;
+			long sleepNanos = deadline - System.nanoTime();
+			if(sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				}catch (InterruptedException e) {
+					if(!running) {
+						break;
+					}
+				}
+				continue;
+			}
+			tick++;
+			cascade(tick);
+			transferAdded(tick);
+			expire(wheels[0][(int)(tick & mask)], tick);
+		}
+		Timeout timeout;
+		while((timeout = addQueue.poll()) != null) {
+			collect(timeout);
+		}
+		for(Bucket[] wheel : wheels) {
+			for(Bucket bucket : wheel) {
+				for(timeout = bucket.clear(); timeout != null; timeout = timeout.next) {
+					collect(timeout);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 低层转完一圈时，高层当前格的任务下移，从高到低处理
+	 */
+	private void cascade(long tick) {
+		for(int level = wheels.length - 1; level > 0; level--) {
+			if(tick % spans[level] != 0) {
+				continue;
+			}
+			Timeout timeout = wheels[level][(int)((tick / spans[level]) & mask)].clear();
+			while(timeout != null) {
+				Timeout next = timeout.next;
+				timeout.next = null;
+				add(timeout, tick);
+				timeout = next;
+			}
+		}
+	}
+
+	private void transferAdded(long tick) {
+		// 每个 tick 限制转移数量，避免长时间阻塞到期处理
+		for(int i = 0; i < 100000; i++) {
+			Timeout timeout = addQueue.poll();
+			if(timeout == null) {
+				break;
+			}
+			// 向上取整，不早于 deadline 执行
+			timeout.deadlineTick = (timeout.deadline - startTime + tickNanos - 1) / tickNanos;
+			add(timeout, tick);
+		}
+	}
+
+	private void add(Timeout timeout, long tick) {
+		if(timeout.cancelled) {
+			return;
+		}
+		long ticks = timeout.deadlineTick - tick;
+		if(ticks <= 0) {
+			run(timeout);
+			return;
+		}
+		int level = 0;
+		while(level < wheels.length - 1 && ticks >= spans[level + 1]) {
+			level++;
+		}
+		wheels[level][(int)((timeout.deadlineTick / spans[level]) & mask)].add(timeout);
+	}
+
+	private void expire(Bucket bucket, long tick) {
+		Timeout timeout = bucket.clear();
+		while(timeout != null) {
+			Timeout next = timeout.next;
+			timeout.next = null;
+			if(timeout.deadlineTick <= tick) {
+				run(timeout);
+			}else {
+				// 只有一层时未到期的任务回到原格
+				add(timeout, tick);
+			}
+			timeout = next;
+		}
+	}
+
+	private void run(Timeout timeout) {
+		if(timeout.expire()) {
+			try {
+				timeout.task.run();
+			}catch (Throwable e) {
+				log.error(String.format("timing wheel task execute error, task : %s", timeout.task), e);
+			}
+		}
+	}
+
+	private void collect(Timeout timeout) {
+		if(timeout.expire()) {
+			unprocessed.add(timeout.task);
+		}
+	}
+
+	public static class Timeout {
+		private final HierarchicalTimingWheel timingWheel;
+		private final Runnable task;
+		private final long deadline;
+		private long deadlineTick;
+		private Timeout next;
+		private volatile boolean cancelled;
+		private volatile boolean expired;
+
+		Timeout(HierarchicalTimingWheel timingWheel, Runnable task, long deadline) {
+			this.timingWheel = timingWheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return 已执行时返回 false
+		 */
+		public synchronized boolean cancel() {
+			if(cancelled || expired) {
+				return false;
+			}
+			cancelled = true;
+			timingWheel.size.decrementAndGet();
+			return true;
+		}
+
+		synchronized boolean expire() {
+			if(cancelled || expired) {
+				return false;
+			}
+			expired = true;
+			timingWheel.size.decrementAndGet();
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public boolean isExpired() {
+			return expired;
+		}
+	}
+
+	/**
+	 * 只在时间轮线程内访问
+	 */
+	private static class Bucket {
+		Timeout head;
+
+		void add(Timeout timeout) {
+			timeout.next = head;
+			head = timeout;
+		}
+
+		Timeout clear() {
+			Timeout timeout = head;
+			head = null;
+			return timeout;
+		}
+	}
+}
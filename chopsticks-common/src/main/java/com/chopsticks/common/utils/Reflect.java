@@ -322,8 +322,20 @@ public class Reflect {
 	}
 	
 	public static Method getMethod(Object obj, String methodName, Object... args) {
-		Class<?>[] types = types(args);
-		Class<?> type = obj.getClass();
+		return getMethod(obj.getClass(), methodName, types(args));
+	}
+	
+	/**
+	 * 与按参数查找相同的匹配规则，参数为 null 的位置传 null
+	 */
+	public static Method getMethod(Class<?> clazz, String methodName, Class<?>[] types) {
+		types = types.clone();
+		for(int i = 0; i < types.length; i++) {
+			if(types[i] == null) {
+				types[i] = Null.class;
+			}
+		}
+		Class<?> type = clazz;
 		try {
 			try {
 				return type.getMethod(methodName, types);
@@ -339,7 +351,7 @@ public class Reflect {
 				throw new NoSuchMethodException();
 			}
 		} catch (NoSuchMethodException e) {
-			type = obj.getClass();
+			type = clazz;
 			try {
 				for (Method method : type.getMethods()) {
 					if (isSimilarSignature(method, methodName, types)) {
@@ -0,0 +1,82 @@
+package com.chopsticks.common.utils;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内唯一id，格式为 16位16进制节点前缀 + 16位16进制递增序号
+ * 节点前缀只在构造时随机一次，生成id只有一次原子自增，不会争用 SecureRandom
+ */
+public class SequenceIdGenerator {
+	
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private static final int ID_LENGTH = 32;
+	
+	private final long node;
+	
+	private final char[] nodeChars = new char[16];
+	
+	private final AtomicLong sequence = new AtomicLong();
+	
+	public SequenceIdGenerator() {
+		this(new SecureRandom().nextLong());
+	}
+	
+	public SequenceIdGenerator(long node) {
+		this.node = node;
+		fill(nodeChars, 0, node);
+	}
+	
+	public long getNode() {
+		return node;
+	}
+	
+	/**
+	 * @return 从 1 开始递增
+	 */
+	public long nextSequence() {
+		return sequence.incrementAndGet();
+	}
+	
+	public String next() {
+		return toId(nextSequence());
+	}
+	
+	public String toId(long sequence) {
+		char[] chars = new char[ID_LENGTH];
+		System.arraycopy(nodeChars, 0, chars, 0, nodeChars.length);
+		fill(chars, nodeChars.length, sequence);
+		return new String(chars);
+	}
+	
+	/**
+	 * @return 不是当前节点生成的id返回 -1
+	 */
+	public long parseSequence(String id) {
+		if(id == null || id.length() != ID_LENGTH) {
+			return -1L;
+		}
+		for(int i = 0; i < nodeChars.length; i++) {
+			if(id.charAt(i) != nodeChars[i]) {
+				return -1L;
+			}
+		}
+		long value = 0L;
+		for(int i = nodeChars.length; i < ID_LENGTH; i++) {
+			int digit = Character.digit(id.charAt(i), 16);
+			if(digit < 0) {
+				return -1L;
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+	
+	private static void fill(char[] chars, int offset, long value) {
+		for(int i = 15; i >= 0; i--) {
+			chars[offset + i] = HEX[(int)(value & 0xF)];
+			value >>>= 4;
+		}
+	}
+}
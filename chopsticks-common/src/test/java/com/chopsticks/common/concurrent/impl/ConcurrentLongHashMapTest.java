@@ -0,0 +1,188 @@
+package com.chopsticks.common.concurrent.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class ConcurrentLongHashMapTest {
+	
+	/**
+	 * 2 个分段，每段 16 个槽，与 {@link ConcurrentLongHashMap} 的容量计算一致
+	 */
+	private static final int SLOTS = 16;
+	
+	@Test
+	public void testBasic() {
+		ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>();
+		assertTrue(map.isEmpty());
+		assertNull(map.put(1L, "a"));
+		assertEquals("a", map.put(1L, "b"));
+		assertEquals("b", map.putIfAbsent(1L, "c"));
+		assertEquals("b", map.get(1L));
+		assertNull(map.putIfAbsent(-1L, "d"));
+		assertNull(map.put(0L, "zero"));
+		assertNull(map.put(Long.MIN_VALUE, "min"));
+		assertEquals(4, map.size());
+		assertEquals(Sets.newHashSet("b", "d", "zero", "min"), Sets.newHashSet(map.values()));
+		assertEquals("zero", map.remove(0L));
+		assertNull(map.remove(0L));
+		assertNull(map.get(0L));
+		assertEquals("min", map.get(Long.MIN_VALUE));
+		assertEquals(3, map.size());
+	}
+	
+	@Test
+	public void testRemoveIdentity() {
+		ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>();
+		String value = new String("value");
+		map.put(1L, value);
+		// equals 但不是同一对象
+		assertFalse(map.remove(1L, new String("value")));
+		assertTrue(map.remove(1L, value));
+		assertFalse(map.remove(1L, value));
+		assertTrue(map.isEmpty());
+	}
+	
+	@Test(expected = NullPointerException.class)
+	public void testNullValue() {
+		new ConcurrentLongHashMap<String>().put(1L, null);
+	}
+	
+	/**
+	 * 探测链跨过数组末尾回到开头，删除链头后后续元素需要回移，且不能越过其理想位置
+	 */
+	@Test
+	public void testShiftBackWrapAround() {
+		ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>(8, 2);
+		List<Long> last = findKeys(SLOTS - 1, 3);
+		List<Long> first = findKeys(0, 2);
+		List<Long> middle = findKeys(1, 1);
+		Map<Long, String> expect = Maps.newHashMap();
+		// 槽 15,0,1 被 last 占用，first 依次放到 2,3，middle 放到 4
+		for(Long key : Lists.newArrayList(last.get(0), last.get(1), last.get(2), first.get(0), first.get(1), middle.get(0))) {
+			map.put(key, String.valueOf(key));
+			expect.put(key, String.valueOf(key));
+		}
+		assertMap(expect, map);
+		for(Long key : Lists.newArrayList(last.get(0), first.get(0), last.get(2), middle.get(0), last.get(1), first.get(1))) {
+			assertEquals(String.valueOf(key), map.remove(key));
+			expect.remove(key);
+			assertMap(expect, map);
+		}
+		assertTrue(map.isEmpty());
+	}
+	
+	@Test
+	public void testRandomOperations() {
+		// 小容量，频繁扩容和冲突
+		ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>(2, 2);
+		Map<Long, Long> expect = Maps.newHashMap();
+		Random random = new Random(1L);
+		for(int i = 0; i < 200000; i++) {
+			long key = random.nextInt(512);
+			int op = random.nextInt(4);
+			if(op == 0) {
+				assertEquals(expect.put(key, (long)i), map.put(key, (long)i));
+			}else if(op == 1) {
+				Long old = expect.get(key);
+				if(old == null) {
+					expect.put(key, (long)i);
+				}
+				assertEquals(old, map.putIfAbsent(key, (long)i));
+			}else if(op == 2) {
+				assertEquals(expect.remove(key), map.remove(key));
+			}else {
+				assertEquals(expect.get(key), map.get(key));
+			}
+			assertEquals(expect.size(), map.size());
+		}
+		assertMap(expect, map);
+	}
+	
+	@Test
+	public void testConcurrent() throws Exception {
+		final ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>(16, 4);
+		final int threads = 8;
+		final int count = 20000;
+		final CountDownLatch latch = new CountDownLatch(threads);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		for(int t = 0; t < threads; t++) {
+			final long base = (long)t << 40;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						// 每个线程保留一个滑动窗口，模拟请求放入和响应删除
+						for(int i = 0; i < count; i++) {
+							Long value = Long.valueOf(base + i);
+							assertNull(map.put(base + i, value));
+							if(i >= 64) {
+								long key = base + i - 64;
+								assertEquals(Long.valueOf(key), map.get(key));
+								assertTrue(map.remove(key, map.get(key)));
+							}
+						}
+					}catch (Throwable e) {
+						error.compareAndSet(null, e);
+					}finally {
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+		assertTrue(latch.await(30L, TimeUnit.SECONDS));
+		assertNull(error.get());
+		assertEquals(threads * 64, map.size());
+		for(int t = 0; t < threads; t++) {
+			long base = (long)t << 40;
+			for(int i = count - 64; i < count; i++) {
+				assertEquals(Long.valueOf(base + i), map.get(base + i));
+			}
+		}
+	}
+	
+	private static <V> void assertMap(Map<Long, V> expect, ConcurrentLongHashMap<V> map) {
+		assertEquals(expect.size(), map.size());
+		for(Map.Entry<Long, V> entry : expect.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+		assertEquals(Sets.newHashSet(expect.values()), Sets.newHashSet(map.values()));
+	}
+	
+	/**
+	 * 找出落在第 0 个分段指定槽位的 key
+	 */
+	private static List<Long> findKeys(int slot, int count) {
+		List<Long> keys = Lists.newArrayList();
+		for(long key = 1L; keys.size() < count; key++) {
+			long h = fmix64(key);
+			if((h >>> 63) == 0 && ((int)h & (SLOTS - 1)) == slot) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+	
+	private static long fmix64(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
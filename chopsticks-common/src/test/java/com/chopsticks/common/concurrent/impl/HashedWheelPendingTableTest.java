@@ -0,0 +1,193 @@
+package com.chopsticks.common.concurrent.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class HashedWheelPendingTableTest {
+	
+	private HashedWheelPendingTable<String> table;
+	
+	@After
+	public void after() {
+		if(table != null) {
+			table.shutdown();
+		}
+	}
+	
+	@Test
+	public void testExpire() throws Exception {
+		table = new HashedWheelPendingTable<String>("test", 5L, TimeUnit.MILLISECONDS, 16);
+		final AtomicLong expired = new AtomicLong();
+		table.setExpireListener(new HashedWheelPendingTable.ExpireListener<String>() {
+			@Override
+			public void onExpire(long key, DefaultPromise<String> promise) {
+				expired.set(key);
+			}
+		});
+		DefaultPromise<String> promise = new DefaultPromise<String>();
+		long begin = System.nanoTime();
+		table.put(1L, promise, 50L, TimeUnit.MILLISECONDS);
+		assertEquals(1, table.size());
+		assertTimeout(promise, 2000L);
+		// 不会提前超时
+		assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(50L));
+		assertEquals(1L, expired.get());
+		assertEquals(0, table.size());
+		assertNull(table.remove(1L));
+	}
+	
+	@Test
+	public void testExpireAfterRounds() throws Exception {
+		// 超时时间是一圈的数倍
+		table = new HashedWheelPendingTable<String>("test", 1L, TimeUnit.MILLISECONDS, 4);
+		DefaultPromise<String> promise = new DefaultPromise<String>();
+		long begin = System.nanoTime();
+		table.put(1L, promise, 30L, TimeUnit.MILLISECONDS);
+		assertTimeout(promise, 2000L);
+		assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(30L));
+	}
+	
+	@Test
+	public void testRemove() throws Exception {
+		table = new HashedWheelPendingTable<String>("test", 1L, TimeUnit.MILLISECONDS, 16);
+		final AtomicInteger expired = new AtomicInteger();
+		table.setExpireListener(new HashedWheelPendingTable.ExpireListener<String>() {
+			@Override
+			public void onExpire(long key, DefaultPromise<String> promise) {
+				expired.incrementAndGet();
+			}
+		});
+		DefaultPromise<String> early = new DefaultPromise<String>();
+		DefaultPromise<String> late = new DefaultPromise<String>();
+		// 放入时间轮前删除
+		table.put(1L, early, 10L, TimeUnit.MILLISECONDS);
+		assertSame(early, table.remove(1L));
+		table.put(2L, late, 20L, TimeUnit.MILLISECONDS);
+		Thread.sleep(5L);
+		// 放入时间轮后删除
+		assertSame(late, table.remove(2L));
+		assertNull(table.remove(2L));
+		Thread.sleep(50L);
+		assertFalse(early.isDone());
+		assertFalse(late.isDone());
+		assertEquals(0, expired.get());
+		assertEquals(0, table.size());
+	}
+	
+	@Test
+	public void testReplace() throws Exception {
+		table = new HashedWheelPendingTable<String>("test", 1L, TimeUnit.MILLISECONDS, 16);
+		DefaultPromise<String> first = new DefaultPromise<String>();
+		DefaultPromise<String> second = new DefaultPromise<String>();
+		table.put(1L, first, 10L, TimeUnit.MILLISECONDS);
+		table.put(1L, second, 10L, TimeUnit.SECONDS);
+		Thread.sleep(50L);
+		assertFalse(second.isDone());
+		assertSame(second, table.remove(1L));
+	}
+	
+	@Test
+	public void testRemoveExpireRace() throws Exception {
+		table = new HashedWheelPendingTable<String>("test", 1L, TimeUnit.MILLISECONDS, 8);
+		final int threads = 4;
+		final int count = 5000;
+		final List<List<DefaultPromise<String>>> promises = Lists.newArrayList();
+		final AtomicInteger removed = new AtomicInteger();
+		final AtomicInteger expiredListener = new AtomicInteger();
+		table.setExpireListener(new HashedWheelPendingTable.ExpireListener<String>() {
+			@Override
+			public void onExpire(long key, DefaultPromise<String> promise) {
+				expiredListener.incrementAndGet();
+			}
+		});
+		final CountDownLatch latch = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			final List<DefaultPromise<String>> list = Lists.newArrayList();
+			promises.add(list);
+			final long base = (long)t * count;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(base);
+					for(int i = 0; i < count; i++) {
+						DefaultPromise<String> promise = new DefaultPromise<String>();
+						list.add(promise);
+						table.put(base + i, promise, random.nextInt(5), TimeUnit.MILLISECONDS);
+						if(i > 0 && random.nextBoolean()) {
+							long key = base + random.nextInt(i);
+							DefaultPromise<String> prev = table.remove(key);
+							if(prev != null) {
+								removed.incrementAndGet();
+								// 删除成功的只能由调用方完成
+								assertTrue(prev.set("ok"));
+							}
+						}
+					}
+					latch.countDown();
+				}
+			}).start();
+		}
+		assertTrue(latch.await(30L, TimeUnit.SECONDS));
+		int timeout = 0;
+		int success = 0;
+		for(List<DefaultPromise<String>> list : promises) {
+			for(DefaultPromise<String> promise : list) {
+				try {
+					assertEquals("ok", promise.get(5L, TimeUnit.SECONDS));
+					success++;
+				}catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof TimeoutException);
+					timeout++;
+				}
+			}
+		}
+		assertEquals(threads * count, timeout + success);
+		assertEquals(removed.get(), success);
+		assertEquals(timeout, expiredListener.get());
+		assertEquals(0, table.size());
+	}
+	
+	@Test
+	public void testShutdown() throws Exception {
+		table = new HashedWheelPendingTable<String>("test");
+		DefaultPromise<String> pending = new DefaultPromise<String>();
+		table.put(1L, pending, 1L, TimeUnit.HOURS);
+		table.shutdown();
+		assertTimeout(pending, 2000L);
+		// 关闭后放入的直接结束，不会一直等待
+		Thread.sleep(50L);
+		DefaultPromise<String> late = new DefaultPromise<String>();
+		table.put(2L, late, 1L, TimeUnit.HOURS);
+		assertTimeout(late, 10L);
+		assertEquals(0, table.size());
+	}
+	
+	private static void assertTimeout(DefaultPromise<String> promise, long waitMillis) throws InterruptedException {
+		try {
+			promise.get(waitMillis, TimeUnit.MILLISECONDS);
+			fail();
+		}catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}catch (TimeoutException e) {
+			fail("promise not completed");
+		}
+	}
+}
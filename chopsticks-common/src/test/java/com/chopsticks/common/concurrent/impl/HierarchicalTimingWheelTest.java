@@ -0,0 +1,167 @@
+package com.chopsticks.common.concurrent.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HierarchicalTimingWheelTest {
+	
+	private HierarchicalTimingWheel timingWheel;
+	
+	@After
+	public void after() {
+		if(timingWheel != null) {
+			timingWheel.shutdown();
+		}
+	}
+	
+	/**
+	 * 每格 5ms，4 格 3 层，各层跨度 5ms、20ms、80ms，最高层范围 320ms
+	 */
+	private HierarchicalTimingWheel newTimingWheel() {
+		return new HierarchicalTimingWheel("test", 5L, TimeUnit.MILLISECONDS, 4, 3);
+	}
+	
+	@Test
+	public void testExpire() throws Exception {
+		timingWheel = newTimingWheel();
+		assertNotEarly(timingWheel, 12L);
+	}
+	
+	@Test
+	public void testCascade() throws Exception {
+		timingWheel = newTimingWheel();
+		// 放入第 2、3 层，到期前逐层下移
+		assertNotEarly(timingWheel, 50L);
+		assertNotEarly(timingWheel, 200L);
+	}
+	
+	@Test
+	public void testOverflow() throws Exception {
+		timingWheel = newTimingWheel();
+		// 超出最高层范围，停留在最高层多轮
+		assertNotEarly(timingWheel, 700L);
+	}
+	
+	@Test
+	public void testCascadeOrder() throws Exception {
+		timingWheel = newTimingWheel();
+		int count = 20;
+		final CountDownLatch latch = new CountDownLatch(count);
+		final AtomicLong lastDelay = new AtomicLong();
+		final AtomicInteger disorder = new AtomicInteger();
+		for(int i = count; i > 0; i--) {
+			final long delay = i * 23L;
+			timingWheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					// 相差超过一格的任务按到期先后执行
+					if(lastDelay.get() - delay >= 5L) {
+						disorder.incrementAndGet();
+					}
+					lastDelay.set(delay);
+					latch.countDown();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		assertTrue(latch.await(5L, TimeUnit.SECONDS));
+		assertEquals(0, disorder.get());
+		assertEquals(0, timingWheel.size());
+	}
+	
+	@Test
+	public void testCancel() throws Exception {
+		timingWheel = newTimingWheel();
+		final AtomicInteger executed = new AtomicInteger();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				executed.incrementAndGet();
+			}
+		};
+		HierarchicalTimingWheel.Timeout near = timingWheel.schedule(task, 20L, TimeUnit.MILLISECONDS);
+		HierarchicalTimingWheel.Timeout far = timingWheel.schedule(task, 150L, TimeUnit.MILLISECONDS);
+		assertEquals(2, timingWheel.size());
+		assertTrue(near.cancel());
+		assertFalse(near.cancel());
+		assertTrue(far.cancel());
+		assertEquals(0, timingWheel.size());
+		TimeUnit.MILLISECONDS.sleep(300L);
+		assertEquals(0, executed.get());
+		assertTrue(near.isCancelled());
+		assertFalse(near.isExpired());
+		
+		final CountDownLatch latch = new CountDownLatch(1);
+		HierarchicalTimingWheel.Timeout timeout = timingWheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 10L, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(1L, TimeUnit.SECONDS));
+		assertFalse(timeout.cancel());
+		assertTrue(timeout.isExpired());
+	}
+	
+	@Test
+	public void testTaskException() throws Exception {
+		timingWheel = newTimingWheel();
+		timingWheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				throw new RuntimeException("test");
+			}
+		}, 10L, TimeUnit.MILLISECONDS);
+		// 任务异常不影响后续任务
+		assertNotEarly(timingWheel, 30L);
+	}
+	
+	@Test
+	public void testShutdown() throws Exception {
+		timingWheel = newTimingWheel();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		timingWheel.schedule(task, 10L, TimeUnit.SECONDS);
+		timingWheel.schedule(task, 100L, TimeUnit.MILLISECONDS).cancel();
+		// 等待转移到时间轮内
+		TimeUnit.MILLISECONDS.sleep(50L);
+		timingWheel.schedule(task, 10L, TimeUnit.SECONDS);
+		List<Runnable> unprocessed = timingWheel.shutdown();
+		assertEquals(2, unprocessed.size());
+		assertEquals(0, timingWheel.size());
+		try {
+			timingWheel.schedule(task, 10L, TimeUnit.MILLISECONDS);
+			fail();
+		}catch (IllegalStateException e) {
+		}
+		timingWheel = null;
+	}
+	
+	private static void assertNotEarly(HierarchicalTimingWheel timingWheel, long delayMillis) throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicLong executeTime = new AtomicLong();
+		long begin = System.nanoTime();
+		timingWheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				executeTime.set(System.nanoTime());
+				latch.countDown();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(delayMillis + 2000L, TimeUnit.MILLISECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(executeTime.get() - begin) >= delayMillis);
+	}
+}
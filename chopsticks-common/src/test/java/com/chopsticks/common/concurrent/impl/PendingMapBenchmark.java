@@ -0,0 +1,102 @@
+package com.chopsticks.common.concurrent.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 模拟 pending invoke 的读写：每个线程 put 新请求，同时 remove 之前 WINDOW 个请求
+ * 对比 {@link ConcurrentHashMap}(String key / Long key) 与 {@link ConcurrentLongHashMap}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PendingMapBenchmark {
+	
+	private static final int WINDOW = 1024;
+	
+	@State(Scope.Benchmark)
+	public static class Maps {
+		final ConcurrentHashMap<String, Object> stringMap = new ConcurrentHashMap<String, Object>();
+		final ConcurrentHashMap<Long, Object> longMap = new ConcurrentHashMap<Long, Object>();
+		final ConcurrentLongHashMap<Object> primitiveMap = new ConcurrentLongHashMap<Object>();
+		final AtomicLong base = new AtomicLong();
+	}
+	
+	@State(Scope.Thread)
+	public static class Keys {
+		final Object value = new Object();
+		final long[] keys = new long[WINDOW];
+		final String[] stringKeys = new String[WINDOW];
+		int index;
+		long next;
+		
+		@Setup
+		public void setup(Maps maps) {
+			// 每个线程独立的key区间
+			next = maps.base.addAndGet(1L << 40);
+		}
+		
+		int slot() {
+			int slot = index;
+			index = (index + 1) & (WINDOW - 1);
+			return slot;
+		}
+	}
+	
+	@Benchmark
+	public Object concurrentHashMapStringKey(Maps maps, Keys keys) {
+		int slot = keys.slot();
+		String old = keys.stringKeys[slot];
+		String key = Long.toHexString(keys.next++);
+		keys.stringKeys[slot] = key;
+		maps.stringMap.put(key, keys.value);
+		return old == null ? null : maps.stringMap.remove(old);
+	}
+	
+	@Benchmark
+	public Object concurrentHashMapLongKey(Maps maps, Keys keys) {
+		int slot = keys.slot();
+		long old = keys.keys[slot];
+		long key = keys.next++;
+		keys.keys[slot] = key;
+		maps.longMap.put(key, keys.value);
+		return old == 0L ? null : maps.longMap.remove(old);
+	}
+	
+	@Benchmark
+	public Object concurrentLongHashMap(Maps maps, Keys keys) {
+		int slot = keys.slot();
+		long old = keys.keys[slot];
+		long key = keys.next++;
+		keys.keys[slot] = key;
+		maps.primitiveMap.put(key, keys.value);
+		return old == 0L ? null : maps.primitiveMap.remove(old);
+	}
+	
+	public static void main(String[] args) throws RunnerException {
+		for(int threads = 1; threads <= 64; threads <<= 1) {
+			Options opt = new OptionsBuilder().include(PendingMapBenchmark.class.getSimpleName())
+											  .threads(threads)
+											  .build();
+			new Runner(opt).run();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.chopsticks.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class SequenceIdGeneratorTest {
+	
+	@Test
+	public void testFormat() {
+		SequenceIdGenerator generator = new SequenceIdGenerator(0x0123456789abcdefL);
+		assertEquals("0123456789abcdef0000000000000001", generator.next());
+		assertEquals("0123456789abcdef0000000000000002", generator.next());
+		assertEquals("0123456789abcdefffffffffffffffff", generator.toId(-1L));
+		assertEquals("0123456789abcdef7fffffffffffffff", generator.toId(Long.MAX_VALUE));
+		SequenceIdGenerator negative = new SequenceIdGenerator(-2L);
+		assertEquals("fffffffffffffffe000000000000000a", negative.toId(10L));
+		String id = new SequenceIdGenerator().next();
+		assertEquals(32, id.length());
+		assertTrue(id.matches("[0-9a-f]{32}"));
+	}
+	
+	@Test
+	public void testParseSequence() {
+		SequenceIdGenerator generator = new SequenceIdGenerator(42L);
+		for(long sequence : new long[] {1L, 255L, 1L << 32, Long.MAX_VALUE}) {
+			assertEquals(sequence, generator.parseSequence(generator.toId(sequence)));
+		}
+		long sequence = generator.nextSequence();
+		assertEquals(sequence, generator.parseSequence(generator.toId(sequence)));
+		assertEquals(sequence + 1, generator.parseSequence(generator.next()));
+	}
+	
+	@Test
+	public void testParseForeign() {
+		SequenceIdGenerator generator = new SequenceIdGenerator(42L);
+		SequenceIdGenerator other = new SequenceIdGenerator(43L);
+		assertEquals(-1L, generator.parseSequence(other.next()));
+		assertEquals(-1L, generator.parseSequence(null));
+		assertEquals(-1L, generator.parseSequence(""));
+		// 老版本的 uuid
+		assertEquals(-1L, generator.parseSequence("6ba7b810-9dad-11d1-80b4-00c04fd430c8"));
+		String id = generator.toId(1L);
+		assertEquals(-1L, generator.parseSequence(id.substring(0, 31)));
+		assertEquals(-1L, generator.parseSequence(id + "0"));
+		assertEquals(-1L, generator.parseSequence(id.substring(0, 31) + "g"));
+	}
+	
+	@Test
+	public void testConcurrentUnique() throws Exception {
+		final SequenceIdGenerator generator = new SequenceIdGenerator();
+		final Set<String> ids = Sets.newConcurrentHashSet();
+		final int threads = 8;
+		final int count = 10000;
+		final CountDownLatch latch = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = 0; i < count; i++) {
+						ids.add(generator.next());
+					}
+					latch.countDown();
+				}
+			}).start();
+		}
+		assertTrue(latch.await(30L, TimeUnit.SECONDS));
+		assertEquals(threads * count, ids.size());
+		for(String id : ids) {
+			long sequence = generator.parseSequence(id);
+			assertTrue(sequence >= 1L && sequence <= threads * count);
+		}
+	}
+}
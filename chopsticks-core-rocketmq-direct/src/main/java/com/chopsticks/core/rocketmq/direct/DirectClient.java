@@ -0,0 +1,244 @@
+package com.chopsticks.core.rocketmq.direct;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.remoting.InvokeCallback;
+import org.apache.rocketmq.remoting.netty.NettyClientConfig;
+import org.apache.rocketmq.remoting.netty.NettyRemotingClient;
+import org.apache.rocketmq.remoting.netty.NettyRemotingServer;
+import org.apache.rocketmq.remoting.netty.NettyServerConfig;
+import org.apache.rocketmq.remoting.netty.ResponseFuture;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.RemotingSysResponseCode;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
+import com.chopsticks.core.rocketmq.Const;
+import com.chopsticks.core.rocketmq.DefaultClient;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
+import com.chopsticks.core.rocketmq.caller.InvokeRequest;
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+import com.chopsticks.core.rocketmq.handler.LocalInvokeMessageExt;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * invoke 可点对点直连的客户端，notice 仍然走 broker，默认不开启任何直连功能
+ * 服务端：{@link #setDirectServerEnabled(boolean)} 开启后启动 netty 监听，端口通过 invoke 消费者的 unitName 公布在消费者连接信息中
+ * 调用方：设置 {@link #setLocalInvokePolicy(com.chopsticks.core.rocketmq.caller.LocalInvokePolicy)} 后，从消费者连接信息中找到服务端地址直接发送 invoke，找不到或连接失败时改走 broker
+ * 注意：直连端口没有任何认证，能连上该端口的进程都可以调用本组的 invoke handler，只应在可信网络中开启，并用 {@link #setDirectBindAddress(String)} 绑定内网地址
+ * 只扩展了 {@link DefaultClient}，基于 DefaultModernClient 的 getBean 用法暂不支持直连
+ */
+public class DirectClient extends DefaultClient {
+
+	private static final Logger log = LoggerFactory.getLogger(DirectClient.class);
+
+	private final NettyServerConfig nettyServerConfig = new NettyServerConfig();
+
+	private final NettyClientConfig nettyClientConfig = new NettyClientConfig();
+
+	private long endpointRefreshMillis = TimeUnit.SECONDS.toMillis(10L);
+
+	private boolean directServerEnabled = false;
+
+	/**
+	 * 为 null 时监听所有网卡
+	 */
+	private String directBindAddress;
+
+	private NettyRemotingServer remotingServer;
+
+	private ExecutorService remotingServerExecutor;
+
+	private NettyRemotingClient remotingClient;
+
+	private DirectEndpointIndex endpointIndex;
+
+	private volatile boolean directStarted;
+
+	public DirectClient(String groupName) {
+		super(groupName);
+		// 默认随机端口
+		nettyServerConfig.setListenPort(0);
+		nettyClientConfig.setConnectTimeoutMillis(1000);
+	}
+
+	@Override
+	public synchronized void start() {
+		if(directStarted) {
+			return;
+		}
+		try {
+			if(directServerEnabled && isInvokeExecutable()) {
+				remotingServerExecutor = Executors.newFixedThreadPool(getInvokeExecutableNum(), new ThreadFactoryBuilder().setDaemon(true)
+																														 .setNameFormat(getGroupName() + "-directServer-%d")
+																														 .build());
+				remotingServer = DirectConst.newRemotingServer(nettyServerConfig, directBindAddress);
+				remotingServer.registerProcessor(DirectConst.INVOKE_REQUEST_CODE, new DirectInvokeProcessor(this), remotingServerExecutor);
+				remotingServer.start();
+				log.warn("{} direct server without authentication, listen {}:{}"
+						, getGroupName()
+						, directBindAddress == null ? "*" : directBindAddress
+						, remotingServer.localListenPort());
+			}
+			super.start();
+			DefaultMQAdminExt mqAdminExt = getMqAdminExt();
+			if(isInvokable() && getLocalInvokePolicy() != null && mqAdminExt != null) {
+				remotingClient = new NettyRemotingClient(nettyClientConfig);
+				remotingClient.start();
+				endpointIndex = new DirectEndpointIndex(getGroupName(), mqAdminExt, endpointRefreshMillis);
+				endpointIndex.start();
+			}
+			directStarted = true;
+		}catch (RuntimeException e) {
+			shutdownDirect();
+			throw e;
+		}
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		super.shutdown();
+		shutdownDirect();
+		directStarted = false;
+	}
+
+	private void shutdownDirect() {
+		if(endpointIndex != null) {
+			endpointIndex.shutdown();
+			endpointIndex = null;
+		}
+		if(remotingClient != null) {
+			remotingClient.shutdown();
+			remotingClient = null;
+		}
+		if(remotingServer != null) {
+			remotingServer.shutdown();
+			remotingServer = null;
+		}
+		if(remotingServerExecutor != null) {
+			remotingServerExecutor.shutdown();
+			remotingServerExecutor = null;
+		}
+	}
+
+	@Override
+	protected void beforeInvokeConsumerStart(DefaultMQPushConsumer invokeConsumer) {
+		super.beforeInvokeConsumerStart(invokeConsumer);
+		if(remotingServer != null) {
+			invokeConsumer.setUnitName(DirectConst.buildUnitName(remotingServer.localListenPort()));
+			if(directBindAddress != null) {
+				// 调用方按 clientId 中的 ip 连接，与绑定地址保持一致
+				invokeConsumer.setClientIP(directBindAddress);
+			}
+		}
+	}
+
+	@Override
+	protected boolean isLocalInvokeExecutable() {
+		return directServerEnabled || super.isLocalInvokeExecutable();
+	}
+
+	@Override
+	protected boolean invokeLocally(InvokeRequest req, final Message msg, final DefaultPromise<BaseInvokeResult> promise) {
+		if(super.invokeLocally(req, msg, promise)) {
+			return true;
+		}
+		return invokeDirect(remotingClient, endpointIndex, req, msg, promise);
+	}
+
+	/**
+	 * @return 没有可用地址、已超时或发送失败时返回 false，走 broker
+	 */
+	boolean invokeDirect(NettyRemotingClient remotingClient, final DirectEndpointIndex endpointIndex, InvokeRequest req, final Message msg, final DefaultPromise<BaseInvokeResult> promise) {
+		if(remotingClient == null || endpointIndex == null) {
+			return false;
+		}
+		long timeoutMillis = req.getDeadline() - Const.CLIENT_TIME.getNow();
+		if(timeoutMillis <= 0) {
+			return false;
+		}
+		final String endpoint = endpointIndex.select(msg.getTopic(), msg.getTags());
+		if(endpoint == null) {
+			return false;
+		}
+		RemotingCommand request = DirectConst.encode(RemotingCommand.createRequestCommand(DirectConst.INVOKE_REQUEST_CODE, null), msg);
+		try {
+			remotingClient.invokeAsync(endpoint, request, timeoutMillis, new InvokeCallback() {
+				@Override
+				public void operationComplete(ResponseFuture responseFuture) {
+					RemotingCommand response = responseFuture.getResponseCommand();
+					if(response == null) {
+						// 超时由等待表处理，只有未发出的请求改走 broker
+						if(!responseFuture.isSendRequestOK()) {
+							endpointIndex.suspend(endpoint);
+							invokeByBroker(msg, promise);
+						}
+						return;
+					}
+					if(response.getCode() != RemotingSysResponseCode.SUCCESS) {
+						log.warn("direct invoke rejected, endpoint : {}, code : {}, remark : {}", endpoint, response.getCode(), response.getRemark());
+						invokeByBroker(msg, promise);
+						return;
+					}
+					try {
+						onLocalInvokeResponse(DirectConst.decode(response));
+					}catch (Throwable e) {
+						promise.setException(e);
+					}
+				}
+			});
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DefaultCoreException(e);
+		}catch (Throwable e) {
+			log.warn("direct invoke error, fallback to broker, endpoint : {}", endpoint, e);
+			endpointIndex.suspend(endpoint);
+			return false;
+		}
+		return true;
+	}
+
+	boolean executeDirect(Message msg, LocalInvokeMessageExt.ResponseHandler responseHandler) {
+		return executeLocally(msg, responseHandler);
+	}
+
+	public NettyServerConfig getNettyServerConfig() {
+		return nettyServerConfig;
+	}
+
+	public NettyClientConfig getNettyClientConfig() {
+		return nettyClientConfig;
+	}
+
+	/**
+	 * 开启直连服务端，默认关闭
+	 * 直连请求没有认证，只应在可信网络中开启
+	 */
+	public void setDirectServerEnabled(boolean directServerEnabled) {
+		this.directServerEnabled = directServerEnabled;
+	}
+
+	/**
+	 * 直连服务端绑定的地址，默认所有网卡，同时作为 invoke 消费者的 clientIP 公布给调用方
+	 */
+	public void setDirectBindAddress(String directBindAddress) {
+		this.directBindAddress = directBindAddress;
+	}
+
+	/**
+	 * 直连服务端监听端口，默认 0 随机
+	 */
+	public void setDirectListenPort(int port) {
+		nettyServerConfig.setListenPort(port);
+	}
+
+	public void setEndpointRefreshMillis(long endpointRefreshMillis) {
+		this.endpointRefreshMillis = endpointRefreshMillis;
+	}
+}
@@ -0,0 +1,88 @@
+package com.chopsticks.core.rocketmq.direct;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.remoting.netty.NettyRemotingServer;
+import org.apache.rocketmq.remoting.netty.NettyServerConfig;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+
+import com.chopsticks.common.utils.Reflect;
+import com.google.common.base.Strings;
+
+import io.netty.bootstrap.ServerBootstrap;
+
+final class DirectConst {
+
+	static final int INVOKE_REQUEST_CODE = 8001;
+
+	static final String TOPIC_KEY = "topic";
+
+	/**
+	 * 服务端通过 invoke 消费者的 unitName 公布直连端口，clientId 为 ip@instanceName@direct-port
+	 */
+	static final String UNIT_NAME_PREFIX = "direct-";
+
+	private DirectConst() {}
+
+	static String buildUnitName(int port) {
+		return UNIT_NAME_PREFIX + port;
+	}
+
+	/**
+	 * @return ip:port，clientId 中没有直连端口时返回 null
+	 */
+	static String parseEndpoint(String clientId) {
+		if(Strings.isNullOrEmpty(clientId)) {
+			return null;
+		}
+		int ipEnd = clientId.indexOf('@');
+		int unitBegin = clientId.lastIndexOf('@' + UNIT_NAME_PREFIX);
+		if(ipEnd <= 0 || unitBegin < 0) {
+			return null;
+		}
+		String port = clientId.substring(unitBegin + 1 + UNIT_NAME_PREFIX.length());
+		try {
+			Integer.parseInt(port);
+		}catch (NumberFormatException e) {
+			return null;
+		}
+		return clientId.substring(0, ipEnd) + ":" + port;
+	}
+
+	/**
+	 * topic 不在消息体编码中，放在扩展字段
+	 */
+	static RemotingCommand encode(RemotingCommand cmd, Message msg) {
+		cmd.addExtField(TOPIC_KEY, msg.getTopic());
+		cmd.setBody(MessageDecoder.encodeMessage(msg));
+		return cmd;
+	}
+
+	static Message decode(RemotingCommand cmd) throws Exception {
+		Message msg = MessageDecoder.decodeMessage(ByteBuffer.wrap(cmd.getBody()));
+		msg.setTopic(cmd.getExtFields().get(TOPIC_KEY));
+		return msg;
+	}
+
+	/**
+	 * rocketmq 4.5.2 的 NettyRemotingServer 总是监听所有网卡，这里替换其 ServerBootstrap，start 时改为绑定指定地址
+	 * @param bindAddress 为 null 时不替换
+	 */
+	static NettyRemotingServer newRemotingServer(NettyServerConfig config, final String bindAddress) {
+		NettyRemotingServer remotingServer = new NettyRemotingServer(config);
+		if(bindAddress != null) {
+			Reflect.on(remotingServer).set("serverBootstrap", new ServerBootstrap() {
+				@Override
+				public ServerBootstrap localAddress(SocketAddress localAddress) {
+					int port = ((InetSocketAddress)localAddress).getPort();
+					return super.localAddress(new InetSocketAddress(bindAddress, port));
+				}
+			});
+		}
+		return remotingServer;
+	}
+}
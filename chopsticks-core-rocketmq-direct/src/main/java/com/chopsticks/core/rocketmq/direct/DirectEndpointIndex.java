@@ -0,0 +1,213 @@
+package com.chopsticks.core.rocketmq.direct;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.rocketmq.common.protocol.body.Connection;
+import org.apache.rocketmq.common.protocol.body.ConsumerConnection;
+import org.apache.rocketmq.common.protocol.body.GroupList;
+import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chopsticks.core.rocketmq.Const;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * invoke topic 的直连地址索引 topic -> tag -> ip:port，来源为 invoke 消费者连接信息中的 clientId
+ * 后台线程定时刷新，调用线程只读取最近一次的快照，第一次访问的 topic 异步加载，加载完成前没有可用地址
+ * 连接失败的地址暂停使用一段时间
+ */
+class DirectEndpointIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(DirectEndpointIndex.class);
+
+	private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10L);
+
+	private static final long SUSPEND_MILLIS = TimeUnit.SECONDS.toMillis(30L);
+
+	private final DefaultMQAdminExt mqAdminExt;
+
+	private final long refreshMillis;
+
+	private final ScheduledExecutorService refresher;
+
+	private final ConcurrentMap</*topic*/String, TopicEntry> entries = Maps.newConcurrentMap();
+
+	private final ConcurrentMap</*ip:port*/String, Long> suspended = Maps.newConcurrentMap();
+
+	DirectEndpointIndex(String name, DefaultMQAdminExt mqAdminExt, long refreshMillis) {
+		this.mqAdminExt = mqAdminExt;
+		this.refreshMillis = refreshMillis;
+		this.refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+																							  .setNameFormat(name + "-directEndpointIndex-%d")
+																							  .build());
+	}
+
+	void start() {
+		refresher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				refreshAll();
+			}
+		}, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+	}
+
+	void shutdown() {
+		refresher.shutdownNow();
+	}
+
+	/**
+	 * @param topic invoke topic
+	 * @return 轮询选择一个可用地址，没有时返回 null
+	 */
+	String select(String topic, String tag) {
+		TopicEntry entry = entry(topic);
+		Map<String, List<String>> tagEndpoints = entry.tagEndpoints;
+		if(tagEndpoints == null) {
+			return null;
+		}
+		List<String> endpoints = tagEndpoints.get(tag);
+		List<String> allTagEndpoints = tagEndpoints.get(Const.ALL_TAGS);
+		if(endpoints == null) {
+			endpoints = allTagEndpoints;
+		}else if(allTagEndpoints != null) {
+			Set<String> merged = Sets.newLinkedHashSet(endpoints);
+			merged.addAll(allTagEndpoints);
+			endpoints = Lists.newArrayList(merged);
+		}
+		if(endpoints == null || endpoints.isEmpty()) {
+			return null;
+		}
+		long now = Const.CLIENT_TIME.getNow();
+		int begin = entry.counter.getAndIncrement() & Integer.MAX_VALUE;
+		for(int i = 0; i < endpoints.size(); i++) {
+			String endpoint = endpoints.get((begin + i) % endpoints.size());
+			Long until = suspended.get(endpoint);
+			if(until == null) {
+				return endpoint;
+			}
+			if(until < now) {
+				suspended.remove(endpoint, until);
+				return endpoint;
+			}
+		}
+		return null;
+	}
+
+	void suspend(String endpoint) {
+		suspended.put(endpoint, Const.CLIENT_TIME.getNow() + SUSPEND_MILLIS);
+	}
+
+	private TopicEntry entry(final String topic) {
+		TopicEntry entry = entries.get(topic);
+		if(entry == null) {
+			TopicEntry newEntry = new TopicEntry(topic);
+			entry = entries.putIfAbsent(topic, newEntry);
+			if(entry == null) {
+				entry = newEntry;
+				final TopicEntry loadEntry = newEntry;
+				try {
+					refresher.execute(new Runnable() {
+						@Override
+						public void run() {
+							load(loadEntry);
+						}
+					});
+				}catch (Throwable e) {
+					log.warn("submit direct endpoint load error, topic : {}", topic, e);
+				}
+			}
+		}
+		entry.lastAccessTime = Const.CLIENT_TIME.getNow();
+		return entry;
+	}
+
+	private void refreshAll() {
+		long now = Const.CLIENT_TIME.getNow();
+		for(TopicEntry entry : entries.values()) {
+			if(now - entry.lastAccessTime > IDLE_MILLIS) {
+				entries.remove(entry.topic, entry);
+				continue;
+			}
+			load(entry);
+		}
+	}
+
+	private void load(TopicEntry entry) {
+		try {
+			entry.tagEndpoints = fetch(entry.topic);
+		}catch (Throwable e) {
+			log.warn("refresh direct endpoint error, keep last snapshot, topic : {}", entry.topic, e);
+		}
+	}
+
+	private Map<String, List<String>> fetch(String topic) throws Exception {
+		Map<String, Set<String>> tagEndpoints = Maps.newHashMap();
+		GroupList groupList = mqAdminExt.queryTopicConsumeByWho(topic);
+		for(String groupName : groupList.getGroupList()) {
+			if(!groupName.endsWith(Const.INVOKE_CONSUMER_SUFFIX)) {
+				continue;
+			}
+			ConsumerConnection consumerConn;
+			try {
+				consumerConn = mqAdminExt.examineConsumerConnectionInfo(groupName);
+			}catch (Throwable e) {
+				// 离线
+				continue;
+			}
+			SubscriptionData subscriptionData = consumerConn.getSubscriptionTable().get(topic);
+			if(subscriptionData == null) {
+				continue;
+			}
+			Set<String> tags = subscriptionData.getTagsSet();
+			if(tags.isEmpty() || SubscriptionData.SUB_ALL.equals(subscriptionData.getSubString())) {
+				tags = Sets.newHashSet(Const.ALL_TAGS);
+			}
+			for(Connection conn : consumerConn.getConnectionSet()) {
+				String endpoint = DirectConst.parseEndpoint(conn.getClientId());
+				if(endpoint == null) {
+					continue;
+				}
+				for(String tag : tags) {
+					Set<String> endpoints = tagEndpoints.get(tag);
+					if(endpoints == null) {
+						endpoints = Sets.newLinkedHashSet();
+						tagEndpoints.put(tag, endpoints);
+					}
+					endpoints.add(endpoint);
+				}
+			}
+		}
+		ImmutableMap.Builder<String, List<String>> builder = ImmutableMap.builder();
+		for(Entry<String, Set<String>> entry : tagEndpoints.entrySet()) {
+			builder.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+		}
+		return builder.build();
+	}
+
+	private static class TopicEntry {
+		final String topic;
+		final AtomicInteger counter = new AtomicInteger();
+		volatile Map</*tag*/String, List</*ip:port*/String>> tagEndpoints;
+		volatile long lastAccessTime;
+
+		TopicEntry(String topic) {
+			this.topic = topic;
+			this.lastAccessTime = Const.CLIENT_TIME.getNow();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.chopsticks.core.rocketmq.direct;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.RemotingSysResponseCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chopsticks.core.rocketmq.handler.LocalInvokeMessageExt;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * 服务端处理直连的 invoke 请求，交给本地 handler 执行，执行完成后异步写回响应
+ */
+class DirectInvokeProcessor implements NettyRequestProcessor {
+
+	private static final Logger log = LoggerFactory.getLogger(DirectInvokeProcessor.class);
+
+	private final DirectClient client;
+
+	DirectInvokeProcessor(DirectClient client) {
+		this.client = client;
+	}
+
+	@Override
+	public RemotingCommand processRequest(final ChannelHandlerContext ctx, RemotingCommand request) throws Exception {
+		final int opaque = request.getOpaque();
+		Message msg = DirectConst.decode(request);
+		boolean executed = client.executeDirect(msg, new LocalInvokeMessageExt.ResponseHandler() {
+			@Override
+			public void onResponse(Message respMsg) {
+				RemotingCommand response = DirectConst.encode(RemotingCommand.createResponseCommand(RemotingSysResponseCode.SUCCESS, null), respMsg);
+				response.setOpaque(opaque);
+				ctx.writeAndFlush(response).addListener(new ChannelFutureListener() {
+					@Override
+					public void operationComplete(ChannelFuture future) throws Exception {
+						if(!future.isSuccess()) {
+							log.warn("direct invoke response write error, channel : {}", future.channel(), future.cause());
+						}
+					}
+				});
+			}
+		});
+		if(!executed) {
+			// 调用方收到后改走 broker
+			return RemotingCommand.createResponseCommand(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED
+														, String.format("%s.%s handler not found", msg.getTopic(), msg.getTags()));
+		}
+		return null;
+	}
+
+	@Override
+	public boolean rejectRequest() {
+		return false;
+	}
+}
@@ -0,0 +1,225 @@
+package com.chopsticks.core.rocketmq.direct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.remoting.netty.NettyClientConfig;
+import org.apache.rocketmq.remoting.netty.NettyRemotingClient;
+import org.apache.rocketmq.remoting.netty.NettyRemotingServer;
+import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
+import org.apache.rocketmq.remoting.netty.NettyServerConfig;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.RemotingSysResponseCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
+import com.chopsticks.core.rocketmq.Const;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
+import com.chopsticks.core.rocketmq.caller.InvokeRequest;
+
+import io.netty.channel.ChannelHandlerContext;
+
+public class DirectClientTest {
+	
+	private static final String TOPIC = "invoke_topic";
+	
+	private TestDirectClient client;
+	
+	private TestEndpointIndex endpointIndex;
+	
+	private NettyRemotingClient remotingClient;
+	
+	private NettyRemotingServer remotingServer;
+	
+	@Before
+	public void setUp() {
+		client = new TestDirectClient();
+		endpointIndex = new TestEndpointIndex();
+		NettyClientConfig config = new NettyClientConfig();
+		config.setConnectTimeoutMillis(1000);
+		remotingClient = new NettyRemotingClient(config);
+		remotingClient.start();
+	}
+	
+	@After
+	public void tearDown() {
+		if(remotingClient != null) {
+			remotingClient.shutdown();
+		}
+		if(endpointIndex != null) {
+			endpointIndex.shutdown();
+		}
+		if(remotingServer != null) {
+			remotingServer.shutdown();
+		}
+	}
+	
+	@Test
+	public void testDisabledByDefault() {
+		DirectClient client = new DirectClient("direct_test");
+		assertNull(client.getLocalInvokePolicy());
+		assertFalse(client.isLocalInvokeExecutable());
+		client.setDirectServerEnabled(true);
+		assertTrue(client.isLocalInvokeExecutable());
+	}
+	
+	@Test
+	public void testNoEndpointFallback() {
+		assertFalse(client.invokeDirect(remotingClient, endpointIndex, request(1000L), message(), new DefaultPromise<BaseInvokeResult>()));
+		assertFalse(client.invokeDirect(null, endpointIndex, request(1000L), message(), new DefaultPromise<BaseInvokeResult>()));
+		assertFalse(client.invokeDirect(remotingClient, null, request(1000L), message(), new DefaultPromise<BaseInvokeResult>()));
+	}
+	
+	@Test
+	public void testTimeoutFallback() {
+		endpointIndex.endpoint = "127.0.0.1:1";
+		assertFalse(client.invokeDirect(remotingClient, endpointIndex, request(-1L), message(), new DefaultPromise<BaseInvokeResult>()));
+		assertNull(endpointIndex.suspended.get());
+	}
+	
+	@Test
+	public void testConnectFailureFallback() throws Exception {
+		// 端口 1 没有监听
+		endpointIndex.endpoint = "127.0.0.1:1";
+		DefaultPromise<BaseInvokeResult> promise = new DefaultPromise<BaseInvokeResult>();
+		boolean direct = client.invokeDirect(remotingClient, endpointIndex, request(3000L), message(), promise);
+		if(direct) {
+			// 连接在发送阶段失败时由回调改走 broker
+			assertTrue(client.byBroker.await(5, TimeUnit.SECONDS));
+		}
+		assertEquals("127.0.0.1:1", endpointIndex.suspended.get());
+	}
+	
+	@Test
+	public void testRejectedFallback() throws Exception {
+		startServer(new NettyRequestProcessor() {
+			@Override
+			public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+				return RemotingCommand.createResponseCommand(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED, "handler not found");
+			}
+			@Override
+			public boolean rejectRequest() {
+				return false;
+			}
+		});
+		assertTrue(client.invokeDirect(remotingClient, endpointIndex, request(3000L), message(), new DefaultPromise<BaseInvokeResult>()));
+		assertTrue(client.byBroker.await(5, TimeUnit.SECONDS));
+		assertEquals(1, client.responses.getCount());
+	}
+	
+	@Test
+	public void testDirectResponse() throws Exception {
+		startServer(new NettyRequestProcessor() {
+			@Override
+			public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) throws Exception {
+				Message req = DirectConst.decode(request);
+				return DirectConst.encode(RemotingCommand.createResponseCommand(RemotingSysResponseCode.SUCCESS, null)
+										, new Message("resp_topic", req.getTags(), req.getBody()));
+			}
+			@Override
+			public boolean rejectRequest() {
+				return false;
+			}
+		});
+		assertTrue(client.invokeDirect(remotingClient, endpointIndex, request(3000L), message(), new DefaultPromise<BaseInvokeResult>()));
+		assertTrue(client.responses.await(5, TimeUnit.SECONDS));
+		assertEquals("resp_topic", client.response.get().getTopic());
+		assertEquals(1, client.byBroker.getCount());
+	}
+	
+	@Test
+	public void testBindAddress() throws Exception {
+		NettyServerConfig config = new NettyServerConfig();
+		config.setListenPort(0);
+		remotingServer = DirectConst.newRemotingServer(config, "127.0.0.1");
+		remotingServer.start();
+		endpointIndex.endpoint = "127.0.0.1:" + remotingServer.localListenPort();
+		remotingServer.registerProcessor(DirectConst.INVOKE_REQUEST_CODE, new NettyRequestProcessor() {
+			@Override
+			public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+				return RemotingCommand.createResponseCommand(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED, null);
+			}
+			@Override
+			public boolean rejectRequest() {
+				return false;
+			}
+		}, Executors.newSingleThreadExecutor());
+		assertTrue(client.invokeDirect(remotingClient, endpointIndex, request(3000L), message(), new DefaultPromise<BaseInvokeResult>()));
+		assertTrue(client.byBroker.await(5, TimeUnit.SECONDS));
+	}
+	
+	private void startServer(NettyRequestProcessor processor) {
+		NettyServerConfig config = new NettyServerConfig();
+		config.setListenPort(0);
+		remotingServer = new NettyRemotingServer(config);
+		remotingServer.registerProcessor(DirectConst.INVOKE_REQUEST_CODE, processor, Executors.newSingleThreadExecutor());
+		remotingServer.start();
+		endpointIndex.endpoint = "127.0.0.1:" + remotingServer.localListenPort();
+	}
+	
+	private static InvokeRequest request(long timeoutMillis) {
+		InvokeRequest req = new InvokeRequest();
+		req.setReqId("r1");
+		req.setDeadline(Const.CLIENT_TIME.getNow() + timeoutMillis);
+		return req;
+	}
+	
+	private static Message message() {
+		return new Message(TOPIC, "tag", new byte[] {1});
+	}
+	
+	private static class TestDirectClient extends DirectClient {
+		
+		final CountDownLatch byBroker = new CountDownLatch(1);
+		
+		final CountDownLatch responses = new CountDownLatch(1);
+		
+		final AtomicReference<Message> response = new AtomicReference<Message>();
+		
+		TestDirectClient() {
+			super("direct_test");
+		}
+		
+		@Override
+		protected void invokeByBroker(Message msg, DefaultPromise<BaseInvokeResult> promise) {
+			byBroker.countDown();
+		}
+		
+		@Override
+		protected void onLocalInvokeResponse(Message respMsg) {
+			response.set(respMsg);
+			responses.countDown();
+		}
+	}
+	
+	private static class TestEndpointIndex extends DirectEndpointIndex {
+		
+		volatile String endpoint;
+		
+		final AtomicReference<String> suspended = new AtomicReference<String>();
+		
+		TestEndpointIndex() {
+			super("direct_test", null, 1000L);
+		}
+		
+		@Override
+		String select(String topic, String tag) {
+			return endpoint;
+		}
+		
+		@Override
+		void suspend(String endpoint) {
+			suspended.set(endpoint);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.chopsticks.core.rocketmq.direct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.junit.Test;
+
+public class DirectConstTest {
+	
+	@Test
+	public void testParseEndpoint() {
+		assertEquals("10.0.0.1:9876", DirectConst.parseEndpoint("10.0.0.1@12345@" + DirectConst.buildUnitName(9876)));
+		// instanceName 中带 @ 时取最后一个 unitName
+		assertEquals("10.0.0.1:80", DirectConst.parseEndpoint("10.0.0.1@a@b@direct-80"));
+		assertNull(DirectConst.parseEndpoint(null));
+		assertNull(DirectConst.parseEndpoint(""));
+		assertNull(DirectConst.parseEndpoint("10.0.0.1@12345"));
+		assertNull(DirectConst.parseEndpoint("10.0.0.1@12345@direct-"));
+		assertNull(DirectConst.parseEndpoint("10.0.0.1@12345@direct-abc"));
+		assertNull(DirectConst.parseEndpoint("@12345@direct-80"));
+	}
+	
+	@Test
+	public void testEncodeDecode() throws Exception {
+		Message msg = new Message("invoke_topic", "tag", "keys", new byte[] {1, 2, 3});
+		msg.putUserProperty("reqId", "r1");
+		RemotingCommand cmd = DirectConst.encode(RemotingCommand.createRequestCommand(DirectConst.INVOKE_REQUEST_CODE, null), msg);
+		// 经过网络编解码，跳过长度字段
+		ByteBuffer buffer = cmd.encode();
+		buffer.getInt();
+		RemotingCommand received = RemotingCommand.decode(buffer.slice());
+		Message decoded = DirectConst.decode(received);
+		assertEquals("invoke_topic", decoded.getTopic());
+		assertEquals("tag", decoded.getTags());
+		assertEquals("keys", decoded.getKeys());
+		assertEquals("r1", decoded.getUserProperty("reqId"));
+		assertArrayEquals(new byte[] {1, 2, 3}, decoded.getBody());
+	}
+}
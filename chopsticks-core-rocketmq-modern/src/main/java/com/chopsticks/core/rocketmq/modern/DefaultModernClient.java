@@ -21,13 +21,17 @@ import com.chopsticks.core.modern.caller.NoticeBean;
 import com.chopsticks.core.rocketmq.DefaultClient;
 import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
 import com.chopsticks.core.rocketmq.handler.BaseHandler;
+import com.chopsticks.core.rocketmq.handler.HandlerExecutor;
 import com.chopsticks.core.rocketmq.modern.caller.BaseExtBean;
 import com.chopsticks.core.rocketmq.modern.caller.BaseNoticeBean;
 import com.chopsticks.core.rocketmq.modern.caller.BaseProxy;
 import com.chopsticks.core.rocketmq.modern.caller.BeanProxy;
+import com.chopsticks.core.rocketmq.modern.caller.BeanStubGenerator;
 import com.chopsticks.core.rocketmq.modern.caller.ExtBeanProxy;
 import com.chopsticks.core.rocketmq.modern.caller.NoticeBeanProxy;
 import com.chopsticks.core.rocketmq.modern.exception.ModernCoreException;
+import com.chopsticks.core.rocketmq.modern.handler.DedicatedExecutor;
+import com.chopsticks.core.rocketmq.modern.handler.MaxConcurrency;
 import com.chopsticks.core.rocketmq.modern.handler.ModernHandler;
 import com.chopsticks.core.rocketmq.modern.handler.Picker;
 import com.chopsticks.core.rocketmq.modern.handler.UnSupportDelayNotice;
@@ -36,6 +40,7 @@ import com.chopsticks.core.rocketmq.modern.handler.UnSupportNotice;
 import com.chopsticks.core.rocketmq.modern.handler.UnSupportOrderedNotice;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -53,9 +58,46 @@ public class DefaultModernClient extends DefaultClient implements ModernClient {
 	private ModernClientProxy modernClientProxy = new ModernClientProxy();
 	private Map<Class<?>, Object> handlers;
 	
+	/**
+	 * 为 true 时 getBean 返回 javassist 生成的实现类，需要引入 javassist，生成失败时回退到 jdk 动态代理
+	 */
+	private boolean beanStub = false;
+	
+	/**
+	 * 为 true 时调用方按 {@link ParamsCodec} 编码参数，不写类名，需要服务方已支持
+	 */
+	private boolean typedParams = false;
+	
+	/**
+	 * 为 false 时服务方不再用 autoType 解析旧格式参数，统一按目标方法的参数类型解析
+	 * 只影响参数解析，全局 ParserConfig 仍开启 autoType，调用方解析响应也仍使用全局配置
+	 */
+	private boolean paramsAutoType = true;
+	
 	public DefaultModernClient(String groupName) {
 		super(groupName);
 	}
+	public boolean isBeanStub() {
+		return beanStub;
+	}
+	public void setBeanStub(boolean beanStub) {
+		this.beanStub = beanStub;
+	}
+	public boolean isTypedParams() {
+		return typedParams;
+	}
+	public void setTypedParams(boolean typedParams) {
+		this.typedParams = typedParams;
+	}
+	public boolean isParamsAutoType() {
+		return paramsAutoType;
+	}
+	/**
+	 * 为 false 时旧格式参数也只按参数个数选择同名重载，参数个数相同的重载不再按实际参数类型区分，调用时报 ambiguous
+	 */
+	public void setParamsAutoType(boolean paramsAutoType) {
+		this.paramsAutoType = paramsAutoType;
+	}
 	public void setModernClientProxy(ModernClientProxy clientProxy) {
 		this.modernClientProxy = clientProxy;
 	}
@@ -104,15 +146,17 @@ public class DefaultModernClient extends DefaultClient implements ModernClient {
 				, getOrderedNoticeExecutableNum()
 				, getOrderedNoticeExecutableRetryCount()
 				, getOrderedNoticeMaxExecutableTime());
+		Set<BaseHandler> clientHandlers = Sets.newHashSet();
 		try {
 			if(handlers != null) {
-				Set<BaseHandler> clientHandlers = Sets.newHashSet();
 				for(Entry<Class<?>, Object> entry : handlers.entrySet()) {
 					Set<String> methods = getMethods(entry);
 					Set<String> unSupportInvoke = getUnSupportInvoke(entry);
 					Set<String> unSupportNotice = getUnSupportNotice(entry);
 					Set<String> unSupportDelayNotice = getUnSupportDelayNotice(entry);
 					Set<String> unSupportOrderedNotice = getUnSupportOrderedNotice(entry);
+					Map<String, Integer> maxConcurrency = getMaxConcurrency(entry);
+					Map<String, Integer> dedicatedExecutor = getDedicatedExecutor(entry);
 					
 					log.info("interface : {}, impl : {}, method : {}, unSupportInvoke : {}, unSupportNotice : {}, unSupportDelayNotice : {}, unSupportOrderedNotice : {}"
 								, entry.getKey()
@@ -122,6 +166,9 @@ public class DefaultModernClient extends DefaultClient implements ModernClient {
 								, unSupportNotice
 								, unSupportDelayNotice
 								, unSupportOrderedNotice);
+					if(!maxConcurrency.isEmpty() || !dedicatedExecutor.isEmpty()) {
+						log.info("interface : {}, maxConcurrency : {}, dedicatedExecutor : {}", entry.getKey(), maxConcurrency, dedicatedExecutor);
+					}
 					for(String method : methods) {
 						BaseHandler handler = new ModernHandler(entry.getValue(), entry.getKey().getName(), method, this);
 						if(unSupportInvoke.contains(method)) {
@@ -136,6 +183,12 @@ public class DefaultModernClient extends DefaultClient implements ModernClient {
 						if(unSupportOrderedNotice.contains(method)) {
 							handler.setSupportOrderedNotice(false);
 						}
+						if(maxConcurrency.containsKey(method)) {
+							handler.setMaxConcurrency(maxConcurrency.get(method));
+						}
+						if(dedicatedExecutor.containsKey(method)) {
+							handler.setHandlerExecutor(new HandlerExecutor(getGroupName() + "-" + method, dedicatedExecutor.get(method)));
+						}
 						clientHandlers.add(handler);
 					}
 				}
@@ -144,6 +197,11 @@ public class DefaultModernClient extends DefaultClient implements ModernClient {
 			super.start();
 		}catch (Throwable e) {
 			this.shutdown();
+			for(BaseHandler handler : clientHandlers) {
+				if(handler.getHandlerExecutor() != null) {
+					handler.getHandlerExecutor().shutdown();
+				}
+			}
 			if(e instanceof CoreException) {
 				throw (CoreException)e;
 			}else {
@@ -174,6 +232,20 @@ public class DefaultModernClient extends DefaultClient implements ModernClient {
 		}
 		return unSupportOrderedNotice;
 	}
+	private Map<String, Integer> getMaxConcurrency(Entry<Class<?>, Object> entry) {
+		Map<String, Integer> maxConcurrency = Maps.newHashMap();
+		if(entry.getValue() instanceof MaxConcurrency) {
+			maxConcurrency = checkNotNull(((MaxConcurrency)entry.getValue()).maxConcurrency(), "maxConcurrency can not be null");
+		}
+		return maxConcurrency;
+	}
+	private Map<String, Integer> getDedicatedExecutor(Entry<Class<?>, Object> entry) {
+		Map<String, Integer> dedicatedExecutor = Maps.newHashMap();
+		if(entry.getValue() instanceof DedicatedExecutor) {
+			dedicatedExecutor = checkNotNull(((DedicatedExecutor)entry.getValue()).dedicatedExecutor(), "dedicatedExecutor can not be null");
+		}
+		return dedicatedExecutor;
+	}
 	private Set<String> getUnSupportInvoke(Entry<Class<?>, Object> entry) {
 		Set<String> unSupportInvoke = Sets.newHashSet();
 		if(entry.getValue() instanceof UnSupportInvoke) {
@@ -231,7 +303,7 @@ public class DefaultModernClient extends DefaultClient implements ModernClient {
 			Object bean = beanCache.get(clazz, new Callable<Object>() {
 				@Override
 				public Object call() throws Exception {
-					return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {clazz}, getBeanProxy(clazz, self));
+					return newBean(clazz, getBeanProxy(clazz, self));
 				}
 			});
 			return clazz.cast(bean);
@@ -296,6 +368,20 @@ public class DefaultModernClient extends DefaultClient implements ModernClient {
 	}
 	
 	
+	private Object newBean(Class<?> clazz, BaseProxy beanProxy) {
+		if(isBeanStub() && beanProxy instanceof BeanProxy) {
+			try {
+				Object stub = BeanStubGenerator.newInstance(clazz, (BeanProxy)beanProxy);
+				if(stub != null) {
+					return stub;
+				}
+			}catch (Throwable e) {
+				log.warn("bean stub generate error, use jdk proxy, clazz : {}", clazz.getName(), e);
+			}
+		}
+		return Proxy.newProxyInstance(DefaultModernClient.class.getClassLoader(), new Class[] {clazz}, beanProxy);
+	}
+	
 	protected BaseProxy getBeanProxy(Class<?> clazz, DefaultModernClient client){
 		return new BeanProxy(clazz, client);
 	}
@@ -0,0 +1,176 @@
+package com.chopsticks.core.rocketmq.modern;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chopsticks.common.concurrent.Promise;
+import com.chopsticks.common.concurrent.PromiseListener;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
+
+/**
+ * 异步返回类型的识别和转换
+ * jdk8 的 CompletableFuture/CompletionStage 通过反射访问，低版本 jdk 上只支持 {@link Promise}
+ */
+public class FutureAdapters {
+
+	private static final Logger log = LoggerFactory.getLogger(FutureAdapters.class);
+
+	private static final Class<?> COMPLETABLE_FUTURE_CLASS;
+	private static final Class<?> COMPLETION_STAGE_CLASS;
+	private static final Class<?> COMPLETION_EXCEPTION_CLASS;
+	private static final Class<?> BI_CONSUMER_CLASS;
+	private static final Method COMPLETE;
+	private static final Method COMPLETE_EXCEPTIONALLY;
+	private static final Method WHEN_COMPLETE;
+
+	static {
+		Class<?> completableFutureClass = null;
+		Class<?> completionStageClass = null;
+		Class<?> completionExceptionClass = null;
+		Class<?> biConsumerClass = null;
+		Method complete = null;
+		Method completeExceptionally = null;
+		Method whenComplete = null;
+		try {
+			completableFutureClass = Class.forName("java.util.concurrent.CompletableFuture");
+			completionStageClass = Class.forName("java.util.concurrent.CompletionStage");
+			completionExceptionClass = Class.forName("java.util.concurrent.CompletionException");
+			biConsumerClass = Class.forName("java.util.function.BiConsumer");
+			complete = completableFutureClass.getMethod("complete", Object.class);
+			completeExceptionally = completableFutureClass.getMethod("completeExceptionally", Throwable.class);
+			whenComplete = completionStageClass.getMethod("whenComplete", biConsumerClass);
+		}catch (Throwable e) {
+			log.debug("CompletableFuture unsupported : {}", e.toString());
+			completableFutureClass = null;
+			completionStageClass = null;
+		}
+		COMPLETABLE_FUTURE_CLASS = completableFutureClass;
+		COMPLETION_STAGE_CLASS = completionStageClass;
+		COMPLETION_EXCEPTION_CLASS = completionExceptionClass;
+		BI_CONSUMER_CLASS = biConsumerClass;
+		COMPLETE = complete;
+		COMPLETE_EXCEPTIONALLY = completeExceptionally;
+		WHEN_COMPLETE = whenComplete;
+	}
+
+	private FutureAdapters() {}
+
+	/**
+	 * 返回类型可以由 {@link DefaultPromise} 赋值，如 Promise、Future
+	 */
+	public static boolean isPromiseType(Class<?> type) {
+		return Future.class.isAssignableFrom(type) && type.isAssignableFrom(DefaultPromise.class);
+	}
+
+	/**
+	 * 返回类型为 CompletableFuture 或 CompletionStage
+	 */
+	public static boolean isCompletableFutureType(Class<?> type) {
+		return COMPLETABLE_FUTURE_CLASS != null && (type == COMPLETABLE_FUTURE_CLASS || type == COMPLETION_STAGE_CLASS);
+	}
+
+	public static boolean isAsyncType(Class<?> type) {
+		return isPromiseType(type) || isCompletableFutureType(type);
+	}
+
+	/**
+	 * @return 异步返回类型的泛型参数，没有时为 Object，其他返回类型原样返回
+	 */
+	public static Type getValueType(Method method) {
+		if(!isAsyncType(method.getReturnType())) {
+			return method.getGenericReturnType();
+		}
+		Type genericReturnType = method.getGenericReturnType();
+		if(genericReturnType instanceof ParameterizedType) {
+			return ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
+		}
+		return Object.class;
+	}
+
+	public static Class<?> getRawType(Type type) {
+		if(type instanceof Class) {
+			return (Class<?>) type;
+		}else if(type instanceof ParameterizedType) {
+			return getRawType(((ParameterizedType) type).getRawType());
+		}else if(type instanceof TypeVariable) {
+			return getRawType(((TypeVariable<?>) type).getBounds()[0]);
+		}else if(type instanceof WildcardType) {
+			return getRawType(((WildcardType) type).getUpperBounds()[0]);
+		}else if(type instanceof GenericArrayType) {
+			return Object[].class;
+		}
+		return Object.class;
+	}
+
+	/**
+	 * @return 未完成的 CompletableFuture，promise 完成时一同完成
+	 */
+	public static Object toCompletableFuture(Promise<?> promise) {
+		final Object future;
+		try {
+			future = COMPLETABLE_FUTURE_CLASS.newInstance();
+		}catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+		promise.addListener(new PromiseListener<Object>() {
+			@Override
+			public void onSuccess(Object result) {
+				invoke(COMPLETE, future, result);
+			}
+			@Override
+			public void onFailure(Throwable t) {
+				invoke(COMPLETE_EXCEPTIONALLY, future, t);
+			}
+		});
+		return future;
+	}
+
+	public static boolean isCompletionStage(Object obj) {
+		return COMPLETION_STAGE_CLASS != null && COMPLETION_STAGE_CLASS.isInstance(obj);
+	}
+
+	/**
+	 * CompletionStage.whenComplete 的回调通过动态代理实现 BiConsumer
+	 */
+	public static Promise<Object> toPromise(Object completionStage) {
+		final DefaultPromise<Object> promise = new DefaultPromise<Object>();
+		Object action = Proxy.newProxyInstance(FutureAdapters.class.getClassLoader(), new Class<?>[] {BI_CONSUMER_CLASS}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if(method.getDeclaringClass() == Object.class) {
+					return method.invoke(this, args);
+				}
+				Throwable t = (Throwable) args[1];
+				if(t == null) {
+					promise.set(args[0]);
+				}else {
+					if(COMPLETION_EXCEPTION_CLASS.isInstance(t) && t.getCause() != null) {
+						t = t.getCause();
+					}
+					promise.setException(t);
+				}
+				return null;
+			}
+		});
+		invoke(WHEN_COMPLETE, completionStage, action);
+		return promise;
+	}
+
+	private static void invoke(Method method, Object obj, Object arg) {
+		try {
+			method.invoke(obj, arg);
+		}catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -1,9 +1,29 @@
 package com.chopsticks.core.rocketmq.modern;
 
 import com.chopsticks.common.utils.Reflect;
+import com.chopsticks.core.rocketmq.modern.handler.HandlerMethod;
 
 public class ModernClientProxy {
 	
+	/**
+	 * 子类覆盖了按名称调用的方法时，已解析的方法仍转到被覆盖的方法
+	 */
+	private final boolean invokeByName;
+	
+	private final boolean noticeByName;
+	
+	public ModernClientProxy() {
+		invokeByName = isOverridden("invokeExecuteProxy");
+		noticeByName = isOverridden("noticeExecuteProxy");
+	}
+	
+	private boolean isOverridden(String name) {
+		try {
+			return getClass().getMethod(name, Object.class, String.class, Object[].class).getDeclaringClass() != ModernClientProxy.class;
+		}catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
 	
 	public <T> T invokeExecuteProxy(Object obj, String method, Object... args) throws Throwable{
 		return Reflect.on(obj).call(method, args).get();
@@ -11,4 +31,24 @@ public class ModernClientProxy {
 	public void noticeExecuteProxy(Object obj, String method, Object... args) throws Throwable{
 		Reflect.on(obj).call(method, args).get();
 	}
+	/**
+	 * 默认直接调用已解析的方法，子类覆盖了 {@link #invokeExecuteProxy(Object, String, Object...)} 时转到该方法
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T invokeExecuteProxy(Object obj, HandlerMethod method, Object... args) throws Throwable{
+		if(invokeByName) {
+			return invokeExecuteProxy(obj, method.getMethod().getName(), args);
+		}
+		return (T)method.invoke(obj, args);
+	}
+	/**
+	 * 默认直接调用已解析的方法，子类覆盖了 {@link #noticeExecuteProxy(Object, String, Object...)} 时转到该方法
+	 */
+	public void noticeExecuteProxy(Object obj, HandlerMethod method, Object... args) throws Throwable{
+		if(noticeByName) {
+			noticeExecuteProxy(obj, method.getMethod().getName(), args);
+			return;
+		}
+		method.invoke(obj, args);
+	}
 }
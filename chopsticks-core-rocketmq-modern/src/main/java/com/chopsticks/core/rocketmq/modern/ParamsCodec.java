@@ -0,0 +1,94 @@
+package com.chopsticks.core.rocketmq.modern;
+
+import java.lang.reflect.Type;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.parser.DefaultJSONParser;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.SerializeWriter;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.alibaba.fastjson.util.IOUtils;
+import com.google.common.base.Charsets;
+
+/**
+ * 类型化参数编解码，请求体为 前缀 + json 数组，不写类名
+ * 解码按目标方法的泛型参数类型直接从字节解析，使用独立的 ParserConfig，不受全局 autoType 影响
+ * 只用于参数，Const 开启的全局 autoType 和 ResultDecoder 解析响应不受影响
+ * 不带类型信息，同名同参数个数的重载无法区分
+ */
+public class ParamsCodec {
+
+	public static final String TYPED_PARAMS_PREFIX = "_TYPED_PARAMS_";
+
+	private static final byte[] TYPED_PARAMS_PREFIX_BYTES = TYPED_PARAMS_PREFIX.getBytes(Charsets.UTF_8);
+
+	private static final ParserConfig PARSER_CONFIG = new ParserConfig();
+
+	static {
+		PARSER_CONFIG.setAutoTypeSupport(false);
+	}
+
+	private ParamsCodec() {}
+
+	public static boolean isTyped(byte[] body) {
+		if(body == null || body.length < TYPED_PARAMS_PREFIX_BYTES.length) {
+			return false;
+		}
+		for(int i = 0; i < TYPED_PARAMS_PREFIX_BYTES.length; i++) {
+			if(body[i] != TYPED_PARAMS_PREFIX_BYTES[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static byte[] encode(Object[] args) {
+		SerializeWriter out = new SerializeWriter(null, JSON.DEFAULT_GENERATE_FEATURE, new SerializerFeature[] {SerializerFeature.DisableCircularReferenceDetect});
+		try {
+			out.write(TYPED_PARAMS_PREFIX);
+			new JSONSerializer(out).write(args);
+			return out.toBytes(Charsets.UTF_8);
+		}finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param body 带不带前缀都可以，不带前缀时 @type 只能是参数类型本身或其子类
+	 */
+	public static Object[] decode(byte[] body, Type[] types) {
+		DefaultJSONParser parser = parser(body);
+		Object[] args = parser.parseArray(types);
+		parser.handleResovleTask(args);
+		// 检查是否有多余内容
+		parser.close();
+		return args;
+	}
+
+	/**
+	 * 同名重载时按参数个数选择方法
+	 */
+	public static int size(byte[] body) {
+		DefaultJSONParser parser = parser(body);
+		JSONArray array = new JSONArray();
+		parser.parseArray(array);
+		parser.close();
+		return array.size();
+	}
+
+	/**
+	 * 直接解码到 char[]，不经过 String
+	 */
+	private static DefaultJSONParser parser(byte[] body) {
+		int offset = isTyped(body) ? TYPED_PARAMS_PREFIX_BYTES.length : 0;
+		char[] chars = new char[body.length - offset];
+		int len = IOUtils.decodeUTF8(body, offset, body.length - offset, chars);
+		if(len < 0) {
+			chars = new String(body, offset, body.length - offset, Charsets.UTF_8).toCharArray();
+			len = chars.length;
+		}
+		return new DefaultJSONParser(chars, len, PARSER_CONFIG, JSON.DEFAULT_PARSER_FEATURE);
+	}
+}
@@ -3,13 +3,14 @@ package com.chopsticks.core.rocketmq.modern.caller;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.util.Map;
-import java.util.UUID;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.annotation.JSONType;
 import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.chopsticks.common.utils.SequenceIdGenerator;
 import com.chopsticks.core.rocketmq.modern.Const;
 import com.chopsticks.core.rocketmq.modern.DefaultModernClient;
+import com.chopsticks.core.rocketmq.modern.ParamsCodec;
 import com.chopsticks.core.rocketmq.modern.exception.ModernCoreException;
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
@@ -18,6 +19,7 @@ import com.google.common.collect.Maps;
 
 public abstract class BaseProxy implements InvocationHandler {
 	private static final String DEFAULT_TRACE_NO_PREFIX = "DEFAULT_TRACE_";
+	private static final SequenceIdGenerator TRACE_NO_GENERATOR = new SequenceIdGenerator();
 	private Map<String, String> extParams = Maps.newHashMap();
 	
 	protected DefaultModernClient client;
@@ -42,7 +44,7 @@ public abstract class BaseProxy implements InvocationHandler {
 	}
 	
 	protected String getDefaultTraceNo() {
-		return getDefaultTraceNoPrefix() + UUID.randomUUID().toString();
+		return getDefaultTraceNoPrefix() + TRACE_NO_GENERATOR.next();
 	}
 
 	public static String getDefaultTraceNoPrefix() {
@@ -63,7 +65,11 @@ public abstract class BaseProxy implements InvocationHandler {
 					throw new ModernCoreException("unsupport array arguments").setCode(ModernCoreException.UNSUPPORT_ARRAY_ARGUMENTS);
 				}
 			}
-			body = JSON.toJSONString(args, SerializerFeature.WriteClassName).getBytes(Charsets.UTF_8);
+			if(client != null && client.isTypedParams()) {
+				body = ParamsCodec.encode(args);
+			}else {
+				body = JSON.toJSONBytes(args, SerializerFeature.WriteClassName);
+			}
 		}
 		return body;
 	}
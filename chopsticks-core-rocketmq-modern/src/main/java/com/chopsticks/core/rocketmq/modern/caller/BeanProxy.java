@@ -1,73 +1,180 @@
 package com.chopsticks.core.rocketmq.modern.caller;
 
 import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
-import java.util.Collection;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
-import com.alibaba.fastjson.JSON;
+import com.chopsticks.common.concurrent.PromiseListener;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
 import com.chopsticks.core.caller.InvokeResult;
+import com.chopsticks.core.exception.CoreException;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
 import com.chopsticks.core.rocketmq.caller.impl.DefaultInvokeCommand;
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
 import com.chopsticks.core.rocketmq.modern.DefaultModernClient;
+import com.chopsticks.core.rocketmq.modern.FutureAdapters;
 import com.chopsticks.core.rocketmq.modern.handler.ModernContextHolder;
-import com.google.common.base.Charsets;
-import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 public class BeanProxy extends BaseProxy {
 
 	private Class<?> clazz;
+	
+	private final ConcurrentMap<Method, BeanMethod> beanMethods = Maps.newConcurrentMap();
+	
+	/**
+	 * 创建时按接口方法的返回类型构建
+	 */
+	private final Map<Method, ResultDecoder> resultDecoders;
+	
+	/**
+	 * 生成的 stub 按下标调用，见 {@link BeanStubGenerator}
+	 */
+	private volatile BeanMethod[] stubMethods;
 
 	public BeanProxy(Class<?> clazz, DefaultModernClient client) {
 		super(client);
 		this.clazz = clazz;
+		ImmutableMap.Builder<Method, ResultDecoder> resultDecoders = ImmutableMap.builder();
+		for(Method method : clazz.getMethods()) {
+			resultDecoders.put(method, new ResultDecoder(FutureAdapters.getValueType(method)));
+		}
+		this.resultDecoders = resultDecoders.build();
+	}
+	
+	protected Class<?> getClazz() {
+		return clazz;
 	}
 
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 		return innerInvoke(proxy, method, args);
 	}
+	
+	void bindStubMethods(Method[] methods) {
+		BeanMethod[] stubMethods = new BeanMethod[methods.length];
+		for(int i = 0; i < methods.length; i++) {
+			stubMethods[i] = getBeanMethod(methods[i]);
+		}
+		this.stubMethods = stubMethods;
+	}
+	
+	/**
+	 * 生成的 stub 调用，与 jdk 动态代理一样，未声明的受检异常包装为 {@link UndeclaredThrowableException}
+	 */
+	public Object invokeStub(Object stub, int index, Object[] args) throws Throwable {
+		BeanMethod beanMethod = stubMethods[index];
+		try {
+			return invoke(stub, beanMethod.method, args);
+		}catch (RuntimeException e) {
+			throw e;
+		}catch (Error e) {
+			throw e;
+		}catch (Throwable e) {
+			for(Class<?> exceptionType : beanMethod.method.getExceptionTypes()) {
+				if(exceptionType.isInstance(e)) {
+					throw e;
+				}
+			}
+			throw new UndeclaredThrowableException(e);
+		}
+	}
+	
+	/**
+	 * topic 和 tag 只计算一次
+	 */
+	protected BeanMethod getBeanMethod(Method method) {
+		BeanMethod beanMethod = beanMethods.get(method);
+		if(beanMethod == null) {
+			ResultDecoder resultDecoder = resultDecoders.get(method);
+			beanMethod = new BeanMethod(method, getTopic(clazz), getMethod(method), resultDecoder == null ? new ResultDecoder(FutureAdapters.getValueType(method)) : resultDecoder);
+			BeanMethod old = beanMethods.putIfAbsent(method, beanMethod);
+			if(old != null) {
+				beanMethod = old;
+			}
+		}
+		return beanMethod;
+	}
 
 	@Override
 	public Object innerInvoke(Object proxy, Method method, Object[] args) throws Throwable {
+		BeanMethod beanMethod = getBeanMethod(method);
 		byte[] body = buildBody(args);
-		DefaultInvokeCommand invokeCmd = new DefaultInvokeCommand(getTopic(clazz), getMethod(method), body);
+		DefaultInvokeCommand invokeCmd = new DefaultInvokeCommand(beanMethod.topic, beanMethod.tag, body);
 		if(ModernContextHolder.getTraceNos() == null || ModernContextHolder.getTraceNos().isEmpty()) {
 			invokeCmd.setTraceNos(Sets.newHashSet(getDefaultTraceNo()));
 		}
-		Map<String, String> extParams = Maps.newHashMap(getExtParams());
-		invokeCmd.setExtParams(extParams);
+		// 命令自带空的 extParams，没有时不再复制
+		if(!getExtParams().isEmpty()) {
+			invokeCmd.setExtParams(Maps.newHashMap(getExtParams()));
+		}
 		
-		InvokeResult result = client.invoke(invokeCmd);
-		Class<?> returnType = method.getReturnType();
-		Object ret = null;
-		if (returnType != void.class && result.getBody() != null && result.getBody().length > 0) {
-			String strBody;
-			try {
-				strBody = new String(result.getBody(), Charsets.UTF_8);
-			} catch (Throwable e) {
-				Throwables.throwIfUnchecked(e);
-				throw new RuntimeException(e);
-			}
-			if (Collection.class.isAssignableFrom(returnType)) {
-				if (ParameterizedType.class.isAssignableFrom(method.getGenericReturnType().getClass())) {
-					Class<?> clazz = (Class<?>) ((ParameterizedType) method.getGenericReturnType()).getActualTypeArguments()[0];
-					ret = JSON.parseArray(strBody, clazz);
-				} else {
-					ret = JSON.parseArray(strBody);
-				}
-			} else if(Map.class.isAssignableFrom(returnType)){
-				if (ParameterizedType.class.isAssignableFrom(method.getGenericReturnType().getClass())) {
-					ret = JSON.parseObject(strBody, method.getGenericReturnType());
-				} else {
-					ret = JSON.parseObject(strBody);
+		if(!beanMethod.async) {
+			InvokeResult result = client.invoke(invokeCmd);
+			return beanMethod.resultDecoder.decode(result);
+		}
+		
+		// 返回 Promise/CompletableFuture 的方法不阻塞调用线程
+		final ResultDecoder resultDecoder = beanMethod.resultDecoder;
+		final DefaultPromise<Object> promise = new DefaultPromise<Object>();
+		client.asyncInvoke(invokeCmd).addListener(new PromiseListener<BaseInvokeResult>() {
+			@Override
+			public void onSuccess(BaseInvokeResult result) {
+				Object ret;
+				try {
+					ret = resultDecoder.decode(result);
+				}catch (Throwable e) {
+					promise.setException(e);
+					return;
 				}
-			} else {
-				ret = JSON.parseObject(strBody, returnType);
+				promise.set(ret);
+			}
+			@Override
+			public void onFailure(Throwable t) {
+				promise.setException(normalize(t));
 			}
+		});
+		if(FutureAdapters.isCompletableFutureType(method.getReturnType())) {
+			return FutureAdapters.toCompletableFuture(promise);
 		}
-		return ret;
+		return promise;
 	}
 	
+	/**
+	 * 与同步调用 {@link com.chopsticks.core.rocketmq.caller.DefaultCaller#invoke} 抛出的异常类型一致
+	 */
+	private static CoreException normalize(Throwable e) {
+		while(e instanceof ExecutionException && e.getCause() != null) {
+			e = e.getCause();
+		}
+		if(e instanceof CancellationException) {
+			e = new TimeoutException();
+		}
+		if(e instanceof CoreException) {
+			return (CoreException) e;
+		}
+		return new DefaultCoreException(e);
+	}
+	
+	protected static class BeanMethod {
+		final Method method;
+		final String topic;
+		final String tag;
+		final ResultDecoder resultDecoder;
+		final boolean async;
+		
+		BeanMethod(Method method, String topic, String tag, ResultDecoder resultDecoder) {
+			this.method = method;
+			this.topic = topic;
+			this.tag = tag;
+			this.resultDecoder = resultDecoder;
+			this.async = FutureAdapters.isAsyncType(method.getReturnType());
+		}
+	}
 }
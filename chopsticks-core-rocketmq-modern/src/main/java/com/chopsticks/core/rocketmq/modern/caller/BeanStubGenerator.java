@@ -0,0 +1,164 @@
+package com.chopsticks.core.rocketmq.modern.caller;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+/**
+ * 用 javassist 为 bean 接口生成实现类，每个方法按下标直接调用 {@link BeanProxy#invokeStub(Object, int, Object[])}
+ * 不经过 jdk 动态代理的 InvocationHandler 分派，equals/hashCode/toString 使用 Object 的实现
+ * javassist 为可选依赖，不存在时调用方回退到 jdk 动态代理
+ * 生成的类由独立的 ClassLoader 定义，不反射调用 ClassLoader.defineClass，jdk9 以上不需要 --add-opens
+ * 因此只支持 public 接口，接口的 ClassLoader 需能看到 {@link BeanProxy}
+ */
+public class BeanStubGenerator {
+
+	private static final Logger log = LoggerFactory.getLogger(BeanStubGenerator.class);
+
+	private static final String STUB_SUFFIX = "$$BeanStub";
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private static final Cache<Class<?>, Stub> STUBS = CacheBuilder.newBuilder().weakKeys().build();
+
+	/**
+	 * 生成失败时缓存，同一接口不再重复生成
+	 */
+	private static final Stub UNAVAILABLE = new Stub(null, null);
+
+	private BeanStubGenerator() {}
+
+	/**
+	 * @return 无法生成时返回 null，失败只在第一次生成时记录
+	 */
+	public static Object newInstance(final Class<?> clazz, BeanProxy proxy) throws Exception {
+		Stub stub = STUBS.get(clazz, new Callable<Stub>() {
+			@Override
+			public Stub call() {
+				try {
+					return generate(clazz);
+				}catch (Throwable e) {
+					log.warn(String.format("bean stub unavailable, use jdk proxy, clazz : %s", clazz.getName()), e);
+					return UNAVAILABLE;
+				}
+			}
+		});
+		if(stub == UNAVAILABLE) {
+			return null;
+		}
+		proxy.bindStubMethods(stub.methods);
+		return stub.clazz.getConstructor(BeanProxy.class).newInstance(proxy);
+	}
+
+	private static Stub generate(Class<?> clazz) throws Exception {
+		if(!Modifier.isPublic(clazz.getModifiers())) {
+			throw new IllegalArgumentException("bean stub only support public interface");
+		}
+		ClassPool pool = new ClassPool(true);
+		pool.appendClassPath(new LoaderClassPath(BeanProxy.class.getClassLoader()));
+		pool.appendClassPath(new LoaderClassPath(clazz.getClassLoader()));
+		CtClass ctClass = pool.makeClass(clazz.getName() + STUB_SUFFIX + COUNTER.incrementAndGet());
+		try {
+			ctClass.addInterface(pool.get(clazz.getName()));
+			CtClass proxyClass = pool.get(BeanProxy.class.getName());
+			ctClass.addField(CtField.make(String.format("private final %s proxy;", BeanProxy.class.getName()), ctClass));
+			ctClass.addConstructor(CtNewConstructor.make(new CtClass[] {proxyClass}, new CtClass[0], "{this.proxy = $1;}", ctClass));
+			List<Method> methods = Lists.newArrayList();
+			Set<String> signatures = Sets.newHashSet();
+			for(Method method : clazz.getMethods()) {
+				if(Modifier.isStatic(method.getModifiers())
+				|| !signatures.add(method.getName() + Arrays.toString(method.getParameterTypes()) + method.getReturnType().getName())) {
+					continue;
+				}
+				int index = methods.size();
+				methods.add(method);
+				Class<?>[] parameterTypes = method.getParameterTypes();
+				CtClass[] params = new CtClass[parameterTypes.length];
+				for(int i = 0; i < parameterTypes.length; i++) {
+					params[i] = pool.get(typeName(parameterTypes[i]));
+				}
+				Class<?>[] exceptionTypes = method.getExceptionTypes();
+				CtClass[] exceptions = new CtClass[exceptionTypes.length];
+				for(int i = 0; i < exceptionTypes.length; i++) {
+					exceptions[i] = pool.get(exceptionTypes[i].getName());
+				}
+				// 与 jdk 动态代理一致，无参方法传 null
+				String call = String.format("proxy.invokeStub(this, %s, %s)", index, params.length == 0 ? "(Object[])null" : "$args");
+				String body = method.getReturnType() == void.class ? "{" + call + ";}" : "{return ($r)" + call + ";}";
+				ctClass.addMethod(CtNewMethod.make(Modifier.PUBLIC
+												, pool.get(typeName(method.getReturnType()))
+												, method.getName()
+												, params
+												, exceptions
+												, body
+												, ctClass));
+			}
+			StubClassLoader loader = new StubClassLoader(parentLoader(clazz));
+			return new Stub(loader.define(ctClass.getName(), ctClass.toBytecode(), clazz.getProtectionDomain()), methods.toArray(new Method[methods.size()]));
+		}finally {
+			ctClass.detach();
+		}
+	}
+
+	/**
+	 * 优先接口的 ClassLoader，看不到 BeanProxy 时使用 BeanProxy 的
+	 */
+	private static ClassLoader parentLoader(Class<?> clazz) {
+		ClassLoader loader = clazz.getClassLoader();
+		if(loader != null) {
+			try {
+				if(Class.forName(BeanProxy.class.getName(), false, loader) == BeanProxy.class) {
+					return loader;
+				}
+			}catch (ClassNotFoundException e) {
+				// 使用 BeanProxy 的 ClassLoader
+			}
+		}
+		return BeanProxy.class.getClassLoader();
+	}
+
+	private static String typeName(Class<?> type) {
+		return type.isArray() ? typeName(type.getComponentType()) + "[]" : type.getName();
+	}
+
+	private static class StubClassLoader extends ClassLoader {
+
+		StubClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes, ProtectionDomain protectionDomain) {
+			return defineClass(name, bytes, 0, bytes.length, protectionDomain);
+		}
+	}
+
+	private static class Stub {
+		final Class<?> clazz;
+		final Method[] methods;
+
+		Stub(Class<?> clazz, Method[] methods) {
+			this.clazz = clazz;
+			this.methods = methods;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.chopsticks.core.rocketmq.modern.caller;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Collection;
+import java.util.Map;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.DefaultJSONParser;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.chopsticks.common.utils.Reflect;
+import com.chopsticks.core.caller.InvokeResult;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
+import com.chopsticks.core.rocketmq.modern.FutureAdapters;
+import com.google.common.base.Charsets;
+
+/**
+ * 按方法返回类型预先确定的响应解析，直接从响应 body 视图解析，不复制 byte[] 也不生成 String
+ */
+class ResultDecoder {
+
+	private static final ThreadLocal<CharsetDecoder> UTF8_DECODER = new ThreadLocal<CharsetDecoder>() {
+		@Override
+		protected CharsetDecoder initialValue() {
+			return Charsets.UTF_8.newDecoder()
+								 .onMalformedInput(CodingErrorAction.REPLACE)
+								 .onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	};
+
+	private final boolean isVoid;
+
+	/**
+	 * 为 null 时解析为 JSONArray 或 JSONObject
+	 */
+	private final Type type;
+
+	private final boolean isArray;
+
+	/**
+	 * @param genericReturnType 异步方法为 {@link FutureAdapters#getValueType(java.lang.reflect.Method)}
+	 */
+	ResultDecoder(Type genericReturnType) {
+		Class<?> returnType = FutureAdapters.getRawType(genericReturnType);
+		isVoid = returnType == void.class || returnType == Void.class;
+		if(Collection.class.isAssignableFrom(returnType) || Map.class.isAssignableFrom(returnType)) {
+			isArray = Collection.class.isAssignableFrom(returnType);
+			if(genericReturnType instanceof ParameterizedType) {
+				type = genericReturnType;
+			}else if(returnType.isAssignableFrom(isArray ? JSONArray.class : JSONObject.class)) {
+				type = null;
+			}else {
+				type = returnType;
+			}
+		}else {
+			isArray = false;
+			type = Reflect.wrapper(returnType);
+		}
+	}
+
+	Object decode(InvokeResult result) {
+		if(isVoid) {
+			return null;
+		}
+		ByteBuffer buf;
+		if(result instanceof BaseInvokeResult) {
+			buf = ((BaseInvokeResult) result).getBodyBuffer();
+		}else {
+			byte[] body = result.getBody();
+			buf = body == null ? null : ByteBuffer.wrap(body);
+		}
+		if(buf == null || !buf.hasRemaining()) {
+			return null;
+		}
+		char[] chars = new char[buf.remaining()];
+		CharBuffer out = CharBuffer.wrap(chars);
+		CharsetDecoder decoder = UTF8_DECODER.get();
+		decoder.reset();
+		decoder.decode(buf, out, true);
+		decoder.flush(out);
+		DefaultJSONParser parser = new DefaultJSONParser(chars, out.position(), ParserConfig.getGlobalInstance(), JSON.DEFAULT_PARSER_FEATURE);
+		Object ret;
+		if(type != null) {
+			ret = parser.parseObject(type);
+		}else if(isArray) {
+			JSONArray array = new JSONArray();
+			parser.parseArray(array);
+			ret = array;
+		}else {
+			ret = parser.parseObject();
+		}
+		parser.handleResovleTask(ret);
+		parser.close();
+		return ret;
+	}
+}
@@ -0,0 +1,11 @@
+package com.chopsticks.core.rocketmq.modern.handler;
+
+import java.util.Map;
+
+/**
+ * 方法使用独立的执行器，慢方法不占用其他方法的消费线程
+ */
+public interface DedicatedExecutor {
+	
+	public Map</*methodName*/String, /*executor maxConcurrency*/Integer> dedicatedExecutor();
+}
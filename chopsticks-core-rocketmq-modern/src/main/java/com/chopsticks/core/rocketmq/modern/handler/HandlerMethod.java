@@ -0,0 +1,62 @@
+package com.chopsticks.core.rocketmq.modern.handler;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+
+import com.chopsticks.common.utils.Reflect;
+import com.chopsticks.core.rocketmq.modern.FutureAdapters;
+
+/**
+ * 已解析的 handler 方法，解析后不再按名称和参数查找
+ */
+public class HandlerMethod {
+
+	private final Method method;
+
+	private final Type[] parameterTypes;
+
+	private final boolean async;
+
+	private final Class<?> resultType;
+
+	public HandlerMethod(Method method) {
+		this.method = Reflect.accessible(method);
+		this.parameterTypes = method.getGenericParameterTypes();
+		this.async = FutureAdapters.isAsyncType(method.getReturnType());
+		this.resultType = Reflect.wrapper(FutureAdapters.getRawType(FutureAdapters.getValueType(method)));
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * 泛型参数类型，类型化参数按此解析
+	 */
+	public Type[] getParameterTypes() {
+		return parameterTypes;
+	}
+
+	/**
+	 * 返回 Promise/CompletableFuture 等异步类型
+	 */
+	public boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * 响应值类型，异步方法为泛型参数的类型
+	 */
+	public Class<?> getResultType() {
+		return resultType;
+	}
+
+	public Object invoke(Object obj, Object... args) throws Throwable {
+		return method.invoke(obj, args);
+	}
+
+	@Override
+	public String toString() {
+		return method.toString();
+	}
+}
@@ -0,0 +1,11 @@
+package com.chopsticks.core.rocketmq.modern.handler;
+
+import java.util.Map;
+
+/**
+ * 方法级并发上限，超过时 invoke 被拒绝，notice 稍后重试
+ */
+public interface MaxConcurrency {
+	
+	public Map</*methodName*/String, /*maxConcurrency*/Integer> maxConcurrency();
+}
@@ -5,6 +5,7 @@ import java.util.Set;
 
 import com.chopsticks.common.concurrent.Promise;
 import com.chopsticks.core.modern.handler.ModernNoticeContext;
+import com.chopsticks.core.rocketmq.Const;
 import com.google.common.collect.Maps;
 
 public class ModernContextHolder {
@@ -13,6 +14,7 @@ public class ModernContextHolder {
 	private static final ThreadLocal<Map<String, String>> EXT_PARAMS = new ThreadLocal<Map<String,String>>();
 	private static final ThreadLocal<Set<String>> TRACE_NOS = new ThreadLocal<Set<String>>();
 	private static final ThreadLocal<Long> REQ_TIME = new ThreadLocal<Long>();
+	private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<Long>();
 	private static final ThreadLocal<Promise<?>> INVOKE_EXECUTE_PROMISE = new ThreadLocal<Promise<?>>();
 	
 	public static final String INTERFACE_NAME_KEY = "interfaceNameKey";
@@ -44,6 +46,7 @@ public class ModernContextHolder {
 		EXT_PARAMS.remove();
 		TRACE_NOS.remove();
 		REQ_TIME.remove();
+		DEADLINE.remove();
 		INVOKE_EXECUTE_PROMISE.remove();
 		EXT.remove();
 	}
@@ -65,6 +68,23 @@ public class ModernContextHolder {
 	public static long getReqTime() {
 		return REQ_TIME.get();
 	}
+	public static void setDeadline(long deadline) {
+		DEADLINE.set(deadline);
+	}
+	/**
+	 * @return invoke 调用方的截止时间，notice 或未设置时返回 {@link Long#MAX_VALUE}
+	 */
+	public static long getDeadline() {
+		Long deadline = DEADLINE.get();
+		return deadline == null ? Long.MAX_VALUE : deadline;
+	}
+	/**
+	 * @return 距离调用方截止时间的剩余毫秒数，小于等于0时调用方已不再等待，handler 可以提前结束
+	 */
+	public static long getRemainingMillis() {
+		long deadline = getDeadline();
+		return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - Const.CLIENT_TIME.getNow();
+	}
 	
 	public static String getInterfaceName(){
 		return EXT.get().get(INTERFACE_NAME_KEY) + "";
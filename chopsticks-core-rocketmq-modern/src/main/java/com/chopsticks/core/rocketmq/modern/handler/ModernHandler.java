@@ -3,6 +3,10 @@ package com.chopsticks.core.rocketmq.modern.handler;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 import org.slf4j.Logger;
@@ -26,41 +30,151 @@ import com.chopsticks.core.rocketmq.handler.BaseNoticeContext;
 import com.chopsticks.core.rocketmq.handler.impl.DefaultHandlerResult;
 import com.chopsticks.core.rocketmq.modern.Const;
 import com.chopsticks.core.rocketmq.modern.DefaultModernClient;
+import com.chopsticks.core.rocketmq.modern.FutureAdapters;
+import com.chopsticks.core.rocketmq.modern.ParamsCodec;
 import com.chopsticks.core.rocketmq.modern.exception.ModernCoreException;
 import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 public class ModernHandler extends BaseHandler{
 	
 	private static final Logger log = LoggerFactory.getLogger(ModernHandler.class);
 	
 	
+	/**
+	 * 参数类型组合由调用方决定，超出后不再缓存
+	 */
+	private static final int MAX_METHOD_CACHE_SIZE = 64;
+	
+	private static final byte[] EMPTY_PARAMS_BYTES = Const.EMPTY_PARAMS.getBytes(Charsets.UTF_8);
+	
 	private Object obj;
 	private DefaultModernClient client;
 	
+	/**
+	 * 方法名 + 实际参数类型 -> 方法，启动时按声明的参数类型预先填充
+	 */
+	private final ConcurrentMap<Signature, HandlerMethod> methods = Maps.newConcurrentMap();
+	
+	/**
+	 * 与 tag 同名的方法，类型化参数从中选择
+	 */
+	private final List<HandlerMethod> typedMethods;
+	
 	public ModernHandler(Object obj, String topic, String tag, DefaultModernClient client) {
 		super(topic, tag);
 		this.obj = obj;
 		this.client = client;
+		for(Method method : obj.getClass().getMethods()) {
+			if(method.getName().equals(tag)) {
+				Class<?>[] types = method.getParameterTypes().clone();
+				for(int i = 0; i < types.length; i++) {
+					types[i] = Reflect.wrapper(types[i]);
+				}
+				Signature signature = new Signature(tag, types);
+				if(!methods.containsKey(signature)) {
+					methods.put(signature, new HandlerMethod(Reflect.getMethod(obj.getClass(), tag, types)));
+				}
+			}
+		}
+		this.typedMethods = buildTypedMethods(tag);
+	}
+	
+	private List<HandlerMethod> buildTypedMethods(String methodName) {
+		List<HandlerMethod> typedMethods = Lists.newArrayList();
+		for(Method method : obj.getClass().getMethods()) {
+			if(method.getName().equals(methodName) && !method.isBridge()) {
+				typedMethods.add(new HandlerMethod(method));
+			}
+		}
+		return Collections.unmodifiableList(typedMethods);
+	}
+	
+	/**
+	 * 类型化参数不带类型信息，同名重载按参数个数选择
+	 */
+	private HandlerMethod getTypedHandlerMethod(String methodName, byte[] body) {
+		List<HandlerMethod> candidates = methodName.equals(getTag()) ? typedMethods : buildTypedMethods(methodName);
+		if(candidates.size() == 1) {
+			return candidates.get(0);
+		}
+		int size = ParamsCodec.size(body);
+		HandlerMethod ret = null;
+		for(HandlerMethod candidate : candidates) {
+			if(candidate.getParameterTypes().length == size) {
+				if(ret != null) {
+					throw new ModernCoreException(String.format("method %s with %s params is ambiguous", methodName, size));
+				}
+				ret = candidate;
+			}
+		}
+		if(ret == null) {
+			throw new ModernCoreException(String.format("method %s with %s params not found", methodName, size));
+		}
+		return ret;
+	}
+	
+	/**
+	 * 带前缀的类型化参数，或关闭 autoType 后的所有参数
+	 */
+	private boolean isTypedParams(byte[] body) {
+		if(body == null || body.length == 0 || Arrays.equals(body, EMPTY_PARAMS_BYTES)) {
+			return false;
+		}
+		return ParamsCodec.isTyped(body) || !client.isParamsAutoType();
+	}
+	
+	/**
+	 * 与 {@link Reflect#getMethod(Object, String, Object...)} 结果相同，相同参数类型只查找一次
+	 */
+	private HandlerMethod getHandlerMethod(String methodName, Object[] args) {
+		Class<?>[] types = new Class<?>[args == null ? 0 : args.length];
+		for(int i = 0; i < types.length; i++) {
+			types[i] = args[i] == null ? null : args[i].getClass();
+		}
+		Signature signature = new Signature(methodName, types);
+		HandlerMethod method = methods.get(signature);
+		if(method == null) {
+			method = new HandlerMethod(Reflect.getMethod(obj.getClass(), methodName, types));
+			if(methods.size() < MAX_METHOD_CACHE_SIZE) {
+				methods.putIfAbsent(signature, method);
+			}
+		}
+		return method;
 	}
 
 	@Override
 	public HandlerResult invoke(InvokeParams params, InvokeContext ctx) {
 		Object[] args = null;
-		if(params.getBody() != null && params.getBody().length > 0) {
-			String body = new String(params.getBody(), Charsets.UTF_8);
-			if(!Const.EMPTY_PARAMS.equals(body)) {
-				try {
-					args = JSON.parseArray(body).toArray();
-				}catch (Throwable e) {
-					throw new ModernCoreException(String.format("bean : %s, method %s , params : %s build error", obj, params.getMethod(), body), e).setCode(ModernCoreException.MODERN_INVOKE_METHOD_PARAMS_BUILD_ERROR);
+		HandlerMethod invokeMethod = null;
+		if(isTypedParams(params.getBody())) {
+			try {
+				invokeMethod = getTypedHandlerMethod(params.getMethod(), params.getBody());
+			}catch (Throwable e) {
+				throw new ModernCoreException(String.format("bean : %s, method %s , params : %s, not found.", obj, params.getMethod(), new String(params.getBody(), Charsets.UTF_8)), e).setCode(ModernCoreException.MODERN_INVOKE_METHOD_NOT_FOUND);
+			}
+			try {
+				args = ParamsCodec.decode(params.getBody(), invokeMethod.getParameterTypes());
+			}catch (Throwable e) {
+				throw new ModernCoreException(String.format("bean : %s, method %s , params : %s build error", obj, params.getMethod(), new String(params.getBody(), Charsets.UTF_8)), e).setCode(ModernCoreException.MODERN_INVOKE_METHOD_PARAMS_BUILD_ERROR);
+			}
+		}else {
+			if(params.getBody() != null && params.getBody().length > 0) {
+				String body = new String(params.getBody(), Charsets.UTF_8);
+				if(!Const.EMPTY_PARAMS.equals(body)) {
+					try {
+						args = JSON.parseArray(body).toArray();
+					}catch (Throwable e) {
+						throw new ModernCoreException(String.format("bean : %s, method %s , params : %s build error", obj, params.getMethod(), body), e).setCode(ModernCoreException.MODERN_INVOKE_METHOD_PARAMS_BUILD_ERROR);
+					}
 				}
 			}
-		}
-		Method invokeMethod = null;
-		try {
-			invokeMethod = Reflect.getMethod(obj, params.getMethod(), args);
-		}catch (Throwable e) {
-			throw new ModernCoreException(String.format("bean : %s, method %s , params : %s, not found.", obj, params.getMethod(), args), e).setCode(ModernCoreException.MODERN_INVOKE_METHOD_NOT_FOUND);
+			try {
+				invokeMethod = getHandlerMethod(params.getMethod(), args);
+			}catch (Throwable e) {
+				throw new ModernCoreException(String.format("bean : %s, method %s , params : %s, not found.", obj, params.getMethod(), args), e).setCode(ModernCoreException.MODERN_INVOKE_METHOD_NOT_FOUND);
+			}
 		}
 		Object methodRet;
 		BaseInvokeContext mqCtx = (BaseInvokeContext) ctx;
@@ -68,11 +182,21 @@ public class ModernHandler extends BaseHandler{
 		Promise<?> invokeExecutePromise = null;
 		try {
 			ModernContextHolder.setReqTime(mqCtx.getReqTime());
+			ModernContextHolder.setDeadline(mqCtx.getDeadline());
 			ModernContextHolder.setExtParams(mqCtx.getExtParams());
 			ModernContextHolder.setTraceNos(mqCtx.getTraceNos());
 			ModernContextHolder.setInterfaceName(getTopic());
-			methodRet = client.getModernClientProxy().invokeExecuteProxy(obj, params.getMethod(), args);
+			methodRet = client.getModernClientProxy().invokeExecuteProxy(obj, invokeMethod, args);
 			invokeExecutePromise = ModernContextHolder.getInvokeExecutePromise();
+			if(invokeExecutePromise == null && invokeMethod.isAsync()) {
+				if(methodRet instanceof Promise) {
+					invokeExecutePromise = (Promise<?>) methodRet;
+					methodRet = null;
+				}else if(FutureAdapters.isCompletionStage(methodRet)) {
+					invokeExecutePromise = FutureAdapters.toPromise(methodRet);
+					methodRet = null;
+				}
+			}
 //			if(invokeExecutePromise != null) {
 //				Class<?> returnType = (Class<?>)((ParameterizedType)invokeExecutePromise.getClass().getGenericInterfaces()[0]).getActualTypeArguments()[0];
 //				if(invokeMethod.getReturnType() != returnType) {
@@ -104,7 +228,7 @@ public class ModernHandler extends BaseHandler{
 		DefaultHandlerResult ret = new DefaultHandlerResult(respBody);
 		if(invokeExecutePromise != null) {
 			final DefaultPromise<HandlerResult> promise = new DefaultPromise<HandlerResult>();
-			final Class<?> returnType = invokeMethod.getReturnType();
+			final Class<?> returnType = invokeMethod.getResultType();
 			invokeExecutePromise.addListener(new PromiseListener<Object>() {
 				@Override
 				public void onFailure(Throwable t) {
@@ -140,23 +264,39 @@ public class ModernHandler extends BaseHandler{
 	public void notice(NoticeParams params, NoticeContext ctx) {
 		
 		Object[] args = null;
-		if(params.getBody() != null && params.getBody().length > 0) {
-			String body = new String(params.getBody(), Charsets.UTF_8);
-			if(!Const.EMPTY_PARAMS.equals(body)) {
-				try {
-					args = JSON.parseArray(body).toArray();
-				}catch (Throwable e) {
-					log.error(String.format("bean : %s, method %s , params : %s build error", obj, params.getMethod(), body), e);
-					return;
-//					throw new ModernCoreException(String.format("bean : %s, method %s , params : %s build error", obj, params.getMethod(), body), e).setCode(ModernCoreException.MODERN_NOTICE_METHOD_PARAMS_BUILD_ERROR);
+		HandlerMethod noticeMethod = null;
+		if(isTypedParams(params.getBody())) {
+			try {
+				noticeMethod = getTypedHandlerMethod(params.getMethod(), params.getBody());
+			}catch (Throwable e) {
+				log.error(String.format("noticeId : %s, bean : %s, method %s , params : %s, not found.", ctx.getId(), obj, params.getMethod(), new String(params.getBody(), Charsets.UTF_8)), e);
+				return;
+			}
+			try {
+				args = ParamsCodec.decode(params.getBody(), noticeMethod.getParameterTypes());
+			}catch (Throwable e) {
+				log.error(String.format("bean : %s, method %s , params : %s build error", obj, params.getMethod(), new String(params.getBody(), Charsets.UTF_8)), e);
+				return;
+			}
+		}else {
+			if(params.getBody() != null && params.getBody().length > 0) {
+				String body = new String(params.getBody(), Charsets.UTF_8);
+				if(!Const.EMPTY_PARAMS.equals(body)) {
+					try {
+						args = JSON.parseArray(body).toArray();
+					}catch (Throwable e) {
+						log.error(String.format("bean : %s, method %s , params : %s build error", obj, params.getMethod(), body), e);
+						return;
+//						throw new ModernCoreException(String.format("bean : %s, method %s , params : %s build error", obj, params.getMethod(), body), e).setCode(ModernCoreException.MODERN_NOTICE_METHOD_PARAMS_BUILD_ERROR);
+					}
 				}
 			}
-		}
-		try {
-			Reflect.getMethod(obj, params.getMethod(), args);
-		}catch (Throwable e) {
-			log.error("noticeId : {}, bean : {}, method {} , params : {}, not found.", ctx.getId(), obj, params.getMethod(), args);
-			return;
+			try {
+				noticeMethod = getHandlerMethod(params.getMethod(), args);
+			}catch (Throwable e) {
+				log.error("noticeId : {}, bean : {}, method {} , params : {}, not found.", ctx.getId(), obj, params.getMethod(), args);
+				return;
+			}
 		}
 		BaseNoticeContext mqCtx = (BaseNoticeContext) ctx;
 		String oldThreadName = Thread.currentThread().getName();
@@ -168,7 +308,7 @@ public class ModernHandler extends BaseHandler{
 			ModernContextHolder.setTraceNos(mqCtx.getTraceNos());
 			ModernContextHolder.setInterfaceName(getTopic());
 			Thread.currentThread().setName(String.format("%s_%s", baseCtx.getId(), oldThreadName));
-			client.getModernClientProxy().noticeExecuteProxy(obj, params.getMethod(), args);
+			client.getModernClientProxy().noticeExecuteProxy(obj, noticeMethod, args);
 //			Reflect.on(obj).call(params.getMethod(), args).get();
 		}catch (CoreException e) {
 			throw e;
@@ -191,4 +331,33 @@ public class ModernHandler extends BaseHandler{
 		}
 		
 	}
+	
+	private static final class Signature {
+		private final String methodName;
+		private final Class<?>[] types;
+		private final int hash;
+		
+		Signature(String methodName, Class<?>[] types) {
+			this.methodName = methodName;
+			this.types = types;
+			this.hash = 31 * methodName.hashCode() + Arrays.hashCode(types);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			if(!(obj instanceof Signature)) {
+				return false;
+			}
+			Signature other = (Signature) obj;
+			return methodName.equals(other.methodName) && Arrays.equals(types, other.types);
+		}
+	}
 }
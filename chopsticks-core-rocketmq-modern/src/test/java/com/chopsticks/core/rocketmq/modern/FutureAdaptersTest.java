@@ -0,0 +1,91 @@
+package com.chopsticks.core.rocketmq.modern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import com.chopsticks.common.concurrent.Promise;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
+
+public class FutureAdaptersTest {
+	
+	private static Throwable failure(Future<?> future) throws InterruptedException {
+		try {
+			future.get();
+			fail();
+			return null;
+		}catch (ExecutionException e) {
+			return e.getCause();
+		}
+	}
+	
+	@Test
+	public void testAsyncType() {
+		assertTrue(FutureAdapters.isPromiseType(Promise.class));
+		assertTrue(FutureAdapters.isPromiseType(Future.class));
+		assertTrue(FutureAdapters.isCompletableFutureType(CompletableFuture.class));
+		assertTrue(FutureAdapters.isCompletableFutureType(CompletionStage.class));
+		assertFalse(FutureAdapters.isAsyncType(Object.class));
+		assertFalse(FutureAdapters.isAsyncType(String.class));
+	}
+	
+	@Test
+	public void testToPromise() throws Exception {
+		CompletableFuture<String> future = new CompletableFuture<String>();
+		Promise<Object> promise = FutureAdapters.toPromise(future);
+		assertFalse(promise.isDone());
+		future.complete("a");
+		assertEquals("a", promise.get());
+		
+		// 异常完成时原样传递
+		future = new CompletableFuture<String>();
+		promise = FutureAdapters.toPromise(future);
+		IllegalStateException cause = new IllegalStateException();
+		future.completeExceptionally(cause);
+		assertSame(cause, failure(promise));
+	}
+	
+	@Test
+	public void testToPromiseUnwrapCompletionException() throws Exception {
+		CompletableFuture<String> future = new CompletableFuture<String>();
+		IllegalStateException cause = new IllegalStateException();
+		future.completeExceptionally(new CompletionException(cause));
+		assertSame(cause, failure(FutureAdapters.toPromise(future)));
+		
+		// 依赖阶段失败时 jdk 包装为 CompletionException
+		CompletableFuture<String> source = new CompletableFuture<String>();
+		CompletableFuture<Void> dependent = source.thenAccept(new Consumer<String>() {
+			@Override
+			public void accept(String value) {}
+		});
+		Promise<Object> promise = FutureAdapters.toPromise(dependent);
+		source.completeExceptionally(cause);
+		assertSame(cause, failure(promise));
+	}
+	
+	@Test
+	public void testToCompletableFuture() throws Exception {
+		DefaultPromise<String> promise = new DefaultPromise<String>();
+		CompletableFuture<?> future = (CompletableFuture<?>) FutureAdapters.toCompletableFuture(promise);
+		assertFalse(future.isDone());
+		promise.set("a");
+		assertEquals("a", future.get());
+		
+		promise = new DefaultPromise<String>();
+		future = (CompletableFuture<?>) FutureAdapters.toCompletableFuture(promise);
+		IllegalStateException cause = new IllegalStateException();
+		promise.setException(cause);
+		assertSame(cause, failure(future));
+	}
+}
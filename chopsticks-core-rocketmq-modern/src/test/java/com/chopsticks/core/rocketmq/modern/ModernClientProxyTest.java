@@ -0,0 +1,49 @@
+package com.chopsticks.core.rocketmq.modern;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.chopsticks.core.rocketmq.modern.handler.HandlerMethod;
+import com.google.common.collect.Lists;
+
+public class ModernClientProxyTest {
+	
+	public static class Service {
+		public String echo(String value) {
+			return value;
+		}
+	}
+	
+	@Test
+	public void testDefault() throws Throwable {
+		ModernClientProxy proxy = new ModernClientProxy();
+		HandlerMethod method = new HandlerMethod(Service.class.getMethod("echo", String.class));
+		String ret = proxy.invokeExecuteProxy(new Service(), method, "a");
+		assertEquals("a", ret);
+	}
+	
+	@Test
+	public void testOverridden() throws Throwable {
+		final List<String> calls = Lists.newArrayList();
+		ModernClientProxy proxy = new ModernClientProxy() {
+			@Override
+			public <T> T invokeExecuteProxy(Object obj, String method, Object... args) throws Throwable {
+				calls.add("invoke-" + method);
+				return super.invokeExecuteProxy(obj, method, args);
+			}
+			@Override
+			public void noticeExecuteProxy(Object obj, String method, Object... args) throws Throwable {
+				calls.add("notice-" + method);
+				super.noticeExecuteProxy(obj, method, args);
+			}
+		};
+		HandlerMethod method = new HandlerMethod(Service.class.getMethod("echo", String.class));
+		String ret = proxy.invokeExecuteProxy(new Service(), method, "a");
+		proxy.noticeExecuteProxy(new Service(), method, "b");
+		assertEquals("a", ret);
+		assertEquals(Lists.newArrayList("invoke-echo", "notice-echo"), calls);
+	}
+}
@@ -0,0 +1,126 @@
+package com.chopsticks.core.rocketmq.modern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class ParamsCodecTest {
+	
+	public static class Bean {
+		private String name;
+		public Bean() {}
+		public Bean(String name) {
+			this.name = name;
+		}
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+	
+	public static class Service {
+		public void generic(List<Bean> beans, Map<String, Bean> beanMap) {}
+		public void nested(List<List<Bean>> beans, Map<String, List<Integer>> numbers, Set<Long> ids) {}
+		public void nulls(String name, Bean bean, Integer count) {}
+	}
+	
+	private static Type[] types(String methodName) {
+		for(Method method : Service.class.getMethods()) {
+			if(method.getName().equals(methodName)) {
+				return method.getGenericParameterTypes();
+			}
+		}
+		throw new IllegalArgumentException(methodName);
+	}
+	
+	@Test
+	public void testGenericParams() {
+		byte[] body = ParamsCodec.encode(new Object[] {Lists.newArrayList(new Bean("a")), ImmutableMap.of("b", new Bean("b"))});
+		assertTrue(ParamsCodec.isTyped(body));
+		assertFalse(new String(body, Charsets.UTF_8).contains("@type"));
+		Object[] args = ParamsCodec.decode(body, types("generic"));
+		assertEquals(2, args.length);
+		Object bean = ((List<?>)args[0]).get(0);
+		assertTrue(bean instanceof Bean);
+		assertEquals("a", ((Bean)bean).getName());
+		bean = ((Map<?, ?>)args[1]).get("b");
+		assertTrue(bean instanceof Bean);
+		assertEquals("b", ((Bean)bean).getName());
+	}
+	
+	@Test
+	public void testNestedCollections() {
+		List<List<Bean>> beans = Lists.newArrayList();
+		beans.add(Lists.newArrayList(new Bean("a"), new Bean("b")));
+		beans.add(Lists.<Bean>newArrayList());
+		Map<String, List<Integer>> numbers = ImmutableMap.<String, List<Integer>>of("n", Lists.newArrayList(1, 2));
+		Set<Long> ids = Sets.newHashSet(1L, 2L);
+		Object[] args = ParamsCodec.decode(ParamsCodec.encode(new Object[] {beans, numbers, ids}), types("nested"));
+		List<?> first = (List<?>)((List<?>)args[0]).get(0);
+		assertEquals(2, first.size());
+		assertTrue(first.get(1) instanceof Bean);
+		assertEquals("b", ((Bean)first.get(1)).getName());
+		assertTrue(((List<?>)((List<?>)args[0]).get(1)).isEmpty());
+		assertEquals(Lists.newArrayList(1, 2), ((Map<?, ?>)args[1]).get("n"));
+		assertTrue(args[2] instanceof Set);
+		// 按声明类型解析为 Long，而不是默认的 Integer
+		assertEquals(ids, args[2]);
+	}
+	
+	@Test
+	public void testNullArgs() {
+		byte[] body = ParamsCodec.encode(new Object[] {null, null, 1});
+		assertEquals(3, ParamsCodec.size(body));
+		Object[] args = ParamsCodec.decode(body, types("nulls"));
+		assertArrayEquals(new Object[] {null, null, 1}, args);
+		
+		args = ParamsCodec.decode(ParamsCodec.encode(new Object[] {"a", new Bean(null), null}), types("nulls"));
+		assertEquals("a", args[0]);
+		assertNull(((Bean)args[1]).getName());
+		assertNull(args[2]);
+	}
+	
+	@Test
+	public void testSize() {
+		assertEquals(0, ParamsCodec.size(ParamsCodec.encode(new Object[0])));
+		assertEquals(2, ParamsCodec.size(ParamsCodec.encode(new Object[] {Lists.newArrayList(1, 2), ImmutableMap.of("a", 1)})));
+		// 不带前缀的旧格式
+		assertEquals(2, ParamsCodec.size("[\"a\",[1,2]]".getBytes(Charsets.UTF_8)));
+	}
+	
+	@Test
+	public void testUntypedBody() {
+		Object[] args = ParamsCodec.decode("[\"a\",{\"name\":\"b\"},3]".getBytes(Charsets.UTF_8), types("nulls"));
+		assertEquals("a", args[0]);
+		assertEquals("b", ((Bean)args[1]).getName());
+		assertEquals(3, args[2]);
+	}
+	
+	@Test
+	public void testAutoTypeRejected() {
+		byte[] body = "[\"a\",{\"@type\":\"java.net.Inet4Address\",\"val\":\"127.0.0.1\"},3]".getBytes(Charsets.UTF_8);
+		try {
+			ParamsCodec.decode(body, types("nulls"));
+			fail();
+		}catch (RuntimeException e) {
+		}
+	}
+}
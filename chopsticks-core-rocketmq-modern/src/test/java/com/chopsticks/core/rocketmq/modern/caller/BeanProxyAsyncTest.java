@@ -0,0 +1,142 @@
+package com.chopsticks.core.rocketmq.modern.caller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSONException;
+import com.chopsticks.common.concurrent.Promise;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
+import com.chopsticks.core.exception.CoreException;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeCommand;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
+import com.chopsticks.core.rocketmq.caller.impl.DefaultInvokeResult;
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+import com.chopsticks.core.rocketmq.modern.DefaultModernClient;
+import com.google.common.base.Charsets;
+
+public class BeanProxyAsyncTest {
+	
+	public static class Bean {
+		private String name;
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+	
+	public interface Service {
+		CompletableFuture<List<Bean>> future();
+		Promise<Bean> promise();
+	}
+	
+	/**
+	 * 不发送请求，asyncInvoke 返回测试控制的 promise
+	 */
+	private static class StubClient extends DefaultModernClient {
+		
+		final DefaultPromise<BaseInvokeResult> result = new DefaultPromise<BaseInvokeResult>();
+		
+		BaseInvokeCommand cmd;
+		
+		StubClient() {
+			super("test");
+		}
+		
+		@Override
+		public Promise<BaseInvokeResult> asyncInvoke(BaseInvokeCommand cmd) {
+			this.cmd = cmd;
+			return result;
+		}
+	}
+	
+	private static Object invoke(StubClient client, String methodName) throws Throwable {
+		Method method = Service.class.getMethod(methodName);
+		return new BeanProxy(Service.class, client).invoke(null, method, null);
+	}
+	
+	private static BaseInvokeResult result(String json) {
+		return new DefaultInvokeResult(json.getBytes(Charsets.UTF_8));
+	}
+	
+	private static Throwable failure(CompletableFuture<?> future) throws InterruptedException {
+		try {
+			future.get();
+			fail();
+			return null;
+		}catch (ExecutionException e) {
+			return e.getCause();
+		}
+	}
+	
+	private static Throwable failure(Promise<?> promise) throws InterruptedException {
+		try {
+			promise.get();
+			fail();
+			return null;
+		}catch (ExecutionException e) {
+			return e.getCause();
+		}
+	}
+	
+	@Test
+	public void testCompletableFuture() throws Throwable {
+		StubClient client = new StubClient();
+		CompletableFuture<?> future = (CompletableFuture<?>) invoke(client, "future");
+		assertEquals("future", client.cmd.getMethod());
+		// 结果返回前不阻塞调用线程
+		assertFalse(future.isDone());
+		client.result.set(result("[{\"name\":\"a\"}]"));
+		List<?> beans = (List<?>) future.get();
+		assertEquals("a", ((Bean) beans.get(0)).getName());
+		
+		client = new StubClient();
+		future = (CompletableFuture<?>) invoke(client, "future");
+		client.result.set(result("{not json"));
+		assertTrue(failure(future) instanceof JSONException);
+	}
+	
+	@Test
+	public void testPromise() throws Throwable {
+		StubClient client = new StubClient();
+		Promise<?> promise = (Promise<?>) invoke(client, "promise");
+		assertFalse(promise.isDone());
+		client.result.set(result("{\"name\":\"b\"}"));
+		assertEquals("b", ((Bean) promise.get()).getName());
+		
+		client = new StubClient();
+		promise = (Promise<?>) invoke(client, "promise");
+		client.result.set(result("[1]"));
+		assertTrue(failure(promise) instanceof JSONException);
+	}
+	
+	@Test
+	public void testFailureNormalized() throws Throwable {
+		// 与同步调用一致，非 CoreException 包装为 DefaultCoreException
+		StubClient client = new StubClient();
+		CompletableFuture<?> future = (CompletableFuture<?>) invoke(client, "future");
+		IllegalStateException cause = new IllegalStateException("send failed");
+		client.result.setException(new ExecutionException(cause));
+		Throwable t = failure(future);
+		assertTrue(t instanceof DefaultCoreException);
+		assertSame(cause, t.getCause());
+		
+		// CoreException 原样返回
+		client = new StubClient();
+		Promise<?> promise = (Promise<?>) invoke(client, "promise");
+		CoreException coreException = new DefaultCoreException("shutdown").setCode(DefaultCoreException.INVOKE_HANDLER_SHUTDOWN);
+		client.result.setException(coreException);
+		assertSame(coreException, failure(promise));
+	}
+}
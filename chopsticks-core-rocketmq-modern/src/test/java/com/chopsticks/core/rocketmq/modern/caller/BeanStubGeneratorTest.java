@@ -0,0 +1,141 @@
+package com.chopsticks.core.rocketmq.modern.caller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.chopsticks.core.rocketmq.modern.DefaultModernClient;
+import com.google.common.collect.Lists;
+
+public class BeanStubGeneratorTest {
+	
+	public interface Service {
+		int add(int a, int b);
+		void run(String value);
+		String echo(String value);
+		long now();
+		String[] split(String value, char[] separators);
+		String declared() throws IOException;
+		String undeclared();
+	}
+	
+	interface HiddenService {
+		String echo(String value);
+	}
+	
+	/**
+	 * 不发送请求，记录 stub 传入的方法和参数
+	 */
+	private static class RecordingProxy extends BeanProxy {
+		
+		final List<Method> methods = Lists.newArrayList();
+		
+		final List<Object[]> args = Lists.newArrayList();
+		
+		RecordingProxy(Class<?> clazz, DefaultModernClient client) {
+			super(clazz, client);
+		}
+		
+		@Override
+		public Object innerInvoke(Object proxy, Method method, Object[] args) throws Throwable {
+			this.methods.add(method);
+			this.args.add(args);
+			if(method.getName().equals("add")) {
+				return (Integer)args[0] + (Integer)args[1];
+			}else if(method.getName().equals("echo")) {
+				return args[0];
+			}else if(method.getName().equals("now")) {
+				return 42L;
+			}else if(method.getName().equals("split")) {
+				return new String[] {(String)args[0], String.valueOf((char[])args[1])};
+			}else if(method.getName().equals("declared") || method.getName().equals("undeclared")) {
+				throw new IOException(method.getName());
+			}
+			return null;
+		}
+	}
+	
+	@Test
+	public void testStubDispatch() throws Exception {
+		RecordingProxy proxy = new RecordingProxy(Service.class, new DefaultModernClient("test"));
+		Service service = (Service)BeanStubGenerator.newInstance(Service.class, proxy);
+		assertFalse(Proxy.isProxyClass(service.getClass()));
+		
+		assertEquals(3, service.add(1, 2));
+		assertEquals(Service.class.getMethod("add", int.class, int.class), proxy.methods.get(0));
+		assertArrayEquals(new Object[] {1, 2}, proxy.args.get(0));
+		
+		service.run("a");
+		assertArrayEquals(new Object[] {"a"}, proxy.args.get(1));
+		
+		assertEquals("b", service.echo("b"));
+		// 与 jdk 动态代理一致，无参方法传 null
+		assertEquals(42L, service.now());
+		assertNull(proxy.args.get(3));
+		
+		assertArrayEquals(new String[] {"c", "de"}, service.split("c", new char[] {'d', 'e'}));
+	}
+	
+	@Test
+	public void testExceptions() throws Exception {
+		Service service = (Service)BeanStubGenerator.newInstance(Service.class, new RecordingProxy(Service.class, new DefaultModernClient("test")));
+		try {
+			service.declared();
+			fail();
+		}catch (IOException e) {
+			assertEquals("declared", e.getMessage());
+		}
+		try {
+			service.undeclared();
+			fail();
+		}catch (UndeclaredThrowableException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+	
+	@Test
+	public void testUnavailableFallback() throws Exception {
+		// 非 public 接口无法生成，缓存后不再重复生成
+		assertNull(BeanStubGenerator.newInstance(HiddenService.class, new RecordingProxy(HiddenService.class, new DefaultModernClient("test"))));
+		assertNull(BeanStubGenerator.newInstance(HiddenService.class, new RecordingProxy(HiddenService.class, new DefaultModernClient("test"))));
+		
+		final RecordingProxy proxy = new RecordingProxy(HiddenService.class, null);
+		DefaultModernClient client = new DefaultModernClient("test") {
+			@Override
+			protected BaseProxy getBeanProxy(Class<?> clazz, DefaultModernClient client) {
+				return proxy;
+			}
+		};
+		client.setBeanStub(true);
+		HiddenService service = client.getBean(HiddenService.class);
+		assertTrue(Proxy.isProxyClass(service.getClass()));
+		assertEquals("a", service.echo("a"));
+		assertEquals(HiddenService.class.getMethod("echo", String.class), proxy.methods.get(0));
+	}
+	
+	@Test
+	public void testBeanStubEnabled() {
+		final RecordingProxy proxy = new RecordingProxy(Service.class, null);
+		DefaultModernClient client = new DefaultModernClient("test") {
+			@Override
+			protected BaseProxy getBeanProxy(Class<?> clazz, DefaultModernClient client) {
+				return proxy;
+			}
+		};
+		client.setBeanStub(true);
+		Service service = client.getBean(Service.class);
+		assertFalse(Proxy.isProxyClass(service.getClass()));
+		assertEquals(5, service.add(2, 3));
+	}
+}
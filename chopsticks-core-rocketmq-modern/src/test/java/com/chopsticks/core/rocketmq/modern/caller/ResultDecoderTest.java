@@ -0,0 +1,152 @@
+package com.chopsticks.core.rocketmq.modern.caller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.chopsticks.core.caller.InvokeResult;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
+import com.chopsticks.core.rocketmq.caller.impl.DefaultInvokeResult;
+import com.chopsticks.core.rocketmq.modern.FutureAdapters;
+import com.google.common.base.Charsets;
+
+public class ResultDecoderTest {
+	
+	public static class Bean {
+		private String name;
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+	
+	public interface Service {
+		Set<Bean> beanSet();
+		List<List<Bean>> nestedList();
+		Map<String, Bean> beanMap();
+		@SuppressWarnings("rawtypes")
+		List rawList();
+		@SuppressWarnings("rawtypes")
+		Collection rawCollection();
+		@SuppressWarnings("rawtypes")
+		Map rawMap();
+		@SuppressWarnings("rawtypes")
+		HashMap rawHashMap();
+		void none();
+		Void voidWrapper();
+		int primitiveInt();
+		boolean primitiveBoolean();
+		long primitiveLong();
+		String text();
+		Bean bean();
+		CompletableFuture<List<Bean>> asyncBeans();
+	}
+	
+	@Test
+	public void testGenericCollections() {
+		Object ret = decode("beanSet", "[{\"name\":\"a\"},{\"name\":\"b\"}]");
+		assertTrue(ret instanceof Set);
+		assertEquals(2, ((Set<?>)ret).size());
+		assertTrue(((Set<?>)ret).iterator().next() instanceof Bean);
+		
+		ret = decode("nestedList", "[[{\"name\":\"a\"}],[]]");
+		List<?> outer = (List<?>)ret;
+		assertEquals(2, outer.size());
+		Object inner = ((List<?>)outer.get(0)).get(0);
+		assertTrue(inner instanceof Bean);
+		assertEquals("a", ((Bean)inner).getName());
+		assertTrue(((List<?>)outer.get(1)).isEmpty());
+		
+		ret = decode("beanMap", "{\"k\":{\"name\":\"v\"}}");
+		assertEquals("v", ((Bean)((Map<?, ?>)ret).get("k")).getName());
+	}
+	
+	@Test
+	public void testRawCollections() {
+		assertTrue(decode("rawList", "[1,{\"a\":1}]") instanceof JSONArray);
+		assertTrue(decode("rawCollection", "[1]") instanceof JSONArray);
+		assertTrue(decode("rawMap", "{\"a\":[1]}") instanceof JSONObject);
+		// 声明类型不是 JSONObject 的父类型时按声明类型解析
+		Object ret = decode("rawHashMap", "{\"a\":1}");
+		assertTrue(ret instanceof HashMap);
+		assertEquals(1, ((HashMap<?, ?>)ret).get("a"));
+	}
+	
+	@Test
+	public void testVoidAndPrimitive() {
+		// void 不解析响应
+		assertNull(decode("none", "not json"));
+		assertNull(decode("voidWrapper", "not json"));
+		assertEquals(3, decode("primitiveInt", "3"));
+		assertEquals(Boolean.TRUE, decode("primitiveBoolean", "true"));
+		assertEquals(Long.MAX_VALUE, decode("primitiveLong", String.valueOf(Long.MAX_VALUE)));
+		assertNull(decode("primitiveInt", ""));
+		assertNull(decoder("text").decode(new DefaultInvokeResult((byte[])null)));
+	}
+	
+	@Test
+	public void testAsyncValueType() {
+		Object ret = new ResultDecoder(FutureAdapters.getValueType(method("asyncBeans"))).decode(new DefaultInvokeResult("[{\"name\":\"a\"}]".getBytes(Charsets.UTF_8)));
+		assertTrue(((List<?>)ret).get(0) instanceof Bean);
+	}
+	
+	@Test
+	public void testDecodeFromBufferView() {
+		String json = "{\"name\":\"中文\"}";
+		byte[] bytes = json.getBytes(Charsets.UTF_8);
+		// 响应体只是更大消息上的一段
+		byte[] message = new byte[bytes.length + 6];
+		System.arraycopy(bytes, 0, message, 3, bytes.length);
+		BaseInvokeResult result = new DefaultInvokeResult(ByteBuffer.wrap(message, 3, bytes.length).slice(), null);
+		ResultDecoder decoder = decoder("bean");
+		assertEquals("中文", ((Bean)decoder.decode(result)).getName());
+		// 解析不消耗视图，可以再次解析，也不影响 getBody
+		assertEquals("中文", ((Bean)decoder.decode(result)).getName());
+		assertArrayEquals(bytes, result.getBody());
+		assertArrayEquals(bytes, result.getBody());
+		assertEquals("中文", ((Bean)decoder.decode(result)).getName());
+	}
+	
+	@Test
+	public void testPlainInvokeResult() {
+		InvokeResult result = new InvokeResult() {
+			@Override
+			public byte[] getBody() {
+				return "\"text\"".getBytes(Charsets.UTF_8);
+			}
+		};
+		assertEquals("text", decoder("text").decode(result));
+	}
+	
+	private static Object decode(String methodName, String json) {
+		return decoder(methodName).decode(new DefaultInvokeResult(json.getBytes(Charsets.UTF_8)));
+	}
+	
+	private static ResultDecoder decoder(String methodName) {
+		return new ResultDecoder(method(methodName).getGenericReturnType());
+	}
+	
+	private static Method method(String methodName) {
+		try {
+			return Service.class.getMethod(methodName);
+		}catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
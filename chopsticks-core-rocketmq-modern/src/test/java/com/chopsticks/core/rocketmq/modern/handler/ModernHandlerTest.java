@@ -0,0 +1,148 @@
+package com.chopsticks.core.rocketmq.modern.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.chopsticks.common.concurrent.Promise;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
+import com.chopsticks.core.handler.HandlerResult;
+import com.chopsticks.core.rocketmq.handler.impl.DefaultInvokeContext;
+import com.chopsticks.core.rocketmq.handler.impl.DefaultInvokeParams;
+import com.chopsticks.core.rocketmq.modern.DefaultModernClient;
+import com.chopsticks.core.rocketmq.modern.ParamsCodec;
+import com.chopsticks.core.rocketmq.modern.exception.ModernCoreException;
+import com.google.common.base.Charsets;
+
+public class ModernHandlerTest {
+	
+	public static class Service {
+		public String echo(String value) {
+			return "echo1-" + value;
+		}
+		public String echo(String value, Integer count) {
+			return "echo2-" + value + "-" + count;
+		}
+		public String same(String value) {
+			return "string-" + value;
+		}
+		public String same(Integer value) {
+			return "integer-" + value;
+		}
+	}
+	
+	public static class AsyncService {
+		final CompletableFuture<String> future = new CompletableFuture<String>();
+		final DefaultPromise<String> promise = new DefaultPromise<String>();
+		public CompletionStage<String> stage() {
+			return future;
+		}
+		public Promise<String> promise() {
+			return promise;
+		}
+	}
+	
+	private static String invoke(ModernHandler handler, String method, byte[] body) {
+		HandlerResult ret = handler.invoke(new DefaultInvokeParams("test", method, body), new DefaultInvokeContext());
+		return new String(ret.getBody(), Charsets.UTF_8);
+	}
+	
+	@Test
+	public void testTypedOverloadByArity() {
+		DefaultModernClient client = new DefaultModernClient("test");
+		ModernHandler handler = new ModernHandler(new Service(), "test", "echo", client);
+		assertEquals("\"echo1-a\"", invoke(handler, "echo", ParamsCodec.encode(new Object[] {"a"})));
+		assertEquals("\"echo2-a-2\"", invoke(handler, "echo", ParamsCodec.encode(new Object[] {"a", 2})));
+		assertEquals("\"echo2-a-null\"", invoke(handler, "echo", ParamsCodec.encode(new Object[] {"a", null})));
+		try {
+			invoke(handler, "echo", ParamsCodec.encode(new Object[] {"a", 2, 3}));
+			fail();
+		}catch (ModernCoreException e) {
+			assertEquals(ModernCoreException.MODERN_INVOKE_METHOD_NOT_FOUND, e.getCode());
+		}
+	}
+	
+	@Test
+	public void testSameArityOverload() {
+		DefaultModernClient client = new DefaultModernClient("test");
+		ModernHandler handler = new ModernHandler(new Service(), "test", "same", client);
+		byte[] legacyBody = "[\"a\"]".getBytes(Charsets.UTF_8);
+		// 旧格式按实际参数类型选择
+		assertEquals("\"string-a\"", invoke(handler, "same", legacyBody));
+		assertEquals("\"integer-1\"", invoke(handler, "same", "[1]".getBytes(Charsets.UTF_8)));
+		assertAmbiguous(handler, ParamsCodec.encode(new Object[] {"a"}));
+		
+		// 关闭 autoType 后旧格式也按参数个数选择
+		client.setParamsAutoType(false);
+		assertAmbiguous(handler, legacyBody);
+	}
+	
+	@Test
+	public void testCompletionStage() throws Exception {
+		DefaultModernClient client = new DefaultModernClient("test");
+		AsyncService service = new AsyncService();
+		ModernHandler handler = new ModernHandler(service, "test", "stage", client);
+		HandlerResult ret = handler.invoke(new DefaultInvokeParams("test", "stage", null), new DefaultInvokeContext());
+		// 响应在 stage 完成后返回
+		assertNull(ret.getBody());
+		assertFalse(ret.getPromise().isDone());
+		service.future.complete("a");
+		assertEquals("\"a\"", new String(ret.getPromise().get().getBody(), Charsets.UTF_8));
+		
+		service = new AsyncService();
+		handler = new ModernHandler(service, "test", "stage", client);
+		ret = handler.invoke(new DefaultInvokeParams("test", "stage", null), new DefaultInvokeContext());
+		IllegalStateException cause = new IllegalStateException("failed");
+		service.future.completeExceptionally(new CompletionException(cause));
+		ModernCoreException e = failure(ret);
+		assertEquals(ModernCoreException.MODERN_INVOKE_EXECUTE_ERROR, e.getCode());
+		assertSame(cause, e.getCause());
+	}
+	
+	@Test
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void testAsyncReturnTypeNotMatch() throws Exception {
+		DefaultModernClient client = new DefaultModernClient("test");
+		AsyncService service = new AsyncService();
+		ModernHandler handler = new ModernHandler(service, "test", "stage", client);
+		HandlerResult ret = handler.invoke(new DefaultInvokeParams("test", "stage", null), new DefaultInvokeContext());
+		// 泛型擦除后 stage 可以用其他类型完成
+		((CompletableFuture) service.future).complete(1);
+		assertEquals(ModernCoreException.INVOKE_RETURN_TYPE_NOT_MATCH, failure(ret).getCode());
+		
+		handler = new ModernHandler(service, "test", "promise", client);
+		ret = handler.invoke(new DefaultInvokeParams("test", "promise", null), new DefaultInvokeContext());
+		((DefaultPromise) service.promise).set(1L);
+		assertEquals(ModernCoreException.INVOKE_RETURN_TYPE_NOT_MATCH, failure(ret).getCode());
+	}
+	
+	private static ModernCoreException failure(HandlerResult ret) throws InterruptedException {
+		try {
+			ret.getPromise().get();
+			fail();
+			return null;
+		}catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ModernCoreException);
+			return (ModernCoreException) e.getCause();
+		}
+	}
+	
+	private static void assertAmbiguous(ModernHandler handler, byte[] body) {
+		try {
+			invoke(handler, "same", body);
+			fail();
+		}catch (ModernCoreException e) {
+			assertEquals(ModernCoreException.MODERN_INVOKE_METHOD_NOT_FOUND, e.getCode());
+		}
+	}
+}
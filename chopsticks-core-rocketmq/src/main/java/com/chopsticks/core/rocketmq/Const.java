@@ -1,10 +1,18 @@
 package com.chopsticks.core.rocketmq;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.rocketmq.client.Validators;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageBatch;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
 
 import com.alibaba.fastjson.parser.ParserConfig;
 import com.chopsticks.common.utils.Reflect;
@@ -21,8 +29,8 @@ public class Const {
 	}
 
 	public static final SyncSystemMillis CLIENT_TIME = new SyncSystemMillis(TimeUnit.MILLISECONDS.toMillis(500L));
-	// <delay, level>
-	private static final TreeMap<Long, Integer> DELAY_LEVEL = Maps.newTreeMap();
+	// <delay, level>，按 delay 升序的数组，整体替换
+	private static volatile DelayLevelIndex DELAY_LEVEL = new DelayLevelIndex(Maps.<Long, Integer>newTreeMap());
 
 	static {
 		// defualt 1s 5s 10s 30s 1m 2m 3m 4m 5m 6m 7m 8m 9m 10m 20m 30m 1h 2h
@@ -60,6 +68,8 @@ public class Const {
 	public static final String NOTICE_REQUEST_KEY = "_NOTICE_REQUEST_";
 	public static final String DELAY_NOTICE_REQUEST_KEY = "_DELAY_NOTICE_REQUEST_";
 	public static final String ORDERED_NOTICE_REQUEST_KEY = "_ORDERED_NOTICE_REQUEST_";
+	public static final String CODEC_VERSION_KEY = "_CODEC_VERSION_";
+	public static final String COMPRESSOR_KEY = "_COMPRESSOR_";
 	public static final String INVOCE_RESP_TOPIC_SUFFIX = "_RESP_TOPIC";
 	public static final String INVOCE_RESP_TAG_SUFFIX = "_RESP_TAG";
 
@@ -87,17 +97,45 @@ public class Const {
 	public static final String ERROR_MSG_CAN_NOT_FIND_MESSAGE_QUEUE = "Can not find Message Queue";
 
 	public static void setDelayLevel(TreeMap<Long, Integer> delayLevel) {
-		synchronized (DELAY_LEVEL) {
-			DELAY_LEVEL.clear();
-			DELAY_LEVEL.putAll(delayLevel);
-		}
+		DELAY_LEVEL = new DelayLevelIndex(delayLevel);
 	}
 
+	/**
+	 * @return 不大于 delay 的最大延迟级别
+	 */
 	public static Optional<Entry<Long, Integer>> getDelayLevel(Long delay) {
-		if (DELAY_LEVEL.isEmpty() || delay == null || delay <= 0) {
-			return Optional.fromNullable(null);
+		if (delay == null || delay <= 0) {
+			return Optional.absent();
+		}
+		return Optional.fromNullable(DELAY_LEVEL.floor(delay));
+	}
+	
+	private static class DelayLevelIndex {
+		
+		private final long[] delays;
+		
+		private final Entry<Long, Integer>[] levels;
+		
+		@SuppressWarnings("unchecked")
+		DelayLevelIndex(TreeMap<Long, Integer> delayLevel) {
+			delays = new long[delayLevel.size()];
+			levels = new Entry[delayLevel.size()];
+			int i = 0;
+			for(Entry<Long, Integer> entry : delayLevel.entrySet()) {
+				delays[i] = entry.getKey();
+				levels[i] = Maps.immutableEntry(entry.getKey(), entry.getValue());
+				i++;
+			}
+		}
+		
+		Entry<Long, Integer> floor(long delay) {
+			int index = Arrays.binarySearch(delays, delay);
+			if(index < 0) {
+				// 插入点的前一个
+				index = -index - 2;
+			}
+			return index < 0 ? null : levels[index];
 		}
-		return Optional.fromNullable(DELAY_LEVEL.floorEntry(delay));
 	}
 	
 	public static DefaultMQPushConsumer buildConsumer(DefaultMQPushConsumer consumer) {
@@ -128,12 +166,32 @@ public class Const {
 		return consumer;
 	}
 	
+	/**
+	 * rocketmq 4.5.2 只有同步的批量发送，这里按 DefaultMQProducer.batch 的方式组装 MessageBatch，之后走单条异步发送
+	 */
+	public static MessageBatch buildMessageBatch(DefaultMQProducer producer, Collection<Message> msgs) throws MQClientException {
+		MessageBatch msgBatch = MessageBatch.generateFromList(msgs);
+		for(Message message : msgBatch) {
+			Validators.checkMessage(message, producer);
+			MessageClientIDSetter.setUniqID(message);
+			message.setTopic(producer.withNamespace(message.getTopic()));
+		}
+		msgBatch.setBody(msgBatch.encode());
+		return msgBatch;
+	}
+	
 	public static String buildCustomTag(String groupName, String tag) {
 		return groupName + "-" + tag;
 	}
 	
 	public static String getOriginTag(String groupName, String customTag) {
-		return customTag.replaceFirst(groupName + "-", "");
+		int prefixLength = groupName.length() + 1;
+		if(customTag.length() >= prefixLength
+		&& customTag.charAt(groupName.length()) == '-'
+		&& customTag.startsWith(groupName)) {
+			return customTag.substring(prefixLength);
+		}
+		return customTag;
 	}
 	
 	public static String buildTestTag(String groupName) {
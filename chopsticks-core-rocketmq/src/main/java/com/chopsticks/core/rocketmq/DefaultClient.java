@@ -2,6 +2,7 @@ package com.chopsticks.core.rocketmq;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -9,24 +10,36 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.common.consumer.ConsumeFromWhere;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.protocol.heartbeat.MessageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
 import com.chopsticks.core.Client;
 import com.chopsticks.core.exception.CoreException;
+import com.chopsticks.core.handler.BatchNoticeHandler;
 import com.chopsticks.core.handler.Handler;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
 import com.chopsticks.core.rocketmq.caller.DefaultCaller;
+import com.chopsticks.core.rocketmq.caller.InvokeRequest;
 import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
 import com.chopsticks.core.rocketmq.handler.BaseHandler;
+import com.chopsticks.core.rocketmq.handler.DeadlineDispatcher;
+import com.chopsticks.core.rocketmq.handler.HandlerExecutor;
+import com.chopsticks.core.rocketmq.handler.RespBatchSender;
 import com.chopsticks.core.rocketmq.handler.HandlerDelayNoticeListener;
 import com.chopsticks.core.rocketmq.handler.HandlerInvokeListener;
 import com.chopsticks.core.rocketmq.handler.HandlerNoticeListener;
 import com.chopsticks.core.rocketmq.handler.HandlerOrderedNoticeListener;
+import com.chopsticks.core.rocketmq.handler.HandlerRouter;
+import com.chopsticks.core.rocketmq.handler.LocalInvokeMessageExt;
 import com.chopsticks.core.rocketmq.handler.impl.BaseHandlerWapper;
 import com.google.common.base.Joiner;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
@@ -41,6 +54,16 @@ public class DefaultClient extends DefaultCaller implements Client{
 	
 	private static final Logger log = LoggerFactory.getLogger(DefaultClient.class);
 	
+	/**
+	 * rocketmq consumeMessageBatchMaxSize 上限
+	 */
+	private static final int MAX_NOTICE_BATCH_SIZE = 1024;
+	
+	/**
+	 * 关闭时等待执行中的 handler 完成的最长时间
+	 */
+	private static final long SHUTDOWN_AWAIT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+	
 	private volatile boolean started;
 	
 	private Set<BaseHandler> handlers;
@@ -55,6 +78,11 @@ public class DefaultClient extends DefaultCaller implements Client{
 	 */
 	private Map<String, BaseHandler> topicTagHandlers;
 	
+	/**
+	 * 消费时查找 handler，与 topicTagHandlers 同时构建
+	 */
+	private HandlerRouter handlerRouter;
+	
 	private DefaultMQPushConsumer invokeConsumer;
 	private DefaultMQPushConsumer noticeConsumer;
 	private DefaultMQPushConsumer delayNoticeConsumer;
@@ -79,6 +107,48 @@ public class DefaultClient extends DefaultCaller implements Client{
 	private long delayNoticeMaxExecutableTime = TimeUnit.MINUTES.toMinutes(60);
 	private long orderedNoticeMaxExecutableTime = TimeUnit.MINUTES.toMinutes(60);
 	
+	/**
+	 * 大于0时 invoke 和 notice 的 handler 在独立执行器中运行(优先虚拟线程)，并发数不超过此值
+	 * notice 由消费线程按批分派并等待本批完成后才确认，不会在 handler 完成前确认消息
+	 */
+	private int handlerMaxConcurrency = 0;
+	
+	private HandlerExecutor handlerExecutor;
+	
+	/**
+	 * 大于0时 invoke 响应按 响应topic + 队列 批量发送，最多等待此时间
+	 */
+	private long respBatchMaxDelayMillis = 0L;
+	
+	private RespBatchSender respBatchSender;
+	
+	/**
+	 * 为 true 时 invoke 按截止时间最早优先执行，剩余时间不足服务时间估计的请求直接丢弃
+	 */
+	private boolean invokeDeadlineFirst = false;
+	
+	private DeadlineDispatcher deadlineDispatcher;
+	
+	private HandlerInvokeListener invokeListener;
+	
+	/**
+	 * 剩余延迟不超过此值的 delay notice 在内存中等待到期，不再转发 broker，已确认的消息在进程异常退出时丢失
+	 * 为 0 时不开启，不足最小延迟级别的余量在消费线程内等待
+	 */
+	private long delayNoticeMaxHoldMillis = 0L;
+	
+	/**
+	 * 内存中等待的 delay notice 上限，超出后转发 broker
+	 */
+	private int delayNoticeMaxHoldCount = 10000;
+	
+	private HandlerDelayNoticeListener delayNoticeListener;
+	
+	/**
+	 * 本地短路的 invoke 在此执行，不占用调用线程
+	 */
+	private HandlerExecutor localInvokeExecutor;
+	
 	private long invokeBeginExectableTime = Const.CLIENT_TIME.getNow();
 	private long noticeBeginExecutableTime = -1L;
 	private long delayNoticeBeginExecutableTime = -1L;
@@ -110,7 +180,12 @@ public class DefaultClient extends DefaultCaller implements Client{
 	@Override
 	public synchronized void shutdown() {
 		if(started) {
-			super.shutdown();
+			// 未到期的 delay notice 需通过 producer 转发
+			if(delayNoticeListener != null) {
+				delayNoticeListener.shutdown();
+				delayNoticeListener = null;
+			}
+			// 先停止消费和执行，执行中 invoke 的响应经 respBatchSender 发出后再关闭 producer
 			if(invokeConsumer != null) {
 				invokeConsumer.shutdown();
 				invokeConsumer = null;
@@ -127,6 +202,28 @@ public class DefaultClient extends DefaultCaller implements Client{
 				orderedNoticeConsumer.shutdown();
 				orderedNoticeConsumer = null;
 			}
+			if(deadlineDispatcher != null) {
+				deadlineDispatcher.shutdown();
+				deadlineDispatcher = null;
+			}
+			List<HandlerExecutor> executors = shutdownHandlerExecutors();
+			if(handlerExecutor != null) {
+				handlerExecutor.shutdown();
+				executors.add(handlerExecutor);
+				handlerExecutor = null;
+			}
+			if(localInvokeExecutor != null) {
+				localInvokeExecutor.shutdown();
+				executors.add(localInvokeExecutor);
+				localInvokeExecutor = null;
+			}
+			awaitTermination(executors);
+			if(respBatchSender != null) {
+				respBatchSender.shutdown();
+				respBatchSender = null;
+			}
+			invokeListener = null;
+			super.shutdown();
 			started = false;
 		}
 	}
@@ -139,6 +236,12 @@ public class DefaultClient extends DefaultCaller implements Client{
 			if(!topicTags.isEmpty()) {
 				addTest();
 				try {
+					handlerExecutor = buildHandlerExecutor();
+					respBatchSender = buildRespBatchSender();
+					deadlineDispatcher = buildDeadlineDispatcher();
+					if(isLocalInvokeExecutable() && isInvokeExecutable()) {
+						localInvokeExecutor = new HandlerExecutor(getGroupName() + "-localInvoke", getInvokeExecutableNum());
+					}
 					invokeConsumer = buildAndStartInvokeCosumer();
 					delayNoticeConsumer = buildAndStartDelayNoticeCosumer();
 					noticeConsumer = buildAndStartNoticeCosumer();
@@ -150,12 +253,34 @@ public class DefaultClient extends DefaultCaller implements Client{
 					if(delayNoticeConsumer != null) {
 						delayNoticeConsumer.shutdown();
 					}
+					if(delayNoticeListener != null) {
+						delayNoticeListener.shutdown();
+						delayNoticeListener = null;
+					}
 					if(noticeConsumer != null) {
 						noticeConsumer.shutdown();
 					}
 					if(orderedNoticeConsumer != null) {
 						orderedNoticeConsumer.shutdown();
 					}
+					if(handlerExecutor != null) {
+						handlerExecutor.shutdown();
+						handlerExecutor = null;
+					}
+					if(respBatchSender != null) {
+						respBatchSender.shutdown();
+						respBatchSender = null;
+					}
+					if(deadlineDispatcher != null) {
+						deadlineDispatcher.shutdown();
+						deadlineDispatcher = null;
+					}
+					if(localInvokeExecutor != null) {
+						localInvokeExecutor.shutdown();
+						localInvokeExecutor = null;
+					}
+					invokeListener = null;
+					shutdownHandlerExecutors();
 					if(e instanceof CoreException) {
 						throw (CoreException)e;
 					}else {
@@ -167,17 +292,115 @@ public class DefaultClient extends DefaultCaller implements Client{
 		}
 	}
 	
+	private HandlerExecutor buildHandlerExecutor() {
+		if(handlerMaxConcurrency <= 0) {
+			return null;
+		}
+		HandlerExecutor handlerExecutor = new HandlerExecutor(getGroupName(), handlerMaxConcurrency);
+		log.info("{} handler executor, virtual : {}, maxConcurrency : {}", getGroupName(), handlerExecutor.isVirtual(), handlerMaxConcurrency);
+		return handlerExecutor;
+	}
+	
+	/**
+	 * 关闭 handler 的独立执行器
+	 */
+	/**
+	 * @return 已关闭的 handler 独立执行器
+	 */
+	private List<HandlerExecutor> shutdownHandlerExecutors() {
+		List<HandlerExecutor> executors = Lists.newArrayList();
+		if(handlers != null) {
+			for(BaseHandler handler : handlers) {
+				if(handler.getHandlerExecutor() != null) {
+					handler.getHandlerExecutor().shutdown();
+					executors.add(handler.getHandlerExecutor());
+				}
+			}
+		}
+		return executors;
+	}
+	
+	private void awaitTermination(List<HandlerExecutor> executors) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_AWAIT_MILLIS);
+		for(HandlerExecutor executor : executors) {
+			if(!executor.awaitTermination(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS)) {
+				log.warn("{} handler executor not terminated in {}ms", getGroupName(), SHUTDOWN_AWAIT_MILLIS);
+			}
+		}
+	}
+	
+	@Override
+	protected boolean invokeLocally(InvokeRequest req, Message msg, DefaultPromise<BaseInvokeResult> promise) {
+		return executeLocally(msg, new LocalInvokeMessageExt.ResponseHandler() {
+			@Override
+			public void onResponse(Message respMsg) {
+				onLocalInvokeResponse(respMsg);
+			}
+		});
+	}
+	
+	/**
+	 * 由本地 handler 执行 invoke 请求，响应交给 responseHandler
+	 * 只分派一次：有 handler 执行器时用 handler 的，否则用本地 invoke 执行器，执行时不再经过 listener 的分派
+	 * @return 本地没有支持 invoke 的 handler 时返回 false
+	 */
+	protected boolean executeLocally(Message msg, LocalInvokeMessageExt.ResponseHandler responseHandler) {
+		final HandlerInvokeListener listener = invokeListener;
+		HandlerExecutor executor = localInvokeExecutor;
+		if(listener == null || executor == null) {
+			return false;
+		}
+		BaseHandler handler = handlerRouter.getHandler(msg.getTopic(), msg.getTags());
+		if(handler == null || !handler.isSupportInvoke()) {
+			return false;
+		}
+		if(handler.getHandlerExecutor() != null) {
+			executor = handler.getHandlerExecutor();
+		}else if(handlerExecutor != null) {
+			executor = handlerExecutor;
+		}
+		final MessageExt ext = new LocalInvokeMessageExt(msg, responseHandler);
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					listener.consumeLocalMessage(ext);
+				}
+			});
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DefaultCoreException(e);
+		}
+		return true;
+	}
+	
+	private DeadlineDispatcher buildDeadlineDispatcher() {
+		if(!invokeDeadlineFirst || !isInvokeExecutable()) {
+			return null;
+		}
+		return new DeadlineDispatcher(getGroupName(), getInvokeExecutableNum(), getInvokeExecutableNum() * 16);
+	}
+	
+	private RespBatchSender buildRespBatchSender() {
+		if(respBatchMaxDelayMillis <= 0) {
+			return null;
+		}
+		return new RespBatchSender(getGroupName(), getProducer(), respBatchMaxDelayMillis);
+	}
+	
 	private void addTest() {
 		for(String topic : topicTags.keySet()) {
 			EmptyHandler handler = new EmptyHandler(topic, Const.buildTestTag(getGroupName()));
 			topicTags.put(handler.getTopic(), handler.getTag());
 			topicTagHandlers.put(handler.getTopic() + handler.getTag(), handler);
+			handlerRouter.register(handler.getTopic(), handler.getTag(), handler);
 		}
 	}
 
 	private void buildTopicTagsAndTopicTagHandlers() {
 		topicTags = MultimapBuilder.hashKeys().hashSetValues().build();
 		topicTagHandlers = Maps.newHashMap();
+		handlerRouter = new HandlerRouter(getGroupName());
 		if(handlers != null) {
 			for(BaseHandler handler : handlers) {
 				if(Strings.isNullOrEmpty(handler.getTopic()) 
@@ -187,6 +410,7 @@ public class DefaultClient extends DefaultCaller implements Client{
 				}
 				topicTags.put(buildSuccessTopic(handler.getTopic()), handler.getTag());
 				topicTagHandlers.put(buildSuccessTopic(handler.getTopic()) + handler.getTag(), handler);
+				handlerRouter.register(buildSuccessTopic(handler.getTopic()), handler.getTag(), handler);
 			}
 		}
 	}
@@ -207,7 +431,7 @@ public class DefaultClient extends DefaultCaller implements Client{
 			orderedNoticeConsumer.setConsumeTimeout(getOrderedNoticeMaxExecutableTime());
 			orderedNoticeConsumer.setSuspendCurrentQueueTimeMillis(TimeUnit.SECONDS.toMillis(5L));
 			orderedNoticeConsumer.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET);
-			HandlerOrderedNoticeListener listener = new HandlerOrderedNoticeListener(this, orderedNoticeConsumer, topicTags, topicTagHandlers);
+			HandlerOrderedNoticeListener listener = new HandlerOrderedNoticeListener(this, orderedNoticeConsumer, handlerRouter);
 			listener.setBeginExecutableTime(getOrderedNoticeBeginExecutableTime());
 			orderedNoticeConsumer.registerMessageListener(listener);
 			orderedNoticeConsumer.setPullThresholdSizeForTopic(10);
@@ -255,6 +479,22 @@ public class DefaultClient extends DefaultCaller implements Client{
 		return orderedNoticeConsumer;
 	}
 	
+	/**
+	 * 取所有 {@link BatchNoticeHandler} 中最大的批量大小，没有时为1
+	 * 单次拉取的数量还受 broker 的 maxTransferCountOnMessageInMemory 限制
+	 * 同一批中不支持批量的 handler 仍逐条执行，有执行器时照常交给执行器
+	 */
+	private int getNoticeBatchSize() {
+		int batchSize = 1;
+		for(BaseHandler handler : topicTagHandlers.values()) {
+			BatchNoticeHandler batchHandler = handler.getBatchNoticeHandler();
+			if(batchHandler != null && handler.isSupportNotice()) {
+				batchSize = Math.max(batchSize, batchHandler.getNoticeBatchSize());
+			}
+		}
+		return Math.min(batchSize, MAX_NOTICE_BATCH_SIZE);
+	}
+	
 	private DefaultMQPushConsumer buildAndStartNoticeCosumer() {
 		Stopwatch watch = Stopwatch.createStarted();
 		DefaultMQPushConsumer noticeConsumer = null;
@@ -266,11 +506,21 @@ public class DefaultClient extends DefaultCaller implements Client{
 			noticeConsumer.setConsumeThreadMax(getNoticeExecutableNum());
 			noticeConsumer.setMessageModel(MessageModel.CLUSTERING);
 			noticeConsumer.setMaxReconsumeTimes(getNoticeExcecutableRetryCount());
-			noticeConsumer.setConsumeMessageBatchMaxSize(1);
+			int noticeBatchSize = getNoticeBatchSize();
+			if(handlerExecutor != null) {
+				// 消费线程等待本批完成后才确认，按批分派执行器的并发数才能用满
+				int inflightPerThread = (handlerMaxConcurrency + getNoticeExecutableNum() - 1) / getNoticeExecutableNum();
+				noticeBatchSize = Math.max(noticeBatchSize, Math.min(inflightPerThread, MAX_NOTICE_BATCH_SIZE));
+			}
+			noticeConsumer.setConsumeMessageBatchMaxSize(noticeBatchSize);
+			if(noticeBatchSize > noticeConsumer.getPullBatchSize()) {
+				noticeConsumer.setPullBatchSize(noticeBatchSize);
+			}
 			noticeConsumer.setConsumeTimeout(getNoticeMaxExecutableTime());
 			noticeConsumer.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET);
-			HandlerNoticeListener listener = new HandlerNoticeListener(this, noticeConsumer, topicTags, topicTagHandlers);
+			HandlerNoticeListener listener = new HandlerNoticeListener(this, noticeConsumer, handlerRouter);
 			listener.setBeginExecutableTime(getNoticeBeginExecutableTime());
+			listener.setHandlerExecutor(handlerExecutor);
 			noticeConsumer.registerMessageListener(listener);
 			noticeConsumer.setPullThresholdSizeForTopic(10);
 			noticeConsumer.setPullThresholdForTopic(200);
@@ -331,8 +581,12 @@ public class DefaultClient extends DefaultCaller implements Client{
 			delayNoticeConsumer.setConsumeMessageBatchMaxSize(1);
 			delayNoticeConsumer.setConsumeTimeout(getDelayNoticeMaxExecutableTime());
 			delayNoticeConsumer.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET);
-			HandlerDelayNoticeListener listener = new HandlerDelayNoticeListener(this, delayNoticeConsumer, topicTags, topicTagHandlers);
+			HandlerDelayNoticeListener listener = new HandlerDelayNoticeListener(this, delayNoticeConsumer, handlerRouter);
 			listener.setBeginExecutableTime(getDelayNoticeBeginExecutableTime());
+			if(getDelayNoticeMaxHoldMillis() > 0) {
+				listener.enableHold(getGroupName(), getDelayNoticeMaxHoldMillis(), getDelayNoticeMaxHoldCount(), getDelayNoticeExecutableNum());
+			}
+			delayNoticeListener = listener;
 			delayNoticeConsumer.registerMessageListener(listener);
 			delayNoticeConsumer.setPullThresholdSizeForTopic(10);
 			delayNoticeConsumer.setPullThresholdForTopic(200);
@@ -398,8 +652,12 @@ public class DefaultClient extends DefaultCaller implements Client{
 			invokeConsumer.setConsumeTimeout(getInvokeMaxExecutableTime());
 			invokeConsumer.setConsumeMessageBatchMaxSize(1);
 			invokeConsumer.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET);
-			HandlerInvokeListener listener = new HandlerInvokeListener(this, topicTagHandlers);
+			HandlerInvokeListener listener = new HandlerInvokeListener(this, handlerRouter);
 			listener.setBeginExecutableTime(getInvokeBeginExectableTime());
+			listener.setHandlerExecutor(handlerExecutor);
+			listener.setRespBatchSender(respBatchSender);
+			listener.setDeadlineDispatcher(deadlineDispatcher);
+			invokeListener = listener;
 			invokeConsumer.registerMessageListener(listener);
 			invokeConsumer.setPullThresholdSizeForTopic(10);
 			invokeConsumer.setPullThresholdForTopic(200);
@@ -450,6 +708,12 @@ public class DefaultClient extends DefaultCaller implements Client{
 	public void setInvokeExecutable(boolean invokeExecutable) {
 		this.invokeExecutable = invokeExecutable;
 	}
+	/**
+	 * @return 是否创建本地执行 invoke 的线程池
+	 */
+	protected boolean isLocalInvokeExecutable() {
+		return getLocalInvokePolicy() != null;
+	}
 	protected boolean isInvokeExecutable() {
 		return invokeExecutable;
 	}
@@ -531,6 +795,18 @@ public class DefaultClient extends DefaultCaller implements Client{
 	public void setDelayNoticeMaxExecutableTime(long delayNoticeMaxExecutableTime) {
 		this.delayNoticeMaxExecutableTime = delayNoticeMaxExecutableTime;
 	}
+	protected long getDelayNoticeMaxHoldMillis() {
+		return delayNoticeMaxHoldMillis;
+	}
+	public void setDelayNoticeMaxHoldMillis(long delayNoticeMaxHoldMillis) {
+		this.delayNoticeMaxHoldMillis = delayNoticeMaxHoldMillis;
+	}
+	protected int getDelayNoticeMaxHoldCount() {
+		return delayNoticeMaxHoldCount;
+	}
+	public void setDelayNoticeMaxHoldCount(int delayNoticeMaxHoldCount) {
+		this.delayNoticeMaxHoldCount = delayNoticeMaxHoldCount;
+	}
 	protected long getOrderedNoticeMaxExecutableTime() {
 		return orderedNoticeMaxExecutableTime;
 	}
@@ -567,6 +843,38 @@ public class DefaultClient extends DefaultCaller implements Client{
 	public void setOrderedNoticeBeginExecutableTime(long orderedNoticeBeginExecutableTime) {
 		this.orderedNoticeBeginExecutableTime = orderedNoticeBeginExecutableTime;
 	}
+	protected int getHandlerMaxConcurrency() {
+		return handlerMaxConcurrency;
+	}
+	/**
+	 * 开启独立的 handler 执行器，JDK 支持时使用虚拟线程，适合阻塞型 handler
+	 * notice 由消费线程按批分派到执行器，等待本批 handler 全部完成后才确认，失败的消息发回 broker 重试
+	 * 进程异常退出时未确认的消息由 broker 重新投递，不会丢失
+	 * @param handlerMaxConcurrency 大于0时开启
+	 */
+	public void setHandlerMaxConcurrency(int handlerMaxConcurrency) {
+		this.handlerMaxConcurrency = handlerMaxConcurrency;
+	}
+	protected boolean isInvokeDeadlineFirst() {
+		return invokeDeadlineFirst;
+	}
+	/**
+	 * 开启后 invoke 由 invokeExecutableNum 个工作线程按截止时间最早优先执行，消费线程只负责解码和排队
+	 * 过载时优先保证还来得及完成的请求，剩余时间小于 handler 服务时间估计(EWMA)的请求直接丢弃
+	 */
+	public void setInvokeDeadlineFirst(boolean invokeDeadlineFirst) {
+		this.invokeDeadlineFirst = invokeDeadlineFirst;
+	}
+	protected long getRespBatchMaxDelayMillis() {
+		return respBatchMaxDelayMillis;
+	}
+	/**
+	 * invoke 响应批量发送，适合大量调用方共用少数响应队列的场景
+	 * @param respBatchMaxDelayMillis 大于0时开启
+	 */
+	public void setRespBatchMaxDelayMillis(long respBatchMaxDelayMillis) {
+		this.respBatchMaxDelayMillis = respBatchMaxDelayMillis;
+	}
 	public void setMaxExecutableTime(long maxExecutableTime) {
 		setInvokeMaxExecutableTime(maxExecutableTime);
 		setNoticeMaxExecutableTime(maxExecutableTime);
@@ -1,42 +1,100 @@
 package com.chopsticks.core.rocketmq.caller;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import com.alibaba.fastjson.JSON;
 import com.chopsticks.core.caller.InvokeResult;
+import com.chopsticks.core.rocketmq.compress.Compressor;
+import com.google.common.base.Charsets;
 
 public abstract class BaseInvokeResult extends BaseResult implements InvokeResult {
-	
+
 	private byte[] body;
-	
+
+	private ByteBuffer bodyBuffer;
+
+	private Compressor compressor;
+
 	public BaseInvokeResult(byte[] body) {
 		this.body = body;
+		this.bodyBuffer = body == null ? null : ByteBuffer.wrap(body);
+	}
+
+	/**
+	 * @param bodyBuffer 响应消息体上的视图
+	 * @param compressor 不为 null 时第一次访问body才解压
+	 */
+	public BaseInvokeResult(ByteBuffer bodyBuffer, Compressor compressor) {
+		this.bodyBuffer = bodyBuffer;
+		this.compressor = bodyBuffer != null && bodyBuffer.hasRemaining() ? compressor : null;
 	}
 
 	@Override
-	public byte[] getBody() {
+	public synchronized byte[] getBody() {
+		if(body == null && bodyBuffer != null) {
+			ByteBuffer buf = body();
+			if(buf.hasArray() && buf.arrayOffset() == 0 && buf.position() == 0 && buf.remaining() == buf.array().length) {
+				body = buf.array();
+			}else {
+				body = new byte[buf.remaining()];
+				buf.get(body);
+			}
+		}
 		return body;
 	}
-	
+
+	/**
+	 * 只读的body视图，不复制底层数据
+	 */
+	public ByteBuffer getBodyBuffer() {
+		ByteBuffer buf = body();
+		return buf == null ? null : buf.asReadOnlyBuffer();
+	}
+
+	private synchronized ByteBuffer body() {
+		if(bodyBuffer == null) {
+			return null;
+		}
+		if(compressor != null) {
+			bodyBuffer = ByteBuffer.wrap(compressor.uncompress(bodyBuffer.array(), bodyBuffer.arrayOffset() + bodyBuffer.position(), bodyBuffer.remaining()));
+			compressor = null;
+		}
+		// 只读视图无法直接取底层数组，内部使用可写视图
+		return bodyBuffer.duplicate();
+	}
+
 	public Object parseJson() {
-		return JSON.parse(getBody());
+		ByteBuffer buf = body();
+		if(buf == null) {
+			return null;
+		}
+		return JSON.parse(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), Charsets.UTF_8.newDecoder());
 	}
 	public <T> T parseJsonObject(Class<T> clazz) {
-		return JSON.parseObject(getBody(), clazz);
+		ByteBuffer buf = body();
+		if(buf == null) {
+			return null;
+		}
+		return JSON.parseObject(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), Charsets.UTF_8, clazz);
 	}
 	public <T> List<T> parseJsonArray(Class<T> clazz) {
-		return JSON.parseArray(new String(getBody()), clazz);
+		ByteBuffer buf = body();
+		if(buf == null) {
+			return null;
+		}
+		return JSON.parseArray(new String(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining()), clazz);
 	}
 	public Double parseDouble() {
-		return JSON.parseObject(getBody(), Double.class);
+		return parseJsonObject(Double.class);
 	}
 	public String parseString() {
-		return JSON.parseObject(getBody(), String.class);
+		return parseJsonObject(String.class);
 	}
 	public Long parseLong() {
-		return JSON.parseObject(getBody(), Long.class);
+		return parseJsonObject(Long.class);
 	}
 	public Integer parseInteger() {
-		return JSON.parseObject(getBody(), Integer.class);
+		return parseJsonObject(Integer.class);
 	}
 }
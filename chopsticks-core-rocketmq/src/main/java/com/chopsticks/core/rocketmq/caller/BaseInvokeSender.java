@@ -3,7 +3,7 @@ package com.chopsticks.core.rocketmq.caller;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.common.message.Message;
 
-import com.chopsticks.common.concurrent.impl.DefaultTimeoutPromise;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
 
 public abstract class BaseInvokeSender{
 	
@@ -13,7 +13,7 @@ public abstract class BaseInvokeSender{
 		this.producer = producer;
 	}
 	
-	public abstract void send(Message message, DefaultTimeoutPromise<BaseInvokeResult> promise);
+	public abstract void send(Message message, DefaultPromise<BaseInvokeResult> promise);
 	
 	public void shutdown() {}
 }
@@ -1,22 +1,22 @@
 package com.chopsticks.core.rocketmq.caller;
 
 import java.util.List;
-import java.util.Map;
 
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
 import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
-import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.alibaba.fastjson.JSON;
 import com.chopsticks.common.concurrent.impl.DefaultPromise;
-import com.chopsticks.common.concurrent.impl.DefaultTimeoutPromise;
+import com.chopsticks.common.concurrent.impl.HashedWheelPendingTable;
+import com.chopsticks.common.utils.SequenceIdGenerator;
 import com.chopsticks.common.utils.TimeUtils;
 import com.chopsticks.core.exception.CoreException;
 import com.chopsticks.core.rocketmq.caller.impl.DefaultInvokeResult;
+import com.chopsticks.core.rocketmq.codec.Codecs;
+import com.chopsticks.core.rocketmq.compress.Compressors;
 import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
 import com.chopsticks.core.rocketmq.handler.InvokeResponse;
 
@@ -24,19 +24,22 @@ class CallerInvokeListener implements MessageListenerConcurrently{
 	
 	private static final Logger log = LoggerFactory.getLogger(CallerInvokeListener.class);
 	
-	private Map<String, DefaultTimeoutPromise<BaseInvokeResult>> callerInvokePromiseMap;
+	private HashedWheelPendingTable<BaseInvokeResult> callerInvokePendingTable;
 	
-	CallerInvokeListener(Map<String, DefaultTimeoutPromise<BaseInvokeResult>> callerInvokePromiseMap) {
-		this.callerInvokePromiseMap = callerInvokePromiseMap;
+	private SequenceIdGenerator reqIdGenerator;
+	
+	CallerInvokeListener(HashedWheelPendingTable<BaseInvokeResult> callerInvokePendingTable, SequenceIdGenerator reqIdGenerator) {
+		this.callerInvokePendingTable = callerInvokePendingTable;
+		this.reqIdGenerator = reqIdGenerator;
 	}
 	private static final long BEGIN_EXECUTABLE_TIME = com.chopsticks.core.rocketmq.Const.CLIENT_TIME.getNow();
 	@Override
 	public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
 		for(MessageExt ext : msgs) {
 			try {
-				byte[] byteResp = ext.getBody();
-				InvokeResponse resp = JSON.parseObject(byteResp, InvokeResponse.class);
-				DefaultPromise<BaseInvokeResult> promise = callerInvokePromiseMap.remove(resp.getReqId());
+				InvokeResponse resp = Codecs.of(ext).decodeInvokeResponse(ext);
+				long sequence = reqIdGenerator.parseSequence(resp.getReqId());
+				DefaultPromise<BaseInvokeResult> promise = sequence < 0 ? null : callerInvokePendingTable.remove(sequence);
 				if(resp.getReqTime() < BEGIN_EXECUTABLE_TIME) {
 					continue;
 				}
@@ -45,11 +48,8 @@ class CallerInvokeListener implements MessageListenerConcurrently{
 						CoreException e = new DefaultCoreException(String.format("%s-%s", resp.getReqId(), resp.getRespExceptionBody())).setCode(resp.getRespExceptionCode());
 						promise.setException(e);
 					}else {
-						byte[] respBody = resp.getRespBody();
-						if(respBody != null && respBody.length > 0 && resp.isCompressRespBody()) {
-							respBody = UtilAll.uncompress(respBody);
-						}
-						DefaultInvokeResult ret = new DefaultInvokeResult(respBody);
+						// 响应体在第一次访问时才解压
+						DefaultInvokeResult ret = new DefaultInvokeResult(resp.getRespBodyBuffer(), resp.isCompressRespBody() ? Compressors.get(resp.getRespCompressor()) : null);
 						ret.setTraceNos(resp.getTraceNos());
 						promise.set(ret);
 					}
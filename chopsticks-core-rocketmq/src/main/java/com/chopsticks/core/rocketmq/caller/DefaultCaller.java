@@ -4,15 +4,12 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -37,7 +34,6 @@ import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageQueue;
 import org.apache.rocketmq.common.protocol.ResponseCode;
 import org.apache.rocketmq.common.protocol.body.ConsumerConnection;
-import org.apache.rocketmq.common.protocol.body.GroupList;
 import org.apache.rocketmq.common.protocol.heartbeat.MessageModel;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
@@ -48,7 +44,11 @@ import org.slf4j.LoggerFactory;
 
 import com.alibaba.fastjson.JSON;
 import com.chopsticks.common.concurrent.Promise;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
 import com.chopsticks.common.concurrent.impl.DefaultTimeoutPromise;
+import com.chopsticks.common.concurrent.impl.HashedWheelPendingTable;
+import com.chopsticks.common.concurrent.impl.HashedWheelPendingTable.ExpireListener;
+import com.chopsticks.common.utils.SequenceIdGenerator;
 import com.chopsticks.core.Const;
 import com.chopsticks.core.caller.Caller;
 import com.chopsticks.core.caller.InvokeCommand;
@@ -56,26 +56,34 @@ import com.chopsticks.core.caller.InvokeResult;
 import com.chopsticks.core.caller.NoticeCommand;
 import com.chopsticks.core.caller.NoticeResult;
 import com.chopsticks.core.exception.CoreException;
+import com.chopsticks.core.rocketmq.caller.impl.AdaptiveBatchInvokeSender;
+import com.chopsticks.core.rocketmq.caller.impl.BaseBatchInvokeSender;
 import com.chopsticks.core.rocketmq.caller.impl.BatchInvokerSender;
 import com.chopsticks.core.rocketmq.caller.impl.DefaultInvokeCommand;
 import com.chopsticks.core.rocketmq.caller.impl.DefaultNoticeCommand;
 import com.chopsticks.core.rocketmq.caller.impl.DefaultNoticeResult;
 import com.chopsticks.core.rocketmq.caller.impl.DefaultTransactionListener;
+import com.chopsticks.core.rocketmq.caller.impl.RoundRobinRespQueueSelector;
 import com.chopsticks.core.rocketmq.caller.impl.SingleInvokeSender;
+import com.chopsticks.core.rocketmq.codec.BinaryCodec;
+import com.chopsticks.core.rocketmq.codec.Codecs;
+import com.chopsticks.core.rocketmq.codec.JsonCodec;
+import com.chopsticks.core.rocketmq.compress.Compressor;
+import com.chopsticks.core.rocketmq.compress.Compressors;
 import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+import com.chopsticks.core.rocketmq.handler.LocalInvokeMessageExt;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import io.netty.util.internal.ThreadLocalRandom; 
-
 /**
  * 默认发送者实现
  * @author zilong.li
@@ -104,17 +112,52 @@ public class DefaultCaller implements Caller {
 	
 	private DefaultMQPushConsumer callerInvokeConsumer;
 	
+	private CallerInvokeListener callerInvokeListener;
+	
+	/**
+	 * 为 null 时不做本地短路
+	 */
+	private LocalInvokePolicy localInvokePolicy;
+	
+	private RespQueueView respQueueView;
+	
+	private RespQueueSelector respQueueSelector = new RoundRobinRespQueueSelector();
+	
 	private volatile boolean started;
 	
 	protected static final long DEFAULT_SYNC_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
 	
 	protected static final long DEFAULT_ASYNC_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
 	
+	private static final long DEFAULT_COMPRESS_BODY_LENGTH = 1024 * 4;
+	
 	private static final MessageQueueSelector DEFAULT_MESSAGE_QUEUE_SELECTOR = new OrderedMessageQueueSelector();
 	
 //	private long batchExecuteIntervalMillis = TimeUnit.MILLISECONDS.toMillis(100L);
 	private long batchExecuteIntervalMillis = TimeUnit.MILLISECONDS.toMillis(0L);
 	
+	private long adaptiveBatchMaxDelayMillis = 0L;
+	
+	private int batchFlusherLanes = 0;
+	
+	private int invokeCodecVersion = JsonCodec.VERSION;
+	
+	private int invokeRespCodecVersion = BinaryCodec.VERSION;
+	
+	/**
+	 * 为 null 时使用 rocketmq 自带的 zlib 压缩
+	 */
+	private Compressor compressor;
+	
+	private long compressBodyLength = DEFAULT_COMPRESS_BODY_LENGTH;
+	
+	private final Map</*topic*/String, Long> topicCompressBodyLengths = Maps.newConcurrentMap();
+	
+	/**
+	 * notice 是否使用自定义压缩，老版本 handler 不认识压缩属性，默认关闭
+	 */
+	private boolean noticeCompressorSupport = false;
+	
 	private BaseInvokeSender invokeSender;
 	
 	private boolean invokable = true;
@@ -123,17 +166,23 @@ public class DefaultCaller implements Caller {
 	
 	private boolean mqAdminExtSupport = true;
 	
-	private static final Cache</*topic + tag*/String, /*consumer exist*/Boolean> INVOKE_TOPIC_TAG_MONITOR = CacheBuilder.newBuilder().expireAfterWrite(DEFAULT_SYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).build();
-	private static final Cache</*topic*/String, Set<ConsumerConnection>> INVOKE_TOPIC_MONITOR = CacheBuilder.newBuilder().expireAfterWrite(DEFAULT_SYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).build();
+	private long subscriptionRefreshMillis = TimeUnit.SECONDS.toMillis(10L);
 	
+	private SubscriptionIndex subscriptionIndex;
 	
-	private static final Cache</*topic + tag*/String, /*consumer exist*/Boolean> NOTICE_TOPIC_TAG_MONITOR = CacheBuilder.newBuilder().build();
-	private static final Cache</*topic*/String, Set<ConsumerConnection>> NOTICE_TOPIC_MONITOR = CacheBuilder.newBuilder().build();
+	/**
+	 * 没有消费者时 notice 直接失败，否则只打印警告
+	 */
+	private boolean noticeConsumerCheckFailFast = false;
+	
+	private final Cache</*topic + tag*/String, Boolean> noticeConsumerNotFoundWarned = CacheBuilder.newBuilder().expireAfterWrite(1L, TimeUnit.MINUTES).build();
 	
 	/**
-	 *  <msgid, timeoutGuavaPromise>
+	 *  <reqId sequence, promise>
 	 */
-	private Map<String, DefaultTimeoutPromise<BaseInvokeResult>> callerInvokePromiseMap;
+	private HashedWheelPendingTable<BaseInvokeResult> callerInvokePendingTable;
+	
+	private final SequenceIdGenerator reqIdGenerator = new SequenceIdGenerator();
 	
 	public DefaultCaller(String groupName) {
 		checkArgument(!isNullOrEmpty(groupName), "groupName cannot be null or empty");
@@ -148,13 +197,17 @@ public class DefaultCaller implements Caller {
 		if(!started) {
 			try {
 				mqAdminExt = buildAdminExt();
-				callerInvokePromiseMap = new ConcurrentHashMap<String, DefaultTimeoutPromise<BaseInvokeResult>>();
+				subscriptionIndex = buildSubscriptionIndex(mqAdminExt);
+				callerInvokePendingTable = buildCallerInvokePendingTable();
 				producer = buildAndStartProducer();
 				transactionProducer = buildAndStartTransactionProducer();
 				invokeSender = buildInvokeSender(producer, batchExecuteIntervalMillis);
 				callerInvokeConsumer = buildAndStartCallerInvokeConsumer();
 				started = true;	
 			}catch (Throwable e) {
+				if(subscriptionIndex != null) {
+					subscriptionIndex.shutdown();
+				}
 				if(mqAdminExt != null) {
 					mqAdminExt.shutdown();
 				}
@@ -170,6 +223,9 @@ public class DefaultCaller implements Caller {
 				if(callerInvokeConsumer != null) {
 					callerInvokeConsumer.shutdown();
 				}
+				if(callerInvokePendingTable != null) {
+					callerInvokePendingTable.shutdown();
+				}
 				if(e instanceof CoreException) {
 					throw (CoreException)e;
 				}else {
@@ -179,6 +235,26 @@ public class DefaultCaller implements Caller {
 		}
 	}
 
+	private HashedWheelPendingTable<BaseInvokeResult> buildCallerInvokePendingTable() {
+		HashedWheelPendingTable<BaseInvokeResult> table = new HashedWheelPendingTable<BaseInvokeResult>(getGroupName());
+		table.setExpireListener(new ExpireListener<BaseInvokeResult>() {
+			@Override
+			public void onExpire(long sequence, DefaultPromise<BaseInvokeResult> promise) {
+				log.error("timeout remove promise, reqId : {}, promise : {}", reqIdGenerator.toId(sequence), promise);
+			}
+		});
+		return table;
+	}
+
+	private SubscriptionIndex buildSubscriptionIndex(DefaultMQAdminExt mqAdminExt) {
+		if(!mqAdminExtSupport) {
+			return null;
+		}
+		SubscriptionIndex subscriptionIndex = new SubscriptionIndex(getGroupName(), mqAdminExt, subscriptionRefreshMillis);
+		subscriptionIndex.start();
+		return subscriptionIndex;
+	}
+
 	protected void beforeAdminExtStart(DefaultMQAdminExt mqAdminExt) {
 	}
 	private DefaultMQAdminExt buildAdminExt() {
@@ -205,8 +281,20 @@ public class DefaultCaller implements Caller {
 	private BaseInvokeSender buildInvokeSender(DefaultMQProducer producer, long batchExecuteIntervalMillis) {
 		BaseInvokeSender invokeSender = null;
 		if(isInvokable()) {
-			if(batchExecuteIntervalMillis > 0L) {
-				invokeSender = new BatchInvokerSender(producer, batchExecuteIntervalMillis);
+			BaseBatchInvokeSender batchInvokeSender = null;
+			if(adaptiveBatchMaxDelayMillis > 0L) {
+				batchInvokeSender = new AdaptiveBatchInvokeSender(producer, adaptiveBatchMaxDelayMillis);
+			}else if(batchExecuteIntervalMillis > 0L) {
+				batchInvokeSender = new BatchInvokerSender(producer, batchExecuteIntervalMillis, batchFlusherLanes);
+			}
+			if(batchInvokeSender != null) {
+				batchInvokeSender.setCompressBodyLength(new Function<String, Long>() {
+					@Override
+					public Long apply(String topic) {
+						return getCompressBodyLength(topic);
+					}
+				});
+				invokeSender = batchInvokeSender;
 			}else {
 				invokeSender = new SingleInvokeSender(producer);
 			}
@@ -229,6 +317,10 @@ public class DefaultCaller implements Caller {
 				invokeSender.shutdown();
 				invokeSender = null;
 			}
+			if(subscriptionIndex != null) {
+				subscriptionIndex.shutdown();
+				subscriptionIndex = null;
+			}
 			if(mqAdminExt != null) {
 				mqAdminExt.shutdown();
 				mqAdminExt = null;
@@ -237,6 +329,10 @@ public class DefaultCaller implements Caller {
 				callerInvokeConsumer.shutdown();
 				callerInvokeConsumer = null;
 			}
+			if(callerInvokePendingTable != null) {
+				callerInvokePendingTable.shutdown();
+				callerInvokePendingTable = null;
+			}
 			started = false;
 		}
 	}
@@ -253,11 +349,14 @@ public class DefaultCaller implements Caller {
 			callerInvokeConsumer.setMessageModel(MessageModel.CLUSTERING);
 			callerInvokeConsumer.setConsumeMessageBatchMaxSize(10);
 			callerInvokeConsumer.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET);
-			callerInvokeConsumer.registerMessageListener(new CallerInvokeListener(callerInvokePromiseMap));
+			callerInvokeListener = new CallerInvokeListener(callerInvokePendingTable, reqIdGenerator);
+			callerInvokeConsumer.registerMessageListener(callerInvokeListener);
 			callerInvokeConsumer.setPullThresholdSizeForTopic(10);
 			callerInvokeConsumer.setPullThresholdForTopic(200);
 			try {
 				String topic = buildRespTopic();
+				respQueueView = new RespQueueView(topic, callerInvokeConsumer);
+				callerInvokeConsumer.setAllocateMessageQueueStrategy(respQueueView);
 				callerInvokeConsumer.subscribe(topic, com.chopsticks.core.rocketmq.Const.ALL_TAGS);
 				createTopics(Sets.newHashSet(topic));
 				checkConsumerSubscription(callerInvokeConsumer);
@@ -265,8 +364,9 @@ public class DefaultCaller implements Caller {
 				callerInvokeConsumer.start();
 				callerInvokeConsumer = com.chopsticks.core.rocketmq.Const.buildConsumer(callerInvokeConsumer);
 				long waitRebalanceMillis = 100L;
-				while(getRespQueue(callerInvokeConsumer).isEmpty()) {
+				while(respQueueView.getQueues().isEmpty()) {
 					TimeUnit.MILLISECONDS.sleep(waitRebalanceMillis);
+					respQueueView.refresh();
 					log.info("continue wait rebalance time {}ms", waitRebalanceMillis);
 				}
 				log.trace("{} callerInvokeConsumer start time : {} s", getGroupName(), watch.elapsed(TimeUnit.SECONDS));
@@ -294,6 +394,10 @@ public class DefaultCaller implements Caller {
 		producer.setSendMsgTimeout(Long.valueOf(DEFAULT_ASYNC_TIMEOUT_MILLIS).intValue());
 		producer.setRetryAnotherBrokerWhenNotStoreOK(true);
 		producer.setDefaultTopicQueueNums(com.chopsticks.core.rocketmq.Const.DEFAULT_TOPIC_QUEUE_SIZE);
+		if(compressor != null && noticeCompressorSupport) {
+			// 由自定义压缩处理，关闭自带压缩
+			producer.setCompressMsgBodyOverHowmuch(Integer.MAX_VALUE);
+		}
 		try {
 			beforeProducerStart(producer);
 			producer.start();
@@ -320,6 +424,9 @@ public class DefaultCaller implements Caller {
 			transactionMQProducer.setSendMsgTimeout(Long.valueOf(DEFAULT_ASYNC_TIMEOUT_MILLIS).intValue());
 			transactionMQProducer.setRetryAnotherBrokerWhenNotStoreOK(true);
 			transactionMQProducer.setDefaultTopicQueueNums(com.chopsticks.core.rocketmq.Const.DEFAULT_TOPIC_QUEUE_SIZE);
+			if(compressor != null && noticeCompressorSupport) {
+				transactionMQProducer.setCompressMsgBodyOverHowmuch(Integer.MAX_VALUE);
+			}
 			transactionMQProducer.setExecutorService(TRANSACTION_CHECK_EXECUTOR_SERVICE);
 			transactionMQProducer.setTransactionListener(new DefaultTransactionListener(transactionchecker));
 			try {
@@ -372,11 +479,18 @@ public class DefaultCaller implements Caller {
 		checkArgument(started, "must be call method start");
 		checkArgument(invokable, "must be support invokable");
 		checkArgument(!Strings.isNullOrEmpty(cmd.getMethod()), "method cannot be null or empty");
-		final DefaultTimeoutPromise<BaseInvokeResult> promise = new DefaultTimeoutPromise<BaseInvokeResult>(timeout, timeoutUnit);
+		final DefaultPromise<BaseInvokeResult> promise = new DefaultPromise<BaseInvokeResult>();
+		InvokeRequest req = null;
 		try {
-			InvokeRequest req = buildInvokeRequest(cmd, timeout, timeoutUnit);
-			callerInvokePromiseMap.put(req.getReqId(), promise);
+			req = buildInvokeRequest(cmd, timeout, timeoutUnit);
+			promise.addListener(new RespQueueReleaseListener(respQueueSelector, req.getRespQueue()), MoreExecutors.directExecutor());
+			callerInvokePendingTable.put(req.getReqSequence(), promise, timeout, timeoutUnit);
 			final Message msg = buildInvokeMessage(req, cmd, timeout, timeoutUnit);
+			if(localInvokePolicy != null
+			&& localInvokePolicy.isLocalInvoke(cmd.getTopic(), cmd.getTag())
+			&& invokeLocally(req, msg, promise)) {
+				return promise;
+			}
 			if(!checkInvokeMessage(msg)) {
 				throw new DefaultCoreException(String.format("%s.%s cannot found executor, please check if InvokeExecutable is enabled on server-side"
 															, cmd.getTopic()
@@ -384,78 +498,81 @@ public class DefaultCaller implements Caller {
 					.setCode(DefaultCoreException.INVOKE_EXECUTOR_NOT_FOUND);
 			}
 			invokeSender.send(msg, promise);
-			promise.addListener(new CallerInvokeTimoutPromiseListener(callerInvokePromiseMap, req));
 		} catch (Throwable e) {
+			if(req != null) {
+				callerInvokePendingTable.remove(req.getReqSequence());
+			}
 			promise.setException(e);
 		}
 	
 		return promise;
 	}
 	
+	/**
+	 * 本地有 handler 时直接交给本地执行，响应通过 {@link #onLocalInvokeResponse(Message)} 返回
+	 * 只有 invoke 会短路，notice 需要 broker 的持久化和重试，始终经过 broker
+	 * @param promise 已放入等待表，旁路异步失败时可通过 {@link #invokeByBroker(Message, DefaultPromise)} 改走 broker
+	 * @return 本地不能处理时返回 false，走 broker
+	 */
+	protected boolean invokeLocally(InvokeRequest req, Message msg, DefaultPromise<BaseInvokeResult> promise) {
+		return false;
+	}
+	
+	/**
+	 * 旁路发送失败后改走 broker
+	 */
+	protected void invokeByBroker(Message msg, DefaultPromise<BaseInvokeResult> promise) {
+		try {
+			invokeSender.send(msg, promise);
+		}catch (Throwable e) {
+			promise.setException(e);
+		}
+	}
+	
+	/**
+	 * 本地执行的响应，与 broker 投递的响应走同样的解码流程
+	 */
+	protected void onLocalInvokeResponse(Message respMsg) {
+		callerInvokeListener.consumeMessage(Collections.singletonList(LocalInvokeMessageExt.toMessageExt(respMsg)), null);
+	}
+	
 	// TODO 未实现，异步调用是否存在处理者
 	/**
 	 * 判断是否有消费者处理，不管在线离线 
 	 * @param msg
 	 * @return
-	 * @throws ExecutionException
 	 */
-	private Boolean checkNoticeMessage(final Message msg) throws ExecutionException{
-		return NOTICE_TOPIC_TAG_MONITOR.get(msg.getTopic() + msg.getTags(), new Callable<Boolean>() {
-			@Override
-			public Boolean call() throws Exception {
-				boolean examineConsumerConnectionInfo = false;
-				return null;
-			}
-		});
+	private boolean checkNoticeMessage(final Message msg) {
+		if(subscriptionIndex == null) {
+			return true;
+		}
+		return subscriptionIndex.hasConsumer(msg.getTopic(), msg.getTags(), "");
+	}
+	
+	private void checkNoticeConsumer(Message msg) {
+		if(checkNoticeMessage(msg)) {
+			return;
+		}
+		if(noticeConsumerCheckFailFast) {
+			throw new DefaultCoreException(String.format("%s.%s cannot found consumer, neither online nor offline", msg.getTopic(), msg.getTags()))
+				.setCode(DefaultCoreException.NOTICE_CONSUMER_NOT_FOUND);
+		}
+		String key = msg.getTopic() + msg.getTags();
+		if(noticeConsumerNotFoundWarned.getIfPresent(key) == null) {
+			noticeConsumerNotFoundWarned.put(key, Boolean.TRUE);
+			log.warn("{}.{} cannot found consumer, neither online nor offline, message will pile up on broker", msg.getTopic(), msg.getTags());
+		}
 	}
 	/**
-	 * 判断消息是否有在线的消费者处理
+	 * 判断消息是否有在线的消费者处理，只读后台刷新的订阅索引
 	 * @param msg
 	 * @return
-	 * @throws ExecutionException
 	 */
-	private Boolean checkInvokeMessage(final Message msg) throws ExecutionException {
-		return INVOKE_TOPIC_TAG_MONITOR.get(msg.getTopic() + msg.getTags(), new Callable<Boolean>() {
-			@Override
-			public Boolean call() throws Exception {
-				if(!mqAdminExtSupport) {
-					return true;
-				}
-				boolean examineConsumerConnectionInfo = false;
-				Set<ConsumerConnection> consumerConns = INVOKE_TOPIC_MONITOR.get(msg.getTopic(), new Callable<Set<ConsumerConnection>>() {
-					@Override
-					public Set<ConsumerConnection> call() throws Exception {
-						Set<ConsumerConnection> consumerConns = Sets.newHashSet();
-						try {
-							GroupList groupList = mqAdminExt.queryTopicConsumeByWho(msg.getTopic());
-							for(String groupName : groupList.getGroupList()) {
-								try {
-									if(groupName.endsWith(com.chopsticks.core.rocketmq.Const.INVOKE_CONSUMER_SUFFIX)) {
-										ConsumerConnection consumerConn = mqAdminExt.examineConsumerConnectionInfo(groupName);
-										consumerConns.add(consumerConn);
-									}
-								}catch (Throwable e) {
-									continue;
-								}
-							}
-						}catch (Throwable e) {
-						}
-						return consumerConns;
-					}
-				});
-				for(ConsumerConnection consumerConn : consumerConns) {
-					for(Entry<String, SubscriptionData> entry : consumerConn.getSubscriptionTable().entrySet()) {
-						if(entry.getKey().equals(msg.getTopic())
-						&& (entry.getValue().getTagsSet().contains(msg.getTags()) 
-							|| entry.getValue().getTagsSet().contains(com.chopsticks.core.rocketmq.Const.ALL_TAGS))) {
-							examineConsumerConnectionInfo = true;
-							break;
-						}
-					}
-				}
-				return examineConsumerConnectionInfo;
-			}
-		});
+	private boolean checkInvokeMessage(final Message msg) {
+		if(subscriptionIndex == null) {
+			return true;
+		}
+		return subscriptionIndex.hasOnlineConsumer(msg.getTopic(), msg.getTags(), com.chopsticks.core.rocketmq.Const.INVOKE_CONSUMER_SUFFIX);
 	}
 	
 	public BaseNoticeResult notice(BaseNoticeCommand cmd) {
@@ -502,6 +619,7 @@ public class DefaultCaller implements Caller {
 		final DefaultTimeoutPromise<BaseNoticeResult> promise = new DefaultTimeoutPromise<BaseNoticeResult>(DEFAULT_ASYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 		try {
 			Message msg = buildNoticeMessage(cmd);
+			checkNoticeConsumer(msg);
 			// TODO 发送者统一接口，方便后续统一校验和升级，隔离核心发送代码，现在事务消息不支持顺序，延迟
 			if(cmd.isTransaction()) {
 				checkNotNull(transactionProducer, "unsupport transaction");
@@ -536,6 +654,7 @@ public class DefaultCaller implements Caller {
 		final DefaultTimeoutPromise<BaseNoticeResult> promise = new DefaultTimeoutPromise<BaseNoticeResult>(DEFAULT_ASYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 		try {
 			Message msg = buildOrderedNoticeMessage(cmd, orderKey);
+			checkNoticeConsumer(msg);
 			NoticeSendCallback callback = new NoticeSendCallback(promise);
 			producer.send(msg, DEFAULT_MESSAGE_QUEUE_SELECTOR , orderKey, callback);
 			promise.addListener(new CallerNoticeTimeoutPromiseListener(callback));
@@ -582,21 +701,25 @@ public class DefaultCaller implements Caller {
 	protected InvokeRequest buildInvokeRequest(BaseInvokeCommand cmd, long timeout, TimeUnit timeoutUnit) {
 		InvokeRequest req = new InvokeRequest();
 		String respTopic = buildRespTopic();
-		req.setReqId(UUID.randomUUID().toString());
+		long reqSequence = reqIdGenerator.nextSequence();
+		req.setReqSequence(reqSequence);
+		req.setReqId(reqIdGenerator.toId(reqSequence));
 		req.setReqTime(com.chopsticks.core.rocketmq.Const.CLIENT_TIME.getNow());
 		req.setDeadline(req.getReqTime() + timeoutUnit.toMillis(timeout));
 		req.setRespTopic(respTopic);
 		req.setRespTag(cmd.getTag() + com.chopsticks.core.rocketmq.Const.INVOCE_RESP_TAG_SUFFIX);
 		req.setRespCompress(true);
+		req.setRespCodecVersion(invokeRespCodecVersion);
+		req.setRespCompressor(compressor == null ? Compressors.LEGACY_ID : compressor.getId());
 		req.setExtParams(cmd.getExtParams());
 		req.setTraceNos(cmd.getTraceNos());
 		try {
-			List<MessageQueue> mqList = getRespQueue(this.callerInvokeConsumer);
+			List<MessageQueue> mqList = respQueueView.getQueues();
 			MessageQueue mq = null;
 			if(mqList.isEmpty()) {
 				throw new DefaultCoreException(String.format("resp queue %s is empty", getGroupName()));
 			}else {
-				mq = mqList.get(ThreadLocalRandom.current().nextInt(mqList.size()));
+				mq = respQueueSelector.select(mqList);
 			}
 			req.setRespQueue(mq);
 		}catch (Throwable e) {
@@ -609,27 +732,19 @@ public class DefaultCaller implements Caller {
 		
 		return req;
 	}
-	private List<MessageQueue> getRespQueue(DefaultMQPushConsumer callerInvokeConsumer){
-		MessageQueue[] mqs = callerInvokeConsumer.getDefaultMQPushConsumerImpl()
-												 .getRebalanceImpl()
-												 .getProcessQueueTable()
-												 .keySet()
-												 .toArray(new MessageQueue[0]);
-		List<MessageQueue> mqList = Lists.newArrayList(mqs);
-		for(Iterator<MessageQueue> iter = mqList.iterator(); iter.hasNext();) {
-			if(iter.next().getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
-				iter.remove();
-			}
-		}
-		return mqList;
-	}
 	private String buildRespTopic() {
 		return getGroupName() + com.chopsticks.core.rocketmq.Const.INVOCE_RESP_TOPIC_SUFFIX;
 	}
 	
 	protected Message buildInvokeMessage(InvokeRequest req, BaseInvokeCommand cmd, long timeout, TimeUnit timeoutUnit) {
-		Message msg = new Message(buildInvokeTopic(cmd.getTopic()), cmd.getTag(), cmd.getBody());
-		msg.putUserProperty(com.chopsticks.core.rocketmq.Const.INVOKE_REQUEST_KEY, JSON.toJSONString(req));
+		Message msg = new Message(buildInvokeTopic(cmd.getTopic()), cmd.getTag(), null);
+		byte[] body = cmd.getBody();
+		if(isCompressBody(cmd.getTopic(), body)) {
+			body = compressor.compress(body);
+			req.setCompress(true);
+			req.setCompressor(compressor.getId());
+		}
+		Codecs.get(invokeCodecVersion).encodeInvokeRequest(msg, req, body);
 		Set<String> traceNos = Sets.newHashSet(cmd.getTraceNos());
 		traceNos.add(com.chopsticks.core.rocketmq.Const.buildTraceInvokeReqId(req.getReqId()));
 		traceNos.add(com.chopsticks.core.rocketmq.Const.buildTraceNoByMethod(cmd.getTag()));
@@ -640,6 +755,7 @@ public class DefaultCaller implements Caller {
 	private Message buildNoticeMessage(BaseNoticeCommand cmd) {
 		NoticeRequest req = buildNoticeRequest(cmd);
 		Message msg = new Message(buildNoticeTopic(cmd.getTopic()), cmd.getTag(), cmd.getBody());
+		compressNoticeBody(msg, cmd.getTopic());
 		msg.putUserProperty(com.chopsticks.core.rocketmq.Const.NOTICE_REQUEST_KEY, JSON.toJSONString(req));
 		Set<String> traceNo = Sets.newHashSet(cmd.getTraceNos());
 		traceNo.add(com.chopsticks.core.rocketmq.Const.buildTraceNoByMethod(cmd.getTag()));
@@ -649,6 +765,7 @@ public class DefaultCaller implements Caller {
 	
 	private Message buildDelayNoticeMessage(BaseNoticeCommand cmd, Long delay, TimeUnit delayTimeUnit) {
 		Message msg = new Message(buildDelayNoticeTopic(cmd.getTopic()), cmd.getTag(), cmd.getBody());
+		compressNoticeBody(msg, cmd.getTopic());
 		if(delay != null 
 		&& delayTimeUnit != null
 		&& delay > 0) {
@@ -675,6 +792,7 @@ public class DefaultCaller implements Caller {
 	
 	private Message buildOrderedNoticeMessage(BaseNoticeCommand cmd, Object orderKey) {
 		Message msg = new Message(buildOrderedNoticeTopic(cmd.getTopic()), cmd.getTag(), cmd.getBody());
+		compressNoticeBody(msg, cmd.getTopic());
 		OrderedNoticeRequest req = buildOrderedNoticeRequest(cmd, orderKey);
 		msg.putUserProperty(com.chopsticks.core.rocketmq.Const.ORDERED_NOTICE_REQUEST_KEY, JSON.toJSONString(req));
 		Optional<Entry<Long, Integer>> level = com.chopsticks.core.rocketmq.Const.getDelayLevel(TimeUnit.SECONDS.toMillis(1L));
@@ -690,6 +808,17 @@ public class DefaultCaller implements Caller {
 		return msg;
 	}
 	
+	private void compressNoticeBody(Message msg, String topic) {
+		if(noticeCompressorSupport && isCompressBody(topic, msg.getBody())) {
+			msg.setBody(compressor.compress(msg.getBody()));
+			msg.putUserProperty(com.chopsticks.core.rocketmq.Const.COMPRESSOR_KEY, String.valueOf(compressor.getId()));
+		}
+	}
+	
+	private boolean isCompressBody(String topic, byte[] body) {
+		return compressor != null && body != null && body.length >= getCompressBodyLength(topic);
+	}
+	
 	protected String buildSuccessTopic(String topic) {
 		return topic.replaceAll("\\.", "_").replaceAll("\\$", "-");
 	}
@@ -848,6 +977,7 @@ public class DefaultCaller implements Caller {
 		final DefaultTimeoutPromise<BaseNoticeResult> promise = new DefaultTimeoutPromise<BaseNoticeResult>(DEFAULT_ASYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 		try {
 			Message msg = buildDelayNoticeMessage(cmd, delay, delayTimeUnit);
+			checkNoticeConsumer(msg);
 			NoticeSendCallback callback = new NoticeSendCallback(promise);
 			producer.send(msg, callback);
 			promise.addListener(new CallerNoticeTimeoutPromiseListener(callback));
@@ -862,6 +992,117 @@ public class DefaultCaller implements Caller {
 		this.batchExecuteIntervalMillis = batchExecuteIntervalMillis;
 	}
 	
+	/**
+	 * 自定义消息体压缩，设置后关闭 rocketmq 自带压缩，对端需注册相同 id 的实现
+	 * @param compressor
+	 */
+	public void setCompressor(Compressor compressor) {
+		if(compressor != null) {
+			Compressors.register(compressor);
+		}
+		this.compressor = compressor;
+	}
+	
+	public Compressor getCompressor() {
+		return compressor;
+	}
+	
+	/**
+	 * notice 消息体使用自定义压缩，所有 handler 升级后才能开启，否则老版本 handler 收到的是无法解析的压缩数据
+	 * 关闭时 producer 保留 rocketmq 自带压缩，notice 由自带压缩处理
+	 * @param noticeCompressorSupport
+	 */
+	public void setNoticeCompressorSupport(boolean noticeCompressorSupport) {
+		this.noticeCompressorSupport = noticeCompressorSupport;
+	}
+	
+	public boolean isNoticeCompressorSupport() {
+		return noticeCompressorSupport;
+	}
+	
+	public void setCompressBodyLength(long compressBodyLength) {
+		this.compressBodyLength = compressBodyLength;
+	}
+	
+	public void setTopicCompressBodyLength(String topic, long compressBodyLength) {
+		topicCompressBodyLengths.put(topic, compressBodyLength);
+	}
+	
+	public long getCompressBodyLength(String topic) {
+		Long length = topicCompressBodyLengths.get(topic);
+		return length == null ? compressBodyLength : length;
+	}
+	
+	/**
+	 * invoke 请求编码版本，默认 json 兼容老版本服务端，所有服务端升级后可改为 {@link BinaryCodec#VERSION}
+	 * @param invokeCodecVersion
+	 */
+	public void setInvokeCodecVersion(int invokeCodecVersion) {
+		this.invokeCodecVersion = Codecs.get(invokeCodecVersion).getVersion();
+	}
+	
+	/**
+	 * 期望的 invoke 响应编码版本，老版本服务端忽略此设置仍以 json 响应
+	 * @param invokeRespCodecVersion
+	 */
+	public void setInvokeRespCodecVersion(int invokeRespCodecVersion) {
+		this.invokeRespCodecVersion = Codecs.get(invokeRespCodecVersion).getVersion();
+	}
+	
+	/**
+	 * 批量发送时按topic分派的并行发送线程数，0 则在调度线程内同步发送
+	 * @param batchFlusherLanes
+	 */
+	public void setBatchFlusherLanes(int batchFlusherLanes) {
+		this.batchFlusherLanes = batchFlusherLanes;
+	}
+	
+	/**
+	 * 开启自适应批量发送，大于0时优先于 batchExecuteIntervalMillis
+	 * @param adaptiveBatchMaxDelayMillis 批量等待窗口上限
+	 */
+	public void setAdaptiveBatchMaxDelayMillis(long adaptiveBatchMaxDelayMillis) {
+		this.adaptiveBatchMaxDelayMillis = adaptiveBatchMaxDelayMillis;
+	}
+	
+	/**
+	 * 消费者订阅索引的后台刷新间隔
+	 * @param subscriptionRefreshMillis
+	 */
+	public void setSubscriptionRefreshMillis(long subscriptionRefreshMillis) {
+		checkArgument(subscriptionRefreshMillis > 0L, "subscriptionRefreshMillis must be greater than 0");
+		this.subscriptionRefreshMillis = subscriptionRefreshMillis;
+	}
+	
+	/**
+	 * notice 的 topic 和 tag 没有任何消费者(在线或离线)时是否直接失败，默认只打印警告
+	 * @param noticeConsumerCheckFailFast
+	 */
+	public void setNoticeConsumerCheckFailFast(boolean noticeConsumerCheckFailFast) {
+		this.noticeConsumerCheckFailFast = noticeConsumerCheckFailFast;
+	}
+	
+	/**
+	 * 响应队列选择策略，默认轮询
+	 * @param respQueueSelector
+	 * @see com.chopsticks.core.rocketmq.caller.impl.LeastInflightRespQueueSelector
+	 */
+	public void setRespQueueSelector(RespQueueSelector respQueueSelector) {
+		this.respQueueSelector = checkNotNull(respQueueSelector);
+	}
+	
+	public LocalInvokePolicy getLocalInvokePolicy() {
+		return localInvokePolicy;
+	}
+	
+	/**
+	 * 本地短路策略，需在 start 前设置，默认不开启
+	 * @see com.chopsticks.core.rocketmq.caller.impl.AlwaysLocalInvokePolicy
+	 */
+	public void setLocalInvokePolicy(LocalInvokePolicy localInvokePolicy) {
+		this.localInvokePolicy = localInvokePolicy;
+	}
+	
 	public void setInvokable(boolean invokable) {
 		this.invokable = invokable;
 	}
@@ -933,6 +1174,13 @@ public class DefaultCaller implements Caller {
 	protected String getLocalAddress() {
 		return RemotingUtil.getLocalAddress();
 	}
+	
+	/**
+	 * @return 未启动或不支持 admin 时为 null
+	 */
+	protected DefaultMQAdminExt getMqAdminExt() {
+		return mqAdminExtSupport ? mqAdminExt : null;
+	}
 
 	public boolean isMqAdminExtSupport() {
 		return mqAdminExtSupport;
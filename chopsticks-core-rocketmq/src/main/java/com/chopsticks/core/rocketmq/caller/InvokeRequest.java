@@ -2,14 +2,20 @@ package com.chopsticks.core.rocketmq.caller;
 
 import org.apache.rocketmq.common.message.MessageQueue;
 
+import com.alibaba.fastjson.annotation.JSONField;
+
 public class InvokeRequest extends BaseRequest{
 	private String reqId;
+	private long reqSequence;
 	private long deadline;
 	private boolean compress;
 	private String respTopic;
 	private String respTag;
 	private MessageQueue respQueue;
 	private boolean respCompress;
+	private int respCodecVersion;
+	private int compressor;
+	private int respCompressor;
 	
 	
 	public long getDeadline() {
@@ -36,6 +42,17 @@ public class InvokeRequest extends BaseRequest{
 	public void setReqId(String reqId) {
 		this.reqId = reqId;
 	}
+	/**
+	 * 生成 reqId 的序号，只在调用方本地使用，不参与编码
+	 */
+	@JSONField(serialize = false, deserialize = false)
+	public long getReqSequence() {
+		return reqSequence;
+	}
+	@JSONField(serialize = false, deserialize = false)
+	public void setReqSequence(long reqSequence) {
+		this.reqSequence = reqSequence;
+	}
 	public boolean isCompress() {
 		return compress;
 	}
@@ -48,6 +65,24 @@ public class InvokeRequest extends BaseRequest{
 	public void setRespCompress(boolean respCompress) {
 		this.respCompress = respCompress;
 	}
+	public int getRespCodecVersion() {
+		return respCodecVersion;
+	}
+	public void setRespCodecVersion(int respCodecVersion) {
+		this.respCodecVersion = respCodecVersion;
+	}
+	public int getCompressor() {
+		return compressor;
+	}
+	public void setCompressor(int compressor) {
+		this.compressor = compressor;
+	}
+	public int getRespCompressor() {
+		return respCompressor;
+	}
+	public void setRespCompressor(int respCompressor) {
+		this.respCompressor = respCompressor;
+	}
 	public MessageQueue getRespQueue() {
 		return respQueue;
 	}
@@ -0,0 +1,14 @@
+package com.chopsticks.core.rocketmq.caller;
+
+/**
+ * 本地短路策略，client 自己注册了目标 handler 时，是否跳过 broker 直接在本进程执行
+ * 请求和响应仍然经过编解码，handler 看到的参数和上下文与远程调用一致
+ */
+public interface LocalInvokePolicy {
+	
+	/**
+	 * @param topic 调用方的原始 topic
+	 * @param tag 方法
+	 */
+	public boolean isLocalInvoke(String topic, String tag);
+}
@@ -0,0 +1,27 @@
+package com.chopsticks.core.rocketmq.caller;
+
+import org.apache.rocketmq.common.message.MessageQueue;
+
+import com.chopsticks.common.concurrent.PromiseListener;
+
+class RespQueueReleaseListener implements PromiseListener<BaseInvokeResult> {
+	
+	private final RespQueueSelector selector;
+	
+	private final MessageQueue respQueue;
+	
+	RespQueueReleaseListener(RespQueueSelector selector, MessageQueue respQueue) {
+		this.selector = selector;
+		this.respQueue = respQueue;
+	}
+
+	@Override
+	public void onSuccess(BaseInvokeResult result) {
+		selector.release(respQueue);
+	}
+
+	@Override
+	public void onFailure(Throwable t) {
+		selector.release(respQueue);
+	}
+}
@@ -0,0 +1,21 @@
+package com.chopsticks.core.rocketmq.caller;
+
+import java.util.List;
+
+import org.apache.rocketmq.common.message.MessageQueue;
+
+/**
+ * 为 invoke 请求选择响应队列
+ */
+public interface RespQueueSelector {
+	
+	/**
+	 * @param queues 当前分配给调用者的响应队列，不为空，不可修改
+	 */
+	MessageQueue select(List<MessageQueue> queues);
+	
+	/**
+	 * 请求结束(收到响应、超时或发送失败)，每次 select 对应一次 release
+	 */
+	void release(MessageQueue queue);
+}
@@ -0,0 +1,82 @@
+package com.chopsticks.core.rocketmq.caller;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.rocketmq.client.consumer.AllocateMessageQueueStrategy;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.common.message.MessageQueue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * 调用者响应队列的缓存视图，包装负载均衡策略，只在 rebalance 时发布不可修改的快照，调用路径上只读 volatile
+ * 新分配的队列在 processQueueTable 中出现(已确定消费位置)后才会被选为响应队列，避免响应先于拉取位置写入而丢失
+ * allocate 先于 processQueueTable 的更新执行，所以新队列在下一次 rebalance 时才会加入快照，移出的队列立即从快照中去掉
+ */
+class RespQueueView implements AllocateMessageQueueStrategy {
+	
+	private final String respTopic;
+	
+	private final AllocateMessageQueueStrategy delegate;
+	
+	private final DefaultMQPushConsumer consumer;
+	
+	private volatile Set<MessageQueue> allocated = ImmutableSet.of();
+	
+	private volatile List<MessageQueue> queues = ImmutableList.of();
+	
+	RespQueueView(String respTopic, DefaultMQPushConsumer consumer) {
+		this.respTopic = respTopic;
+		this.consumer = consumer;
+		this.delegate = consumer.getAllocateMessageQueueStrategy();
+	}
+
+	@Override
+	public List<MessageQueue> allocate(String consumerGroup, String currentCID, List<MessageQueue> mqAll, List<String> cidAll) {
+		if(mqAll == null || mqAll.isEmpty()) {
+			// 无法区分 topic，先清空再交给 delegate(默认策略会抛异常)，下一次响应 topic 的 rebalance 会重新发布
+			publish(ImmutableSet.<MessageQueue>of());
+		}
+		List<MessageQueue> result = delegate.allocate(consumerGroup, currentCID, mqAll, cidAll);
+		if(!mqAll.isEmpty() && mqAll.get(0).getTopic().endsWith(respTopic)) {
+			publish(ImmutableSet.copyOf(result));
+		}
+		return result;
+	}
+
+	@Override
+	public String getName() {
+		return delegate.getName();
+	}
+	
+	/**
+	 * @return 不可修改的快照
+	 */
+	List<MessageQueue> getQueues() {
+		return queues;
+	}
+	
+	/**
+	 * 用已分配的队列重新计算快照，供启动等待时使用，不在调用路径上执行
+	 */
+	void refresh() {
+		publish(allocated);
+	}
+	
+	private synchronized void publish(Set<MessageQueue> allocated) {
+		this.allocated = allocated;
+		Set<MessageQueue> processing = consumer.getDefaultMQPushConsumerImpl()
+											   .getRebalanceImpl()
+											   .getProcessQueueTable()
+											   .keySet();
+		ImmutableList.Builder<MessageQueue> builder = ImmutableList.builder();
+		for(MessageQueue queue : allocated) {
+			if(processing.contains(queue)) {
+				builder.add(queue);
+			}
+		}
+		queues = builder.build();
+	}
+}
@@ -0,0 +1,243 @@
+package com.chopsticks.core.rocketmq.caller;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.common.protocol.body.ConsumerConnection;
+import org.apache.rocketmq.common.protocol.body.GroupList;
+import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chopsticks.core.rocketmq.Const;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * topic 的消费者订阅索引 topic -> tag -> group，分在线和离线
+ * 离线消费组沿用上次在线时的 tag，从未见过在线的离线消费组视为订阅全部 tag
+ * 后台线程定时刷新(refresh-ahead)，调用线程只读取最近一次的快照，不访问 admin
+ * 刷新失败时保留旧快照，第一次访问的 topic 异步加载，加载完成前视为存在消费者
+ */
+class SubscriptionIndex {
+	
+	private static final Logger log = LoggerFactory.getLogger(SubscriptionIndex.class);
+	
+	/**
+	 * 超过该时间未访问的 topic 不再刷新
+	 */
+	private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10L);
+	
+	private final DefaultMQAdminExt mqAdminExt;
+	
+	private final long refreshMillis;
+	
+	private final ScheduledExecutorService refresher;
+	
+	private final ConcurrentMap</*topic*/String, TopicEntry> entries = Maps.newConcurrentMap();
+	
+	SubscriptionIndex(String name, DefaultMQAdminExt mqAdminExt, long refreshMillis) {
+		this.mqAdminExt = mqAdminExt;
+		this.refreshMillis = refreshMillis;
+		this.refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+																							  .setNameFormat(name + "-subscriptionIndex-%d")
+																							  .build());
+	}
+	
+	void start() {
+		refresher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				refreshAll();
+			}
+		}, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	void shutdown() {
+		refresher.shutdownNow();
+	}
+	
+	/**
+	 * @param groupSuffix 只统计以此结尾的消费组
+	 * @return 是否有在线的消费者订阅了 topic 和 tag，快照未加载时返回 true
+	 */
+	boolean hasOnlineConsumer(String topic, String tag, String groupSuffix) {
+		TopicSubscription subscription = entry(topic).subscription;
+		if(subscription == null) {
+			return true;
+		}
+		return subscription.containsOnline(tag, groupSuffix);
+	}
+	
+	/**
+	 * @return 是否有在线或离线的消费者订阅了 topic 和 tag，快照未加载时返回 true
+	 */
+	boolean hasConsumer(String topic, String tag, String groupSuffix) {
+		TopicSubscription subscription = entry(topic).subscription;
+		if(subscription == null) {
+			return true;
+		}
+		return subscription.containsOnline(tag, groupSuffix) || subscription.containsOffline(tag, groupSuffix);
+	}
+	
+	private TopicEntry entry(final String topic) {
+		TopicEntry entry = entries.get(topic);
+		if(entry == null) {
+			TopicEntry newEntry = new TopicEntry(topic);
+			entry = entries.putIfAbsent(topic, newEntry);
+			if(entry == null) {
+				entry = newEntry;
+				final TopicEntry loadEntry = newEntry;
+				try {
+					refresher.execute(new Runnable() {
+						@Override
+						public void run() {
+							load(loadEntry);
+						}
+					});
+				}catch (Throwable e) {
+					log.warn("submit subscription load error, topic : {}", topic, e);
+				}
+			}
+		}
+		entry.lastAccessTime = Const.CLIENT_TIME.getNow();
+		return entry;
+	}
+	
+	private void refreshAll() {
+		long now = Const.CLIENT_TIME.getNow();
+		for(TopicEntry entry : entries.values()) {
+			if(now - entry.lastAccessTime > IDLE_MILLIS) {
+				entries.remove(entry.topic, entry);
+				continue;
+			}
+			load(entry);
+		}
+	}
+	
+	private void load(TopicEntry entry) {
+		try {
+			entry.subscription = fetch(entry.topic, entry.subscription);
+		}catch (Throwable e) {
+			log.warn("refresh subscription error, keep last snapshot, topic : {}", entry.topic, e);
+		}
+	}
+	
+	private TopicSubscription fetch(String topic, TopicSubscription last) throws Exception {
+		Map<String, Set<String>> onlineTagGroups = Maps.newHashMap();
+		Map<String, Set<String>> offlineTagGroups = Maps.newHashMap();
+		// queryTopicConsumeByWho 包含有消费进度的离线消费组
+		GroupList groupList = mqAdminExt.queryTopicConsumeByWho(topic);
+		for(String groupName : groupList.getGroupList()) {
+			ConsumerConnection consumerConn;
+			try {
+				consumerConn = mqAdminExt.examineConsumerConnectionInfo(groupName);
+			}catch (Throwable e) {
+				Set<String> tags = last == null ? null : last.getTags(groupName);
+				if(tags == null || tags.isEmpty()) {
+					tags = ImmutableSet.of(Const.ALL_TAGS);
+				}
+				for(String tag : tags) {
+					put(offlineTagGroups, tag, groupName);
+				}
+				continue;
+			}
+			SubscriptionData subscriptionData = consumerConn.getSubscriptionTable().get(topic);
+			if(subscriptionData == null) {
+				continue;
+			}
+			for(String tag : subscriptionData.getTagsSet()) {
+				put(onlineTagGroups, tag, groupName);
+			}
+		}
+		return new TopicSubscription(onlineTagGroups, offlineTagGroups);
+	}
+	
+	private static void put(Map<String, Set<String>> tagGroups, String tag, String groupName) {
+		Set<String> groups = tagGroups.get(tag);
+		if(groups == null) {
+			groups = Sets.newHashSet();
+			tagGroups.put(tag, groups);
+		}
+		groups.add(groupName);
+	}
+	
+	private static class TopicEntry {
+		final String topic;
+		volatile TopicSubscription subscription;
+		volatile long lastAccessTime;
+		
+		TopicEntry(String topic) {
+			this.topic = topic;
+			this.lastAccessTime = Const.CLIENT_TIME.getNow();
+		}
+	}
+	
+	/**
+	 * 不可变快照
+	 */
+	private static class TopicSubscription {
+		
+		private final Map</*tag*/String, Set</*group*/String>> onlineTagGroups;
+		
+		private final Map</*tag*/String, Set</*group*/String>> offlineTagGroups;
+		
+		TopicSubscription(Map<String, Set<String>> onlineTagGroups, Map<String, Set<String>> offlineTagGroups) {
+			this.onlineTagGroups = copyOf(onlineTagGroups);
+			this.offlineTagGroups = copyOf(offlineTagGroups);
+		}
+		
+		boolean containsOnline(String tag, String groupSuffix) {
+			return contains(onlineTagGroups.get(tag), groupSuffix)
+				|| contains(onlineTagGroups.get(Const.ALL_TAGS), groupSuffix);
+		}
+		
+		boolean containsOffline(String tag, String groupSuffix) {
+			return contains(offlineTagGroups.get(tag), groupSuffix)
+				|| contains(offlineTagGroups.get(Const.ALL_TAGS), groupSuffix);
+		}
+		
+		/**
+		 * @return 消费组在此快照中订阅的 tag
+		 */
+		Set<String> getTags(String groupName) {
+			Set<String> tags = Sets.newHashSet();
+			for(Map<String, Set<String>> tagGroups : ImmutableSet.of(onlineTagGroups, offlineTagGroups)) {
+				for(Entry<String, Set<String>> entry : tagGroups.entrySet()) {
+					if(entry.getValue().contains(groupName)) {
+						tags.add(entry.getKey());
+					}
+				}
+			}
+			return tags;
+		}
+		
+		private static Map<String, Set<String>> copyOf(Map<String, Set<String>> tagGroups) {
+			ImmutableMap.Builder<String, Set<String>> builder = ImmutableMap.builder();
+			for(Entry<String, Set<String>> entry : tagGroups.entrySet()) {
+				builder.put(entry.getKey(), ImmutableSet.copyOf(entry.getValue()));
+			}
+			return builder.build();
+		}
+		
+		private static boolean contains(Set<String> groups, String groupSuffix) {
+			if(groups != null) {
+				for(String group : groups) {
+					if(group.endsWith(groupSuffix)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+}
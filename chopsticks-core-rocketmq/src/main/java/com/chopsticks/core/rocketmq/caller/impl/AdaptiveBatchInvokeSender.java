@@ -0,0 +1,247 @@
+package com.chopsticks.core.rocketmq.caller.impl;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.common.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 自适应批量发送
+ * 每个topic一个无锁环形队列，数量/字节达到阈值或等待超过当前窗口立即发送，
+ * 窗口在有积压时倍增(上限maxDelayMillis)，空闲时减半直至为0(等同单条发送)
+ * 批量发送为异步，单个慢topic不阻塞flusher线程
+ */
+public class AdaptiveBatchInvokeSender extends BaseBatchInvokeSender{
+
+	private static final Logger log = LoggerFactory.getLogger(AdaptiveBatchInvokeSender.class);
+
+	private static final int DEFAULT_MAX_BATCH_COUNT = 256;
+
+	private static final int RING_CAPACITY = 1 << 12;
+
+	private static final long MIN_WINDOW_NANOS = TimeUnit.MICROSECONDS.toNanos(100L);
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+
+	private final ConcurrentMap<String, TopicRing> rings = new ConcurrentHashMap<String, TopicRing>();
+
+	private final long maxWindowNanos;
+
+	private final int maxBatchCount;
+
+	private final long maxBatchSize;
+
+	private final Thread flusher;
+
+	private volatile boolean running = true;
+
+	public AdaptiveBatchInvokeSender(DefaultMQProducer producer, long maxDelayMillis) {
+		this(producer, maxDelayMillis, DEFAULT_MAX_BATCH_COUNT, MAX_BATCH_SIZE);
+	}
+
+	public AdaptiveBatchInvokeSender(DefaultMQProducer producer, long maxDelayMillis, int maxBatchCount, long maxBatchSize) {
+		super(producer);
+		this.maxWindowNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.maxBatchCount = Math.min(maxBatchCount, RING_CAPACITY);
+		this.maxBatchSize = maxBatchSize;
+		String group = producer.getProducerGroup();
+		if(group.contains("%")) {
+			group = group.substring(group.indexOf("%") + 1);
+		}
+		flusher = new ThreadFactoryBuilder()
+						.setNameFormat(group + "-invokeAdaptiveBatch-%d")
+						.setDaemon(true)
+						.build()
+						.newThread(new Runnable() {
+							@Override
+							public void run() {
+								flushLoop();
+							}
+						});
+		flusher.start();
+	}
+
+	@Override
+	public void send(Message message, DefaultPromise<BaseInvokeResult> promise) {
+		BatchMessage batchMsg = newBatchMessage(message, promise);
+		TopicRing ring = getRing(batchMsg.msg.getTopic());
+		int size = running ? ring.offer(batchMsg) : -1;
+		if(size < 0) {
+			// 队列已满或已关闭，退化为单条发送
+			sendSingle(batchMsg);
+		}else if(!running) {
+			// 入队期间已关闭，flusher 可能已完成最后一次取出，由入队线程自己取出
+			ring.drain();
+		}else if(size == 1 || size >= maxBatchCount || ring.bytes.get() >= maxBatchSize) {
+			LockSupport.unpark(flusher);
+		}
+	}
+
+	private TopicRing getRing(String topic) {
+		TopicRing ring = rings.get(topic);
+		if(ring == null) {
+			ring = new TopicRing(topic);
+			TopicRing old = rings.putIfAbsent(topic, ring);
+			if(old != null) {
+				ring = old;
+			}
+		}
+		return ring;
+	}
+
+	private void flushLoop() {
+		while(running) {
+			try {
+				long parkNanos = IDLE_PARK_NANOS;
+				boolean busy = false;
+				long now = System.nanoTime();
+				for(TopicRing ring : rings.values()) {
+					int size = ring.size();
+					if(size == 0) {
+						ring.firstSeenNanos = 0L;
+						continue;
+					}
+					if(ring.firstSeenNanos == 0L) {
+						ring.firstSeenNanos = now;
+					}
+					long waited = now - ring.firstSeenNanos;
+					if(size >= maxBatchCount || ring.bytes.get() >= maxBatchSize || waited >= ring.windowNanos) {
+						int drained = ring.flush();
+						ring.adapt(drained);
+						if(ring.size() > 0) {
+							busy = true;
+							ring.firstSeenNanos = System.nanoTime();
+						}else {
+							ring.firstSeenNanos = 0L;
+						}
+					}else {
+						parkNanos = Math.min(parkNanos, ring.windowNanos - waited);
+					}
+				}
+				if(!busy) {
+					LockSupport.parkNanos(this, parkNanos);
+				}
+			}catch (Throwable e) {
+				log.error(e.getMessage(), e);
+			}
+		}
+		for(TopicRing ring : rings.values()) {
+			ring.drain();
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(flusher);
+	}
+
+	/**
+	 * 多生产者单消费者环形队列，消费者为flusher线程，关闭后入队的线程也会取出，取出操作加锁
+	 */
+	private class TopicRing {
+
+		private final String topic;
+
+		private final AtomicReferenceArray<BatchMessage> slots = new AtomicReferenceArray<BatchMessage>(RING_CAPACITY);
+
+		private final AtomicLong tail = new AtomicLong();
+
+		private volatile long head;
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		// 以下字段仅flusher线程访问
+		private long firstSeenNanos;
+
+		private long windowNanos;
+
+		TopicRing(String topic) {
+			this.topic = topic;
+		}
+
+		/**
+		 * @return 入队后的队列长度，队列已满返回 -1
+		 */
+		int offer(BatchMessage batchMsg) {
+			long t;
+			do {
+				t = tail.get();
+				if(t - head >= RING_CAPACITY) {
+					return -1;
+				}
+			}while(!tail.compareAndSet(t, t + 1));
+			bytes.addAndGet(batchMsg.length);
+			// 写入后入队线程需要读取 running，这里不能用 lazySet
+			slots.set((int)(t & (RING_CAPACITY - 1)), batchMsg);
+			return (int)(t + 1 - head);
+		}
+
+		int size() {
+			return (int)(tail.get() - head);
+		}
+
+		/**
+		 * 取出所有已写入的消息，遇到已占位但尚未写入的位置停止，由占位线程写入后自行取出
+		 */
+		synchronized void drain() {
+			while(flush() > 0) {
+			}
+		}
+
+		synchronized int flush() {
+			List<BatchMessage> batchMsgs = Lists.newArrayList();
+			long batchSize = 0L;
+			long h = head;
+			while(batchMsgs.size() < maxBatchCount) {
+				int index = (int)(h & (RING_CAPACITY - 1));
+				BatchMessage batchMsg = slots.get(index);
+				// 已占位但尚未写入，下一轮再取
+				if(batchMsg == null) {
+					break;
+				}
+				if(!batchMsgs.isEmpty() && batchSize + batchMsg.length >= maxBatchSize) {
+					break;
+				}
+				slots.lazySet(index, null);
+				batchMsgs.add(batchMsg);
+				batchSize += batchMsg.length;
+				h++;
+			}
+			head = h;
+			bytes.addAndGet(-batchSize);
+			if(!batchMsgs.isEmpty()) {
+				asyncBatchMsgSend(batchMsgs);
+				log.trace("adaptive batch {} num : {}, size : {}, window : {} us", topic, batchMsgs.size(), batchSize, TimeUnit.NANOSECONDS.toMicros(windowNanos));
+			}
+			return batchMsgs.size();
+		}
+
+		/**
+		 * 一次取出多条说明有积压，窗口倍增；只取出一条说明空闲，窗口减半
+		 */
+		void adapt(int drained) {
+			if(drained > 1) {
+				windowNanos = Math.min(maxWindowNanos, Math.max(MIN_WINDOW_NANOS, windowNanos << 1));
+			}else {
+				windowNanos >>= 1;
+				if(windowNanos < MIN_WINDOW_NANOS) {
+					windowNanos = 0L;
+				}
+			}
+		}
+	}
+}
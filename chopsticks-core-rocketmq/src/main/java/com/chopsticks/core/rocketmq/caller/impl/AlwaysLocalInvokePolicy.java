@@ -0,0 +1,14 @@
+package com.chopsticks.core.rocketmq.caller.impl;
+
+import com.chopsticks.core.rocketmq.caller.LocalInvokePolicy;
+
+/**
+ * 本地有 handler 时总是本地执行
+ */
+public class AlwaysLocalInvokePolicy implements LocalInvokePolicy {
+
+	@Override
+	public boolean isLocalInvoke(String topic, String tag) {
+		return true;
+	}
+}
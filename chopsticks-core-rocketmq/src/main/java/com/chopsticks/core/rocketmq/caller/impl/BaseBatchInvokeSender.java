@@ -0,0 +1,153 @@
+package com.chopsticks.core.rocketmq.caller.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
+import com.chopsticks.core.rocketmq.Const;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
+import com.chopsticks.core.rocketmq.caller.BaseInvokeSender;
+import com.chopsticks.core.rocketmq.caller.InvokeRequest;
+import com.chopsticks.core.rocketmq.codec.Codec;
+import com.chopsticks.core.rocketmq.codec.Codecs;
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.Lists;
+
+/**
+ * 批量发送的公共部分：消息封装、压缩、异步批量发送
+ */
+public abstract class BaseBatchInvokeSender extends BaseInvokeSender{
+
+	private static final Logger log = LoggerFactory.getLogger(BaseBatchInvokeSender.class);
+
+	static final long MAX_BATCH_SIZE = 1000 * 1000;
+
+	static final long DEFAULT_COMPRESS_BODY_LENGTH = 1024 * 100;
+
+	/**
+	 * <topic, 压缩阈值>，批量消息 rocketmq 不会自动压缩
+	 */
+	private volatile Function<? super String, Long> compressBodyLength = Functions.constant(DEFAULT_COMPRESS_BODY_LENGTH);
+
+	public BaseBatchInvokeSender(DefaultMQProducer producer) {
+		super(producer);
+	}
+
+	public void setCompressBodyLength(Function<? super String, Long> compressBodyLength) {
+		this.compressBodyLength = compressBodyLength;
+	}
+
+	protected BatchMessage newBatchMessage(Message message, DefaultPromise<BaseInvokeResult> promise) {
+		Long threshold = compressBodyLength.apply(message.getTopic());
+		Message compressMsg = threshold != null && message.getBody().length > threshold ? compressInvokeMsgBody(producer, message) : message;
+		BatchMessage batchMsg = new BatchMessage();
+		batchMsg.msg = compressMsg;
+		batchMsg.length = size(compressMsg);
+		batchMsg.promise = promise;
+		return batchMsg;
+	}
+
+	protected void sendSingle(BatchMessage batchMsg) {
+		try {
+			producer.send(batchMsg.msg, new SingleInvokeSendCallback(batchMsg.promise));
+		}catch (Throwable e) {
+			batchMsg.promise.setException(e);
+		}
+	}
+
+	/**
+	 * 组装 MessageBatch 后异步发送，见 {@link com.chopsticks.core.rocketmq.Const#buildMessageBatch}
+	 */
+	protected void asyncBatchMsgSend(List<BatchMessage> batchMsgs) {
+		if(batchMsgs.size() == 1) {
+			sendSingle(batchMsgs.get(0));
+			return;
+		}
+		try {
+			List<Message> msgs = Lists.newArrayListWithCapacity(batchMsgs.size());
+			for(BatchMessage batchMsg : batchMsgs) {
+				msgs.add(batchMsg.msg);
+			}
+			producer.send(Const.buildMessageBatch(producer, msgs), new BatchInvokeSendCallback(batchMsgs));
+		}catch (Throwable e) {
+			setException(batchMsgs, e);
+		}
+	}
+
+	static void setException(Collection<BatchMessage> batchMsgs, Throwable e) {
+		for(BatchMessage batchMsg : batchMsgs) {
+			batchMsg.promise.setException(e);
+		}
+	}
+
+	/**
+	 * 批量才需要手工压缩，其他情况rocketmq自带压缩机制
+	 * @param msg
+	 * @return
+	 */
+	static Message compressInvokeMsgBody(DefaultMQProducer producer, Message msg) {
+		try {
+			Codec codec = Codecs.of(msg);
+			InvokeRequest req = codec.decodeInvokeRequest(msg);
+			if(req.isCompress()) {
+				return msg;
+			}
+			req.setCompress(true);
+			//TODO waiting apache doc
+			int level = producer.getDefaultMQProducerImpl().getZipCompressLevel();
+			byte[] body = UtilAll.compress(codec.decodeInvokeRequestBody(msg), level);
+			codec.encodeInvokeRequest(msg, req, body);
+		}catch (Throwable e) {
+			log.error(e.getMessage(), e);
+		}
+		return msg;
+	}
+
+	static long size(Message message) {
+		long size = message.getTopic().length() + message.getBody().length;
+		for(Entry<String, String> entry : message.getProperties().entrySet()) {
+			size += entry.getKey().length() + entry.getValue().length();
+		}
+		size += 20; // log length
+		return size;
+	}
+
+	static class BatchMessage {
+		Message msg;
+		long length;
+		DefaultPromise<BaseInvokeResult> promise;
+	}
+
+	private static class BatchInvokeSendCallback implements SendCallback {
+
+		private List<BatchMessage> batchMsgs;
+
+		BatchInvokeSendCallback(List<BatchMessage> batchMsgs) {
+			this.batchMsgs = batchMsgs;
+		}
+
+		@Override
+		public void onSuccess(SendResult sendResult) {
+			if(sendResult.getSendStatus() != SendStatus.SEND_OK) {
+				setException(batchMsgs, new DefaultCoreException(sendResult.getSendStatus().name()));
+			}
+		}
+
+		@Override
+		public void onException(Throwable e) {
+			setException(batchMsgs, e);
+		}
+	}
+}
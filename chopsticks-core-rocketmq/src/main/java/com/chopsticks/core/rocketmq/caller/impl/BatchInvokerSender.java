@@ -5,23 +5,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.client.producer.SendStatus;
-import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.message.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.alibaba.fastjson.JSON;
-import com.chopsticks.common.concurrent.impl.DefaultTimeoutPromise;
-import com.chopsticks.core.rocketmq.Const;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
 import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
-import com.chopsticks.core.rocketmq.caller.BaseInvokeSender;
-import com.chopsticks.core.rocketmq.caller.InvokeRequest;
 import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Stopwatch;
@@ -31,24 +28,62 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-public class BatchInvokerSender extends BaseInvokeSender{
+public class BatchInvokerSender extends BaseBatchInvokeSender{
 	
 	private static final Logger log = LoggerFactory.getLogger(BatchInvokerSender.class);
 	
-	private static final long MAX_BATCH_SIZE = 1000 * 1000;
+	private LinkedBlockingQueue<BatchMessage> msgQueue = new LinkedBlockingQueue<BatchMessage>();
 	
-	private static final long DEFAULT_COMPRESS_BODY_LENGTH = 1024 * 100;
+	private static final int FLUSHER_LANE_QUEUE_CAPACITY = 1024;
 	
-	private LinkedBlockingQueue<BatchMessage> msgQueue = new LinkedBlockingQueue<BatchMessage>();
+	/**
+	 * 发送线程积压时由调度线程直接发送，形成背压；已关闭时直接失败，不丢弃
+	 */
+	private static final RejectedExecutionHandler FLUSHER_LANE_REJECTED_HANDLER = new RejectedExecutionHandler() {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if(!executor.isShutdown()) {
+				r.run();
+			}else if(r instanceof FlushTask) {
+				setException(((FlushTask) r).batchMsgs, new DefaultCoreException("invoke batch sender is shutdown")
+															.setCode(DefaultCoreException.INVOKE_SENDER_SHUTDOWN));
+			}
+		}
+	};
 	
 	private ScheduledThreadPoolExecutor executor;
 	
+	private ThreadPoolExecutor[] flusherLanes;
+	
 	public BatchInvokerSender(final DefaultMQProducer producer, final long executeIntervalMillis){
+		this(producer, executeIntervalMillis, 0);
+	}
+	
+	/**
+	 * @param flusherLanes 大于0时批量组装仍在调度线程，发送按topic分派到固定数量的发送线程并异步回调，
+	 * 避免单个慢broker阻塞所有topic
+	 */
+	public BatchInvokerSender(final DefaultMQProducer producer, final long executeIntervalMillis, int flusherLanes){
 		super(producer);
 		String group = producer.getProducerGroup();
 		if(group.contains("%")) {
 			group = group.substring(group.indexOf("%") + 1);
 		}
+		if(flusherLanes > 0) {
+			this.flusherLanes = new ThreadPoolExecutor[flusherLanes];
+			for(int i = 0; i < flusherLanes; i++) {
+				this.flusherLanes[i] = new ThreadPoolExecutor(1
+														, 1
+														, 0L
+														, TimeUnit.MILLISECONDS
+														, new LinkedBlockingQueue<Runnable>(FLUSHER_LANE_QUEUE_CAPACITY)
+														, new ThreadFactoryBuilder()
+																.setNameFormat(group + "-invokeBatchFlusher-" + i + "-%d")
+																.setDaemon(true)
+																.build()
+														, FLUSHER_LANE_REJECTED_HANDLER);
+			}
+		}
 		executor = new ScheduledThreadPoolExecutor(1
 						, new ThreadFactoryBuilder()
 								.setNameFormat(group + "-invokeBatchSchedule-%d")
@@ -111,6 +146,10 @@ public class BatchInvokerSender extends BaseInvokeSender{
 	}
 	
 	private void batchMsgSend(Collection<BatchMessage> collection) {
+		if(flusherLanes != null) {
+			dispatchBatchMsgSend(collection);
+			return;
+		}
 		if(collection != null && !collection.isEmpty()) {
 			try {
 				List<Message> msgs = Lists.newArrayList();
@@ -119,65 +158,53 @@ public class BatchInvokerSender extends BaseInvokeSender{
 				}
 				SendResult sendResult = super.producer.send(msgs);
 				if(sendResult.getSendStatus() != SendStatus.SEND_OK) {
-					for(BatchMessage batchMsg : collection) {
-						batchMsg.promise.setException(new DefaultCoreException(sendResult.getSendStatus().name()));
-					}
+					setException(collection, new DefaultCoreException(sendResult.getSendStatus().name()));
 				}
 			}catch (Throwable e) {
-				for(BatchMessage batchMsg : collection) {
-					batchMsg.promise.setException(e);
-				}
+				setException(collection, e);
+			}
+		}
+	}
+	private void dispatchBatchMsgSend(Collection<BatchMessage> collection) {
+		if(collection != null && !collection.isEmpty()) {
+			List<BatchMessage> batchMsgs = Lists.newArrayList(collection);
+			String topic = batchMsgs.get(0).msg.getTopic();
+			ThreadPoolExecutor lane = flusherLanes[(topic.hashCode() & Integer.MAX_VALUE) % flusherLanes.length];
+			try {
+				lane.execute(new FlushTask(batchMsgs));
+			}catch (Throwable e) {
+				setException(batchMsgs, e);
 			}
 		}
 	}
+	
 	@Override
 	public void shutdown() {
 		if(executor != null) {
 			executor.shutdown();
 		}
+		if(flusherLanes != null) {
+			for(ThreadPoolExecutor lane : flusherLanes) {
+				lane.shutdown();
+			}
+		}
 	}
 	@Override
-	public void send(Message message, DefaultTimeoutPromise<BaseInvokeResult> promise) {
-		Message compressMsg = message.getBody().length > DEFAULT_COMPRESS_BODY_LENGTH ? compressInvokeMsgBody(message) : message;
-		BatchMessage batchMsg = new BatchMessage();
-		batchMsg.msg = compressMsg;
-		batchMsg.length = size(compressMsg);
-		batchMsg.promise = promise;
-		msgQueue.add(batchMsg);
+	public void send(Message message, DefaultPromise<BaseInvokeResult> promise) {
+		msgQueue.add(newBatchMessage(message, promise));
 	}
 	
-	/**
-	 * 批量才需要手工压缩，其他情况rocketmq自带压缩机制
-	 * @param msg
-	 * @return
-	 */
-	private Message compressInvokeMsgBody(Message msg) {
-		try {
-			InvokeRequest req = JSON.parseObject(msg.getUserProperty(Const.INVOKE_REQUEST_KEY), InvokeRequest.class);
-			req.setCompress(true);
-			//TODO waiting apache doc
-			int level = producer.getDefaultMQProducerImpl().getZipCompressLevel();
-			byte[] body = UtilAll.compress(msg.getBody(), level);
-			msg.setBody(body);
-			msg.putUserProperty(Const.INVOKE_REQUEST_KEY, JSON.toJSONString(req));
-		}catch (Throwable e) {
-			log.error(e.getMessage(), e);
+	private class FlushTask implements Runnable {
+		
+		private final List<BatchMessage> batchMsgs;
+		
+		FlushTask(List<BatchMessage> batchMsgs) {
+			this.batchMsgs = batchMsgs;
 		}
-		return msg;
-	}
-	
-	private long size(Message message) {
-		long size = message.getTopic().length() + message.getBody().length;
-		for(Entry<String, String> entry : message.getProperties().entrySet()) {
-			size += entry.getKey().length() + entry.getValue().length();
+		
+		@Override
+		public void run() {
+			asyncBatchMsgSend(batchMsgs);
 		}
-		size += 20; // log length
-		return size;
-	}
-	
-	class BatchMessage {
-		Message msg;
-		long length;
-		DefaultTimeoutPromise<BaseInvokeResult> promise;
 	}
 }
@@ -1,14 +1,20 @@
 package com.chopsticks.core.rocketmq.caller.impl;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
+import com.chopsticks.core.rocketmq.compress.Compressor;
 
 public class DefaultInvokeResult extends BaseInvokeResult {
 
 	public DefaultInvokeResult(byte[] body) {
 		super(body);
 	}
+	
+	public DefaultInvokeResult(ByteBuffer bodyBuffer, Compressor compressor) {
+		super(bodyBuffer, compressor);
+	}
 
 	@Override
 	public String toString() {
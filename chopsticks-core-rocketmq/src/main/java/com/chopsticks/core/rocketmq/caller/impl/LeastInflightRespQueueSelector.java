@@ -0,0 +1,69 @@
+package com.chopsticks.core.rocketmq.caller.impl;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.rocketmq.common.message.MessageQueue;
+
+import com.chopsticks.core.rocketmq.caller.RespQueueSelector;
+import com.google.common.collect.Maps;
+
+/**
+ * 选择在途请求最少的响应队列，相同时从轮询位置开始取第一个，避免总是落在第一个队列
+ */
+public class LeastInflightRespQueueSelector implements RespQueueSelector {
+	
+	private final ConcurrentMap<MessageQueue, AtomicInteger> inflights = Maps.newConcurrentMap();
+	
+	private final AtomicInteger index = new AtomicInteger();
+
+	@Override
+	public MessageQueue select(List<MessageQueue> queues) {
+		int size = queues.size();
+		int start = (index.getAndIncrement() & Integer.MAX_VALUE) % size;
+		MessageQueue selected = null;
+		AtomicInteger selectedInflight = null;
+		int min = Integer.MAX_VALUE;
+		for(int i = 0; i < size; i++) {
+			MessageQueue queue = queues.get((start + i) % size);
+			AtomicInteger inflight = inflight(queue);
+			int value = inflight.get();
+			if(value < min) {
+				min = value;
+				selected = queue;
+				selectedInflight = inflight;
+				if(value == 0) {
+					break;
+				}
+			}
+		}
+		selectedInflight.incrementAndGet();
+		return selected;
+	}
+
+	@Override
+	public void release(MessageQueue queue) {
+		AtomicInteger inflight = inflights.get(queue);
+		if(inflight != null) {
+			inflight.decrementAndGet();
+		}
+	}
+	
+	public int getInflight(MessageQueue queue) {
+		AtomicInteger inflight = inflights.get(queue);
+		return inflight == null ? 0 : inflight.get();
+	}
+	
+	private AtomicInteger inflight(MessageQueue queue) {
+		AtomicInteger inflight = inflights.get(queue);
+		if(inflight == null) {
+			AtomicInteger newInflight = new AtomicInteger();
+			inflight = inflights.putIfAbsent(queue, newInflight);
+			if(inflight == null) {
+				inflight = newInflight;
+			}
+		}
+		return inflight;
+	}
+}
@@ -0,0 +1,22 @@
+package com.chopsticks.core.rocketmq.caller.impl;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.rocketmq.common.message.MessageQueue;
+
+import com.chopsticks.core.rocketmq.caller.RespQueueSelector;
+
+public class RoundRobinRespQueueSelector implements RespQueueSelector {
+	
+	private final AtomicInteger index = new AtomicInteger();
+
+	@Override
+	public MessageQueue select(List<MessageQueue> queues) {
+		return queues.get((index.getAndIncrement() & Integer.MAX_VALUE) % queues.size());
+	}
+
+	@Override
+	public void release(MessageQueue queue) {
+	}
+}
@@ -4,14 +4,14 @@ import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.client.producer.SendStatus;
 
-import com.chopsticks.common.concurrent.impl.DefaultTimeoutPromise;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
 import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
 
 class SingleInvokeSendCallback implements SendCallback {
 	
-	private DefaultTimeoutPromise<BaseInvokeResult> promise;
+	private DefaultPromise<BaseInvokeResult> promise;
 	
-	SingleInvokeSendCallback(DefaultTimeoutPromise<BaseInvokeResult> promise) {
+	SingleInvokeSendCallback(DefaultPromise<BaseInvokeResult> promise) {
 		this.promise = promise;
 	}
 
@@ -3,7 +3,7 @@ package com.chopsticks.core.rocketmq.caller.impl;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.common.message.Message;
 
-import com.chopsticks.common.concurrent.impl.DefaultTimeoutPromise;
+import com.chopsticks.common.concurrent.impl.DefaultPromise;
 import com.chopsticks.core.rocketmq.caller.BaseInvokeResult;
 import com.chopsticks.core.rocketmq.caller.BaseInvokeSender;
 
@@ -15,7 +15,7 @@ public class SingleInvokeSender extends BaseInvokeSender{
 	}
 	
 	@Override
-	public void send(Message message, DefaultTimeoutPromise<BaseInvokeResult> promise) {
+	public void send(Message message, DefaultPromise<BaseInvokeResult> promise) {
 		try {
 			producer.send(message, new SingleInvokeSendCallback(promise));
 		}catch (Throwable e) {
@@ -0,0 +1,300 @@
+package com.chopsticks.core.rocketmq.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+
+import com.chopsticks.core.rocketmq.Const;
+import com.chopsticks.core.rocketmq.caller.InvokeRequest;
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+import com.chopsticks.core.rocketmq.handler.InvokeResponse;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * 二进制编码，字段按长度前缀顺序写入，body 原样写入不做 base64
+ * 请求 : body = [int headerLength][header][请求体]
+ * 响应 : body = [header][int bodyLength][响应体]，解码时响应体不复制
+ */
+public class BinaryCodec implements Codec {
+
+	public static final int VERSION = 1;
+
+	private static final String VERSION_VALUE = String.valueOf(VERSION);
+
+	private static final byte FLAG_COMPRESS = 1;
+
+	private static final byte FLAG_RESP_COMPRESS = 1 << 1;
+
+	private static final int NULL_LENGTH = -1;
+
+	@Override
+	public int getVersion() {
+		return VERSION;
+	}
+
+	@Override
+	public void encodeInvokeRequest(Message msg, InvokeRequest req, byte[] body) {
+		int bodyLength = body == null ? 0 : body.length;
+		Writer writer = new Writer(256 + bodyLength);
+		writer.writeInt(0);
+		writer.writeString(req.getReqId());
+		writer.writeLong(req.getReqTime());
+		writer.writeLong(req.getDeadline());
+		byte flags = 0;
+		if(req.isCompress()) {
+			flags |= FLAG_COMPRESS;
+		}
+		if(req.isRespCompress()) {
+			flags |= FLAG_RESP_COMPRESS;
+		}
+		writer.writeByte(flags);
+		writer.writeString(req.getRespTopic());
+		writer.writeString(req.getRespTag());
+		MessageQueue respQueue = req.getRespQueue();
+		if(respQueue == null) {
+			writer.writeByte((byte)0);
+		}else {
+			writer.writeByte((byte)1);
+			writer.writeString(respQueue.getTopic());
+			writer.writeString(respQueue.getBrokerName());
+			writer.writeInt(respQueue.getQueueId());
+		}
+		writer.writeInt(req.getRespCodecVersion());
+		writer.writeInt(req.getCompressor());
+		writer.writeInt(req.getRespCompressor());
+		writer.writeMap(req.getExtParams());
+		writer.writeSet(req.getTraceNos());
+		writer.setInt(0, writer.position() - 4);
+		if(bodyLength > 0) {
+			writer.writeRaw(body);
+		}
+		msg.setBody(writer.toByteArray());
+		msg.putUserProperty(Const.CODEC_VERSION_KEY, VERSION_VALUE);
+	}
+
+	@Override
+	public InvokeRequest decodeInvokeRequest(Message msg) {
+		byte[] body = msg.getBody();
+		if(body == null || body.length < 4) {
+			return null;
+		}
+		try {
+			ByteBuffer buf = ByteBuffer.wrap(body);
+			int headerLength = buf.getInt();
+			buf.limit(4 + headerLength);
+			InvokeRequest req = new InvokeRequest();
+			req.setReqId(readString(buf));
+			req.setReqTime(buf.getLong());
+			req.setDeadline(buf.getLong());
+			byte flags = buf.get();
+			req.setCompress((flags & FLAG_COMPRESS) != 0);
+			req.setRespCompress((flags & FLAG_RESP_COMPRESS) != 0);
+			req.setRespTopic(readString(buf));
+			req.setRespTag(readString(buf));
+			if(buf.get() != 0) {
+				req.setRespQueue(new MessageQueue(readString(buf), readString(buf), buf.getInt()));
+			}
+			req.setRespCodecVersion(buf.getInt());
+			req.setCompressor(buf.getInt());
+			req.setRespCompressor(buf.getInt());
+			req.setExtParams(readMap(buf));
+			req.setTraceNos(readSet(buf));
+			return req;
+		}catch (RuntimeException e) {
+			throw new DefaultCoreException("binary invoke request decode error", e).setCode(DefaultCoreException.MESSAGE_BODY_ERROR);
+		}
+	}
+
+	@Override
+	public byte[] decodeInvokeRequestBody(Message msg) {
+		byte[] body = msg.getBody();
+		int offset = 4 + ByteBuffer.wrap(body).getInt();
+		return Arrays.copyOfRange(body, offset, body.length);
+	}
+
+	@Override
+	public void encodeInvokeResponse(Message msg, InvokeResponse resp) {
+		byte[] respBody = resp.getRespBody();
+		Writer writer = new Writer(128 + (respBody == null ? 0 : respBody.length));
+		writer.writeString(resp.getReqId());
+		writer.writeLong(resp.getReqTime());
+		writer.writeLong(resp.getRespTime());
+		writer.writeByte(resp.isCompressRespBody() ? FLAG_COMPRESS : 0);
+		writer.writeInt(resp.getRespCompressor());
+		writer.writeInt(resp.getRespExceptionCode());
+		writer.writeString(resp.getRespExceptionBody());
+		writer.writeSet(resp.getTraceNos());
+		writer.writeBytes(respBody);
+		msg.setBody(writer.toByteArray());
+		msg.putUserProperty(Const.CODEC_VERSION_KEY, VERSION_VALUE);
+	}
+
+	@Override
+	public InvokeResponse decodeInvokeResponse(Message msg) {
+		try {
+			ByteBuffer buf = ByteBuffer.wrap(msg.getBody());
+			InvokeResponse resp = new InvokeResponse();
+			resp.setReqId(readString(buf));
+			resp.setReqTime(buf.getLong());
+			resp.setRespTime(buf.getLong());
+			resp.setCompressRespBody((buf.get() & FLAG_COMPRESS) != 0);
+			resp.setRespCompressor(buf.getInt());
+			resp.setRespExceptionCode(buf.getInt());
+			resp.setRespExceptionBody(readString(buf));
+			resp.setTraceNos(readSet(buf));
+			resp.setRespBodyBuffer(readSlice(buf));
+			return resp;
+		}catch (RuntimeException e) {
+			throw new DefaultCoreException("binary invoke response decode error", e).setCode(DefaultCoreException.MESSAGE_BODY_ERROR);
+		}
+	}
+
+	static String readString(ByteBuffer buf) {
+		int length = buf.getInt();
+		if(length == NULL_LENGTH) {
+			return null;
+		}
+		String value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, Charsets.UTF_8);
+		buf.position(buf.position() + length);
+		return value;
+	}
+
+	static byte[] readBytes(ByteBuffer buf) {
+		int length = buf.getInt();
+		if(length == NULL_LENGTH) {
+			return null;
+		}
+		byte[] value = new byte[length];
+		buf.get(value);
+		return value;
+	}
+
+	/**
+	 * 不复制，返回消息体上的视图
+	 */
+	static ByteBuffer readSlice(ByteBuffer buf) {
+		int length = buf.getInt();
+		if(length == NULL_LENGTH) {
+			return null;
+		}
+		ByteBuffer value = buf.slice();
+		value.limit(length);
+		buf.position(buf.position() + length);
+		return value;
+	}
+
+	static Map<String, String> readMap(ByteBuffer buf) {
+		int size = buf.getInt();
+		Map<String, String> value = Maps.newHashMapWithExpectedSize(size);
+		for(int i = 0; i < size; i++) {
+			value.put(readString(buf), readString(buf));
+		}
+		return value;
+	}
+
+	static Set<String> readSet(ByteBuffer buf) {
+		int size = buf.getInt();
+		Set<String> value = Sets.newHashSetWithExpectedSize(size);
+		for(int i = 0; i < size; i++) {
+			value.add(readString(buf));
+		}
+		return value;
+	}
+
+	static class Writer {
+
+		private byte[] buf;
+
+		private int position;
+
+		Writer(int capacity) {
+			buf = new byte[capacity];
+		}
+
+		int position() {
+			return position;
+		}
+
+		private void ensureCapacity(int length) {
+			if(position + length > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length << 1, position + length));
+			}
+		}
+
+		void writeByte(byte value) {
+			ensureCapacity(1);
+			buf[position++] = value;
+		}
+
+		void writeInt(int value) {
+			ensureCapacity(4);
+			setInt(position, value);
+			position += 4;
+		}
+
+		void setInt(int index, int value) {
+			buf[index] = (byte)(value >>> 24);
+			buf[index + 1] = (byte)(value >>> 16);
+			buf[index + 2] = (byte)(value >>> 8);
+			buf[index + 3] = (byte)value;
+		}
+
+		void writeLong(long value) {
+			writeInt((int)(value >>> 32));
+			writeInt((int)value);
+		}
+
+		void writeRaw(byte[] value) {
+			ensureCapacity(value.length);
+			System.arraycopy(value, 0, buf, position, value.length);
+			position += value.length;
+		}
+
+		void writeBytes(byte[] value) {
+			if(value == null) {
+				writeInt(NULL_LENGTH);
+			}else {
+				writeInt(value.length);
+				writeRaw(value);
+			}
+		}
+
+		void writeString(String value) {
+			writeBytes(value == null ? null : value.getBytes(Charsets.UTF_8));
+		}
+
+		void writeMap(Map<String, String> value) {
+			if(value == null) {
+				writeInt(0);
+				return;
+			}
+			writeInt(value.size());
+			for(Entry<String, String> entry : value.entrySet()) {
+				writeString(entry.getKey());
+				writeString(entry.getValue());
+			}
+		}
+
+		void writeSet(Set<String> value) {
+			if(value == null) {
+				writeInt(0);
+				return;
+			}
+			writeInt(value.size());
+			for(String item : value) {
+				writeString(item);
+			}
+		}
+
+		byte[] toByteArray() {
+			return position == buf.length ? buf : Arrays.copyOf(buf, position);
+		}
+	}
+}
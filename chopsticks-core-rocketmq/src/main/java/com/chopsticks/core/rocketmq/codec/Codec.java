@@ -0,0 +1,33 @@
+package com.chopsticks.core.rocketmq.codec;
+
+import org.apache.rocketmq.common.message.Message;
+
+import com.chopsticks.core.rocketmq.caller.InvokeRequest;
+import com.chopsticks.core.rocketmq.handler.InvokeResponse;
+
+/**
+ * invoke 请求头/响应的编解码，版本号通过消息属性 {@link com.chopsticks.core.rocketmq.Const#CODEC_VERSION_KEY} 协商
+ */
+public interface Codec {
+
+	int getVersion();
+
+	/**
+	 * 写入请求头和请求体
+	 * @param msg
+	 * @param req
+	 * @param body 原始请求体
+	 */
+	void encodeInvokeRequest(Message msg, InvokeRequest req, byte[] body);
+
+	/**
+	 * @return 不存在请求头时返回 null
+	 */
+	InvokeRequest decodeInvokeRequest(Message msg);
+
+	byte[] decodeInvokeRequestBody(Message msg);
+
+	void encodeInvokeResponse(Message msg, InvokeResponse resp);
+
+	InvokeResponse decodeInvokeResponse(Message msg);
+}
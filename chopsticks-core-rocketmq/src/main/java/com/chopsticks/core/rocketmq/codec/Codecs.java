@@ -0,0 +1,58 @@
+package com.chopsticks.core.rocketmq.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.rocketmq.common.message.Message;
+
+import com.chopsticks.core.rocketmq.Const;
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+import com.google.common.base.Strings;
+
+public class Codecs {
+
+	public static final Codec JSON = new JsonCodec();
+
+	public static final Codec BINARY = new BinaryCodec();
+
+	private static final ConcurrentMap<Integer, Codec> CODECS = new ConcurrentHashMap<Integer, Codec>();
+
+	static {
+		register(JSON);
+		register(BINARY);
+	}
+
+	private Codecs() {
+	}
+
+	public static void register(Codec codec) {
+		CODECS.put(codec.getVersion(), codec);
+	}
+
+	public static Codec get(int version) {
+		Codec codec = CODECS.get(version);
+		if(codec == null) {
+			throw new DefaultCoreException(String.format("unsupported codec version : %s", version)).setCode(DefaultCoreException.UNSUPPORTED_CODEC);
+		}
+		return codec;
+	}
+
+	/**
+	 * 对端不认识的版本退回 json，保证老版本可以互通
+	 */
+	public static Codec getOrJson(int version) {
+		Codec codec = CODECS.get(version);
+		return codec == null ? JSON : codec;
+	}
+
+	/**
+	 * 根据消息属性获取对应的编解码，没有版本属性的为老版本 json 编码
+	 */
+	public static Codec of(Message msg) {
+		String version = msg.getUserProperty(Const.CODEC_VERSION_KEY);
+		if(Strings.isNullOrEmpty(version)) {
+			return JSON;
+		}
+		return get(Integer.parseInt(version));
+	}
+}
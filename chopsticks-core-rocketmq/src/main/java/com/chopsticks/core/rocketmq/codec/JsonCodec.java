@@ -0,0 +1,53 @@
+package com.chopsticks.core.rocketmq.codec;
+
+import org.apache.rocketmq.common.message.Message;
+
+import com.alibaba.fastjson.JSON;
+import com.chopsticks.core.rocketmq.Const;
+import com.chopsticks.core.rocketmq.caller.InvokeRequest;
+import com.chopsticks.core.rocketmq.handler.InvokeResponse;
+import com.google.common.base.Strings;
+
+/**
+ * 老版本编码，请求头以 json 放在消息属性中，响应整体 json 序列化
+ */
+public class JsonCodec implements Codec {
+
+	public static final int VERSION = 0;
+
+	@Override
+	public int getVersion() {
+		return VERSION;
+	}
+
+	@Override
+	public void encodeInvokeRequest(Message msg, InvokeRequest req, byte[] body) {
+		msg.setBody(body);
+		msg.putUserProperty(Const.INVOKE_REQUEST_KEY, JSON.toJSONString(req));
+	}
+
+	@Override
+	public InvokeRequest decodeInvokeRequest(Message msg) {
+		String req = msg.getUserProperty(Const.INVOKE_REQUEST_KEY);
+		if(Strings.isNullOrEmpty(req)) {
+			return null;
+		}
+		return JSON.parseObject(req, InvokeRequest.class);
+	}
+
+	@Override
+	public byte[] decodeInvokeRequestBody(Message msg) {
+		return msg.getBody();
+	}
+
+	@Override
+	public void encodeInvokeResponse(Message msg, InvokeResponse resp) {
+		msg.setBody(JSON.toJSONBytes(resp));
+	}
+
+	@Override
+	public InvokeResponse decodeInvokeResponse(Message msg) {
+		return JSON.parseObject(msg.getBody(), InvokeResponse.class);
+	}
+
+}
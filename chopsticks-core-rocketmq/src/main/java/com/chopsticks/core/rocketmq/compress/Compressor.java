@@ -0,0 +1,13 @@
+package com.chopsticks.core.rocketmq.compress;
+
+/**
+ * 消息体压缩，id 随请求/响应头传递，两端需注册相同 id 的实现
+ */
+public interface Compressor {
+	
+	int getId();
+	
+	byte[] compress(byte[] src);
+	
+	byte[] uncompress(byte[] src, int offset, int length);
+}
@@ -0,0 +1,54 @@
+package com.chopsticks.core.rocketmq.compress;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+
+public class Compressors {
+	
+	/**
+	 * 老版本只有 compress 标识，没有压缩 id
+	 */
+	public static final int LEGACY_ID = 0;
+	
+	public static final Compressor ZLIB = new ZlibCompressor();
+	
+	public static final Compressor LZ4 = new Lz4Compressor();
+	
+	private static final ConcurrentMap<Integer, Compressor> COMPRESSORS = new ConcurrentHashMap<Integer, Compressor>();
+	
+	static {
+		register(ZLIB);
+		register(LZ4);
+		if(ZstdCompressor.isAvailable()) {
+			register(new ZstdCompressor());
+		}
+	}
+	
+	private Compressors() {
+	}
+	
+	public static void register(Compressor compressor) {
+		COMPRESSORS.put(compressor.getId(), compressor);
+	}
+	
+	public static boolean contains(int id) {
+		return id == LEGACY_ID || COMPRESSORS.containsKey(id);
+	}
+	
+	public static Compressor get(int id) {
+		if(id == LEGACY_ID) {
+			return ZLIB;
+		}
+		Compressor compressor = COMPRESSORS.get(id);
+		if(compressor == null) {
+			throw new DefaultCoreException(String.format("unsupported compressor : %s", id)).setCode(DefaultCoreException.UNSUPPORTED_COMPRESSOR);
+		}
+		return compressor;
+	}
+	
+	public static byte[] uncompress(int id, byte[] src) {
+		return get(id).uncompress(src, 0, src.length);
+	}
+}
@@ -0,0 +1,114 @@
+package com.chopsticks.core.rocketmq.compress;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * 简单的字典训练，适用于小而重复的json消息体
+ * 统计样本中 8 字节片段的出现次数，按频率挑选片段周围的数据拼成字典，高频片段放在字典末尾(距离最近)
+ * 训练结果配合 {@link Lz4Compressor#Lz4Compressor(int, byte[])} 使用
+ */
+public class DictionaryTrainer {
+
+	private static final int KMER_LENGTH = 8;
+
+	private static final int SEGMENT_LENGTH = 64;
+
+	private final int dictionarySize;
+
+	private final int maxSamples;
+
+	private final List<byte[]> samples = Lists.newArrayList();
+
+	public DictionaryTrainer() {
+		this(16 * 1024, 1000);
+	}
+
+	public DictionaryTrainer(int dictionarySize, int maxSamples) {
+		this.dictionarySize = dictionarySize;
+		this.maxSamples = maxSamples;
+	}
+
+	public synchronized boolean addSample(byte[] sample) {
+		if(sample == null || sample.length < KMER_LENGTH || samples.size() >= maxSamples) {
+			return false;
+		}
+		samples.add(sample);
+		return true;
+	}
+
+	public synchronized byte[] train() {
+		Map<Long, int[]> counts = Maps.newHashMap();
+		Map<Long, long[]> firstPositions = Maps.newHashMap();
+		for(int s = 0; s < samples.size(); s++) {
+			byte[] sample = samples.get(s);
+			for(int i = 0; i + KMER_LENGTH <= sample.length; i++) {
+				Long kmer = readLong(sample, i);
+				int[] count = counts.get(kmer);
+				if(count == null) {
+					counts.put(kmer, new int[] {1});
+					firstPositions.put(kmer, new long[] {((long)s << 32) | i});
+				}else {
+					count[0]++;
+				}
+			}
+		}
+		List<Entry<Long, int[]>> entries = Lists.newArrayList(counts.entrySet());
+		Collections.sort(entries, new Comparator<Entry<Long, int[]>>() {
+			@Override
+			public int compare(Entry<Long, int[]> o1, Entry<Long, int[]> o2) {
+				return o2.getValue()[0] - o1.getValue()[0];
+			}
+		});
+		Set<Long> covered = Sets.newHashSet();
+		List<byte[]> segments = Lists.newArrayList();
+		int total = 0;
+		for(Entry<Long, int[]> entry : entries) {
+			if(total >= dictionarySize || entry.getValue()[0] < 2) {
+				break;
+			}
+			if(covered.contains(entry.getKey())) {
+				continue;
+			}
+			long position = firstPositions.get(entry.getKey())[0];
+			byte[] sample = samples.get((int)(position >>> 32));
+			int index = (int)position;
+			int begin = Math.max(0, index - SEGMENT_LENGTH / 2);
+			int end = Math.min(sample.length, begin + SEGMENT_LENGTH);
+			byte[] segment = new byte[end - begin];
+			System.arraycopy(sample, begin, segment, 0, segment.length);
+			for(int i = 0; i + KMER_LENGTH <= segment.length; i++) {
+				covered.add(readLong(segment, i));
+			}
+			segments.add(segment);
+			total += segment.length;
+		}
+		byte[] dictionary = new byte[Math.min(total, dictionarySize)];
+		int position = dictionary.length;
+		for(byte[] segment : segments) {
+			int length = Math.min(segment.length, position);
+			position -= length;
+			System.arraycopy(segment, segment.length - length, dictionary, position, length);
+			if(position == 0) {
+				break;
+			}
+		}
+		return dictionary;
+	}
+
+	private static long readLong(byte[] buf, int index) {
+		long value = 0L;
+		for(int i = 0; i < KMER_LENGTH; i++) {
+			value = (value << 8) | (buf[index + i] & 0xFF);
+		}
+		return value;
+	}
+}
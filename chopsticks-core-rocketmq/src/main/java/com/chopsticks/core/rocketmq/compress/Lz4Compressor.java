@@ -0,0 +1,218 @@
+package com.chopsticks.core.rocketmq.compress;
+
+import java.util.Arrays;
+
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+
+/**
+ * 纯java实现的 lz4 block 格式，压缩结果为 [int 原始长度][lz4 block]
+ * 可选预置字典，字典作为已输出的历史数据参与匹配，两端必须使用相同 id 和字典
+ */
+public class Lz4Compressor implements Compressor {
+
+	public static final int ID = 2;
+
+	private static final int MIN_MATCH = 4;
+
+	private static final int MF_LIMIT = 12;
+
+	private static final int LAST_LITERALS = 5;
+
+	private static final int MAX_DISTANCE = 65535;
+
+	private static final int HASH_LOG = 12;
+
+	private static final int SKIP_TRIGGER = 6;
+
+	private final int id;
+
+	private final byte[] dictionary;
+
+	public Lz4Compressor() {
+		this(ID, null);
+	}
+
+	/**
+	 * @param id 带字典时需使用自定义id，避免与默认实现冲突
+	 * @param dictionary 只取最后 64K
+	 */
+	public Lz4Compressor(int id, byte[] dictionary) {
+		this.id = id;
+		if(dictionary == null) {
+			this.dictionary = new byte[0];
+		}else if(dictionary.length > MAX_DISTANCE) {
+			this.dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAX_DISTANCE, dictionary.length);
+		}else {
+			this.dictionary = dictionary.clone();
+		}
+	}
+
+	@Override
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public byte[] compress(byte[] src) {
+		int dictLength = dictionary.length;
+		byte[] in;
+		if(dictLength == 0) {
+			in = src;
+		}else {
+			in = new byte[dictLength + src.length];
+			System.arraycopy(dictionary, 0, in, 0, dictLength);
+			System.arraycopy(src, 0, in, dictLength, src.length);
+		}
+		byte[] out = new byte[4 + src.length + src.length / 255 + 16];
+		writeInt(out, 0, src.length);
+		int op = 4;
+		int end = in.length;
+		int anchor = dictLength;
+		int ip = dictLength;
+		if(src.length >= MF_LIMIT + 1) {
+			int[] table = new int[1 << HASH_LOG];
+			Arrays.fill(table, -1);
+			for(int i = 0; i + MIN_MATCH <= dictLength; i++) {
+				table[hash(readInt(in, i))] = i;
+			}
+			int matchLimit = end - LAST_LITERALS;
+			int limit = end - MF_LIMIT;
+			int searchCount = 1 << SKIP_TRIGGER;
+			while(ip < limit) {
+				int sequence = readInt(in, ip);
+				int h = hash(sequence);
+				int ref = table[h];
+				table[h] = ip;
+				if(ref < 0 || ip - ref > MAX_DISTANCE || readInt(in, ref) != sequence) {
+					// 连续未命中时加大步长
+					ip += searchCount++ >>> SKIP_TRIGGER;
+					continue;
+				}
+				searchCount = 1 << SKIP_TRIGGER;
+				while(ip > anchor && ref > 0 && in[ip - 1] == in[ref - 1]) {
+					ip--;
+					ref--;
+				}
+				int matchLength = MIN_MATCH;
+				while(ip + matchLength < matchLimit && in[ref + matchLength] == in[ip + matchLength]) {
+					matchLength++;
+				}
+				op = writeSequence(out, op, in, anchor, ip - anchor, ip - ref, matchLength - MIN_MATCH);
+				ip += matchLength;
+				anchor = ip;
+			}
+		}
+		op = writeLastLiterals(out, op, in, anchor, end - anchor);
+		return Arrays.copyOf(out, op);
+	}
+
+	@Override
+	public byte[] uncompress(byte[] src, int offset, int length) {
+		try {
+			int dictLength = dictionary.length;
+			int originLength = readInt(src, offset);
+			byte[] out = new byte[dictLength + originLength];
+			System.arraycopy(dictionary, 0, out, 0, dictLength);
+			int ip = offset + 4;
+			int end = offset + length;
+			int op = dictLength;
+			while(ip < end) {
+				int token = src[ip++] & 0xFF;
+				int literalLength = token >>> 4;
+				if(literalLength == 0xF) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						literalLength += b;
+					}while(b == 0xFF);
+				}
+				if(ip + literalLength > end) {
+					throw new IllegalStateException("input truncated");
+				}
+				System.arraycopy(src, ip, out, op, literalLength);
+				ip += literalLength;
+				op += literalLength;
+				if(ip >= end) {
+					break;
+				}
+				if(ip + 2 > end) {
+					throw new IllegalStateException("input truncated");
+				}
+				int distance = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+				ip += 2;
+				int matchLength = token & 0xF;
+				if(matchLength == 0xF) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						matchLength += b;
+					}while(b == 0xFF);
+				}
+				matchLength += MIN_MATCH;
+				int ref = op - distance;
+				if(ref < 0 || distance == 0 || ip > end) {
+					throw new IllegalStateException("invalid offset : " + distance);
+				}
+				// 可能重叠，逐字节复制
+				for(int i = 0; i < matchLength; i++) {
+					out[op++] = out[ref++];
+				}
+			}
+			if(op != out.length) {
+				throw new IllegalStateException(String.format("length not match, expect : %s, actual : %s", originLength, op - dictLength));
+			}
+			return dictLength == 0 ? out : Arrays.copyOfRange(out, dictLength, out.length);
+		}catch (RuntimeException e) {
+			throw new DefaultCoreException("lz4 uncompress error", e).setCode(DefaultCoreException.MESSAGE_BODY_ERROR);
+		}
+	}
+
+	private static int writeSequence(byte[] out, int op, byte[] in, int literalStart, int literalLength, int distance, int matchLength) {
+		int tokenIndex = op++;
+		int token = (Math.min(literalLength, 0xF) << 4) | Math.min(matchLength, 0xF);
+		out[tokenIndex] = (byte)token;
+		op = writeLength(out, op, literalLength);
+		System.arraycopy(in, literalStart, out, op, literalLength);
+		op += literalLength;
+		out[op++] = (byte)distance;
+		out[op++] = (byte)(distance >>> 8);
+		return writeLength(out, op, matchLength);
+	}
+
+	private static int writeLastLiterals(byte[] out, int op, byte[] in, int literalStart, int literalLength) {
+		out[op++] = (byte)(Math.min(literalLength, 0xF) << 4);
+		op = writeLength(out, op, literalLength);
+		System.arraycopy(in, literalStart, out, op, literalLength);
+		return op + literalLength;
+	}
+
+	private static int writeLength(byte[] out, int op, int length) {
+		if(length >= 0xF) {
+			length -= 0xF;
+			while(length >= 0xFF) {
+				out[op++] = (byte)0xFF;
+				length -= 0xFF;
+			}
+			out[op++] = (byte)length;
+		}
+		return op;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	private static int readInt(byte[] buf, int index) {
+		return ((buf[index] & 0xFF) << 24)
+				| ((buf[index + 1] & 0xFF) << 16)
+				| ((buf[index + 2] & 0xFF) << 8)
+				| (buf[index + 3] & 0xFF);
+	}
+
+	private static void writeInt(byte[] buf, int index, int value) {
+		buf[index] = (byte)(value >>> 24);
+		buf[index + 1] = (byte)(value >>> 16);
+		buf[index + 2] = (byte)(value >>> 8);
+		buf[index + 3] = (byte)value;
+	}
+}
@@ -0,0 +1,72 @@
+package com.chopsticks.core.rocketmq.compress;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.rocketmq.common.UtilAll;
+
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+
+/**
+ * 与 rocketmq 自带压缩一致的 zlib，老版本的 compress 标识即为此实现
+ */
+public class ZlibCompressor implements Compressor {
+	
+	public static final int ID = 1;
+	
+	private final int level;
+	
+	public ZlibCompressor() {
+		this(Integer.parseInt(System.getProperty("rocketmq.message.compressLevel", "5")));
+	}
+	
+	public ZlibCompressor(int level) {
+		this.level = level;
+	}
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public byte[] compress(byte[] src) {
+		try {
+			return UtilAll.compress(src, level);
+		}catch (Throwable e) {
+			throw new DefaultCoreException("zlib compress error", e).setCode(DefaultCoreException.MESSAGE_BODY_ERROR);
+		}
+	}
+
+	@Override
+	public byte[] uncompress(byte[] src, int offset, int length) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(src, offset, length);
+			byte[] out = new byte[Math.max(length << 2, 1024)];
+			int outLength = 0;
+			while(!inflater.finished()) {
+				if(outLength == out.length) {
+					out = Arrays.copyOf(out, out.length << 1);
+				}
+				int count = inflater.inflate(out, outLength, out.length - outLength);
+				if(count == 0 && !inflater.finished()) {
+					// 输入不完整或需要预置字典，不能返回截断的结果
+					if(inflater.needsDictionary()) {
+						throw new DataFormatException("zlib preset dictionary unsupported");
+					}
+					if(inflater.needsInput()) {
+						throw new DataFormatException("zlib input truncated");
+					}
+				}
+				outLength += count;
+			}
+			return outLength == out.length ? out : Arrays.copyOf(out, outLength);
+		}catch (DataFormatException e) {
+			throw new DefaultCoreException("zlib uncompress error", e).setCode(DefaultCoreException.MESSAGE_BODY_ERROR);
+		}finally {
+			inflater.end();
+		}
+	}
+}
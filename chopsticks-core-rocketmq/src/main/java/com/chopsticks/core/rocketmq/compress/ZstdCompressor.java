@@ -0,0 +1,82 @@
+package com.chopsticks.core.rocketmq.compress;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+
+/**
+ * 依赖 zstd-jni(com.github.luben:zstd-jni)，不在 classpath 时不注册
+ * 压缩结果为 [int 原始长度][zstd frame]
+ */
+public class ZstdCompressor implements Compressor {
+	
+	public static final int ID = 3;
+	
+	private static final String ZSTD_CLASS_NAME = "com.github.luben.zstd.Zstd";
+	
+	private final int level;
+	
+	private final Method compressMethod;
+	
+	private final Method decompressMethod;
+	
+	public ZstdCompressor() {
+		this(3);
+	}
+	
+	public ZstdCompressor(int level) {
+		this.level = level;
+		try {
+			Class<?> zstd = Class.forName(ZSTD_CLASS_NAME);
+			compressMethod = zstd.getMethod("compress", byte[].class, int.class);
+			decompressMethod = zstd.getMethod("decompress", byte[].class, int.class);
+		}catch (Throwable e) {
+			throw new DefaultCoreException("zstd-jni not found", e);
+		}
+	}
+	
+	public static boolean isAvailable() {
+		try {
+			Class.forName(ZSTD_CLASS_NAME);
+			return true;
+		}catch (Throwable e) {
+			return false;
+		}
+	}
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public byte[] compress(byte[] src) {
+		try {
+			byte[] frame = (byte[])compressMethod.invoke(null, src, level);
+			byte[] out = new byte[4 + frame.length];
+			out[0] = (byte)(src.length >>> 24);
+			out[1] = (byte)(src.length >>> 16);
+			out[2] = (byte)(src.length >>> 8);
+			out[3] = (byte)src.length;
+			System.arraycopy(frame, 0, out, 4, frame.length);
+			return out;
+		}catch (Throwable e) {
+			throw new DefaultCoreException("zstd compress error", e).setCode(DefaultCoreException.MESSAGE_BODY_ERROR);
+		}
+	}
+
+	@Override
+	public byte[] uncompress(byte[] src, int offset, int length) {
+		try {
+			int originLength = ((src[offset] & 0xFF) << 24)
+								| ((src[offset + 1] & 0xFF) << 16)
+								| ((src[offset + 2] & 0xFF) << 8)
+								| (src[offset + 3] & 0xFF);
+			byte[] frame = Arrays.copyOfRange(src, offset + 4, offset + length);
+			return (byte[])decompressMethod.invoke(null, frame, originLength);
+		}catch (Throwable e) {
+			throw new DefaultCoreException("zstd uncompress error", e).setCode(DefaultCoreException.MESSAGE_BODY_ERROR);
+		}
+	}
+}
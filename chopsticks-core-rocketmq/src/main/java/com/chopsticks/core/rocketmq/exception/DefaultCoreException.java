@@ -36,6 +36,12 @@ public class DefaultCoreException extends CoreException {
 	public static final int NETWORK_CONNECTION_ERROR = 10027;
 	public static final int USER_TRANSACTION_CHECK_ERROR = 10028;
 	public static final int NOT_TRANSACTION_RETULT = 10029;
+	public static final int UNSUPPORTED_CODEC = 10030;
+	public static final int UNSUPPORTED_COMPRESSOR = 10031;
+	public static final int NOTICE_CONSUMER_NOT_FOUND = 10032;
+	public static final int HANDLER_CONCURRENCY_LIMIT = 10033;
+	public static final int INVOKE_SENDER_SHUTDOWN = 10034;
+	public static final int INVOKE_HANDLER_SHUTDOWN = 10035;
 
 	public DefaultCoreException() {
 		super();
@@ -3,6 +3,9 @@ package com.chopsticks.core.rocketmq.handler;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
+import java.util.concurrent.Semaphore;
+
+import com.chopsticks.core.handler.BatchNoticeHandler;
 import com.chopsticks.core.handler.Handler;
 
 public abstract class BaseHandler implements Handler {
@@ -16,6 +19,11 @@ public abstract class BaseHandler implements Handler {
 	private boolean supportDelayNotice = true;
 	private boolean supportOrderedNotice = true;
 	
+	private int maxConcurrency;
+	private Semaphore concurrencyLimiter;
+	private HandlerExecutor handlerExecutor;
+	private final ServiceTimeEstimator serviceTimeEstimator = new ServiceTimeEstimator();
+	
 	public BaseHandler(String topic, String tag) {
 		checkArgument(!isNullOrEmpty(topic), "topic cannot be null or empty");
 		checkArgument(!isNullOrEmpty(tag), "topic cannot be null or empty");
@@ -64,5 +72,41 @@ public abstract class BaseHandler implements Handler {
 	public void setSupportDelayNotice(boolean supportDelayNotice) {
 		this.supportDelayNotice = supportDelayNotice;
 	}
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+	/**
+	 * 同时执行的上限，超过时 invoke 以 {@link com.chopsticks.core.rocketmq.exception.DefaultCoreException#HANDLER_CONCURRENCY_LIMIT} 拒绝，notice 稍后重试
+	 * 需在 client 启动前设置
+	 * @param maxConcurrency 小于等于0时不限制
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+		this.concurrencyLimiter = maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+	}
+	public Semaphore getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+	public HandlerExecutor getHandlerExecutor() {
+		return handlerExecutor;
+	}
+	/**
+	 * 独立执行器，invoke 和 notice 在此执行，不占用其他 handler 的线程，client 关闭时一起关闭
+	 */
+	public void setHandlerExecutor(HandlerExecutor handlerExecutor) {
+		this.handlerExecutor = handlerExecutor;
+	}
+	/**
+	 * @return invoke 的服务时间估计
+	 */
+	public ServiceTimeEstimator getServiceTimeEstimator() {
+		return serviceTimeEstimator;
+	}
+	/**
+	 * @return 不支持批量 notice 时返回 null
+	 */
+	public BatchNoticeHandler getBatchNoticeHandler() {
+		return this instanceof BatchNoticeHandler ? (BatchNoticeHandler)this : null;
+	}
 	
 }
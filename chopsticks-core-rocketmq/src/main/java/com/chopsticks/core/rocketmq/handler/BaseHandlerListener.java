@@ -1,31 +1,65 @@
 package com.chopsticks.core.rocketmq.handler;
 
-import java.util.Map;
+import java.util.concurrent.Semaphore;
 
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chopsticks.core.exception.CoreException;
 import com.chopsticks.core.rocketmq.Const;
 import com.chopsticks.core.rocketmq.DefaultClient;
+import com.chopsticks.core.rocketmq.compress.Compressors;
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 
 abstract class BaseHandlerListener{
 	
+	private static final Logger log = LoggerFactory.getLogger(BaseHandlerListener.class);
 	
-	/**
-	 *  <topic + tag, baseHandler>
-	 */
-	private Map<String, BaseHandler> topicTagHandlers;
+	private HandlerRouter router;
 	private DefaultClient client;
 	private long beginExecutableTime;
+	/**
+	 * 不为 null 时 handler 在此执行，消费线程只负责分派
+	 */
+	private HandlerExecutor handlerExecutor;
 	
-	BaseHandlerListener(Map<String, BaseHandler> topicTagHandlers, DefaultClient client) {
-		this.topicTagHandlers = topicTagHandlers;
+	BaseHandlerListener(HandlerRouter router, DefaultClient client) {
+		this.router = router;
 		this.client = client;
 	}
 	
+	/**
+	 * @param topic 消息topic
+	 */
 	protected BaseHandler getHandler(String topic, String tag) {
-		BaseHandler handler = topicTagHandlers.get(topic + tag);
-		if(handler == null) {
-			handler = topicTagHandlers.get(topic + Const.ALL_TAGS);
+		return router.getHandler(topic, tag);
+	}
+	
+	/**
+	 * @param topic 消息topic
+	 * @return 未订阅时返回 null
+	 */
+	protected HandlerRouter.TopicRoute getRoute(String topic) {
+		return router.getRoute(topic);
+	}
+	
+	/**
+	 * 通知消息体，调用方自定义压缩时解压
+	 */
+	protected byte[] getNoticeBody(MessageExt ext) {
+		String compressor = ext.getUserProperty(Const.COMPRESSOR_KEY);
+		if(Strings.isNullOrEmpty(compressor)) {
+			return ext.getBody();
 		}
-		return handler;
+		return Compressors.uncompress(Integer.parseInt(compressor), ext.getBody());
 	}
 	
 	protected DefaultClient getClient() {
@@ -40,4 +74,72 @@ abstract class BaseHandlerListener{
 		this.beginExecutableTime = beginExecutableTime;
 	}
 
+	protected HandlerExecutor getHandlerExecutor() {
+		return handlerExecutor;
+	}
+	
+	/**
+	 * @return handler 的独立执行器，没有时为共享执行器，都没有时返回 null
+	 */
+	protected HandlerExecutor getHandlerExecutor(BaseHandler handler) {
+		if(handler != null && handler.getHandlerExecutor() != null) {
+			return handler.getHandlerExecutor();
+		}
+		return handlerExecutor;
+	}
+	
+	/**
+	 * 占用 handler 的并发许可，没有空闲许可时拒绝
+	 */
+	protected void acquire(BaseHandler handler, String topic, String tag) {
+		Semaphore limiter = handler.getConcurrencyLimiter();
+		if(limiter != null && !limiter.tryAcquire()) {
+			throw new DefaultCoreException(String.format("%s-%s handler concurrency limit, maxConcurrency : %s"
+											, topic
+											, tag
+											, handler.getMaxConcurrency())).setCode(DefaultCoreException.HANDLER_CONCURRENCY_LIMIT);
+		}
+	}
+	
+	protected void release(BaseHandler handler) {
+		Semaphore limiter = handler.getConcurrencyLimiter();
+		if(limiter != null) {
+			limiter.release();
+		}
+	}
+	
+	/**
+	 * handler 没有执行，不应占用重试次数
+	 */
+	protected static boolean isConcurrencyLimit(Throwable e) {
+		return e instanceof CoreException && ((CoreException)e).getCode() == DefaultCoreException.HANDLER_CONCURRENCY_LIMIT;
+	}
+	
+	/**
+	 * 并发受限的消息按 rocketmq 发回 broker 失败时的方式直接写入重试 topic，reconsumeTimes 保持不变，不占用重试次数
+	 * @return 写入失败时返回 false
+	 */
+	protected boolean sendBackLimited(DefaultMQPushConsumer consumer, MessageExt ext) {
+		try {
+			Message newMsg = new Message(MixAll.getRetryTopic(consumer.getConsumerGroup()), ext.getBody());
+			String originMsgId = MessageAccessor.getOriginMessageId(ext);
+			MessageAccessor.setProperties(newMsg, Maps.newHashMap(ext.getProperties()));
+			MessageAccessor.setOriginMessageId(newMsg, Strings.isNullOrEmpty(originMsgId) ? ext.getMsgId() : originMsgId);
+			MessageAccessor.putProperty(newMsg, MessageConst.PROPERTY_RETRY_TOPIC, ext.getTopic());
+			MessageAccessor.setReconsumeTime(newMsg, String.valueOf(ext.getReconsumeTimes()));
+			MessageAccessor.setMaxReconsumeTimes(newMsg, String.valueOf(consumer.getMaxReconsumeTimes()));
+			newMsg.setFlag(ext.getFlag());
+			newMsg.setDelayTimeLevel(3 + ext.getReconsumeTimes());
+			client.getProducer().send(newMsg);
+			return true;
+		}catch (Throwable e) {
+			log.error(String.format("concurrency limit send back error, msgId : %s", ext.getMsgId()), e);
+			return false;
+		}
+	}
+
+	public void setHandlerExecutor(HandlerExecutor handlerExecutor) {
+		this.handlerExecutor = handlerExecutor;
+	}
+
 }
@@ -3,5 +3,16 @@ package com.chopsticks.core.rocketmq.handler;
 import com.chopsticks.core.handler.InvokeContext;
 
 public abstract class BaseInvokeContext extends BaseContext implements InvokeContext{
-
+	
+	private long deadline;
+	
+	/**
+	 * @return 调用方的截止时间，超过后调用方不再等待结果
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
 }
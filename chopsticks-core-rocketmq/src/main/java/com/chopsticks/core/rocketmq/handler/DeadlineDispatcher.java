@@ -0,0 +1,163 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * 最早截止时间优先(EDF)的本地分派队列
+ * 消费线程只负责放入，工作线程总是先执行截止时间最早的任务，截止时间相同时先进先出
+ * 队列满时阻塞放入线程(消费线程)，拉取随之停止
+ * 关闭后不再执行排队中的任务，改为执行各自的拒绝处理
+ */
+public class DeadlineDispatcher {
+	
+	private static final Logger log = LoggerFactory.getLogger(DeadlineDispatcher.class);
+	
+	private static final long POLL_MILLIS = 100L;
+	
+	/**
+	 * 关闭时等待执行中的任务完成的最长时间
+	 */
+	private static final long SHUTDOWN_AWAIT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+	
+	private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<Task>();
+	
+	private final Semaphore capacity;
+	
+	private final AtomicLong sequence = new AtomicLong();
+	
+	private final Thread[] workers;
+	
+	private volatile boolean running = true;
+	
+	/**
+	 * @param workerNum 工作线程数
+	 * @param capacity 排队任务上限
+	 */
+	public DeadlineDispatcher(String name, int workerNum, int capacity) {
+		this.capacity = new Semaphore(capacity);
+		ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+																.setNameFormat(name + "-deadlineDispatcher-%d")
+																.build();
+		workers = new Thread[workerNum];
+		for(int i = 0; i < workerNum; i++) {
+			workers[i] = threadFactory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			});
+			workers[i].start();
+		}
+	}
+	
+	/**
+	 * @param deadline 任务的截止时间
+	 * @param rejection 关闭后未执行时调用，不能为 null
+	 */
+	public void dispatch(long deadline, Runnable runnable, Runnable rejection) throws InterruptedException {
+		Task task = new Task(deadline, sequence.getAndIncrement(), runnable, rejection);
+		if(!running) {
+			reject(task);
+			return;
+		}
+		capacity.acquire();
+		queue.add(task);
+		// 与 shutdown 的清空交错时由放入方拒绝
+		if(!running && queue.remove(task)) {
+			capacity.release();
+			reject(task);
+		}
+	}
+	
+	public int size() {
+		return queue.size();
+	}
+	
+	/**
+	 * 排队中的任务在调用线程执行拒绝处理，再等待工作线程执行完当前任务
+	 */
+	public void shutdown() {
+		running = false;
+		List<Task> tasks = Lists.newArrayList();
+		queue.drainTo(tasks);
+		capacity.release(tasks.size());
+		if(!tasks.isEmpty()) {
+			log.warn("deadline dispatcher shutdown, reject {} queued tasks", tasks.size());
+		}
+		for(Task task : tasks) {
+			reject(task);
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_AWAIT_MILLIS);
+		for(Thread worker : workers) {
+			Uninterruptibles.joinUninterruptibly(worker, Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+			if(worker.isAlive()) {
+				log.warn("deadline dispatcher worker {} not terminated in {}ms", worker.getName(), SHUTDOWN_AWAIT_MILLIS);
+			}
+		}
+	}
+	
+	/**
+	 * 不中断工作线程，避免中断执行中的 handler，关闭后最多 POLL_MILLIS 退出
+	 */
+	private void work() {
+		while(running) {
+			Task task;
+			try {
+				task = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}catch (InterruptedException e) {
+				continue;
+			}
+			if(task == null) {
+				continue;
+			}
+			capacity.release();
+			try {
+				task.runnable.run();
+			}catch (Throwable e) {
+				log.error(e.getMessage(), e);
+			}
+		}
+	}
+	
+	private static void reject(Task task) {
+		try {
+			task.rejection.run();
+		}catch (Throwable e) {
+			log.error(e.getMessage(), e);
+		}
+	}
+	
+	private static class Task implements Comparable<Task> {
+		final long deadline;
+		final long sequence;
+		final Runnable runnable;
+		final Runnable rejection;
+		
+		Task(long deadline, long sequence, Runnable runnable, Runnable rejection) {
+			this.deadline = deadline;
+			this.sequence = sequence;
+			this.runnable = runnable;
+			this.rejection = rejection;
+		}
+		
+		@Override
+		public int compareTo(Task o) {
+			if(deadline != o.deadline) {
+				return deadline < o.deadline ? -1 : 1;
+			}
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+		}
+	}
+}
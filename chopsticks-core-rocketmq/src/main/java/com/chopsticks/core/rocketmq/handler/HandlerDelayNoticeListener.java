@@ -1,8 +1,10 @@
 package com.chopsticks.core.rocketmq.handler;
 
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
@@ -18,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.fastjson.JSON;
+import com.chopsticks.common.concurrent.impl.HierarchicalTimingWheel;
 import com.chopsticks.common.utils.TimeUtils;
 import com.chopsticks.core.exception.CoreException;
 import com.chopsticks.core.rocketmq.Const;
@@ -28,20 +31,29 @@ import com.chopsticks.core.rocketmq.handler.impl.DefaultNoticeContext;
 import com.chopsticks.core.rocketmq.handler.impl.DefaultNoticeParams;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
-import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class HandlerDelayNoticeListener extends BaseHandlerListener implements MessageListenerConcurrently {
 	
 	private static final Logger log = LoggerFactory.getLogger(HandlerDelayNoticeListener.class);
 	
-	private Multimap<String, String> topicTags;
 	
 	private DefaultMQPushConsumer delayNoticeConsumer;
 	
-	public HandlerDelayNoticeListener(DefaultClient client, DefaultMQPushConsumer delayNoticeConsumer, Multimap<String, String> topicTags, Map<String, BaseHandler> topicTagHandlers) {
-		super(topicTagHandlers, client);
+	/**
+	 * 为 null 时不在内存中等待
+	 */
+	private volatile HierarchicalTimingWheel timingWheel;
+	
+	private ExecutorService heldNoticeExecutor;
+	
+	private long maxHoldMillis;
+	
+	private int maxHoldCount;
+	
+	public HandlerDelayNoticeListener(DefaultClient client, DefaultMQPushConsumer delayNoticeConsumer, HandlerRouter router) {
+		super(router, client);
 		this.delayNoticeConsumer = delayNoticeConsumer;
-		this.topicTags = topicTags;
 	}
 
 	@Override
@@ -50,6 +62,10 @@ public class HandlerDelayNoticeListener extends BaseHandlerListener implements M
 			try {
 				return consumeMessage(ext, context);
 			}catch (Throwable e) {
+				if(isConcurrencyLimit(e)) {
+					log.warn(e.getMessage());
+					return sendBackLimited(delayNoticeConsumer, ext) ? ConsumeConcurrentlyStatus.CONSUME_SUCCESS : ConsumeConcurrentlyStatus.RECONSUME_LATER;
+				}
 				log.error(e.getMessage(), e);
 				if(delayNoticeConsumer.getMaxReconsumeTimes() <= ext.getReconsumeTimes()) {
 					return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
@@ -63,17 +79,18 @@ public class HandlerDelayNoticeListener extends BaseHandlerListener implements M
 	
 	public ConsumeConcurrentlyStatus consumeMessage(MessageExt ext, ConsumeConcurrentlyContext context) {
 
-		ext.setTags(Const.getOriginTag(getClient().getGroupName(), ext.getTags()));
 		String topic = ext.getProperty(MessageConst.PROPERTY_RETRY_TOPIC);
 		String msgId = ext.getProperty(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX);
 		if(Strings.isNullOrEmpty(topic)) {
 			topic = ext.getTopic();
 		}
-		topic = topic.replace(Const.DELAY_NOTICE_TOPIC_SUFFIX, "");
-		if(!topicTags.keySet().contains(topic)) {
+		HandlerRouter.TopicRoute route = getRoute(topic);
+		if(route == null) {
 			log.warn("cancel consume {}-{}, msgId : {}", topic, ext.getTags(), msgId);
 			return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
 		}
+		ext.setTags(route.getOriginTag(ext.getTags()));
+		topic = route.getTopic();
 		
 		String dealyNoticeReqStr = ext.getProperty(Const.DELAY_NOTICE_REQUEST_KEY);
 		DelayNoticeRequest req = null;
@@ -102,28 +119,12 @@ public class HandlerDelayNoticeListener extends BaseHandlerListener implements M
 			long diff = req.getExecuteTime() - Const.CLIENT_TIME.getNow();
 			if(diff > 0) {
 				Optional<Entry<Long, Integer>> delayLevel = Const.getDelayLevel(diff);
+				if(hold(ext, req, route, msgId, diff, delayLevel.isPresent())) {
+					return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+				}
 				if(delayLevel.isPresent()) {
-					Message msg = new Message(ext.getTopic(), Const.buildCustomTag(getClient().getGroupName(), ext.getTags()), ext.getBody());
-					msg.setDelayTimeLevel(delayLevel.get().getValue());
-					msg.putUserProperty(Const.DELAY_NOTICE_REQUEST_KEY, JSON.toJSONString(req));
-					msg.setKeys(getClient().getGroupName() + req.getRootId());
-					try {
-						SendResult ret = getClient().getProducer().send(msg);
-						if(ret.getSendStatus() != SendStatus.SEND_OK) {
-							throw new DefaultCoreException(ret.getSendStatus().name()).setCode(DefaultCoreException.DELAY_NOTICE_EXECUTE_FORWORD_SEND_NOT_OK);
-						}else {
-							log.trace("rootId : {}, newId : {}, invokeTime : {}, executeTime : {}, next delay(ms) : {}, diff(ms) : {}"
-									, msgId
-									, ret.getMsgId()
-									, TimeUtils.yyyyMMddHHmmssSSS(req.getInvokeTime())
-									, TimeUtils.yyyyMMddHHmmssSSS(req.getExecuteTime())
-									, String.format("%s-%s", delayLevel.get().getKey(), delayLevel.get().getValue())
-									, diff);
-							return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
-						}
-					}catch (Throwable e) {
-						throw new DefaultCoreException(e).setCode(CoreException.UNKNOW_EXCEPTION);
-					}
+					forward(ext, req, msgId, delayLevel.get(), diff);
+					return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
 				}else {
 					log.trace("delayLevel be null, diff : {}", diff);
 					if(diff < TimeUnit.SECONDS.toMillis(1)) {
@@ -137,7 +138,13 @@ public class HandlerDelayNoticeListener extends BaseHandlerListener implements M
 			}
 		}
 		
-		BaseHandler handler = getHandler(topic, ext.getTags());
+		notice(ext, req, route, msgId);
+		return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+	}
+	
+	private void notice(MessageExt ext, DelayNoticeRequest req, HandlerRouter.TopicRoute route, String msgId) {
+		String topic = route.getTopic();
+		BaseHandler handler = route.getHandler(ext.getTags());
 		if(handler == null) {
 			throw new DefaultCoreException(String.format("%s-%s cannot find handler by notice, reconsumeTimes : %s, msgId: %s"
 					, topic
@@ -146,7 +153,7 @@ public class HandlerDelayNoticeListener extends BaseHandlerListener implements M
 					, msgId)).setCode(DefaultCoreException.CANNOT_FIND_DELAY_NOTICE_HANDLER);
 		}
 		try {
-			DefaultNoticeParams params = new DefaultNoticeParams(topic, ext.getTags(), ext.getBody());
+			DefaultNoticeParams params = new DefaultNoticeParams(topic, ext.getTags(), getNoticeBody(ext));
 			DefaultNoticeContext ctx = new DefaultNoticeContext(msgId
 															, ext.getMsgId()
 															, ext.getReconsumeTimes()
@@ -159,8 +166,12 @@ public class HandlerDelayNoticeListener extends BaseHandlerListener implements M
 				ctx.setExtParams(req.getExtParams());
 				ctx.setTraceNos(req.getTraceNos());
 			}
-			handler.notice(params, ctx);
-			return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+			acquire(handler, topic, ext.getTags());
+			try {
+				handler.notice(params, ctx);
+			}finally {
+				release(handler);
+			}
 		}catch (DefaultCoreException e) {
 			throw e;
 		}catch (Throwable e) {
@@ -171,7 +182,156 @@ public class HandlerDelayNoticeListener extends BaseHandlerListener implements M
 									, msgId)
 					, e).setCode(CoreException.UNKNOW_EXCEPTION);
 		}
+	}
+	
+	/**
+	 * 转发到 broker 延迟级别，到期后再次消费
+	 * @param delayLevel 为 null 时不延迟
+	 */
+	private void forward(MessageExt ext, DelayNoticeRequest req, String msgId, Entry<Long, Integer> delayLevel, long diff) {
+		Message msg = new Message(ext.getTopic(), Const.buildCustomTag(getClient().getGroupName(), ext.getTags()), ext.getBody());
+		if(delayLevel != null) {
+			msg.setDelayTimeLevel(delayLevel.getValue());
+		}
+		msg.putUserProperty(Const.DELAY_NOTICE_REQUEST_KEY, JSON.toJSONString(req));
+		if(!Strings.isNullOrEmpty(ext.getUserProperty(Const.COMPRESSOR_KEY))) {
+			msg.putUserProperty(Const.COMPRESSOR_KEY, ext.getUserProperty(Const.COMPRESSOR_KEY));
+		}
+		msg.setKeys(getClient().getGroupName() + req.getRootId());
+		try {
+			SendResult ret = getClient().getProducer().send(msg);
+			if(ret.getSendStatus() != SendStatus.SEND_OK) {
+				throw new DefaultCoreException(ret.getSendStatus().name()).setCode(DefaultCoreException.DELAY_NOTICE_EXECUTE_FORWORD_SEND_NOT_OK);
+			}else {
+				log.trace("rootId : {}, newId : {}, invokeTime : {}, executeTime : {}, next delay(ms) : {}, diff(ms) : {}"
+						, msgId
+						, ret.getMsgId()
+						, TimeUtils.yyyyMMddHHmmssSSS(req.getInvokeTime())
+						, TimeUtils.yyyyMMddHHmmssSSS(req.getExecuteTime())
+						, delayLevel == null ? "-" : String.format("%s-%s", delayLevel.getKey(), delayLevel.getValue())
+						, diff);
+			}
+		}catch (DefaultCoreException e) {
+			throw e;
+		}catch (Throwable e) {
+			throw new DefaultCoreException(e).setCode(CoreException.UNKNOW_EXCEPTION);
+		}
+	}
+	
+	/**
+	 * 剩余延迟在内存中等待，总数受 maxHoldCount 限制，可转发 broker 的余量还受 maxHoldMillis 限制
+	 * @return 未开启或超出限制时返回 false
+	 */
+	private boolean hold(MessageExt ext, DelayNoticeRequest req, HandlerRouter.TopicRoute route, String msgId, long diff, boolean hasDelayLevel) {
+		HierarchicalTimingWheel timingWheel = this.timingWheel;
+		if(timingWheel == null) {
+			return false;
+		}
+		if(timingWheel.size() >= maxHoldCount || (hasDelayLevel && diff > maxHoldMillis)) {
+			return false;
+		}
+		try {
+			timingWheel.schedule(new HeldNotice(ext, req, route, msgId), diff, TimeUnit.MILLISECONDS);
+		}catch (IllegalStateException e) {
+			return false;
+		}
+		return true;
+	}
 	
+	/**
+	 * 开启后剩余延迟在内存中等待，不再阻塞消费线程，已确认的消息在进程异常退出时丢失
+	 * 执行队列满时到期的消息转发回 broker
+	 * @param maxHoldMillis 剩余延迟不超过此值时不再转发 broker
+	 */
+	public void enableHold(String name, long maxHoldMillis, int maxHoldCount, int executableNum) {
+		this.maxHoldMillis = maxHoldMillis;
+		this.maxHoldCount = maxHoldCount;
+		this.heldNoticeExecutor = new ThreadPoolExecutor(executableNum
+														, executableNum
+														, 0L
+														, TimeUnit.MILLISECONDS
+														, new LinkedBlockingQueue<Runnable>(Math.max(maxHoldCount, 1))
+														, new ThreadFactoryBuilder().setDaemon(true)
+																					.setNameFormat(name + "-delayNoticeHold-%d")
+																					.build());
+		this.timingWheel = new HierarchicalTimingWheel(name + "-delayNotice");
+	}
+	
+	/**
+	 * 未到期的消息转发回 broker，需在 producer 关闭前调用
+	 */
+	public void shutdown() {
+		HierarchicalTimingWheel timingWheel = this.timingWheel;
+		if(timingWheel == null) {
+			return;
+		}
+		this.timingWheel = null;
+		for(Runnable task : timingWheel.shutdown()) {
+			((HeldNotice)task).forward();
+		}
+		heldNoticeExecutor.shutdown();
+	}
+	
+	private class HeldNotice implements Runnable {
+		final MessageExt ext;
+		final DelayNoticeRequest req;
+		final HandlerRouter.TopicRoute route;
+		final String msgId;
+		
+		HeldNotice(MessageExt ext, DelayNoticeRequest req, HandlerRouter.TopicRoute route, String msgId) {
+			this.ext = ext;
+			this.req = req;
+			this.route = route;
+			this.msgId = msgId;
+		}
+		
+		/**
+		 * 时间轮线程内只做分派
+		 */
+		@Override
+		public void run() {
+			try {
+				heldNoticeExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						notice();
+					}
+				});
+			}catch (Throwable e) {
+				forward();
+			}
+		}
+		
+		void notice() {
+			try {
+				HandlerDelayNoticeListener.this.notice(ext, req, route, msgId);
+			}catch (Throwable e) {
+				if(isConcurrencyLimit(e)) {
+					log.warn(e.getMessage());
+					if(sendBackLimited(delayNoticeConsumer, ext)) {
+						return;
+					}
+				}else {
+					log.error(e.getMessage(), e);
+				}
+				if(delayNoticeConsumer.getMaxReconsumeTimes() > ext.getReconsumeTimes()) {
+					try {
+						delayNoticeConsumer.sendMessageBack(ext, 0);
+					}catch (Throwable sendBackError) {
+						log.error(String.format("delay notice send back error, message lost, msgId : %s", msgId), sendBackError);
+					}
+				}
+			}
+		}
+		
+		void forward() {
+			long diff = req.getExecuteTime() - Const.CLIENT_TIME.getNow();
+			try {
+				HandlerDelayNoticeListener.this.forward(ext, req, msgId, Const.getDelayLevel(diff).orNull(), diff);
+			}catch (Throwable e) {
+				log.error(String.format("delay notice forward error, message lost, msgId : %s", msgId), e);
+			}
+		}
 	}
 
 }
@@ -0,0 +1,118 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * handler 执行器，JDK 支持虚拟线程时每个任务一个虚拟线程，否则退回有界线程池
+ * 并发数由信号量限制，达到上限时阻塞提交线程(消费线程)，拉取随之停止
+ */
+public class HandlerExecutor {
+	
+	private static final Logger log = LoggerFactory.getLogger(HandlerExecutor.class);
+	
+	private final ExecutorService executor;
+	
+	private final Semaphore permits;
+	
+	private final boolean virtual;
+	
+	public HandlerExecutor(String name, int maxConcurrency) {
+		this(name, maxConcurrency, true);
+	}
+	
+	/**
+	 * @param name 线程名前缀
+	 * @param maxConcurrency 同时执行的 handler 上限
+	 * @param preferVirtual 是否优先使用虚拟线程
+	 */
+	public HandlerExecutor(String name, int maxConcurrency, boolean preferVirtual) {
+		this.permits = new Semaphore(maxConcurrency);
+		ExecutorService executor = preferVirtual ? newVirtualThreadPerTaskExecutor(name) : null;
+		this.virtual = executor != null;
+		if(executor == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrency
+															, maxConcurrency
+															, 60L
+															, TimeUnit.SECONDS
+															, new LinkedBlockingQueue<Runnable>()
+															, new ThreadFactoryBuilder().setDaemon(true)
+																						.setNameFormat(name + "-handler-%d")
+																						.build());
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		this.executor = executor;
+	}
+	
+	/**
+	 * 没有空闲许可时阻塞等待
+	 */
+	public void execute(final Runnable task) throws InterruptedException {
+		permits.acquire();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					}finally {
+						permits.release();
+					}
+				}
+			});
+		}catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+	
+	public boolean isVirtual() {
+		return virtual;
+	}
+	
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	/**
+	 * 等待已提交的任务执行完毕，被中断时保留中断状态并返回
+	 * @return 超时或被中断时返回 false
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		try {
+			return executor.awaitTermination(timeout, unit);
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name, 0).factory())
+	 * @return 不支持时返回 null
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method nameMethod = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class);
+			builder = nameMethod.invoke(builder, name + "-handler-", 0L);
+			ThreadFactory factory = (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+			return (ExecutorService)Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+		}catch (Throwable e) {
+			log.debug("virtual thread unsupported, fallback to thread pool : {}", e.toString());
+			return null;
+		}
+	}
+}
@@ -1,13 +1,12 @@
 package com.chopsticks.core.rocketmq.handler;
 
-import static com.google.common.base.Strings.isNullOrEmpty;
-
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
 import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.client.producer.SendStatus;
 import org.apache.rocketmq.common.UtilAll;
@@ -16,7 +15,6 @@ import org.apache.rocketmq.common.message.MessageExt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.alibaba.fastjson.JSON;
 import com.chopsticks.common.concurrent.Promise;
 import com.chopsticks.common.concurrent.PromiseListener;
 import com.chopsticks.common.utils.Reflect;
@@ -26,6 +24,9 @@ import com.chopsticks.core.handler.HandlerResult;
 import com.chopsticks.core.rocketmq.Const;
 import com.chopsticks.core.rocketmq.DefaultClient;
 import com.chopsticks.core.rocketmq.caller.InvokeRequest;
+import com.chopsticks.core.rocketmq.codec.Codec;
+import com.chopsticks.core.rocketmq.codec.Codecs;
+import com.chopsticks.core.rocketmq.compress.Compressors;
 import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
 import com.chopsticks.core.rocketmq.handler.impl.DefaultInvokeContext;
 import com.chopsticks.core.rocketmq.handler.impl.DefaultInvokeParams;
@@ -36,33 +37,167 @@ public class HandlerInvokeListener extends BaseHandlerListener implements Messag
 	private static final Logger log = LoggerFactory.getLogger(HandlerInvokeListener.class);
 //	private static final long DEFAULT_INVOKE_RESP_COMPRESS_BODY_LENGTH = 1024 * 100;
 	
+	/**
+	 * 不为 null 时响应按 响应topic + 队列 批量发送
+	 */
+	private RespBatchSender respBatchSender;
+	
+	/**
+	 * 不为 null 时请求按截止时间排队执行，剩余时间不足服务时间估计的请求直接丢弃
+	 */
+	private DeadlineDispatcher deadlineDispatcher;
+	
+	public HandlerInvokeListener(DefaultClient client, HandlerRouter router) {
+		super(router, client);
+	}
+	
+	public void setRespBatchSender(RespBatchSender respBatchSender) {
+		this.respBatchSender = respBatchSender;
+	}
 	
-	public HandlerInvokeListener(DefaultClient client, Map<String, BaseHandler> topicTagHandlers) {
-		super(topicTagHandlers, client);
+	public void setDeadlineDispatcher(DeadlineDispatcher deadlineDispatcher) {
+		this.deadlineDispatcher = deadlineDispatcher;
 	}
 
 	@Override
-	public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
-		for(MessageExt ext : msgs) {
+	public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs, final ConsumeConcurrentlyContext context) {
+		for(final MessageExt ext : msgs) {
+			BaseHandler handler = getHandler(ext.getTopic(), ext.getTags());
+			if(deadlineDispatcher != null && (handler == null || handler.getHandlerExecutor() == null)) {
+				dispatchByDeadline(ext);
+				continue;
+			}
+			HandlerExecutor handlerExecutor = getHandlerExecutor(handler);
+			if(handlerExecutor == null) {
+				consumeMessageQuietly(ext, context);
+				continue;
+			}
+			// invoke 不重试，分派后直接确认
 			try {
-				return consumeMessage(ext, context);
-			}catch (CoreException e) {
-				log.error(e.getMessage(), e);
-				return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+				handlerExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						consumeMessageQuietly(ext, context);
+					}
+				});
+			}catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.warn("interrupted, skip invoke, msgId : {}", ext.getMsgId());
 			}catch (Throwable e) {
 				log.error(e.getMessage(), e);
-				return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
 			}
 		}
 		return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
 	}
 	
+	private ConsumeConcurrentlyStatus consumeMessageQuietly(MessageExt ext, ConsumeConcurrentlyContext context) {
+		try {
+			return consumeMessage(ext, context);
+		}catch (CoreException e) {
+			log.error(e.getMessage(), e);
+			return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+		}catch (Throwable e) {
+			log.error(e.getMessage(), e);
+			return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+		}
+	}
+	
+	/**
+	 * 解码出截止时间后放入 EDF 队列，invoke 不重试，放入后直接确认
+	 */
+	private void dispatchByDeadline(final MessageExt ext) {
+		final Codec codec;
+		final InvokeRequest req;
+		try {
+			codec = Codecs.of(ext);
+			req = codec.decodeInvokeRequest(ext);
+		}catch (Throwable e) {
+			log.error(e.getMessage(), e);
+			return;
+		}
+		if(req == null) {
+			consumeMessageQuietly(ext, codec, req);
+			return;
+		}
+		try {
+			deadlineDispatcher.dispatch(req.getDeadline(), new Runnable() {
+				@Override
+				public void run() {
+					consumeMessageQuietly(ext, codec, req);
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					rejectQuietly(ext, req);
+				}
+			});
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.warn("interrupted, skip invoke, msgId : {}", ext.getMsgId());
+		}
+	}
+	
+	/**
+	 * 只有经过 EDF 队列的请求才按服务时间估计丢弃
+	 */
+	private void consumeMessageQuietly(MessageExt ext, Codec codec, InvokeRequest req) {
+		try {
+			consumeMessage(ext, codec, req, true);
+		}catch (Throwable e) {
+			log.error(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * 已确认但关闭前未执行的请求直接响应异常，调用方不必等到超时
+	 */
+	private void rejectQuietly(MessageExt ext, InvokeRequest req) {
+		HandlerRouter.TopicRoute route = getRoute(ext.getTopic());
+		String topic = route == null ? ext.getTopic() : route.getTopic();
+		CoreException e = new DefaultCoreException(String.format("handler shutdown, %s-%s skip invoke process, reqId : %s"
+														, topic
+														, ext.getTags()
+														, req.getReqId())).setCode(DefaultCoreException.INVOKE_HANDLER_SHUTDOWN);
+		log.warn(e.getMessage());
+		if(Strings.isNullOrEmpty(req.getRespTopic())) {
+			return;
+		}
+		InvokeResponse resp = new InvokeResponse(req.getReqId(), req.getReqTime(), Const.CLIENT_TIME.getNow(), e.getOriMessage());
+		resp.setRespExceptionCode(e.getCode());
+		try {
+			sendRespMsg(ext, resp, topic, req, Const.CLIENT_TIME.getNow(), e);
+		}catch (Throwable t) {
+			if(t != e) {
+				log.error(t.getMessage(), t);
+			}
+		}
+	}
+	
+	/**
+	 * 本地短路的 invoke，调用方已经在执行器中，直接执行不再分派，也不按服务时间估计丢弃
+	 */
+	public void consumeLocalMessage(MessageExt ext) {
+		try {
+			Codec codec = Codecs.of(ext);
+			consumeMessage(ext, codec, codec.decodeInvokeRequest(ext), false);
+		}catch (Throwable e) {
+			log.error(e.getMessage(), e);
+		}
+	}
+	
 	public ConsumeConcurrentlyStatus consumeMessage(final MessageExt ext, ConsumeConcurrentlyContext context) {
+		Codec codec = Codecs.of(ext);
+		return consumeMessage(ext, codec, codec.decodeInvokeRequest(ext), false);
+	}
+	
+	/**
+	 * @param shed 剩余时间不足服务时间估计时是否丢弃
+	 */
+	private ConsumeConcurrentlyStatus consumeMessage(final MessageExt ext, final Codec codec, final InvokeRequest req, boolean shed) {
 		InvokeResponse resp = null;
-		final String topic = ext.getTopic().replace(Const.INVOKE_TOPIC_SUFFIX, "");
-		String invokeCmdExtStr = ext.getUserProperty(Const.INVOKE_REQUEST_KEY);
-		if(!isNullOrEmpty(invokeCmdExtStr)) {
-			final InvokeRequest req = JSON.parseObject(invokeCmdExtStr, InvokeRequest.class);
+		HandlerRouter.TopicRoute route = getRoute(ext.getTopic());
+		final String topic = route == null ? ext.getTopic() : route.getTopic();
+		if(req != null) {
 			if(req.getReqTime() < getBeginExecutableTime()) {
 				log.trace("reqTime < beginExecutableTime, reqTime : {}, beginExecutableTime : {}, reqId : {}"
 						, TimeUtils.yyyyMMddHHmmssSSS(req.getReqTime())
@@ -88,33 +223,54 @@ public class HandlerInvokeListener extends BaseHandlerListener implements Messag
 													, ext.getQueueId());
 				return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
 			}
-			BaseHandler handler = getHandler(topic, ext.getTags());
+			BaseHandler handler = route == null ? null : route.getHandler(ext.getTags());
 			if(handler == null) {
 				throw new DefaultCoreException(String.format("cannot find handler by invoke, msgId: %s, %s-%s"
 											, ext.getMsgId()
 											, topic
 											, ext.getTags())).setCode(DefaultCoreException.CANNOT_FIND_INVOKE_HANDLER);
 			}
+			if(shed && handler.getServiceTimeEstimator().shed(req.getDeadline() - now, now)) {
+				log.warn("remaining < estimate, {}-{} skip invoke process, reqId : {}, remaining : {}, estimate : {}, queue : {}"
+						, topic
+						, ext.getTags()
+						, req.getReqId()
+						, req.getDeadline() - now
+						, handler.getServiceTimeEstimator().getEstimateMillis()
+						, ext.getQueueId());
+				return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+			}
 			CoreException tmp = null;
 			try {
-				byte[] body = ext.getBody();
+				byte[] body = codec.decodeInvokeRequestBody(ext);
 				if(req.isCompress()) {
-					body = UtilAll.uncompress(body);
+					body = Compressors.uncompress(req.getCompressor(), body);
 				}
 				DefaultInvokeContext ctx = new DefaultInvokeContext();
 				ctx.setReqTime(req.getReqTime());
 				ctx.setExtParams(req.getExtParams());
 				ctx.setTraceNos(req.getTraceNos());
-				HandlerResult handlerResult = handler.invoke(new DefaultInvokeParams(topic, ext.getTags(), body), ctx);  
-				if(handlerResult != null) {
-					Promise<HandlerResult> primise = handlerResult.getPromise();
-					if(primise != null) {
-						//once listener
-						addListener(ext, topic, req, now, primise);
-						return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
-					}else {
-						resp = new InvokeResponse(req.getReqId(), req.getReqTime(), Const.CLIENT_TIME.getNow(), handlerResult.getBody());
-						resp.setTraceNos(req.getTraceNos());
+				ctx.setDeadline(req.getDeadline());
+				acquire(handler, topic, ext.getTags());
+				boolean released = false;
+				long beginNanos = System.nanoTime();
+				try {
+					HandlerResult handlerResult = handler.invoke(new DefaultInvokeParams(topic, ext.getTags(), body), ctx);  
+					if(handlerResult != null) {
+						Promise<HandlerResult> primise = handlerResult.getPromise();
+						if(primise != null) {
+							//once listener，许可在 promise 结束时释放
+							released = true;
+							addListener(ext, topic, req, now, primise, handler, beginNanos);
+							return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+						}else {
+							resp = new InvokeResponse(req.getReqId(), req.getReqTime(), Const.CLIENT_TIME.getNow(), handlerResult.getBody());
+							resp.setTraceNos(req.getTraceNos());
+						}
+					}
+				}finally {
+					if(!released) {
+						complete(handler, beginNanos);
 					}
 				}
 			}catch (CoreException e) {
@@ -141,10 +297,11 @@ public class HandlerInvokeListener extends BaseHandlerListener implements Messag
 	}
 
 	private void addListener(final MessageExt ext, final String topic, final InvokeRequest req, final long now,
-			Promise<HandlerResult> primise) {
+			Promise<HandlerResult> primise, final BaseHandler handler, final long beginNanos) {
 		primise.addListener(new PromiseListener<HandlerResult>() {
 			@Override
 			public void onFailure(Throwable t) {
+				complete(handler, beginNanos);
 				CoreException tmp = null;
 				InvokeResponse resp = null;
 				if(t instanceof CoreException) {
@@ -166,6 +323,7 @@ public class HandlerInvokeListener extends BaseHandlerListener implements Messag
 			}
 			@Override
 			public void onSuccess(HandlerResult result) {
+				complete(handler, beginNanos);
 				CoreException tmp = null;
 				InvokeResponse resp = new InvokeResponse(req.getReqId(), req.getReqTime(), Const.CLIENT_TIME.getNow(), result.getBody());
 				resp.setTraceNos(req.getTraceNos());
@@ -180,9 +338,20 @@ public class HandlerInvokeListener extends BaseHandlerListener implements Messag
 		});
 	}
 
-	private ConsumeConcurrentlyStatus sendRespMsg(MessageExt ext, InvokeResponse resp, String topic, InvokeRequest req,
-			long now, CoreException tmp) {
-		long processEnd = Const.CLIENT_TIME.getNow();
+	/**
+	 * handler 执行结束，释放并发许可，记录服务时间
+	 */
+	private void complete(BaseHandler handler, long beginNanos) {
+		release(handler);
+		handler.getServiceTimeEstimator().update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos));
+	}
+	
+	/**
+	 * 响应异步发送，发送结果在回调中记录，不占用消费线程
+	 */
+	private ConsumeConcurrentlyStatus sendRespMsg(final MessageExt ext, InvokeResponse resp, final String topic, final InvokeRequest req,
+			final long now, CoreException tmp) {
+		final long processEnd = Const.CLIENT_TIME.getNow();
 		if(processEnd > req.getDeadline()) {
 			throw new DefaultCoreException(String.format("timeout, slow Invocation, %s-%s skip invoke process response, reqId : %s, reqTime : %s, deadline : %s, begin : %s, processEnd : %s"
 												, topic
@@ -193,7 +362,16 @@ public class HandlerInvokeListener extends BaseHandlerListener implements Messag
 												, TimeUtils.yyyyMMddHHmmssSSS(now)
 												, TimeUtils.yyyyMMddHHmmssSSS(processEnd))).setCode(DefaultCoreException.INVOKE_PROCESS_TIMEOUT);
 		}
-		if(req.isRespCompress() && resp.getRespBody() != null && resp.getRespBody().length > getClient().getProducer().getMaxMessageSize()) {
+		int respCompressor = req.getRespCompressor();
+		if(respCompressor != Compressors.LEGACY_ID
+		&& Compressors.contains(respCompressor)
+		&& resp.getRespBody() != null
+		&& resp.getRespBody().length >= getClient().getCompressBodyLength(topic)) {
+			// 调用方指定了压缩方式，不认识时退回老的方式
+			resp.setRespBody(Compressors.get(respCompressor).compress(resp.getRespBody()));
+			resp.setCompressRespBody(true);
+			resp.setRespCompressor(respCompressor);
+		}else if(req.isRespCompress() && resp.getRespBody() != null && resp.getRespBody().length > getClient().getProducer().getMaxMessageSize()) {
 			try {
 				int level = getClient().getProducer().getDefaultMQProducerImpl().getZipCompressLevel();
 				resp.setRespBody(UtilAll.compress(resp.getRespBody(), level));
@@ -203,47 +381,75 @@ public class HandlerInvokeListener extends BaseHandlerListener implements Messag
 				//ig no compress
 			}
 		}
-		Message respMsg = new Message(req.getRespTopic(), req.getRespTag(), JSON.toJSONBytes(resp));
+		Message respMsg = new Message(req.getRespTopic(), req.getRespTag(), null);
+		// 按调用方声明的版本响应，老版本调用方没有声明时为 json
+		Codecs.getOrJson(req.getRespCodecVersion()).encodeInvokeResponse(respMsg, resp);
 		respMsg.setKeys(Const.buildTraceInvokeReqId(req.getReqId()));
-		try {
-			SendResult ret = null;
-			if(req.getRespQueue() != null) {
-				ret = getClient().getProducer().send(respMsg, req.getRespQueue());
+		if(ext instanceof LocalInvokeMessageExt) {
+			((LocalInvokeMessageExt)ext).respond(respMsg);
+			if(tmp == null) {
+				return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
 			}else {
-				ret = getClient().getProducer().send(respMsg);
+				throw tmp;
 			}
-			if(ret.getSendStatus() == SendStatus.SEND_OK) {
-				log.trace("invoke {}-{}, reqId : {}, msgId : {}, rec msgId : {}, recId : {}, reqTime : {}, deadline : {}, begin : {}, processEnd : {}"
-						, topic
-						, ext.getTags()
-						, req.getReqId()
-						, ext.getMsgId()
-						, ret.getMsgId()
-						, ret.getOffsetMsgId()
-						, TimeUtils.yyyyMMddHHmmssSSS(req.getReqTime())
-						, TimeUtils.yyyyMMddHHmmssSSS(req.getDeadline())
-						, TimeUtils.yyyyMMddHHmmssSSS(now)
-						, TimeUtils.yyyyMMddHHmmssSSS(processEnd));
-				if(tmp == null) {
-					return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+		}
+		SendCallback callback = new SendCallback() {
+			@Override
+			public void onSuccess(SendResult ret) {
+				if(ret.getSendStatus() == SendStatus.SEND_OK) {
+					log.trace("invoke {}-{}, reqId : {}, msgId : {}, rec msgId : {}, recId : {}, reqTime : {}, deadline : {}, begin : {}, processEnd : {}"
+							, topic
+							, ext.getTags()
+							, req.getReqId()
+							, ext.getMsgId()
+							, ret.getMsgId()
+							, ret.getOffsetMsgId()
+							, TimeUtils.yyyyMMddHHmmssSSS(req.getReqTime())
+							, TimeUtils.yyyyMMddHHmmssSSS(req.getDeadline())
+							, TimeUtils.yyyyMMddHHmmssSSS(now)
+							, TimeUtils.yyyyMMddHHmmssSSS(processEnd));
 				}else {
-					throw tmp;
+					CoreException e = new DefaultCoreException(String.format("%s-%s rec invoke error : %s, reqId : %s"
+																				, topic
+																				, ext.getTags()
+																				, ret.getSendStatus().name()
+																				, req.getReqId())).setCode(DefaultCoreException.INVOKE_REC_ERROR);
+					log.error(e.getMessage(), e);
 				}
-			}else {
-				throw new DefaultCoreException(String.format("%s-%s rec invoke error : %s"
-															, topic
-															, ext.getTags()
-															, ret.getSendStatus().name())).setCode(DefaultCoreException.INVOKE_REC_ERROR);
 			}
-		}catch (CoreException e) {
-			throw e;
-		}catch (Throwable e) {
-			throw new DefaultCoreException(String.format("unknow exception, %s-%s invoke end, process send response, reqId : %s, msgid : %s"
-													, topic
-													, ext.getTags()
-													, req.getReqId()
-													, ext.getMsgId())
-										, e).setCode(CoreException.UNKNOW_EXCEPTION);
+			@Override
+			public void onException(Throwable e) {
+				log.error(String.format("unknow exception, %s-%s invoke end, process send response, reqId : %s, msgid : %s"
+									, topic
+									, ext.getTags()
+									, req.getReqId()
+									, ext.getMsgId())
+						, e);
+			}
+		};
+		RespBatchSender respBatchSender = this.respBatchSender;
+		if(respBatchSender != null) {
+			respBatchSender.send(respMsg, req.getRespQueue(), req.getReqId(), callback);
+		}else {
+			try {
+				if(req.getRespQueue() != null) {
+					getClient().getProducer().send(respMsg, req.getRespQueue(), callback);
+				}else {
+					getClient().getProducer().send(respMsg, callback);
+				}
+			}catch (Throwable e) {
+				throw new DefaultCoreException(String.format("unknow exception, %s-%s invoke end, process send response, reqId : %s, msgid : %s"
+														, topic
+														, ext.getTags()
+														, req.getReqId()
+														, ext.getMsgId())
+											, e).setCode(CoreException.UNKNOW_EXCEPTION);
+			}
+		}
+		if(tmp == null) {
+			return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+		}else {
+			throw tmp;
 		}
 	}
 
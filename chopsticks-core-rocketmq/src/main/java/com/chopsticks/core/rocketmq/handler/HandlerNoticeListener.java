@@ -1,7 +1,11 @@
 package com.chopsticks.core.rocketmq.handler;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
@@ -15,6 +19,9 @@ import org.slf4j.LoggerFactory;
 import com.alibaba.fastjson.JSON;
 import com.chopsticks.common.utils.TimeUtils;
 import com.chopsticks.core.exception.CoreException;
+import com.chopsticks.core.handler.BatchNoticeHandler;
+import com.chopsticks.core.handler.NoticeContext;
+import com.chopsticks.core.handler.NoticeParams;
 import com.chopsticks.core.rocketmq.Const;
 import com.chopsticks.core.rocketmq.DefaultClient;
 import com.chopsticks.core.rocketmq.caller.NoticeRequest;
@@ -22,28 +29,36 @@ import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
 import com.chopsticks.core.rocketmq.handler.impl.DefaultNoticeContext;
 import com.chopsticks.core.rocketmq.handler.impl.DefaultNoticeParams;
 import com.google.common.base.Strings;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 public class HandlerNoticeListener extends BaseHandlerListener implements MessageListenerConcurrently {
 	
 	private static final Logger log = LoggerFactory.getLogger(HandlerNoticeListener.class);
 	
-	private Multimap<String, String> topicTags;
-	
 	private DefaultMQPushConsumer noticeConsumer;
 
-	public HandlerNoticeListener(DefaultClient client, DefaultMQPushConsumer noticeConsumer, Multimap<String, String> topicTags, Map<String, BaseHandler> topicTagHandlers) {
-		super(topicTagHandlers, client);
+	public HandlerNoticeListener(DefaultClient client, DefaultMQPushConsumer noticeConsumer, HandlerRouter router) {
+		super(router, client);
 		this.noticeConsumer = noticeConsumer;
-		this.topicTags = topicTags;
 	}
 
 	@Override
 	public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
+		if(msgs.size() > 1 || getNoticeExecutor(msgs.get(0)) != null) {
+			return consumeMessages(msgs, context);
+		}
 		for(MessageExt ext : msgs) {
 			try {
 				return consumeMessage(ext, context);
 			}catch (Throwable e) {
+				if(isConcurrencyLimit(e)) {
+					log.warn(e.getMessage());
+					return sendBackLimited(noticeConsumer, ext) ? ConsumeConcurrentlyStatus.CONSUME_SUCCESS : ConsumeConcurrentlyStatus.RECONSUME_LATER;
+				}
 				log.error(e.getMessage(), e);
 				if(noticeConsumer.getMaxReconsumeTimes() <= ext.getReconsumeTimes()) {
 					return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
@@ -55,18 +70,250 @@ public class HandlerNoticeListener extends BaseHandlerListener implements Messag
 		return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
 	}
 	
-	public ConsumeConcurrentlyStatus consumeMessage(MessageExt ext, ConsumeConcurrentlyContext context) {
-		ext.setTags(Const.getOriginTag(getClient().getGroupName(), ext.getTags()));
-		String topic = ext.getProperty(MessageConst.PROPERTY_RETRY_TOPIC);
-		String msgId = ext.getProperty(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX);
-		if(Strings.isNullOrEmpty(topic)) {
-			topic = ext.getTopic();
+	/**
+	 * 存在 {@link BatchNoticeHandler} 或 {@link HandlerExecutor} 时消费者按批拉取
+	 * 支持批量的 handler 按各自的批量大小合并调用，其余逐条交给执行器(没有时在消费线程执行)
+	 * 消费线程等待本批全部完成后才确认，失败的消息单独发回 broker 重试
+	 * 发回失败时用 ackIndex 只确认之前的消息，之后的交给 rocketmq 发回(再失败时本地重新消费)
+	 * 因并发限制被拒绝的消息不算失败，见 {@link #sendBackLimited(DefaultMQPushConsumer, MessageExt)}
+	 */
+	private ConsumeConcurrentlyStatus consumeMessages(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
+		List<MessageExt> failures = Lists.newArrayList();
+		Set<MessageExt> limited = Sets.newIdentityHashSet();
+		List<NoticeTask> singles = Lists.newArrayList();
+		Map<BaseHandler, List<NoticeTask>> batches = Maps.newLinkedHashMap();
+		for(MessageExt ext : msgs) {
+			try {
+				NoticeTask task = buildNoticeTask(ext);
+				if(task == null) {
+					continue;
+				}
+				if(task.handler.getBatchNoticeHandler() == null) {
+					singles.add(task);
+				}else {
+					List<NoticeTask> tasks = batches.get(task.handler);
+					if(tasks == null) {
+						tasks = Lists.newArrayList();
+						batches.put(task.handler, tasks);
+					}
+					tasks.add(task);
+				}
+			}catch (Throwable e) {
+				log.error(e.getMessage(), e);
+				failures.add(ext);
+			}
+		}
+		failures.addAll(notice(singles, limited));
+		for(Entry<BaseHandler, List<NoticeTask>> entry : batches.entrySet()) {
+			BatchNoticeHandler batchHandler = entry.getKey().getBatchNoticeHandler();
+			for(List<NoticeTask> tasks : Lists.partition(entry.getValue(), Math.max(1, batchHandler.getNoticeBatchSize()))) {
+				try {
+					failures.addAll(batchNotice(batchHandler, tasks));
+				}catch (Throwable e) {
+					boolean concurrencyLimit = isConcurrencyLimit(e);
+					if(concurrencyLimit) {
+						log.warn(e.getMessage());
+					}else {
+						log.error(e.getMessage(), e);
+					}
+					for(NoticeTask task : tasks) {
+						failures.add(task.ext);
+						if(concurrencyLimit) {
+							limited.add(task.ext);
+						}
+					}
+				}
+			}
 		}
-		topic = topic.replace(Const.NOTICE_TOPIC_SUFFIX, "");
-		if(!topicTags.keySet().contains(topic)) {
-			log.warn("cancel consume topic : {}, tag : {}, msgId : {}", topic, ext.getTags(), msgId);
+		if(failures.isEmpty()) {
 			return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
 		}
+		Set<MessageExt> failed = Sets.newIdentityHashSet();
+		failed.addAll(failures);
+		for(int i = 0; i < msgs.size(); i++) {
+			MessageExt ext = msgs.get(i);
+			if(!failed.contains(ext)) {
+				continue;
+			}
+			if(limited.contains(ext)) {
+				if(sendBackLimited(noticeConsumer, ext)) {
+					continue;
+				}
+				context.setAckIndex(i - 1);
+				return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+			}
+			if(noticeConsumer.getMaxReconsumeTimes() <= ext.getReconsumeTimes()) {
+				continue;
+			}
+			try {
+				noticeConsumer.sendMessageBack(ext, context.getDelayLevelWhenNextConsume());
+			}catch (Throwable e) {
+				log.error(String.format("notice send back error, reconsume from index %s of %s, msgId : %s", i, msgs.size(), ext.getMsgId()), e);
+				context.setAckIndex(i - 1);
+				return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+			}
+		}
+		return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+	}
+	
+	/**
+	 * 有执行器的 task 提交到执行器，其余在消费线程执行，全部完成后返回
+	 * @param limited 因并发限制被拒绝的消息
+	 * @return 处理失败的消息
+	 */
+	private List<MessageExt> notice(List<NoticeTask> tasks, Set<MessageExt> limited) {
+		List<MessageExt> failures = Lists.newArrayList();
+		List<NoticeTask> inlines = Lists.newArrayList();
+		Map<NoticeTask, SettableFuture<Void>> futures = Maps.newLinkedHashMap();
+		for(final NoticeTask task : tasks) {
+			HandlerExecutor handlerExecutor = getHandlerExecutor(task.handler);
+			if(handlerExecutor == null) {
+				inlines.add(task);
+				continue;
+			}
+			final SettableFuture<Void> future = SettableFuture.create();
+			try {
+				handlerExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.notice();
+							future.set(null);
+						}catch (Throwable e) {
+							future.setException(e);
+						}
+					}
+				});
+				futures.put(task, future);
+			}catch (Throwable e) {
+				if(e instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				log.error(String.format("notice dispatch error, msgId : %s", task.msgId), e);
+				failures.add(task.ext);
+			}
+		}
+		for(NoticeTask task : inlines) {
+			try {
+				task.notice();
+			}catch (Throwable e) {
+				if(isConcurrencyLimit(e)) {
+					log.warn(e.getMessage());
+					limited.add(task.ext);
+				}else {
+					log.error(e.getMessage(), e);
+				}
+				failures.add(task.ext);
+			}
+		}
+		for(Entry<NoticeTask, SettableFuture<Void>> entry : futures.entrySet()) {
+			try {
+				// 已经开始执行的 handler 必须等到结束才能确认或发回
+				Uninterruptibles.getUninterruptibly(entry.getValue());
+			}catch (ExecutionException e) {
+				if(isConcurrencyLimit(e.getCause())) {
+					log.warn(e.getCause().getMessage());
+					limited.add(entry.getKey().ext);
+				}else {
+					log.error(e.getCause().getMessage(), e.getCause());
+				}
+				failures.add(entry.getKey().ext);
+			}
+		}
+		return failures;
+	}
+	
+	/**
+	 * @return 处理失败的消息
+	 * @throws DefaultCoreException 没有空闲的并发许可
+	 */
+	private List<MessageExt> batchNotice(BatchNoticeHandler batchHandler, List<NoticeTask> tasks) {
+		BaseHandler handler = tasks.get(0).handler;
+		acquire(handler, tasks.get(0).topic, tasks.get(0).ext.getTags());
+		try {
+			return doBatchNotice(batchHandler, tasks);
+		}finally {
+			release(handler);
+		}
+	}
+	
+	private List<MessageExt> doBatchNotice(BatchNoticeHandler batchHandler, List<NoticeTask> tasks) {
+		List<NoticeParams> params = Lists.newArrayListWithCapacity(tasks.size());
+		List<NoticeContext> ctxs = Lists.newArrayListWithCapacity(tasks.size());
+		for(NoticeTask task : tasks) {
+			params.add(task.params);
+			ctxs.add(task.ctx);
+		}
+		List<MessageExt> failures = Lists.newArrayList();
+		boolean[] rets;
+		try {
+			rets = batchHandler.notice(params, ctxs);
+		}catch (Throwable e) {
+			NoticeTask first = tasks.get(0);
+			log.error(String.format("%s-%s unknow handler batch notice execute exception, size : %s, first msgId : %s"
+								, first.topic
+								, first.ext.getTags()
+								, tasks.size()
+								, first.msgId)
+					, e);
+			for(NoticeTask task : tasks) {
+				failures.add(task.ext);
+			}
+			return failures;
+		}
+		if(rets == null) {
+			return failures;
+		}
+		if(rets.length != tasks.size()) {
+			NoticeTask first = tasks.get(0);
+			log.error("{}-{} handler batch notice return size mismatch, expect : {}, actual : {}, first msgId : {}"
+					, first.topic
+					, first.ext.getTags()
+					, tasks.size()
+					, rets.length
+					, first.msgId);
+			for(NoticeTask task : tasks) {
+				failures.add(task.ext);
+			}
+			return failures;
+		}
+		for(int i = 0; i < tasks.size(); i++) {
+			if(!rets[i]) {
+				failures.add(tasks.get(i).ext);
+			}
+		}
+		return failures;
+	}
+	
+	public ConsumeConcurrentlyStatus consumeMessage(MessageExt ext, ConsumeConcurrentlyContext context) {
+		NoticeTask task = buildNoticeTask(ext);
+		if(task != null) {
+			BatchNoticeHandler batchHandler = task.handler.getBatchNoticeHandler();
+			if(batchHandler == null) {
+				task.notice();
+			}else if(!batchNotice(batchHandler, Collections.singletonList(task)).isEmpty()) {
+				throw new DefaultCoreException(String.format("%s-%s handler batch notice fail, reconsumeTimes : %s, msgid : %s"
+										, task.topic
+										, ext.getTags()
+										, ext.getReconsumeTimes()
+										, task.msgId)).setCode(CoreException.UNKNOW_EXCEPTION);
+			}
+		}
+		return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+	}
+	
+	/**
+	 * @return 不需要处理时返回 null
+	 */
+	private NoticeTask buildNoticeTask(MessageExt ext) {
+		HandlerRouter.TopicRoute route = getNoticeRoute(ext);
+		String msgId = ext.getProperty(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX);
+		if(route == null) {
+			log.warn("cancel consume topic : {}, tag : {}, msgId : {}", ext.getTopic(), ext.getTags(), msgId);
+			return null;
+		}
+		ext.setTags(route.getOriginTag(ext.getTags()));
+		String topic = route.getTopic();
 		
 		String noticeReqStr = ext.getProperty(Const.NOTICE_REQUEST_KEY);
 		NoticeRequest req = null;
@@ -77,11 +324,11 @@ public class HandlerNoticeListener extends BaseHandlerListener implements Messag
 						, TimeUtils.yyyyMMddHHmmssSSS(req.getReqTime())
 						, TimeUtils.yyyyMMddHHmmssSSS(getBeginExecutableTime())
 						, msgId);
-				return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+				return null;
 			}
 		}
 		
-		BaseHandler handler = getHandler(topic, ext.getTags());
+		BaseHandler handler = route.getHandler(ext.getTags());
 		if(handler == null) {
 			throw new DefaultCoreException(String.format("%s-%s cannot find handler by notice, reconsumeTimes : %s, msgId: %s"
 					, topic
@@ -90,7 +337,7 @@ public class HandlerNoticeListener extends BaseHandlerListener implements Messag
 					, msgId)).setCode(DefaultCoreException.CANNOT_FIND_NOTICE_HANDLER);
 		}
 		try {
-			DefaultNoticeParams params = new DefaultNoticeParams(topic, ext.getTags(), ext.getBody());
+			DefaultNoticeParams params = new DefaultNoticeParams(topic, ext.getTags(), getNoticeBody(ext));
 			DefaultNoticeContext ctx = new DefaultNoticeContext(msgId
 															, ext.getMsgId()
 															, ext.getReconsumeTimes()
@@ -103,19 +350,66 @@ public class HandlerNoticeListener extends BaseHandlerListener implements Messag
 				ctx.setExtParams(req.getExtParams());
 				ctx.setTraceNos(req.getTraceNos());
 			}
-			handler.notice(params, ctx);
-			return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+			return new NoticeTask(ext, topic, msgId, handler, params, ctx);
 		}catch (DefaultCoreException e) {
 			throw e;
 		}catch (Throwable e) {
-			throw new DefaultCoreException(String.format("%s-%s unknow handler notice execute exception, reconsumeTimes : %s, msgid : %s"
+			throw new DefaultCoreException(String.format("%s-%s unknow handler notice build exception, reconsumeTimes : %s, msgid : %s"
 									, topic
 									, ext.getTags()
 									, ext.getReconsumeTimes()
 									, msgId)
 					, e).setCode(CoreException.UNKNOW_EXCEPTION);
 		}
+	}
+	
+	private HandlerExecutor getNoticeExecutor(MessageExt ext) {
+		HandlerRouter.TopicRoute route = getNoticeRoute(ext);
+		return getHandlerExecutor(route == null ? null : route.getHandler(route.getOriginTag(ext.getTags())));
+	}
 	
+	private HandlerRouter.TopicRoute getNoticeRoute(MessageExt ext) {
+		String topic = ext.getProperty(MessageConst.PROPERTY_RETRY_TOPIC);
+		if(Strings.isNullOrEmpty(topic)) {
+			topic = ext.getTopic();
+		}
+		return getRoute(topic);
+	}
+	
+	private class NoticeTask {
+		final MessageExt ext;
+		final String topic;
+		final String msgId;
+		final BaseHandler handler;
+		final DefaultNoticeParams params;
+		final DefaultNoticeContext ctx;
+		
+		NoticeTask(MessageExt ext, String topic, String msgId, BaseHandler handler, DefaultNoticeParams params, DefaultNoticeContext ctx) {
+			this.ext = ext;
+			this.topic = topic;
+			this.msgId = msgId;
+			this.handler = handler;
+			this.params = params;
+			this.ctx = ctx;
+		}
+		
+		void notice() {
+			acquire(handler, topic, ext.getTags());
+			try {
+				handler.notice(params, ctx);
+			}catch (DefaultCoreException e) {
+				throw e;
+			}catch (Throwable e) {
+				throw new DefaultCoreException(String.format("%s-%s unknow handler notice execute exception, reconsumeTimes : %s, msgid : %s"
+										, topic
+										, ext.getTags()
+										, ext.getReconsumeTimes()
+										, msgId)
+						, e).setCode(CoreException.UNKNOW_EXCEPTION);
+			}finally {
+				release(handler);
+			}
+		}
 	}
 
 }
@@ -1,7 +1,6 @@
 package com.chopsticks.core.rocketmq.handler;
 
 import java.util.List;
-import java.util.Map;
 
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
@@ -22,19 +21,16 @@ import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
 import com.chopsticks.core.rocketmq.handler.impl.DefaultNoticeContext;
 import com.chopsticks.core.rocketmq.handler.impl.DefaultNoticeParams;
 import com.google.common.base.Strings;
-import com.google.common.collect.Multimap;
 
 public class HandlerOrderedNoticeListener extends BaseHandlerListener implements MessageListenerOrderly {
 	
 	private static final Logger log = LoggerFactory.getLogger(HandlerOrderedNoticeListener.class);
 
-	private Multimap<String, String> topicTags;
 	private DefaultMQPushConsumer orderedNoticeConsumer;
 	
-	public HandlerOrderedNoticeListener(DefaultClient client, DefaultMQPushConsumer orderedNoticeConsumer, Multimap<String, String> topicTags, Map<String, BaseHandler> topicTagHandlers) {
-		super(topicTagHandlers, client);
+	public HandlerOrderedNoticeListener(DefaultClient client, DefaultMQPushConsumer orderedNoticeConsumer, HandlerRouter router) {
+		super(router, client);
 		this.orderedNoticeConsumer = orderedNoticeConsumer;
-		this.topicTags = topicTags;
 	}
 
 	@Override
@@ -49,6 +45,12 @@ public class HandlerOrderedNoticeListener extends BaseHandlerListener implements
 				}
 				return consumeMessage(ext, context);
 			}catch (Throwable e) {
+				if(isConcurrencyLimit(e)) {
+					log.warn(e.getMessage());
+					// handler 未执行，抵消 rocketmq 暂停时对 reconsumeTimes 的加 1，不占用重试次数，也不会因此跳过消息
+					ext.setReconsumeTimes(ext.getReconsumeTimes() - 1);
+					return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT;
+				}
 				log.error(e.getMessage(), e);
 				if(orderedNoticeConsumer.getMaxReconsumeTimes() <= ext.getReconsumeTimes()) {
 					return ConsumeOrderlyStatus.SUCCESS;
@@ -68,7 +70,10 @@ public class HandlerOrderedNoticeListener extends BaseHandlerListener implements
 		}else {
 			msgId = ext.getProperty(MessageConst.PROPERTY_ORIGIN_MESSAGE_ID);
 		}
-		topic = topic.replace(Const.ORDERED_NOTICE_TOPIC_SUFFIX, "");
+		HandlerRouter.TopicRoute route = getRoute(topic);
+		if(route != null) {
+			topic = route.getTopic();
+		}
 		String orderedNoticeReqStr = ext.getProperty(Const.ORDERED_NOTICE_REQUEST_KEY);
 		OrderedNoticeRequest req = null;
 		if(!Strings.isNullOrEmpty(orderedNoticeReqStr)) {
@@ -81,11 +86,11 @@ public class HandlerOrderedNoticeListener extends BaseHandlerListener implements
 				return ConsumeOrderlyStatus.SUCCESS;
 			}
 		}
-		if(!topicTags.keySet().contains(topic)) {
+		if(route == null) {
 			log.warn("cancel consume topic : {}, tag : {}, msgId : {}", topic, ext.getTags(), msgId);
 			return ConsumeOrderlyStatus.SUCCESS;
 		}
-		BaseHandler handler = getHandler(topic, ext.getTags());
+		BaseHandler handler = route.getHandler(ext.getTags());
 		if(handler == null) {
 			throw new DefaultCoreException(String.format("%s-%s cannot find handler by orderedNotice, reconsumeTimes : %s, msgId: %s"
 					, topic
@@ -94,7 +99,7 @@ public class HandlerOrderedNoticeListener extends BaseHandlerListener implements
 					, msgId)).setCode(DefaultCoreException.CANNOT_FIND_ORDERED_NOTICE_HANDLER);
 		}
 		try {
-			DefaultNoticeParams params = new DefaultNoticeParams(topic, ext.getTags(), ext.getBody());
+			DefaultNoticeParams params = new DefaultNoticeParams(topic, ext.getTags(), getNoticeBody(ext));
 			DefaultNoticeContext ctx = new DefaultNoticeContext(msgId
 															, ext.getMsgId()
 															, ext.getReconsumeTimes()
@@ -107,7 +112,12 @@ public class HandlerOrderedNoticeListener extends BaseHandlerListener implements
 				ctx.setExtParams(req.getExtParams());
 				ctx.setTraceNos(req.getTraceNos());
 			}
-			handler.notice(params, ctx);
+			acquire(handler, topic, ext.getTags());
+			try {
+				handler.notice(params, ctx);
+			}finally {
+				release(handler);
+			}
 			return ConsumeOrderlyStatus.SUCCESS;
 		}catch (DefaultCoreException e) {
 			throw e;
@@ -0,0 +1,97 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import java.util.Map;
+
+import com.chopsticks.core.rocketmq.Const;
+import com.google.common.collect.Maps;
+
+/**
+ * 消费时按 消息topic -> tag 两级查找 handler，在订阅前一次性构建，之后只读
+ * 各类消息 topic(带 invoke/notice 等后缀) 注册时即映射到同一个 {@link TopicRoute}，消费时不再截取后缀和拼接字符串
+ */
+public class HandlerRouter {
+
+	private static final String[] TOPIC_SUFFIXES = {"", Const.INVOKE_TOPIC_SUFFIX
+												 , Const.NOTICE_TOPIC_SUFFIX
+												 , Const.DELAY_NOTICE_TOPIC_SUFFIX
+												 , Const.ORDERED_NOTICE_TOPIC_SUFFIX};
+
+	private final String groupName;
+
+	private final Map</*消息topic*/String, TopicRoute> routes = Maps.newHashMap();
+
+	public HandlerRouter(String groupName) {
+		this.groupName = groupName;
+	}
+
+	/**
+	 * 只能在订阅前调用
+	 * @param topic 不带后缀的 topic
+	 */
+	public void register(String topic, String tag, BaseHandler handler) {
+		TopicRoute route = routes.get(topic);
+		if(route == null) {
+			route = new TopicRoute(topic);
+			for(String suffix : TOPIC_SUFFIXES) {
+				routes.put(topic + suffix, route);
+			}
+		}
+		route.tagHandlers.put(tag, handler);
+		if(Const.ALL_TAGS.equals(tag)) {
+			route.allTagsHandler = handler;
+		}
+		String originTag = Const.getOriginTag(groupName, tag);
+		route.originTags.put(tag, originTag);
+		if(!route.originTags.containsKey(originTag)) {
+			route.originTags.put(originTag, originTag);
+		}
+	}
+
+	/**
+	 * @param topic 消息topic，带不带后缀都可以
+	 * @return 没有订阅时返回 null
+	 */
+	public TopicRoute getRoute(String topic) {
+		return routes.get(topic);
+	}
+
+	public BaseHandler getHandler(String topic, String tag) {
+		TopicRoute route = routes.get(topic);
+		return route == null ? null : route.getHandler(tag);
+	}
+
+	public class TopicRoute {
+
+		private final String topic;
+
+		private final Map</*tag*/String, BaseHandler> tagHandlers = Maps.newHashMap();
+
+		private final Map</*tag*/String, /*originTag*/String> originTags = Maps.newHashMap();
+
+		private BaseHandler allTagsHandler;
+
+		TopicRoute(String topic) {
+			this.topic = topic;
+		}
+
+		/**
+		 * @return 不带后缀的 topic
+		 */
+		public String getTopic() {
+			return topic;
+		}
+
+		public BaseHandler getHandler(String tag) {
+			BaseHandler handler = tagHandlers.get(tag);
+			return handler == null ? allTagsHandler : handler;
+		}
+
+		/**
+		 * 去掉 tag 的消费组前缀，已注册的 tag 不产生新字符串
+		 */
+		public String getOriginTag(String tag) {
+			String originTag = originTags.get(tag);
+			return originTag == null ? Const.getOriginTag(groupName, tag) : originTag;
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package com.chopsticks.core.rocketmq.handler;
 
+import java.nio.ByteBuffer;
 import java.util.Set;
 
+import com.alibaba.fastjson.annotation.JSONField;
 import com.google.common.collect.Sets;
 
 public class InvokeResponse {
@@ -11,7 +13,9 @@ public class InvokeResponse {
 	private String respExceptionBody;
 	private int respExceptionCode;
 	private byte[] respBody;
+	private ByteBuffer respBodyBuffer;
 	private boolean compressRespBody;
+	private int respCompressor;
 	private long respTime;
 	private long reqTime;
 	
@@ -44,6 +48,20 @@ public class InvokeResponse {
 	public void setRespBody(byte[] respBody) {
 		this.respBody = respBody;
 	}
+	/**
+	 * 解码时在响应消息体上的视图，优先于 respBody
+	 */
+	@JSONField(serialize = false, deserialize = false)
+	public ByteBuffer getRespBodyBuffer() {
+		if(respBodyBuffer == null && respBody != null) {
+			return ByteBuffer.wrap(respBody);
+		}
+		return respBodyBuffer;
+	}
+	@JSONField(serialize = false, deserialize = false)
+	public void setRespBodyBuffer(ByteBuffer respBodyBuffer) {
+		this.respBodyBuffer = respBodyBuffer;
+	}
 	public String getRespExceptionBody() {
 		return respExceptionBody;
 	}
@@ -74,6 +92,12 @@ public class InvokeResponse {
 	public void setCompressRespBody(boolean compressRespBody) {
 		this.compressRespBody = compressRespBody;
 	}
+	public int getRespCompressor() {
+		return respCompressor;
+	}
+	public void setRespCompressor(int respCompressor) {
+		this.respCompressor = respCompressor;
+	}
 	public int getRespExceptionCode() {
 		return respExceptionCode;
 	}
@@ -0,0 +1,48 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import java.util.HashMap;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.apache.rocketmq.common.message.MessageExt;
+
+/**
+ * 本地短路的 invoke 请求，响应不经过 producer，直接交给 {@link ResponseHandler}
+ */
+public class LocalInvokeMessageExt extends MessageExt {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient ResponseHandler responseHandler;
+
+	public LocalInvokeMessageExt(Message msg, ResponseHandler responseHandler) {
+		copy(msg, this);
+		this.responseHandler = responseHandler;
+	}
+
+	void respond(Message respMsg) {
+		responseHandler.onResponse(respMsg);
+	}
+
+	/**
+	 * 将待发送的消息转换为消费端看到的消息
+	 */
+	public static MessageExt toMessageExt(Message msg) {
+		return copy(msg, new MessageExt());
+	}
+
+	private static MessageExt copy(Message msg, MessageExt ext) {
+		ext.setTopic(msg.getTopic());
+		ext.setBody(msg.getBody());
+		ext.setFlag(msg.getFlag());
+		MessageAccessor.setProperties(ext, new HashMap<String, String>(msg.getProperties()));
+		ext.setMsgId(MessageClientIDSetter.createUniqID());
+		ext.setBornTimestamp(System.currentTimeMillis());
+		return ext;
+	}
+
+	public interface ResponseHandler {
+		void onResponse(Message respMsg);
+	}
+}
@@ -0,0 +1,287 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageBatch;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chopsticks.core.rocketmq.Const;
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * invoke 响应批量发送，按 响应topic + 响应队列 合并
+ * 数量达到上限立即发送，否则最多等待 maxDelayMillis，只有一条时退化为异步单条发送
+ * 批量也是异步发送，flusher 不会被某个 broker 阻塞，失败时记录整批的 reqId
+ */
+public class RespBatchSender {
+
+	private static final Logger log = LoggerFactory.getLogger(RespBatchSender.class);
+
+	private static final int DEFAULT_MAX_BATCH_COUNT = 64;
+
+	private static final long MAX_BATCH_SIZE = 1000 * 1000;
+
+	private final DefaultMQProducer producer;
+
+	private final long maxDelayNanos;
+
+	private final int maxBatchCount;
+
+	private final ConcurrentMap<RespKey, RespQueue> queues = Maps.newConcurrentMap();
+
+	private final Thread flusher;
+
+	private volatile boolean running = true;
+
+	public RespBatchSender(String name, DefaultMQProducer producer, long maxDelayMillis) {
+		this(name, producer, maxDelayMillis, DEFAULT_MAX_BATCH_COUNT);
+	}
+
+	public RespBatchSender(String name, DefaultMQProducer producer, long maxDelayMillis, int maxBatchCount) {
+		this.producer = producer;
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.maxBatchCount = maxBatchCount;
+		this.flusher = new ThreadFactoryBuilder().setNameFormat(name + "-respBatch-%d")
+												 .setDaemon(true)
+												 .build()
+												 .newThread(new Runnable() {
+													 @Override
+													 public void run() {
+														 flushLoop();
+													 }
+												 });
+		this.flusher.start();
+	}
+
+	/**
+	 * @param queue 为 null 时由 producer 选择队列
+	 * @param reqId 发送失败时记录
+	 */
+	public void send(Message msg, MessageQueue queue, String reqId, SendCallback callback) {
+		if(!running) {
+			sendSingle(new RespMessage(msg, reqId, callback), queue);
+			return;
+		}
+		RespKey key = new RespKey(msg.getTopic(), queue);
+		RespQueue respQueue = queues.get(key);
+		if(respQueue == null) {
+			respQueue = new RespQueue();
+			RespQueue old = queues.putIfAbsent(key, respQueue);
+			if(old != null) {
+				respQueue = old;
+			}
+		}
+		// 先计数后入队，flusher 按计数取出时不会超取
+		int count = respQueue.count.incrementAndGet();
+		respQueue.msgs.add(new RespMessage(msg, reqId, callback));
+		if(count >= maxBatchCount) {
+			LockSupport.unpark(flusher);
+		}
+	}
+
+	/**
+	 * 等待 flusher 发出剩余的响应后返回，需在 producer 关闭前调用
+	 */
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(flusher);
+		Uninterruptibles.joinUninterruptibly(flusher);
+	}
+
+	private void flushLoop() {
+		while(running) {
+			LockSupport.parkNanos(this, maxDelayNanos);
+			try {
+				flushAll();
+			}catch (Throwable e) {
+				log.error(e.getMessage(), e);
+			}
+		}
+		flushAll();
+	}
+
+	private void flushAll() {
+		for(Entry<RespKey, RespQueue> entry : queues.entrySet()) {
+			RespQueue respQueue = entry.getValue();
+			while(respQueue.count.get() > 0) {
+				List<RespMessage> batch = respQueue.drain(maxBatchCount);
+				if(batch.isEmpty()) {
+					break;
+				}
+				send(batch, entry.getKey().queue);
+			}
+		}
+	}
+
+	private void send(final List<RespMessage> batch, final MessageQueue queue) {
+		if(batch.size() == 1) {
+			sendSingle(batch.get(0), queue);
+			return;
+		}
+		List<Message> msgs = Lists.newArrayListWithCapacity(batch.size());
+		for(RespMessage respMsg : batch) {
+			msgs.add(respMsg.msg);
+		}
+		final String topic = msgs.get(0).getTopic();
+		SendCallback callback = new SendCallback() {
+			@Override
+			public void onSuccess(SendResult ret) {
+				if(ret.getSendStatus() == SendStatus.SEND_OK) {
+					log.trace("resp batch {} num : {}", topic, batch.size());
+				}else {
+					log.error("resp batch {} send status : {}, queue : {}, reqIds : {}", topic, ret.getSendStatus(), queue, reqIds(batch));
+				}
+				for(RespMessage respMsg : batch) {
+					RespBatchSender.onSuccess(respMsg.callback, ret);
+				}
+			}
+			@Override
+			public void onException(Throwable e) {
+				log.error(String.format("resp batch %s send error, queue : %s, reqIds : %s", topic, queue, reqIds(batch)), e);
+				for(RespMessage respMsg : batch) {
+					RespBatchSender.onException(respMsg.callback, e);
+				}
+			}
+		};
+		try {
+			MessageBatch msgBatch = Const.buildMessageBatch(producer, msgs);
+			if(queue == null) {
+				producer.send(msgBatch, callback);
+			}else {
+				producer.send(msgBatch, queue, callback);
+			}
+		}catch (Throwable e) {
+			callback.onException(e);
+		}
+	}
+	
+	private static List<String> reqIds(List<RespMessage> batch) {
+		List<String> reqIds = Lists.newArrayListWithCapacity(batch.size());
+		for(RespMessage respMsg : batch) {
+			reqIds.add(respMsg.reqId);
+		}
+		return reqIds;
+	}
+
+	private void sendSingle(RespMessage respMsg, MessageQueue queue) {
+		try {
+			if(queue == null) {
+				producer.send(respMsg.msg, respMsg.callback);
+			}else {
+				producer.send(respMsg.msg, queue, respMsg.callback);
+			}
+		}catch (Throwable e) {
+			onException(respMsg.callback, e);
+		}
+	}
+
+	private static void onSuccess(SendCallback callback, SendResult ret) {
+		try {
+			if(ret.getSendStatus() == SendStatus.SEND_OK) {
+				callback.onSuccess(ret);
+			}else {
+				callback.onException(new DefaultCoreException(ret.getSendStatus().name()));
+			}
+		}catch (Throwable e) {
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	private static void onException(SendCallback callback, Throwable t) {
+		try {
+			callback.onException(t);
+		}catch (Throwable e) {
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	private static long size(Message msg) {
+		long size = msg.getTopic().length() + msg.getBody().length + 20;
+		for(Entry<String, String> entry : msg.getProperties().entrySet()) {
+			size += entry.getKey().length() + entry.getValue().length();
+		}
+		return size;
+	}
+
+	private static class RespQueue {
+
+		final Queue<RespMessage> msgs = new ConcurrentLinkedQueue<RespMessage>();
+
+		final AtomicInteger count = new AtomicInteger();
+
+		/**
+		 * 只在 flusher 线程调用
+		 */
+		List<RespMessage> drain(int maxCount) {
+			List<RespMessage> batch = Lists.newArrayList();
+			long batchSize = 0L;
+			RespMessage respMsg;
+			while(batch.size() < maxCount && (respMsg = msgs.peek()) != null) {
+				if(!batch.isEmpty() && batchSize + respMsg.size >= MAX_BATCH_SIZE) {
+					break;
+				}
+				msgs.poll();
+				batch.add(respMsg);
+				batchSize += respMsg.size;
+			}
+			count.addAndGet(-batch.size());
+			return batch;
+		}
+	}
+
+	private static class RespMessage {
+		final Message msg;
+		final String reqId;
+		final SendCallback callback;
+		final long size;
+
+		RespMessage(Message msg, String reqId, SendCallback callback) {
+			this.msg = msg;
+			this.reqId = reqId;
+			this.callback = callback;
+			this.size = size(msg);
+		}
+	}
+
+	private static class RespKey {
+		final String topic;
+		final MessageQueue queue;
+
+		RespKey(String topic, MessageQueue queue) {
+			this.topic = topic;
+			this.queue = queue;
+		}
+
+		@Override
+		public int hashCode() {
+			return topic.hashCode() * 31 + (queue == null ? 0 : queue.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof RespKey)) {
+				return false;
+			}
+			RespKey other = (RespKey)obj;
+			return topic.equals(other.topic) && (queue == null ? other.queue == null : queue.equals(other.queue));
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * handler 服务时间的指数加权移动平均(EWMA)
+ * 不加锁，并发更新时允许丢失少量样本
+ * 估计值只由执行完成的请求更新，所以丢弃时每个探测间隔仍放行一个请求，handler 恢复后估计值随之下降
+ */
+public class ServiceTimeEstimator {
+	
+	private static final double DEFAULT_ALPHA = 0.2D;
+	
+	private static final long DEFAULT_PROBE_INTERVAL_MILLIS = 1000L;
+	
+	private final double alpha;
+	
+	private final long probeIntervalMillis;
+	
+	private final AtomicLong lastProbeMillis = new AtomicLong(Long.MIN_VALUE / 2);
+	
+	/**
+	 * 小于0表示还没有样本
+	 */
+	private volatile double estimateMillis = -1D;
+	
+	public ServiceTimeEstimator() {
+		this(DEFAULT_ALPHA);
+	}
+	
+	/**
+	 * @param alpha 新样本的权重
+	 */
+	public ServiceTimeEstimator(double alpha) {
+		this(alpha, DEFAULT_PROBE_INTERVAL_MILLIS);
+	}
+	
+	/**
+	 * @param alpha 新样本的权重
+	 * @param probeIntervalMillis 丢弃期间放行探测请求的间隔
+	 */
+	public ServiceTimeEstimator(double alpha, long probeIntervalMillis) {
+		this.alpha = alpha;
+		this.probeIntervalMillis = probeIntervalMillis;
+	}
+	
+	public void update(long elapsedMillis) {
+		double estimate = estimateMillis;
+		estimateMillis = estimate < 0 ? elapsedMillis : estimate + alpha * (elapsedMillis - estimate);
+	}
+	
+	/**
+	 * @return 没有样本时返回0
+	 */
+	public long getEstimateMillis() {
+		double estimate = estimateMillis;
+		return estimate < 0 ? 0L : (long)estimate;
+	}
+	
+	/**
+	 * @param remainingMillis 距截止时间的剩余时间
+	 * @param now 当前时间
+	 * @return 剩余时间不足估计值且不是探测请求时返回 true
+	 */
+	public boolean shed(long remainingMillis, long now) {
+		if(remainingMillis >= getEstimateMillis()) {
+			return false;
+		}
+		long last = lastProbeMillis.get();
+		return now - last < probeIntervalMillis || !lastProbeMillis.compareAndSet(last, now);
+	}
+}
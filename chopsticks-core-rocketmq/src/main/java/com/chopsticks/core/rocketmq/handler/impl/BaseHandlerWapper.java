@@ -1,5 +1,8 @@
 package com.chopsticks.core.rocketmq.handler.impl;
 
+import java.util.concurrent.Semaphore;
+
+import com.chopsticks.core.handler.BatchNoticeHandler;
 import com.chopsticks.core.handler.Handler;
 import com.chopsticks.core.handler.HandlerResult;
 import com.chopsticks.core.handler.InvokeContext;
@@ -7,6 +10,8 @@ import com.chopsticks.core.handler.InvokeParams;
 import com.chopsticks.core.handler.NoticeContext;
 import com.chopsticks.core.handler.NoticeParams;
 import com.chopsticks.core.rocketmq.handler.BaseHandler;
+import com.chopsticks.core.rocketmq.handler.HandlerExecutor;
+import com.chopsticks.core.rocketmq.handler.ServiceTimeEstimator;
 
 public class BaseHandlerWapper extends BaseHandler {
 	
@@ -47,4 +52,45 @@ public class BaseHandlerWapper extends BaseHandler {
 		return handler.isSupportOrderedNotice();
 	}
 
+	@Override
+	public int getMaxConcurrency() {
+		if(handler instanceof BaseHandler) {
+			return ((BaseHandler)handler).getMaxConcurrency();
+		}
+		return super.getMaxConcurrency();
+	}
+
+	@Override
+	public Semaphore getConcurrencyLimiter() {
+		// 与被包装的 handler 共用许可
+		if(handler instanceof BaseHandler) {
+			return ((BaseHandler)handler).getConcurrencyLimiter();
+		}
+		return super.getConcurrencyLimiter();
+	}
+
+	@Override
+	public HandlerExecutor getHandlerExecutor() {
+		if(handler instanceof BaseHandler) {
+			return ((BaseHandler)handler).getHandlerExecutor();
+		}
+		return super.getHandlerExecutor();
+	}
+
+	@Override
+	public ServiceTimeEstimator getServiceTimeEstimator() {
+		if(handler instanceof BaseHandler) {
+			return ((BaseHandler)handler).getServiceTimeEstimator();
+		}
+		return super.getServiceTimeEstimator();
+	}
+
+	@Override
+	public BatchNoticeHandler getBatchNoticeHandler() {
+		if(handler instanceof BaseHandler) {
+			return ((BaseHandler)handler).getBatchNoticeHandler();
+		}
+		return handler instanceof BatchNoticeHandler ? (BatchNoticeHandler)handler : null;
+	}
+
 }
@@ -0,0 +1,101 @@
+package com.chopsticks.core.rocketmq.caller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class RespQueueViewTest {
+	
+	private static final String RESP_TOPIC = "resp_topic";
+	
+	private DefaultMQPushConsumer consumer;
+	
+	private RespQueueView view;
+	
+	private ConcurrentMap<MessageQueue, ProcessQueue> processQueueTable;
+	
+	@Before
+	public void setUp() {
+		consumer = new DefaultMQPushConsumer("resp_queue_view_test");
+		view = new RespQueueView(RESP_TOPIC, consumer);
+		processQueueTable = consumer.getDefaultMQPushConsumerImpl().getRebalanceImpl().getProcessQueueTable();
+	}
+	
+	@Test
+	public void testNewQueueJoinsAfterProcessing() {
+		List<MessageQueue> mqAll = queues(RESP_TOPIC, 2);
+		assertEquals(2, view.allocate("group", "cid", mqAll, Collections.singletonList("cid")).size());
+		assertTrue(view.getQueues().isEmpty());
+		
+		processQueueTable.put(mqAll.get(0), new ProcessQueue());
+		// 调用路径只读快照，不会自行刷新
+		assertTrue(view.getQueues().isEmpty());
+		view.allocate("group", "cid", mqAll, Collections.singletonList("cid"));
+		assertEquals(Collections.singletonList(mqAll.get(0)), view.getQueues());
+		
+		processQueueTable.put(mqAll.get(1), new ProcessQueue());
+		view.refresh();
+		assertEquals(2, view.getQueues().size());
+	}
+	
+	@Test
+	public void testRemovedQueueLeavesImmediately() {
+		List<MessageQueue> mqAll = queues(RESP_TOPIC, 2);
+		for(MessageQueue mq : mqAll) {
+			processQueueTable.put(mq, new ProcessQueue());
+		}
+		view.allocate("group", "cid1", mqAll, Lists.newArrayList("cid1"));
+		assertEquals(2, view.getQueues().size());
+		
+		view.allocate("group", "cid1", mqAll, Lists.newArrayList("cid1", "cid2"));
+		assertEquals(Collections.singletonList(mqAll.get(0)), view.getQueues());
+	}
+	
+	@Test
+	public void testEmptyAllocationClears() {
+		List<MessageQueue> mqAll = queues(RESP_TOPIC, 1);
+		processQueueTable.put(mqAll.get(0), new ProcessQueue());
+		view.allocate("group", "cid", mqAll, Collections.singletonList("cid"));
+		assertEquals(1, view.getQueues().size());
+		
+		try {
+			view.allocate("group", "cid", Collections.<MessageQueue>emptyList(), Collections.singletonList("cid"));
+		}catch (IllegalArgumentException e) {
+			// 默认策略拒绝空队列，rebalance 会记录日志
+		}
+		assertTrue(view.getQueues().isEmpty());
+		view.refresh();
+		assertTrue(view.getQueues().isEmpty());
+	}
+	
+	@Test
+	public void testOtherTopicIgnored() {
+		List<MessageQueue> mqAll = queues(RESP_TOPIC, 1);
+		processQueueTable.put(mqAll.get(0), new ProcessQueue());
+		view.allocate("group", "cid", mqAll, Collections.singletonList("cid"));
+		
+		List<MessageQueue> retry = queues("%RETRY%group", 1);
+		processQueueTable.put(retry.get(0), new ProcessQueue());
+		view.allocate("group", "cid", retry, Collections.singletonList("cid"));
+		assertEquals(mqAll, view.getQueues());
+	}
+	
+	private static List<MessageQueue> queues(String topic, int count) {
+		List<MessageQueue> queues = Lists.newArrayList();
+		for(int i = 0; i < count; i++) {
+			queues.add(new MessageQueue(topic, "broker", i));
+		}
+		return queues;
+	}
+}
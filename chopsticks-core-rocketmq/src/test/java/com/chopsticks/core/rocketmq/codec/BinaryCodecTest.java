@@ -0,0 +1,127 @@
+package com.chopsticks.core.rocketmq.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Test;
+
+import com.chopsticks.core.rocketmq.caller.InvokeRequest;
+import com.chopsticks.core.rocketmq.caller.impl.DefaultInvokeResult;
+import com.chopsticks.core.rocketmq.compress.Compressors;
+import com.chopsticks.core.rocketmq.compress.Lz4Compressor;
+import com.chopsticks.core.rocketmq.handler.InvokeResponse;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class BinaryCodecTest {
+	
+	private final Codec codec = Codecs.BINARY;
+	
+	@Test
+	public void testInvokeRequest() {
+		InvokeRequest req = new InvokeRequest();
+		req.setReqId("0123456789abcdef0123456789abcdef");
+		req.setReqTime(1L);
+		req.setDeadline(2L);
+		req.setCompress(true);
+		req.setCompressor(Lz4Compressor.ID);
+		req.setRespCompress(true);
+		req.setRespCompressor(Compressors.LEGACY_ID);
+		req.setRespTopic("respTopic");
+		req.setRespTag("respTag");
+		req.setRespQueue(new MessageQueue("respTopic", "broker-a", 3));
+		req.setRespCodecVersion(BinaryCodec.VERSION);
+		req.setExtParams(ImmutableMap.of("k", "v", "中文", "值"));
+		req.setTraceNos(ImmutableSet.of("trace"));
+		Message msg = new Message("topic", "tag", null);
+		byte[] body = "body".getBytes(Charsets.UTF_8);
+		codec.encodeInvokeRequest(msg, req, body);
+		assertSame(codec, Codecs.of(msg));
+		
+		InvokeRequest decoded = codec.decodeInvokeRequest(msg);
+		assertEquals(req.getReqId(), decoded.getReqId());
+		assertEquals(1L, decoded.getReqTime());
+		assertEquals(2L, decoded.getDeadline());
+		assertTrue(decoded.isCompress());
+		assertEquals(Lz4Compressor.ID, decoded.getCompressor());
+		assertTrue(decoded.isRespCompress());
+		assertEquals(Compressors.LEGACY_ID, decoded.getRespCompressor());
+		assertEquals("respTopic", decoded.getRespTopic());
+		assertEquals("respTag", decoded.getRespTag());
+		assertEquals(req.getRespQueue(), decoded.getRespQueue());
+		assertEquals(BinaryCodec.VERSION, decoded.getRespCodecVersion());
+		assertEquals(req.getExtParams(), decoded.getExtParams());
+		assertEquals(req.getTraceNos(), decoded.getTraceNos());
+		assertArrayEquals(body, codec.decodeInvokeRequestBody(msg));
+	}
+	
+	@Test
+	public void testInvokeRequestWithoutBody() {
+		InvokeRequest req = new InvokeRequest();
+		req.setExtParams(null);
+		Message msg = new Message("topic", "tag", null);
+		codec.encodeInvokeRequest(msg, req, null);
+		InvokeRequest decoded = codec.decodeInvokeRequest(msg);
+		assertNull(decoded.getReqId());
+		assertNull(decoded.getRespQueue());
+		assertFalse(decoded.isCompress());
+		assertTrue(decoded.getExtParams().isEmpty());
+		assertEquals(0, codec.decodeInvokeRequestBody(msg).length);
+	}
+	
+	@Test
+	public void testInvokeResponseCompressed() {
+		byte[] body = "{\"name\":\"user\",\"name2\":\"user\",\"name3\":\"user\"}".getBytes(Charsets.UTF_8);
+		for(int compressorId : new int[] {Compressors.LEGACY_ID, Lz4Compressor.ID}) {
+			InvokeResponse resp = new InvokeResponse("reqId", 1L, 2L, Compressors.get(compressorId).compress(body));
+			resp.setCompressRespBody(true);
+			resp.setRespCompressor(compressorId);
+			resp.setTraceNos(ImmutableSet.of("trace"));
+			Message msg = new Message("topic", "tag", null);
+			codec.encodeInvokeResponse(msg, resp);
+			
+			InvokeResponse decoded = codec.decodeInvokeResponse(msg);
+			assertEquals("reqId", decoded.getReqId());
+			assertEquals(1L, decoded.getReqTime());
+			assertEquals(2L, decoded.getRespTime());
+			assertTrue(decoded.isCompressRespBody());
+			assertEquals(compressorId, decoded.getRespCompressor());
+			assertEquals(resp.getTraceNos(), decoded.getTraceNos());
+			DefaultInvokeResult result = new DefaultInvokeResult(decoded.getRespBodyBuffer(), Compressors.get(decoded.getRespCompressor()));
+			assertArrayEquals(body, result.getBody());
+			ByteBuffer buf = result.getBodyBuffer();
+			assertTrue(buf.isReadOnly());
+			assertEquals(body.length, buf.remaining());
+		}
+	}
+	
+	@Test
+	public void testInvokeResponseUncompressedAndException() {
+		byte[] body = "body".getBytes(Charsets.UTF_8);
+		Message msg = new Message("topic", "tag", null);
+		codec.encodeInvokeResponse(msg, new InvokeResponse("reqId", 1L, 2L, body));
+		InvokeResponse decoded = codec.decodeInvokeResponse(msg);
+		assertFalse(decoded.isCompressRespBody());
+		// 响应体是消息体上的视图
+		ByteBuffer buf = decoded.getRespBodyBuffer();
+		assertSame(msg.getBody(), buf.array());
+		assertArrayEquals(body, new DefaultInvokeResult(buf, null).getBody());
+		
+		InvokeResponse error = new InvokeResponse("reqId", 1L, 2L, "error");
+		error.setRespExceptionCode(10018);
+		codec.encodeInvokeResponse(msg, error);
+		decoded = codec.decodeInvokeResponse(msg);
+		assertEquals("error", decoded.getRespExceptionBody());
+		assertEquals(10018, decoded.getRespExceptionCode());
+		assertNull(decoded.getRespBodyBuffer());
+	}
+}
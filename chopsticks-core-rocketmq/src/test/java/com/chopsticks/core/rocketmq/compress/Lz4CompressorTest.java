@@ -0,0 +1,157 @@
+package com.chopsticks.core.rocketmq.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+import com.google.common.base.Charsets;
+
+public class Lz4CompressorTest {
+	
+	private final Lz4Compressor compressor = new Lz4Compressor();
+	
+	@Test
+	public void testEmpty() {
+		assertRoundTrip(compressor, new byte[0]);
+	}
+	
+	@Test
+	public void testShorterThanMinMatch() {
+		for(int length = 1; length < 20; length++) {
+			byte[] src = new byte[length];
+			Arrays.fill(src, (byte)'a');
+			assertRoundTrip(compressor, src);
+		}
+	}
+	
+	@Test
+	public void testIncompressible() {
+		byte[] src = random(100 * 1024, 1L);
+		byte[] compressed = assertRoundTrip(compressor, src);
+		// 最坏情况只增加长度头和少量 token
+		assertTrue(compressed.length <= 4 + src.length + src.length / 255 + 16);
+	}
+	
+	@Test
+	public void testRepetitive() {
+		byte[] src = json(2000);
+		byte[] compressed = assertRoundTrip(compressor, src);
+		assertTrue(compressed.length < src.length / 4);
+	}
+	
+	@Test
+	public void testLargerThanWindow() {
+		// 重复片段间隔超过 64K，只能匹配窗口内的数据
+		byte[] block = random(70 * 1024, 2L);
+		byte[] src = new byte[block.length * 3 + 100];
+		for(int i = 0; i < 3; i++) {
+			System.arraycopy(block, 0, src, i * block.length, block.length);
+		}
+		assertRoundTrip(compressor, src);
+		assertRoundTrip(compressor, json(20000));
+	}
+	
+	@Test
+	public void testLongLiteralsAndMatches() {
+		byte[] src = new byte[300 * 1024];
+		System.arraycopy(random(1000, 3L), 0, src, 0, 1000);
+		assertRoundTrip(compressor, src);
+	}
+	
+	@Test
+	public void testOffset() {
+		byte[] src = json(100);
+		byte[] compressed = compressor.compress(src);
+		byte[] padded = new byte[compressed.length + 10];
+		System.arraycopy(compressed, 0, padded, 7, compressed.length);
+		assertArrayEquals(src, compressor.uncompress(padded, 7, compressed.length));
+	}
+	
+	@Test
+	public void testDictionary() {
+		DictionaryTrainer trainer = new DictionaryTrainer(4 * 1024, 100);
+		for(int i = 0; i < 100; i++) {
+			trainer.addSample(json(i, 3));
+		}
+		byte[] dictionary = trainer.train();
+		assertTrue(dictionary.length > 0);
+		assertTrue(dictionary.length <= 4 * 1024);
+		Lz4Compressor dictCompressor = new Lz4Compressor(100, dictionary);
+		byte[] src = json(1000, 3);
+		byte[] withDict = assertRoundTrip(dictCompressor, src);
+		byte[] withoutDict = assertRoundTrip(compressor, src);
+		assertTrue(withDict.length < withoutDict.length);
+		assertRoundTrip(dictCompressor, new byte[0]);
+		assertRoundTrip(dictCompressor, random(10 * 1024, 4L));
+		assertRoundTrip(dictCompressor, json(20000));
+	}
+	
+	@Test
+	public void testDictionaryLongerThanWindow() {
+		byte[] dictionary = random(100 * 1024, 5L);
+		Lz4Compressor dictCompressor = new Lz4Compressor(101, dictionary);
+		byte[] src = Arrays.copyOfRange(dictionary, dictionary.length - 1024, dictionary.length);
+		byte[] compressed = assertRoundTrip(dictCompressor, src);
+		assertTrue(compressed.length < 64);
+	}
+	
+	@Test
+	public void testTrainerIgnoresShortSamples() {
+		DictionaryTrainer trainer = new DictionaryTrainer(1024, 2);
+		assertTrue(!trainer.addSample(null));
+		assertTrue(!trainer.addSample(new byte[7]));
+		assertTrue(trainer.addSample(json(1)));
+		assertTrue(trainer.addSample(json(2)));
+		assertTrue(!trainer.addSample(json(3)));
+		assertTrue(trainer.train().length <= 1024);
+		assertEquals(0, new DictionaryTrainer().train().length);
+	}
+	
+	@Test
+	public void testCorrupted() {
+		byte[] compressed = compressor.compress(json(100));
+		try {
+			compressor.uncompress(compressed, 0, compressed.length - 3);
+			fail();
+		}catch (DefaultCoreException e) {
+			assertEquals(DefaultCoreException.MESSAGE_BODY_ERROR, e.getCode());
+		}
+	}
+	
+	static byte[] assertRoundTrip(Compressor compressor, byte[] src) {
+		byte[] compressed = compressor.compress(src);
+		assertArrayEquals(src, compressor.uncompress(compressed, 0, compressed.length));
+		return compressed;
+	}
+	
+	static byte[] random(int length, long seed) {
+		byte[] src = new byte[length];
+		new Random(seed).nextBytes(src);
+		return src;
+	}
+	
+	static byte[] json(int count) {
+		return json(count, 0);
+	}
+	
+	static byte[] json(int count, int seed) {
+		StringBuilder builder = new StringBuilder("[");
+		for(int i = 0; i < count; i++) {
+			if(i > 0) {
+				builder.append(',');
+			}
+			builder.append("{\"id\":").append(i * 31 + seed)
+					.append(",\"name\":\"user").append(i % 17 + seed)
+					.append("\",\"status\":\"ACTIVE\",\"createTime\":").append(1500000000000L + i * 1000L)
+					.append('}');
+		}
+		return builder.append(']').toString().getBytes(Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,58 @@
+package com.chopsticks.core.rocketmq.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import org.apache.rocketmq.common.UtilAll;
+import org.junit.Test;
+
+import com.chopsticks.core.rocketmq.exception.DefaultCoreException;
+
+public class ZlibCompressorTest {
+	
+	private final ZlibCompressor compressor = new ZlibCompressor(5);
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		Lz4CompressorTest.assertRoundTrip(compressor, new byte[0]);
+		Lz4CompressorTest.assertRoundTrip(compressor, Lz4CompressorTest.random(100 * 1024, 1L));
+		byte[] src = Lz4CompressorTest.json(20000);
+		byte[] compressed = Lz4CompressorTest.assertRoundTrip(compressor, src);
+		// 与 rocketmq 自带压缩互通
+		assertArrayEquals(src, UtilAll.uncompress(compressed));
+		byte[] legacy = UtilAll.compress(src, 5);
+		assertArrayEquals(src, compressor.uncompress(legacy, 0, legacy.length));
+	}
+	
+	@Test
+	public void testPresetDictionary() {
+		byte[] src = Lz4CompressorTest.json(100);
+		Deflater deflater = new Deflater();
+		deflater.setDictionary(Lz4CompressorTest.json(10));
+		deflater.setInput(src);
+		deflater.finish();
+		byte[] out = new byte[src.length];
+		int length = deflater.deflate(out);
+		deflater.end();
+		assertUncompressError(out, length);
+	}
+	
+	@Test
+	public void testTruncated() {
+		byte[] compressed = compressor.compress(Lz4CompressorTest.json(1000));
+		assertUncompressError(Arrays.copyOf(compressed, compressed.length / 2), compressed.length / 2);
+	}
+	
+	private void assertUncompressError(byte[] src, int length) {
+		try {
+			compressor.uncompress(src, 0, length);
+			fail();
+		}catch (DefaultCoreException e) {
+			assertEquals(DefaultCoreException.MESSAGE_BODY_ERROR, e.getCode());
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class DeadlineDispatcherTest {
+	
+	private DeadlineDispatcher dispatcher;
+	
+	@After
+	public void tearDown() {
+		if(dispatcher != null) {
+			dispatcher.shutdown();
+		}
+	}
+	
+	@Test
+	public void testEarliestDeadlineFirst() throws Exception {
+		dispatcher = new DeadlineDispatcher("test", 1, 16);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		dispatcher.dispatch(0L, new Runnable() {
+			@Override
+			public void run() {
+				blocked.countDown();
+				awaitQuietly(release);
+			}
+		}, new Counter());
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		final List<Long> order = Lists.newCopyOnWriteArrayList();
+		final CountDownLatch done = new CountDownLatch(3);
+		for(final long deadline : new long[] {300L, 100L, 200L}) {
+			dispatcher.dispatch(deadline, new Runnable() {
+				@Override
+				public void run() {
+					order.add(deadline);
+					done.countDown();
+				}
+			}, new Counter());
+		}
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Lists.newArrayList(100L, 200L, 300L), order);
+	}
+	
+	@Test
+	public void testShutdownRejectsQueued() throws Exception {
+		dispatcher = new DeadlineDispatcher("test", 1, 16);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final AtomicInteger finished = new AtomicInteger();
+		dispatcher.dispatch(0L, new Runnable() {
+			@Override
+			public void run() {
+				blocked.countDown();
+				try {
+					TimeUnit.MILLISECONDS.sleep(200L);
+				}catch (InterruptedException e) {
+					return;
+				}
+				finished.incrementAndGet();
+			}
+		}, new Counter());
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		Counter executed = new Counter();
+		Counter rejected = new Counter();
+		for(int i = 0; i < 3; i++) {
+			dispatcher.dispatch(i, executed, rejected);
+		}
+		dispatcher.shutdown();
+		// 执行中的任务不被中断，关闭返回前已完成
+		assertEquals(1, finished.get());
+		assertEquals(0, executed.count.get());
+		assertEquals(3, rejected.count.get());
+		assertEquals(0, dispatcher.size());
+		
+		dispatcher.dispatch(0L, executed, rejected);
+		assertEquals(4, rejected.count.get());
+		dispatcher = null;
+	}
+	
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static class Counter implements Runnable {
+		final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public void run() {
+			count.incrementAndGet();
+		}
+	}
+}
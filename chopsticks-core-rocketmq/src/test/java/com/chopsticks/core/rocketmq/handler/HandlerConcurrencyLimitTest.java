@@ -0,0 +1,135 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.chopsticks.core.handler.HandlerResult;
+import com.chopsticks.core.handler.InvokeContext;
+import com.chopsticks.core.handler.InvokeParams;
+import com.chopsticks.core.handler.NoticeContext;
+import com.chopsticks.core.handler.NoticeParams;
+import com.chopsticks.core.rocketmq.Const;
+import com.chopsticks.core.rocketmq.DefaultClient;
+import com.google.common.collect.Lists;
+
+/**
+ * 并发受限时 handler 没有执行，不占用重试次数，也不会在达到最大重试次数后丢弃
+ */
+public class HandlerConcurrencyLimitTest {
+	
+	private static final String GROUP = "limit_test";
+	
+	private static final String TOPIC = "limit_topic";
+	
+	private static final String TAG = "limit_tag";
+	
+	private final List<Message> sent = Lists.newCopyOnWriteArrayList();
+	
+	private final AtomicInteger noticed = new AtomicInteger();
+	
+	private DefaultClient client;
+	
+	private HandlerRouter router;
+	
+	private BaseHandler handler;
+	
+	@Before
+	public void setUp() {
+		final DefaultMQProducer producer = new DefaultMQProducer(GROUP) {
+			@Override
+			public SendResult send(Message msg) {
+				sent.add(msg);
+				SendResult ret = new SendResult();
+				ret.setSendStatus(SendStatus.SEND_OK);
+				return ret;
+			}
+		};
+		client = new DefaultClient(GROUP) {
+			@Override
+			public DefaultMQProducer getProducer() {
+				return producer;
+			}
+		};
+		handler = new BaseHandler(TOPIC, TAG) {
+			@Override
+			public String getMethod() {
+				return TAG;
+			}
+			@Override
+			public HandlerResult invoke(InvokeParams params, InvokeContext ctx) {
+				return null;
+			}
+			@Override
+			public void notice(NoticeParams params, NoticeContext ctx) {
+				noticed.incrementAndGet();
+			}
+		};
+		handler.setMaxConcurrency(1);
+		// 占满许可
+		assertTrue(handler.getConcurrencyLimiter().tryAcquire());
+		router = new HandlerRouter(GROUP);
+		router.register(TOPIC, TAG, handler);
+	}
+	
+	@Test
+	public void testOrderedNoticeSuspendWithoutRetry() {
+		DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(GROUP);
+		consumer.setMaxReconsumeTimes(3);
+		HandlerOrderedNoticeListener listener = new HandlerOrderedNoticeListener(client, consumer, router);
+		MessageExt ext = newMessage(TOPIC + Const.ORDERED_NOTICE_TOPIC_SUFFIX, 3);
+		ConsumeOrderlyStatus status = listener.consumeMessage(Collections.singletonList(ext), null);
+		assertEquals(ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT, status);
+		// rocketmq 暂停时加 1 后仍为 3，不会进入死信队列
+		assertEquals(2, ext.getReconsumeTimes());
+		assertEquals(0, noticed.get());
+		
+		handler.getConcurrencyLimiter().release();
+		ext.setReconsumeTimes(3);
+		assertEquals(ConsumeOrderlyStatus.SUCCESS, listener.consumeMessage(Collections.singletonList(ext), null));
+		assertEquals(1, noticed.get());
+	}
+	
+	@Test
+	public void testDelayNoticeSendBackWithoutRetry() {
+		DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(GROUP);
+		consumer.setMaxReconsumeTimes(3);
+		HandlerDelayNoticeListener listener = new HandlerDelayNoticeListener(client, consumer, router);
+		MessageExt ext = newMessage(TOPIC + Const.DELAY_NOTICE_TOPIC_SUFFIX, 3);
+		ConsumeConcurrentlyStatus status = listener.consumeMessage(Collections.singletonList(ext), null);
+		assertEquals(ConsumeConcurrentlyStatus.CONSUME_SUCCESS, status);
+		assertEquals(0, noticed.get());
+		assertEquals(1, sent.size());
+		Message retry = sent.get(0);
+		assertEquals(MixAll.getRetryTopic(GROUP), retry.getTopic());
+		assertEquals("3", MessageAccessor.getReconsumeTime(retry));
+		assertEquals(TOPIC + Const.DELAY_NOTICE_TOPIC_SUFFIX, retry.getProperty(MessageConst.PROPERTY_RETRY_TOPIC));
+	}
+	
+	private static MessageExt newMessage(String topic, int reconsumeTimes) {
+		MessageExt ext = new MessageExt();
+		ext.setTopic(topic);
+		ext.setTags(TAG);
+		ext.setBody(new byte[0]);
+		ext.setMsgId("msgId");
+		ext.setReconsumeTimes(reconsumeTimes);
+		return ext;
+	}
+}
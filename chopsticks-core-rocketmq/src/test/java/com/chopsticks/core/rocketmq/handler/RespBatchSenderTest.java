@@ -0,0 +1,166 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageBatch;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class RespBatchSenderTest {
+	
+	private static final String TOPIC = "resp_topic";
+	
+	private RespBatchSender sender;
+	
+	@After
+	public void tearDown() {
+		if(sender != null) {
+			sender.shutdown();
+		}
+	}
+	
+	@Test
+	public void testBatchSentAsync() throws Exception {
+		final List<Message> sent = Lists.newCopyOnWriteArrayList();
+		DefaultMQProducer producer = new DefaultMQProducer("resp_batch_test") {
+			@Override
+			public void send(Message msg, MessageQueue mq, SendCallback sendCallback) {
+				sent.add(msg);
+				SendResult ret = new SendResult();
+				ret.setSendStatus(SendStatus.SEND_OK);
+				sendCallback.onSuccess(ret);
+			}
+		};
+		sender = new RespBatchSender("test", producer, 10000L, 4);
+		MessageQueue queue = new MessageQueue(TOPIC, "broker", 0);
+		CountingCallback callback = new CountingCallback(4);
+		for(int i = 0; i < 4; i++) {
+			sender.send(new Message(TOPIC, new byte[] {(byte)i}), queue, "req" + i, callback);
+		}
+		assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+		assertEquals(4, callback.success.get());
+		assertEquals(1, sent.size());
+		assertTrue(sent.get(0) instanceof MessageBatch);
+	}
+	
+	@Test
+	public void testShutdownFlushesPending() throws Exception {
+		final List<Message> sent = Lists.newCopyOnWriteArrayList();
+		DefaultMQProducer producer = new DefaultMQProducer("resp_batch_test") {
+			@Override
+			public void send(Message msg, MessageQueue mq, SendCallback sendCallback) {
+				sent.add(msg);
+				SendResult ret = new SendResult();
+				ret.setSendStatus(SendStatus.SEND_OK);
+				sendCallback.onSuccess(ret);
+			}
+		};
+		sender = new RespBatchSender("test", producer, 10000L, 4);
+		MessageQueue queue = new MessageQueue(TOPIC, "broker", 0);
+		CountingCallback callback = new CountingCallback(2);
+		for(int i = 0; i < 2; i++) {
+			sender.send(new Message(TOPIC, new byte[] {(byte)i}), queue, "req" + i, callback);
+		}
+		// 未达到批量上限也未到等待时间，关闭返回前已发出
+		sender.shutdown();
+		sender = null;
+		assertEquals(1, sent.size());
+		assertEquals(2, callback.success.get());
+	}
+	
+	@Test
+	public void testFailureReachesEveryCallback() throws Exception {
+		DefaultMQProducer producer = new DefaultMQProducer("resp_batch_test") {
+			@Override
+			public void send(Message msg, MessageQueue mq, SendCallback sendCallback) {
+				sendCallback.onException(new IllegalStateException("broker down"));
+			}
+		};
+		sender = new RespBatchSender("test", producer, 10000L, 3);
+		MessageQueue queue = new MessageQueue(TOPIC, "broker", 0);
+		CountingCallback callback = new CountingCallback(3);
+		for(int i = 0; i < 3; i++) {
+			sender.send(new Message(TOPIC, new byte[] {(byte)i}), queue, "req" + i, callback);
+		}
+		assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+		assertEquals(3, callback.failure.get());
+	}
+	
+	@Test
+	public void testSlowBrokerDoesNotBlockOthers() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		DefaultMQProducer producer = new DefaultMQProducer("resp_batch_test") {
+			@Override
+			public void send(Message msg, final MessageQueue mq, final SendCallback sendCallback) {
+				// 模拟异步发送，慢 broker 的回调迟迟不返回
+				new Thread() {
+					@Override
+					public void run() {
+						if(mq.getBrokerName().equals("slow")) {
+							try {
+								release.await();
+							}catch (InterruptedException e) {
+								return;
+							}
+						}
+						SendResult ret = new SendResult();
+						ret.setSendStatus(SendStatus.SEND_OK);
+						sendCallback.onSuccess(ret);
+					}
+				}.start();
+			}
+		};
+		sender = new RespBatchSender("test", producer, 10000L, 2);
+		CountingCallback slow = new CountingCallback(2);
+		CountingCallback fast = new CountingCallback(2);
+		for(int i = 0; i < 2; i++) {
+			sender.send(new Message(TOPIC, new byte[] {(byte)i}), new MessageQueue(TOPIC, "slow", 0), "slow" + i, slow);
+		}
+		for(int i = 0; i < 2; i++) {
+			sender.send(new Message(TOPIC, new byte[] {(byte)i}), new MessageQueue(TOPIC, "fast", 0), "fast" + i, fast);
+		}
+		assertTrue(fast.done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, slow.done.getCount());
+		release.countDown();
+		assertTrue(slow.done.await(5, TimeUnit.SECONDS));
+	}
+	
+	private static class CountingCallback implements SendCallback {
+		
+		final CountDownLatch done;
+		
+		final AtomicInteger success = new AtomicInteger();
+		
+		final AtomicInteger failure = new AtomicInteger();
+		
+		CountingCallback(int count) {
+			done = new CountDownLatch(count);
+		}
+		
+		@Override
+		public void onSuccess(SendResult sendResult) {
+			success.incrementAndGet();
+			done.countDown();
+		}
+		
+		@Override
+		public void onException(Throwable e) {
+			failure.incrementAndGet();
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.chopsticks.core.rocketmq.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ServiceTimeEstimatorTest {
+	
+	@Test
+	public void testEwma() {
+		ServiceTimeEstimator estimator = new ServiceTimeEstimator(0.5D);
+		assertEquals(0L, estimator.getEstimateMillis());
+		estimator.update(100L);
+		assertEquals(100L, estimator.getEstimateMillis());
+		estimator.update(200L);
+		assertEquals(150L, estimator.getEstimateMillis());
+	}
+	
+	@Test
+	public void testNoShedWithoutSample() {
+		ServiceTimeEstimator estimator = new ServiceTimeEstimator();
+		assertFalse(estimator.shed(0L, 1000L));
+	}
+	
+	@Test
+	public void testProbeEveryInterval() {
+		ServiceTimeEstimator estimator = new ServiceTimeEstimator(0.5D, 1000L);
+		estimator.update(5000L);
+		assertFalse(estimator.shed(6000L, 0L));
+		// 第一个请求作为探测放行，之后同一间隔内全部丢弃
+		assertFalse(estimator.shed(100L, 10000L));
+		assertTrue(estimator.shed(100L, 10001L));
+		assertTrue(estimator.shed(100L, 10999L));
+		assertFalse(estimator.shed(100L, 11000L));
+		assertTrue(estimator.shed(100L, 11001L));
+	}
+	
+	@Test
+	public void testRecoversThroughProbes() {
+		ServiceTimeEstimator estimator = new ServiceTimeEstimator(0.5D, 1000L);
+		estimator.update(5000L);
+		int probes = 0;
+		for(long now = 0L; estimator.getEstimateMillis() > 100L; now += 1000L) {
+			assertFalse(estimator.shed(100L, now));
+			// 探测请求执行完成，handler 已恢复
+			estimator.update(10L);
+			probes++;
+		}
+		assertEquals(6, probes);
+		assertFalse(estimator.shed(100L, 100000L));
+		assertFalse(estimator.shed(100L, 100001L));
+	}
+}
@@ -0,0 +1,21 @@
+package com.chopsticks.core.handler;
+
+import java.util.List;
+
+/**
+ * 批量处理 notice，由 {@link Handler} 的实现类选择实现
+ * 实现后该 handler 的 notice 不再调用 {@link Handler#notice(NoticeParams, NoticeContext)}
+ */
+public interface BatchNoticeHandler {
+
+	/**
+	 * @return 单次最多处理的消息数
+	 */
+	public int getNoticeBatchSize();
+
+	/**
+	 * @param params 与 ctxs 一一对应
+	 * @return 每条消息是否处理成功，false 的消息稍后重试，返回 null 视为全部成功，长度与 params 不一致或抛出异常时全部重试
+	 */
+	public boolean[] notice(List<NoticeParams> params, List<NoticeContext> ctxs);
+}